@@ -0,0 +1,19 @@
+package com.mayhew3.mediamogul.benchmark;
+
+import com.mayhew3.mediamogul.DatabaseTest;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.MissingEnvException;
+
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+
+/**
+ * Recreates the local 'test' database the same way the functional tests do, schema supplements and views included.
+ */
+class FixtureDatabase extends DatabaseTest {
+
+  SQLConnection recreate() throws URISyntaxException, SQLException, MissingEnvException {
+    setUp();
+    return connection;
+  }
+}
@@ -0,0 +1,49 @@
+package com.mayhew3.mediamogul.benchmark;
+
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.MissingEnvException;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+
+/**
+ * The fixture database shared by all the benchmarks. Each trial recreates the schema and regenerates the same seeded
+ * data, so one benchmark's writes never leak into another's numbers. Sizes can be overridden from the command line,
+ * e.g. -p seriesCount=500.
+ */
+@State(Scope.Benchmark)
+public class FixtureState {
+
+  private static final long SEED = 20261017L;
+
+  @Param({"100"})
+  public int seriesCount;
+
+  @Param({"4"})
+  public int seasonsPerSeries;
+
+  @Param({"10"})
+  public int episodesPerSeason;
+
+  @Param({"50"})
+  public int gameCount;
+
+  @Param({"40"})
+  public int logsPerGame;
+
+  public SQLConnection connection;
+  public SyntheticDataGenerator generator;
+
+  @Setup(Level.Trial)
+  public void createFixture() throws URISyntaxException, SQLException, MissingEnvException {
+    connection = new FixtureDatabase().recreate();
+    generator = new SyntheticDataGenerator(connection, SEED);
+    generator.generate(seriesCount, seasonsPerSeries, episodesPerSeason, gameCount, logsPerGame);
+  }
+
+  @TearDown(Level.Trial)
+  public void closeConnection() throws SQLException {
+    connection.closeConnection();
+  }
+}
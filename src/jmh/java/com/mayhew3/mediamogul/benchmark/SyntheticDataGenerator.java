@@ -0,0 +1,277 @@
+package com.mayhew3.mediamogul.benchmark;
+
+import com.mayhew3.mediamogul.model.Person;
+import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.model.games.GameLog;
+import com.mayhew3.mediamogul.model.tv.*;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fills an empty schema with a seeded, repeatable library: series with TVDB and TiVo episodes, ratings for one person,
+ * and Steam games with unprocessed play logs. Proportions (watched, streaming, recorded, deleted, suggestions) are rough
+ * approximations of the production data, so the denorm and grouping queries see a realistic mix of rows.
+ */
+public class SyntheticDataGenerator {
+
+  private final SQLConnection connection;
+  private final Random random;
+  private final DateTime now = DateTime.now();
+
+  private Person person;
+  private final List<MatchCandidate> matchCandidates = new ArrayList<>();
+
+  private static final String[] WORDS = {"Pilot", "Return", "Night", "Brave", "Gun", "Show", "World", "Woman",
+      "Secret", "Long", "Road", "Home", "Last", "First", "Dinner", "Party", "Winter", "Fire", "Glass", "Signal"};
+
+  private static final Logger logger = LogManager.getLogger(SyntheticDataGenerator.class);
+
+  public SyntheticDataGenerator(SQLConnection connection, long seed) {
+    this.connection = connection;
+    this.random = new Random(seed);
+  }
+
+  public void generate(int seriesCount, int seasonsPerSeries, int episodesPerSeason, int gameCount, int logsPerGame) throws SQLException {
+    logger.info("Generating " + seriesCount + " series and " + gameCount + " games...");
+
+    person = addPerson();
+    addSystemVars();
+
+    for (int seriesNumber = 1; seriesNumber <= seriesCount; seriesNumber++) {
+      addSeriesWithEpisodes(seriesNumber, seasonsPerSeries, episodesPerSeason);
+    }
+    for (int gameNumber = 1; gameNumber <= gameCount; gameNumber++) {
+      addGameWithLogs(gameNumber, logsPerGame);
+    }
+
+    logger.info("Fixture generated.");
+  }
+
+  public Integer getPersonId() {
+    return person.id.getValue();
+  }
+
+  /**
+   * One TiVo recording per series that has not yet been linked to an episode, titled after one of its TVDB episodes.
+   */
+  public List<MatchCandidate> getMatchCandidates() {
+    return matchCandidates;
+  }
+
+  public Series addSeries(String seriesName, Integer tvdbId) throws SQLException {
+    TVDBSeries tvdbSeries = new TVDBSeries();
+    tvdbSeries.initializeForInsert();
+    tvdbSeries.tvdbSeriesExtId.changeValue(tvdbId);
+    tvdbSeries.name.changeValue(seriesName);
+    tvdbSeries.commit(connection);
+
+    Series series = new Series();
+    series.initializeForInsert();
+    series.seriesTitle.changeValue(seriesName);
+    series.tvdbSeriesExtId.changeValue(tvdbId);
+    series.tvdbSeriesId.changeValue(tvdbSeries.id.getValue());
+    series.tivoSeriesV2ExtId.changeValue("SYN" + tvdbId);
+    series.matchedWrong.changeValue(false);
+    series.needsTVDBRedo.changeValue(false);
+    series.commit(connection);
+
+    return series;
+  }
+
+  private Person addPerson() throws SQLException {
+    Person person = new Person();
+    person.initializeForInsert();
+    person.email.changeValue("benchmark@test.test");
+    person.firstName.changeValue("Bench");
+    person.lastName.changeValue("Mark");
+    person.userRole.changeValue("admin");
+    person.commit(connection);
+    return person;
+  }
+
+  private void addSystemVars() throws SQLException {
+    SystemVars systemVars = new SystemVars();
+    systemVars.initializeForInsert();
+    systemVars.ratingYear.changeValue(now.getYear());
+    systemVars.ratingEndDate.changeValue(now.plusYears(1).withDayOfYear(1).toDate());
+    systemVars.commit(connection);
+  }
+
+  private void addSeriesWithEpisodes(int seriesNumber, int seasonsPerSeries, int episodesPerSeason) throws SQLException {
+    Series series = addSeries("Synthetic Series " + seriesNumber, 900000 + seriesNumber);
+
+    PersonSeries personSeries = new PersonSeries();
+    personSeries.initializeForInsert();
+    personSeries.seriesId.changeValue(series.id.getValue());
+    personSeries.personId.changeValue(person.id.getValue());
+    personSeries.commit(connection);
+
+    // seasons run back to back, one episode a week, with the newest season partly in the future.
+    int totalEpisodes = seasonsPerSeries * episodesPerSeason;
+    DateTime firstAirTime = now.minusWeeks(totalEpisodes - random.nextInt(episodesPerSeason / 2 + 1)).withTime(21, 0, 0, 0);
+    boolean streamingSeries = random.nextInt(10) < 3;
+
+    List<Episode> episodes = new ArrayList<>();
+    for (int seasonNumber = 1; seasonNumber <= seasonsPerSeries; seasonNumber++) {
+      for (int episodeNumber = 1; episodeNumber <= episodesPerSeason; episodeNumber++) {
+        DateTime airTime = firstAirTime.plusWeeks(episodes.size());
+        episodes.add(addEpisode(series, seasonNumber, episodeNumber, airTime, streamingSeries));
+      }
+    }
+
+    // a rerun of an existing episode, captured a week after it first aired.
+    Episode rerun = episodes.get(random.nextInt(episodes.size()));
+    DateTime originalAirTime = new DateTime(rerun.airTime.getValue());
+    TiVoEpisode recording = addTiVoEpisode(series, rerun.title.getValue(), rerun.episodeNumber.getValue(),
+        originalAirTime, originalAirTime.plusWeeks(1));
+    matchCandidates.add(new MatchCandidate(recording, series.id.getValue()));
+  }
+
+  private Episode addEpisode(Series series, int seasonNumber, int episodeNumber, DateTime airTime, boolean streamingSeries) throws SQLException {
+    String title = randomTitle();
+
+    TVDBEpisode tvdbEpisode = new TVDBEpisode();
+    tvdbEpisode.initializeForInsert();
+    tvdbEpisode.tvdbSeriesId.changeValue(series.tvdbSeriesId.getValue());
+    tvdbEpisode.seriesName.changeValue(series.seriesTitle.getValue());
+    tvdbEpisode.seasonNumber.changeValue(seasonNumber);
+    tvdbEpisode.episodeNumber.changeValue(episodeNumber);
+    tvdbEpisode.name.changeValue(title);
+    tvdbEpisode.firstAired.changeValue(airTime.toDate());
+    tvdbEpisode.commit(connection);
+
+    boolean aired = airTime.isBefore(now);
+    boolean watched = aired && random.nextInt(10) < 6;
+
+    Episode episode = new Episode();
+    episode.initializeForInsert();
+    episode.seriesId.changeValue(series.id.getValue());
+    episode.tvdbEpisodeId.changeValue(tvdbEpisode.id.getValue());
+    episode.seriesTitle.changeValue(series.seriesTitle.getValue());
+    episode.setSeason(seasonNumber, connection);
+    episode.episodeNumber.changeValue(episodeNumber);
+    episode.title.changeValue(title);
+    episode.airDate.changeValue(airTime.withTimeAtStartOfDay().toDate());
+    episode.airTime.changeValue(airTime.toDate());
+    episode.streaming.changeValue(streamingSeries);
+    episode.watched.changeValue(watched);
+    episode.tvdbApproval.changeValue("approved");
+    episode.commit(connection);
+
+    if (!streamingSeries && aired && random.nextInt(10) < 7) {
+      TiVoEpisode tiVoEpisode = addTiVoEpisode(series, title, episodeNumber, airTime, airTime);
+      episode.addToTiVoEpisodes(connection, tiVoEpisode);
+    }
+
+    if (watched) {
+      addRating(episode, airTime.plusDays(random.nextInt(30)));
+    }
+
+    return episode;
+  }
+
+  private TiVoEpisode addTiVoEpisode(Series series, String title, Integer episodeNumber, DateTime showingStartTime, DateTime captureDate) throws SQLException {
+    TiVoEpisode tiVoEpisode = new TiVoEpisode();
+    tiVoEpisode.initializeForInsert();
+    tiVoEpisode.title.changeValue(title);
+    tiVoEpisode.episodeNumber.changeValue(episodeNumber);
+    tiVoEpisode.showingStartTime.changeValue(showingStartTime.toDate());
+    tiVoEpisode.captureDate.changeValue(captureDate.toDate());
+    tiVoEpisode.seriesTitle.changeValue(series.seriesTitle.getValue());
+    tiVoEpisode.tivoSeriesV2ExtId.changeValue(series.tivoSeriesV2ExtId.getValue());
+    tiVoEpisode.programV2Id.changeValue("SYN" + series.id.getValue() + "-" + random.nextInt(Integer.MAX_VALUE));
+    tiVoEpisode.suggestion.changeValue(random.nextInt(10) == 0);
+    tiVoEpisode.recordingNow.changeValue(false);
+    if (random.nextInt(10) < 2) {
+      tiVoEpisode.deletedDate.changeValue(showingStartTime.plusDays(random.nextInt(60) + 1).toDate());
+    }
+    tiVoEpisode.commit(connection);
+    return tiVoEpisode;
+  }
+
+  private void addRating(Episode episode, DateTime watchedDate) throws SQLException {
+    EpisodeRating episodeRating = new EpisodeRating();
+    episodeRating.initializeForInsert();
+    episodeRating.episodeId.changeValue(episode.id.getValue());
+    episodeRating.personId.changeValue(person.id.getValue());
+    episodeRating.watched.changeValue(true);
+    episodeRating.watchedDate.changeValue(watchedDate.toDate());
+    if (random.nextInt(10) < 7) {
+      episodeRating.ratingValue.changeValue(50.0 + random.nextInt(50));
+    }
+    episodeRating.commit(connection);
+  }
+
+  private void addGameWithLogs(int gameNumber, int logsPerGame) throws SQLException {
+    Game game = new Game();
+    game.initializeForInsert();
+    game.title.changeValue("Synthetic Game " + gameNumber);
+    game.platform.changeValue("Steam");
+    game.steamID.changeValue(700000 + gameNumber);
+    game.commit(connection);
+
+    // Steam logs arrive every half hour or so while a game is being played, with days between sittings.
+    DateTime eventDate = now.minusDays(logsPerGame + 30);
+    BigDecimal playtime = BigDecimal.valueOf(random.nextInt(600));
+    for (int i = 0; i < logsPerGame; i++) {
+      int diff = 10 + random.nextInt(50);
+      eventDate = random.nextInt(4) == 0 ?
+          eventDate.plusDays(1 + random.nextInt(3)) :
+          eventDate.plusMinutes(diff + random.nextInt(10));
+
+      BigDecimal updatedPlaytime = playtime.add(BigDecimal.valueOf(diff));
+
+      GameLog gameLog = new GameLog();
+      gameLog.initializeForInsert();
+      gameLog.gameID.changeValue(game.id.getValue());
+      gameLog.game.changeValue(game.title.getValue());
+      gameLog.platform.changeValue("Steam");
+      gameLog.steamID.changeValue(game.steamID.getValue());
+      gameLog.eventtype.changeValue("Played");
+      gameLog.eventdate.changeValue(new Timestamp(eventDate.toDate().getTime()));
+      gameLog.previousPlaytime.changeValue(playtime);
+      gameLog.updatedplaytime.changeValue(updatedPlaytime);
+      gameLog.diff.changeValue(BigDecimal.valueOf(diff));
+      gameLog.person_id.changeValue(person.id.getValue());
+      gameLog.commit(connection);
+
+      playtime = updatedPlaytime;
+    }
+  }
+
+  private String randomTitle() {
+    int wordCount = 2 + random.nextInt(3);
+    StringBuilder title = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+    for (int i = 1; i < wordCount; i++) {
+      title.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return title.toString();
+  }
+
+  public static class MatchCandidate {
+    private final TiVoEpisode tiVoEpisode;
+    private final Integer seriesId;
+
+    MatchCandidate(TiVoEpisode tiVoEpisode, Integer seriesId) {
+      this.tiVoEpisode = tiVoEpisode;
+      this.seriesId = seriesId;
+    }
+
+    public TiVoEpisode getTiVoEpisode() {
+      return tiVoEpisode;
+    }
+
+    public Integer getSeriesId() {
+      return seriesId;
+    }
+  }
+}
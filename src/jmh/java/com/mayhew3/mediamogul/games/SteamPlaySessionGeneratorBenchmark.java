@@ -0,0 +1,31 @@
+package com.mayhew3.mediamogul.games;
+
+import com.mayhew3.mediamogul.benchmark.FixtureState;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups every fixture play log into sessions. The generator consumes its input, so the sessions are cleared before
+ * each invocation; the reset is excluded from the timings.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SteamPlaySessionGeneratorBenchmark {
+
+  @Setup(Level.Invocation)
+  public void clearSessions(FixtureState fixture) throws SQLException {
+    fixture.connection.prepareAndExecuteStatementUpdate("UPDATE game_log SET gameplay_session_id = NULL");
+    fixture.connection.prepareAndExecuteStatementUpdate("DELETE FROM gameplay_session");
+  }
+
+  @Benchmark
+  public void runUpdate(FixtureState fixture) throws SQLException {
+    new SteamPlaySessionGenerator(fixture.connection, fixture.generator.getPersonId()).runUpdate();
+  }
+}
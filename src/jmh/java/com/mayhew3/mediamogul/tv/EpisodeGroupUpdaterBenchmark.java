@@ -0,0 +1,23 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.benchmark.FixtureState;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the current rating year's episode group ratings for every series the fixture person watched this year.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EpisodeGroupUpdaterBenchmark {
+
+  @Benchmark
+  public void runUpdate(FixtureState fixture) throws SQLException {
+    new EpisodeGroupUpdater(fixture.connection, null).runUpdate();
+  }
+}
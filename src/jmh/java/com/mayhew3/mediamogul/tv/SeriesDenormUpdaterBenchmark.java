@@ -0,0 +1,23 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.benchmark.FixtureState;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recomputes every series and person_series denorm over the whole fixture library, as the half-hourly task does.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SeriesDenormUpdaterBenchmark {
+
+  @Benchmark
+  public void runUpdate(FixtureState fixture) throws SQLException {
+    new SeriesDenormUpdater(fixture.connection).runUpdate();
+  }
+}
@@ -0,0 +1,70 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.benchmark.FixtureState;
+import com.mayhew3.mediamogul.benchmark.SyntheticDataGenerator.MatchCandidate;
+import com.mayhew3.mediamogul.model.tv.TVDBEpisode;
+import com.mayhew3.mediamogul.model.tv.TiVoEpisode;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches TiVo reruns to their series' TVDB episodes, cycling through one recording per fixture series. Matching links
+ * the recording, so before each invocation the next candidate is put back to unmatched: its edges and possible matches
+ * are removed, on_tivo is recomputed for the episode it was linked to, and its match fields are cleared. The reset is
+ * excluded from the timings.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TVDBEpisodeMatcherBenchmark {
+
+  private List<MatchCandidate> candidates;
+  private int nextCandidate;
+  private MatchCandidate candidate;
+
+  @Setup(Level.Trial)
+  public void collectCandidates(FixtureState fixture) {
+    candidates = fixture.generator.getMatchCandidates();
+    nextCandidate = 0;
+  }
+
+  @Setup(Level.Invocation)
+  public void resetNextCandidate(FixtureState fixture) throws SQLException {
+    candidate = candidates.get(nextCandidate);
+    nextCandidate = (nextCandidate + 1) % candidates.size();
+
+    TiVoEpisode tiVoEpisode = candidate.getTiVoEpisode();
+    Integer tivoEpisodeId = tiVoEpisode.id.getValue();
+
+    fixture.connection.prepareAndExecuteStatementUpdate(
+        "UPDATE episode e " +
+            "SET on_tivo = EXISTS (SELECT 1 " +
+            "                      FROM edge_tivo_episode other " +
+            "                      WHERE other.episode_id = e.id " +
+            "                      AND other.tivo_episode_id <> ?) " +
+            "WHERE e.id IN (SELECT episode_id FROM edge_tivo_episode WHERE tivo_episode_id = ?)",
+        tivoEpisodeId, tivoEpisodeId);
+    fixture.connection.prepareAndExecuteStatementUpdate("DELETE FROM edge_tivo_episode WHERE tivo_episode_id = ?", tivoEpisodeId);
+    fixture.connection.prepareAndExecuteStatementUpdate("DELETE FROM possible_episode_match WHERE tivo_episode_id = ?", tivoEpisodeId);
+
+    // through the data object rather than SQL, so the matcher sees the same unmatched state it did on the first pass.
+    tiVoEpisode.tvdbMatchStatus.changeValue(null);
+    tiVoEpisode.tvdbMatchId.changeValue(null);
+    if (tiVoEpisode.hasChanged()) {
+      tiVoEpisode.commit(fixture.connection);
+    }
+  }
+
+  @Benchmark
+  public Optional<TVDBEpisode> matchAndLinkEpisode(FixtureState fixture) throws SQLException {
+    TVDBEpisodeMatcher matcher = new TVDBEpisodeMatcher(fixture.connection, candidate.getTiVoEpisode(), candidate.getSeriesId());
+    return matcher.matchAndLinkEpisode();
+  }
+}
@@ -0,0 +1,43 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.benchmark.FixtureState;
+import com.mayhew3.mediamogul.model.tv.Series;
+import com.mayhew3.mediamogul.socket.MySocketFactory;
+import com.mayhew3.mediamogul.socket.SocketWrapper;
+import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
+import com.mayhew3.mediamogul.tv.provider.TVDBLocalJSONProvider;
+import com.mayhew3.mediamogul.xml.JSONReaderImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes one series from the local TVDB fixtures. The first invocation adds its episodes, so everything measured
+ * after warmup is the no-change refresh that makes up nearly all of a nightly update run.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TVDBSeriesUpdaterBenchmark {
+
+  private Series series;
+  private TVDBJWTProvider tvdbProvider;
+  private SocketWrapper socket;
+
+  @Setup(Level.Trial)
+  public void addSeries(FixtureState fixture) throws SQLException {
+    series = fixture.generator.addSeries("Inside Amy Schumer", 265374);
+    tvdbProvider = new TVDBLocalJSONProvider("src/test/resources/TVDBTest/");
+    socket = new MySocketFactory().createSocket("mock", "benchmark");
+  }
+
+  @Benchmark
+  public void updateSeries(FixtureState fixture) throws Exception {
+    TVDBSeriesUpdater updater = new TVDBSeriesUpdater(fixture.connection, series, tvdbProvider, new JSONReaderImpl(), socket);
+    updater.updateSeries();
+  }
+}
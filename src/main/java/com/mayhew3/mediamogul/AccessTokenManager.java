@@ -0,0 +1,231 @@
+package com.mayhew3.mediamogul;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the bearer token for one external service valid, so callers stop finding out it expired from a failed request.
+ * The token is refreshed in the background a while before it expires. A refresh is single-flight: however many threads
+ * need a new token at once, only one login request goes out and the rest wait for its result.
+ *
+ * With a service handler, the current token is also saved on external_service, so a restart reuses it instead of logging
+ * in again.
+ */
+public class AccessTokenManager {
+
+  @FunctionalInterface
+  public interface TokenFetcher {
+    AccessToken fetchToken() throws UnirestException;
+  }
+
+  public static class AccessToken {
+    private final String value;
+    private final Instant expiresAt;
+
+    public AccessToken(String value, Instant expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    public String getValue() {
+      return value;
+    }
+
+    public Instant getExpiresAt() {
+      return expiresAt;
+    }
+  }
+
+  // don't hand out a token this close to expiring, since the request it goes on might not land in time.
+  private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+  private static final Duration FAILED_REFRESH_RETRY = Duration.ofMinutes(1);
+
+  private static final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder()
+          .setNameFormat("access-token-refresh")
+          .setDaemon(true)
+          .build());
+
+  private final String serviceName;
+  private final TokenFetcher tokenFetcher;
+  @Nullable
+  private final ExternalServiceHandler externalServiceHandler;
+  private final Duration refreshAhead;
+  private final Clock clock;
+
+  private final Object refreshLock = new Object();
+
+  @Nullable
+  private volatile AccessToken currentToken;
+  @Nullable
+  private CompletableFuture<AccessToken> refreshInFlight;
+  @Nullable
+  private ScheduledFuture<?> scheduledRefresh;
+
+  private static final Logger logger = LogManager.getLogger(AccessTokenManager.class);
+
+  public AccessTokenManager(String serviceName,
+                            TokenFetcher tokenFetcher,
+                            @Nullable ExternalServiceHandler externalServiceHandler,
+                            Duration refreshAhead) {
+    this(serviceName, tokenFetcher, externalServiceHandler, refreshAhead, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  AccessTokenManager(String serviceName,
+                     TokenFetcher tokenFetcher,
+                     @Nullable ExternalServiceHandler externalServiceHandler,
+                     Duration refreshAhead,
+                     Clock clock) {
+    this.serviceName = serviceName;
+    this.tokenFetcher = tokenFetcher;
+    this.externalServiceHandler = externalServiceHandler;
+    this.refreshAhead = refreshAhead;
+    this.clock = clock;
+  }
+
+  /**
+   * Pick up the saved token if it's still good, or log in now if not, and schedule the first background refresh.
+   */
+  public void start() throws UnirestException {
+    if (externalServiceHandler != null) {
+      AccessToken storedToken = externalServiceHandler.getStoredAccessToken().orElse(null);
+      if (storedToken != null && isUsable(storedToken)) {
+        logger.debug("Reusing saved " + serviceName + " token, which expires " + storedToken.getExpiresAt());
+        currentToken = storedToken;
+        scheduleRefresh(storedToken);
+        return;
+      }
+    }
+    refresh(null);
+  }
+
+  public String getToken() throws UnirestException {
+    AccessToken token = currentToken;
+    if (token != null && isUsable(token)) {
+      return token.getValue();
+    }
+    return refresh(token).getValue();
+  }
+
+  /**
+   * The service turned this token down before it was due to expire. Returns a newer one, sharing any refresh already
+   * under way, and only logs in again if nobody has replaced the rejected token yet.
+   */
+  public String refreshAfterRejection(String rejectedToken) throws UnirestException {
+    AccessToken token = currentToken;
+    if (token != null && !token.getValue().equals(rejectedToken) && isUsable(token)) {
+      return token.getValue();
+    }
+    return refresh(token).getValue();
+  }
+
+  private AccessToken refresh(@Nullable AccessToken staleToken) throws UnirestException {
+    CompletableFuture<AccessToken> refreshFuture;
+    boolean leader = false;
+    synchronized (refreshLock) {
+      AccessToken token = currentToken;
+      // someone else finished a refresh between our check and getting the lock.
+      if (token != null && token != staleToken && isUsable(token)) {
+        return token;
+      }
+      if (refreshInFlight == null) {
+        refreshInFlight = new CompletableFuture<>();
+        leader = true;
+      }
+      refreshFuture = refreshInFlight;
+    }
+
+    if (leader) {
+      fetchInto(refreshFuture);
+    }
+    return await(refreshFuture);
+  }
+
+  private void fetchInto(CompletableFuture<AccessToken> refreshFuture) {
+    try {
+      logger.info("Fetching new " + serviceName + " token...");
+      AccessToken token = tokenFetcher.fetchToken();
+      currentToken = token;
+      saveToken(token);
+      scheduleRefresh(token);
+      refreshFuture.complete(token);
+    } catch (UnirestException | RuntimeException e) {
+      refreshFuture.completeExceptionally(e);
+    } finally {
+      synchronized (refreshLock) {
+        refreshInFlight = null;
+      }
+    }
+  }
+
+  private AccessToken await(CompletableFuture<AccessToken> refreshFuture) throws UnirestException {
+    try {
+      return refreshFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UnirestException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UnirestException) {
+        throw (UnirestException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw new UnirestException(cause);
+      }
+    }
+  }
+
+  private void scheduleRefresh(AccessToken token) {
+    Duration untilExpiry = Duration.between(clock.instant(), token.getExpiresAt());
+    // a token that lives less than twice refreshAhead is refreshed halfway, not straight away, so it can't loop.
+    Duration delay = untilExpiry.minus(refreshAhead);
+    Duration halfway = untilExpiry.dividedBy(2);
+    scheduleRefreshIn(delay.compareTo(halfway) < 0 ? halfway : delay);
+  }
+
+  private void scheduleRefreshIn(Duration delay) {
+    synchronized (refreshLock) {
+      if (scheduledRefresh != null) {
+        scheduledRefresh.cancel(false);
+      }
+      long delayMillis = Math.max(0, delay.toMillis());
+      scheduledRefresh = refreshScheduler.schedule(this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void refreshInBackground() {
+    try {
+      refresh(currentToken);
+    } catch (UnirestException | RuntimeException e) {
+      // callers keep the current token until it actually expires, then try for themselves.
+      logger.warn("Background refresh of " + serviceName + " token failed. Retrying in " + FAILED_REFRESH_RETRY.toMinutes() + " minute(s).", e);
+      scheduleRefreshIn(FAILED_REFRESH_RETRY);
+    }
+  }
+
+  private void saveToken(AccessToken token) {
+    if (externalServiceHandler != null) {
+      try {
+        externalServiceHandler.storeAccessToken(token);
+      } catch (RuntimeException e) {
+        // the token is still good for this process; the next restart just logs in again.
+        logger.warn("Unable to save " + serviceName + " token.", e);
+      }
+    }
+  }
+
+  private boolean isUsable(AccessToken token) {
+    return clock.instant().plus(EXPIRY_MARGIN).isBefore(token.getExpiresAt());
+  }
+}
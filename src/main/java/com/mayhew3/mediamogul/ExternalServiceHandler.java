@@ -1,35 +1,60 @@
 package com.mayhew3.mediamogul;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.mayhew3.mediamogul.db.SQLConnectionPool;
 import com.mayhew3.mediamogul.model.ExternalService;
 import com.mayhew3.postgresobject.db.SQLConnection;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.Objects;
+import java.util.Optional;
 
 public class ExternalServiceHandler {
+  @Nullable
   private SQLConnection connection;
+  @Nullable
+  private SQLConnectionPool connectionPool;
   private ExternalService externalService;
 
   public ExternalServiceHandler(SQLConnection connection, ExternalServiceType serviceType) {
     this.connection = connection;
+    this.externalService = loadExternalService(connection, serviceType);
+  }
+
+  /**
+   * For handlers shared by the scheduler's worker threads. Each write borrows a pooled connection, so token saves and
+   * connect bookkeeping don't queue behind, or commit in the middle of, whatever else is using one shared connection.
+   */
+  public ExternalServiceHandler(SQLConnectionPool connectionPool, ExternalServiceType serviceType) throws SQLException {
+    this.connectionPool = connectionPool;
+    SQLConnection loadConnection = connectionPool.borrow();
+    try {
+      this.externalService = loadExternalService(loadConnection, serviceType);
+    } finally {
+      connectionPool.release(loadConnection);
+    }
+  }
+
+  private static ExternalService loadExternalService(SQLConnection connection, ExternalServiceType serviceType) {
     String typekey = serviceType.getTypekey();
 
     try {
-      this.externalService = ExternalService.getOrCreateExternalService(connection, typekey);
+      return ExternalService.getOrCreateExternalService(connection, typekey);
     } catch (SQLException e) {
       e.printStackTrace();
       throw new RuntimeException("Unable to get external service '" + typekey + "'");
     }
   }
 
-  public void connectionFailed() {
+  public synchronized void connectionFailed() {
     Date rightNow = new Date();
     if (shouldUpdateFailureTime(rightNow)) {
       externalService.last_failure.changeValue(rightNow);
       try {
-        externalService.commit(connection);
+        commitExternalService();
       } catch (SQLException e) {
         e.printStackTrace();
         throw new RuntimeException("Unable to get update external service ID " + externalService.id.getValue());
@@ -37,12 +62,12 @@ public class ExternalServiceHandler {
     }
   }
 
-  public void connectionSuccess() {
+  public synchronized void connectionSuccess() {
     Date rightNow = new Date();
     if (shouldUpdateSuccessTime(rightNow)) {
       externalService.last_connect.changeValue(rightNow);
       try {
-        externalService.commit(connection);
+        commitExternalService();
       } catch (SQLException e) {
         e.printStackTrace();
         throw new RuntimeException("Unable to get update external service ID " + externalService.id.getValue());
@@ -50,6 +75,39 @@ public class ExternalServiceHandler {
     }
   }
 
+  public synchronized Optional<AccessTokenManager.AccessToken> getStoredAccessToken() {
+    String token = externalService.access_token.getValue();
+    Timestamp expires = externalService.access_token_expires.getValue();
+    if (token == null || expires == null) {
+      return Optional.empty();
+    }
+    return Optional.of(new AccessTokenManager.AccessToken(token, expires.toInstant()));
+  }
+
+  public synchronized void storeAccessToken(AccessTokenManager.AccessToken accessToken) {
+    externalService.access_token.changeValue(accessToken.getValue());
+    externalService.access_token_expires.changeValue(Date.from(accessToken.getExpiresAt()));
+    try {
+      commitExternalService();
+    } catch (SQLException e) {
+      e.printStackTrace();
+      throw new RuntimeException("Unable to save access token for external service ID " + externalService.id.getValue());
+    }
+  }
+
+  private void commitExternalService() throws SQLException {
+    if (connectionPool == null) {
+      externalService.commit(Objects.requireNonNull(connection));
+      return;
+    }
+    SQLConnection pooledConnection = connectionPool.borrow();
+    try {
+      externalService.commit(pooledConnection);
+    } finally {
+      connectionPool.release(pooledConnection);
+    }
+  }
+
   private boolean shouldUpdateSuccessTime(Date rightNow) {
     Timestamp lastConnect = externalService.last_connect.getValue();
     Timestamp lastFailure = externalService.last_failure.getValue();
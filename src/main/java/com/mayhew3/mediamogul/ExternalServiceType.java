@@ -6,7 +6,8 @@ import java.util.Optional;
 
 public enum ExternalServiceType {
   TVDB("tvdb"),
-  HowLongToBeat("HowLongToBeat");
+  HowLongToBeat("HowLongToBeat"),
+  IGDB("igdb");
 
   private final String typekey;
 
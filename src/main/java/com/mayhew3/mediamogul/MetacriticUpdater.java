@@ -2,6 +2,7 @@ package com.mayhew3.mediamogul;
 
 import com.mayhew3.mediamogul.games.exception.MetacriticElementNotFoundException;
 import com.mayhew3.mediamogul.games.exception.MetacriticPageNotFoundException;
+import com.mayhew3.mediamogul.metrics.Metrics;
 import com.mayhew3.postgresobject.db.SQLConnection;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
@@ -42,12 +43,16 @@ public abstract class MetacriticUpdater {
   }
 
   protected Document getDocument(String prefix, String title) throws MetacriticPageNotFoundException {
+    long startNanos = System.nanoTime();
     try {
-      return Jsoup.connect("http://www.metacritic.com/" + prefix)
+      Document document = Jsoup.connect("http://www.metacritic.com/" + prefix)
           .timeout(10000)
           .userAgent("Mozilla")
           .get();
+      Metrics.recordExternalRequest("metacritic", startNanos, true);
+      return document;
     } catch (IOException e) {
+      Metrics.recordExternalRequest("metacritic", startNanos, false);
       throw new MetacriticPageNotFoundException("Couldn't find Metacritic page for " + prefix + " '" + title + "' with formatted '" + prefix + "'");
     }
   }
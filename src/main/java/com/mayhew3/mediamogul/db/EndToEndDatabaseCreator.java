@@ -37,6 +37,7 @@ public class EndToEndDatabaseCreator {
   private void runUpdate() throws SQLException {
     logger.debug("Starting database recreate...");
     new DatabaseRecreator(connection).recreateDatabase(MediaMogulSchema.schema);
+    SchemaSupplements.ensureAll(connection);
     logger.debug("Creating system data...");
     addSystemVars();
     logger.debug("Creating person data...");
@@ -0,0 +1,44 @@
+package com.mayhew3.mediamogul.db;
+
+import com.google.common.base.Preconditions;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.postgresql.PGConnection;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The JDBC connection behind an SQLConnection, for the few writers that need JDBC transaction control (autocommit,
+ * savepoints). SQLConnection has no accessor for it, so it is looked up once, from the statement behind a result set,
+ * and remembered until that JDBC connection is closed. If the SQLConnection has reconnected since, the next lookup finds
+ * the new one.
+ */
+public class JdbcConnections {
+
+  private static final Map<SQLConnection, Connection> jdbcConnections = Collections.synchronizedMap(new WeakHashMap<>());
+
+  public static Connection get(SQLConnection connection) throws SQLException {
+    Connection jdbcConnection = jdbcConnections.get(connection);
+    if (jdbcConnection == null || jdbcConnection.isClosed()) {
+      jdbcConnection = lookUp(connection);
+      jdbcConnections.put(connection, jdbcConnection);
+    }
+    return jdbcConnection;
+  }
+
+  private static Connection lookUp(SQLConnection connection) throws SQLException {
+    try (ResultSet resultSet = connection.prepareAndExecuteStatementFetch("SELECT 1");
+         Statement statement = resultSet.getStatement()) {
+      Connection jdbcConnection = statement.getConnection();
+      // everything else here assumes statements run on the one Postgres connection, so fail loudly if that changes.
+      Preconditions.checkState(jdbcConnection.isWrapperFor(PGConnection.class),
+          "SQLConnection is not backed by a Postgres JDBC connection.");
+      return jdbcConnection;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package com.mayhew3.mediamogul.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mayhew3.postgresobject.db.DatabaseEnvironment;
+import com.mayhew3.postgresobject.db.PostgresConnectionFactory;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool of SQLConnections to one database. Connections are borrowed for the length of a task run and handed back
+ * afterwards. A few are kept open and validated even when nothing is running, and the scheduler can ask for a warm-up
+ * pass just before its next task is due, so the first query after an idle gap doesn't pay for a reconnect.
+ */
+public class SQLConnectionPool {
+
+  private final DatabaseEnvironment environment;
+  private final int minIdle;
+  private final int maxIdle;
+  private final int maxTotal;
+
+  // most recently returned at the front, so the connections in regular use stay hot and the extras age out.
+  private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+  private final Set<SQLConnection> borrowedConnections = new HashSet<>();
+  private int opening = 0;
+
+  private final ScheduledExecutorService maintenance;
+  @Nullable
+  private ScheduledFuture<?> pendingPrewarm;
+
+  private boolean closed = false;
+
+  private static final long VALIDATE_AFTER_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long EVICT_AFTER_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private static final long PREWARM_LEAD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long BORROW_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  private static final Logger logger = LogManager.getLogger(SQLConnectionPool.class);
+
+  public SQLConnectionPool(DatabaseEnvironment environment, int minIdle, int maxIdle, int maxTotal) {
+    Preconditions.checkArgument(minIdle <= maxIdle && maxIdle <= maxTotal,
+        "Pool sizes must satisfy minIdle <= maxIdle <= maxTotal.");
+
+    this.environment = environment;
+    this.minIdle = minIdle;
+    this.maxIdle = maxIdle;
+    this.maxTotal = maxTotal;
+
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("db-pool-maintenance")
+        .setDaemon(true)
+        .build());
+    this.maintenance.scheduleWithFixedDelay(this::evictIdle, 1, 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Take a connection from the pool, opening a new one if none are idle and the pool isn't at capacity. Connections
+   * that have sat idle for a while are checked before being handed out. Must be paired with release().
+   */
+  public SQLConnection borrow() throws SQLException {
+    long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+
+    while (true) {
+      IdleConnection candidate = null;
+      boolean openNew = false;
+
+      synchronized (this) {
+        Preconditions.checkState(!closed, "Connection pool has been closed.");
+
+        if (!idleConnections.isEmpty()) {
+          candidate = idleConnections.pollFirst();
+          borrowedConnections.add(candidate.connection);
+        } else if (totalCount() < maxTotal) {
+          openNew = true;
+        } else {
+          waitForRelease(deadline);
+          continue;
+        }
+      }
+
+      if (openNew) {
+        SQLConnection connection = openConnectionCounted();
+        synchronized (this) {
+          borrowedConnections.add(connection);
+        }
+        return connection;
+      }
+
+      if (!candidate.needsValidation() || isValid(candidate.connection)) {
+        return candidate.connection;
+      }
+
+      logger.info("Discarding stale pooled connection.");
+      discard(candidate.connection);
+    }
+  }
+
+  public void release(SQLConnection connection) {
+    boolean closeIt;
+    synchronized (this) {
+      if (!borrowedConnections.remove(connection)) {
+        logger.warn("Released a connection that was not borrowed from this pool.");
+        return;
+      }
+      closeIt = closed || idleConnections.size() >= maxIdle;
+      if (!closeIt) {
+        idleConnections.addFirst(new IdleConnection(connection));
+      }
+      notifyAll();
+    }
+    if (closeIt) {
+      closeQuietly(connection);
+    }
+  }
+
+  /**
+   * Arrange for the idle connections to be topped up and validated shortly before dueMillis. Replaces any warm-up that
+   * was already pending.
+   */
+  public synchronized void prewarmBefore(long dueMillis) {
+    if (closed) {
+      return;
+    }
+    if (pendingPrewarm != null) {
+      pendingPrewarm.cancel(false);
+      pendingPrewarm = null;
+    }
+    long delay = dueMillis - PREWARM_LEAD_MILLIS - System.currentTimeMillis();
+    if (delay > 0) {
+      pendingPrewarm = maintenance.schedule(this::prewarm, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Validate every idle connection and open new ones until there are at least minIdle.
+   */
+  public void prewarm() {
+    List<IdleConnection> toValidate;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      toValidate = new ArrayList<>(idleConnections);
+      idleConnections.clear();
+      for (IdleConnection idle : toValidate) {
+        borrowedConnections.add(idle.connection);
+      }
+    }
+
+    for (IdleConnection idle : toValidate) {
+      if (isValid(idle.connection)) {
+        release(idle.connection);
+      } else {
+        discard(idle.connection);
+      }
+    }
+
+    try {
+      while (needsMoreIdle()) {
+        SQLConnection connection = openConnectionCounted();
+        synchronized (this) {
+          borrowedConnections.add(connection);
+        }
+        release(connection);
+      }
+    } catch (SQLException e) {
+      logger.warn("Unable to pre-warm connection pool: " + e.getLocalizedMessage());
+    }
+
+    logger.debug("Connection pool warmed: " + describe());
+  }
+
+  public void close() {
+    List<SQLConnection> toClose = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      for (IdleConnection idle : idleConnections) {
+        toClose.add(idle.connection);
+      }
+      idleConnections.clear();
+      notifyAll();
+    }
+    maintenance.shutdownNow();
+    toClose.forEach(this::closeQuietly);
+  }
+
+  public synchronized String describe() {
+    return idleConnections.size() + " idle, " + borrowedConnections.size() + " in use (max " + maxTotal + ")";
+  }
+
+  private void evictIdle() {
+    List<SQLConnection> toClose = new ArrayList<>();
+    synchronized (this) {
+      Iterator<IdleConnection> oldestFirst = idleConnections.descendingIterator();
+      while (oldestFirst.hasNext() && idleConnections.size() > minIdle) {
+        IdleConnection idle = oldestFirst.next();
+        if (idle.idleMillis() > EVICT_AFTER_IDLE_MILLIS) {
+          oldestFirst.remove();
+          toClose.add(idle.connection);
+        }
+      }
+    }
+    if (!toClose.isEmpty()) {
+      logger.debug("Evicting " + toClose.size() + " idle pooled connections.");
+      toClose.forEach(this::closeQuietly);
+    }
+  }
+
+  private synchronized boolean needsMoreIdle() {
+    return !closed && idleConnections.size() < minIdle && totalCount() < maxTotal;
+  }
+
+  private void waitForRelease(long deadline) throws SQLException {
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      throw new SQLException("Timed out waiting for a pooled connection: " + describe());
+    }
+    try {
+      wait(remaining);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a pooled connection.", e);
+    }
+  }
+
+  // reserves a slot before opening so concurrent borrowers can't overshoot maxTotal.
+  private SQLConnection openConnectionCounted() throws SQLException {
+    synchronized (this) {
+      opening++;
+    }
+    try {
+      return PostgresConnectionFactory.createConnection(environment);
+    } catch (Exception e) {
+      throw new SQLException("Unable to open pooled connection to " + environment.getEnvironmentName(), e);
+    } finally {
+      synchronized (this) {
+        opening--;
+      }
+    }
+  }
+
+  private int totalCount() {
+    return idleConnections.size() + borrowedConnections.size() + opening;
+  }
+
+  private boolean isValid(SQLConnection connection) {
+    try {
+      connection.prepareAndExecuteStatementFetch("SELECT 1");
+      return true;
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void discard(SQLConnection connection) {
+    synchronized (this) {
+      borrowedConnections.remove(connection);
+      notifyAll();
+    }
+    closeQuietly(connection);
+  }
+
+  private void closeQuietly(SQLConnection connection) {
+    try {
+      connection.closeConnection();
+    } catch (SQLException e) {
+      logger.debug("Failed to close pooled connection: " + e.getLocalizedMessage());
+    }
+  }
+
+  private static class IdleConnection {
+    private final SQLConnection connection;
+    private final long idleSince;
+
+    private IdleConnection(SQLConnection connection) {
+      this.connection = connection;
+      this.idleSince = System.currentTimeMillis();
+    }
+
+    private long idleMillis() {
+      return System.currentTimeMillis() - idleSince;
+    }
+
+    private boolean needsValidation() {
+      return idleMillis() > VALIDATE_AFTER_IDLE_MILLIS;
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.mayhew3.mediamogul.db;
+
+import com.mayhew3.mediamogul.tv.TVDBMatchStatus;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+
+/**
+ * Database objects that MediaMogulSchema has no way to describe (sequences, triggers, partial indexes). Every statement
+ * here is idempotent, so this runs against existing databases at updater startup as well as after a fresh
+ * DatabaseRecreator pass.
+ */
+public class SchemaSupplements {
+
+  public static final String CONNECTION_ID_SEQUENCE = "connect_log_connection_id_seq";
+
+  public static final String SERIES_ADDED_CHANNEL = "series_added";
+  public static final String TVDB_MANUAL_QUEUE_CHANNEL = "tvdb_manual_queue";
+  public static final String GAME_ADDED_CHANNEL = "game_added";
+
+  /**
+   * Series the SMART TVDB pass could possibly pick up. Queries that repeat this predicate verbatim can use the partial
+   * index below, which stays small because most of the catalog is healthy and fully matched.
+   */
+  public static final String TVDB_SMART_CANDIDATE_PREDICATE =
+      "retired = 0 " +
+      "AND (last_tvdb_error IS NOT NULL " +
+      "     OR tvdb_match_status = '" + TVDBMatchStatus.MATCH_CONFIRMED + "' " +
+      "     OR unmatched_episodes > 0) ";
+
+  private static final Logger logger = LogManager.getLogger(SchemaSupplements.class);
+
+  public static void ensureAll(SQLConnection connection) throws SQLException {
+    logger.debug("Ensuring supplementary schema objects...");
+    ensureConnectionIDSequence(connection);
+    ensureResumeCursorColumn(connection);
+    ensureLastRunIndex(connection);
+    ensureContentDigestColumns(connection);
+    ensureSmartCandidateIndex(connection);
+    ensureWorkItemLeaseColumns(connection);
+    ensureAccessTokenColumns(connection);
+    ensureSeriesNotifyTrigger(connection);
+    ensureGameNotifyTrigger(connection);
+  }
+
+  private static void ensureConnectionIDSequence(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate("CREATE SEQUENCE IF NOT EXISTS " + CONNECTION_ID_SEQUENCE);
+
+    // ids used to be handed out as MAX + 1, so make sure the sequence starts past anything already in the table.
+    connection.prepareAndExecuteStatementFetch(
+        "SELECT setval('" + CONNECTION_ID_SEQUENCE + "', " +
+            "GREATEST((SELECT COALESCE(MAX(connection_id), 0) FROM connect_log), " +
+            "         (SELECT last_value FROM " + CONNECTION_ID_SEQUENCE + "))) ");
+  }
+
+  // added to ConnectLog after the table was already in use, so older databases need the column added in place.
+  private static void ensureResumeCursorColumn(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE connect_log ADD COLUMN IF NOT EXISTS resume_cursor text");
+  }
+
+  // TaskRunRegistry reads each task's latest run straight off this at startup, instead of sorting all of connect_log.
+  private static void ensureLastRunIndex(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE INDEX IF NOT EXISTS connect_log_task_last_run_idx " +
+            "ON connect_log (task_name, task_mode, end_time DESC)");
+  }
+
+  // same story for the TVDB content digests.
+  private static void ensureContentDigestColumns(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_series ADD COLUMN IF NOT EXISTS content_digest text");
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_episode ADD COLUMN IF NOT EXISTS content_digest text");
+  }
+
+  private static void ensureSmartCandidateIndex(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE INDEX IF NOT EXISTS series_tvdb_smart_candidate_idx " +
+            "ON series (id) " +
+            "WHERE " + TVDB_SMART_CANDIDATE_PREDICATE);
+  }
+
+  private static void ensureWorkItemLeaseColumns(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_work_item ADD COLUMN IF NOT EXISTS lease_token text");
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_work_item ADD COLUMN IF NOT EXISTS lease_expires timestamp");
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_work_item ADD COLUMN IF NOT EXISTS attempts integer NOT NULL DEFAULT 0");
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE tvdb_work_item ADD COLUMN IF NOT EXISTS next_attempt_time timestamp");
+
+    // the queue only ever looks at unprocessed items, which are a tiny slice of the table.
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE INDEX IF NOT EXISTS tvdb_work_item_unprocessed_idx " +
+            "ON tvdb_work_item (series_id, id) " +
+            "WHERE processed_time IS NULL");
+  }
+
+  private static void ensureAccessTokenColumns(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE external_service ADD COLUMN IF NOT EXISTS access_token text");
+    connection.prepareAndExecuteStatementUpdate("ALTER TABLE external_service ADD COLUMN IF NOT EXISTS access_token_expires timestamp");
+  }
+
+  private static void ensureSeriesNotifyTrigger(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE OR REPLACE FUNCTION notify_series_work() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "  IF NEW.first_processed IS FALSE THEN " +
+            "    PERFORM pg_notify('" + SERIES_ADDED_CHANNEL + "', NEW.id::text); " +
+            "  END IF; " +
+            "  IF NEW.tvdb_manual_queue IS TRUE THEN " +
+            "    PERFORM pg_notify('" + TVDB_MANUAL_QUEUE_CHANNEL + "', NEW.id::text); " +
+            "  END IF; " +
+            "  RETURN NEW; " +
+            "END; " +
+            "$$ LANGUAGE plpgsql ");
+    connection.prepareAndExecuteStatementUpdate("DROP TRIGGER IF EXISTS series_notify_work ON series");
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE TRIGGER series_notify_work " +
+            "AFTER INSERT OR UPDATE OF first_processed, tvdb_manual_queue ON series " +
+            "FOR EACH ROW EXECUTE PROCEDURE notify_series_work() ");
+  }
+
+  private static void ensureGameNotifyTrigger(SQLConnection connection) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE OR REPLACE FUNCTION notify_game_work() RETURNS trigger AS $$ " +
+            "BEGIN " +
+            "  IF NEW.first_processed IS FALSE THEN " +
+            "    PERFORM pg_notify('" + GAME_ADDED_CHANNEL + "', NEW.id::text); " +
+            "  END IF; " +
+            "  RETURN NEW; " +
+            "END; " +
+            "$$ LANGUAGE plpgsql ");
+    connection.prepareAndExecuteStatementUpdate("DROP TRIGGER IF EXISTS game_notify_work ON game");
+    connection.prepareAndExecuteStatementUpdate(
+        "CREATE TRIGGER game_notify_work " +
+            "AFTER INSERT OR UPDATE OF first_processed ON game " +
+            "FOR EACH ROW EXECUTE PROCEDURE notify_game_work() ");
+  }
+}
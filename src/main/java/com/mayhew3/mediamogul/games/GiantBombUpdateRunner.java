@@ -3,6 +3,7 @@ package com.mayhew3.mediamogul.games;
 import com.google.common.collect.Lists;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.postgresobject.ArgumentChecker;
@@ -23,7 +24,9 @@ import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 public class GiantBombUpdateRunner implements UpdateRunner {
 
@@ -111,4 +114,9 @@ public class GiantBombUpdateRunner implements UpdateRunner {
   public @Nullable UpdateMode getUpdateMode() {
     return null;
   }
+
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.GIANT_BOMB_API);
+  }
 }
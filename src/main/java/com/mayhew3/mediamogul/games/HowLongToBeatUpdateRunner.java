@@ -7,6 +7,7 @@ import com.mayhew3.mediamogul.ExternalServiceType;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.games.exception.GameFailedException;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.postgresobject.ArgumentChecker;
@@ -30,9 +31,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class HowLongToBeatUpdateRunner implements UpdateRunner {
 
@@ -98,6 +101,11 @@ public class HowLongToBeatUpdateRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.HEADLESS_CHROME);
+  }
+
   @Override
   public void runUpdate() {
     methodMap.get(updateMode).run();
@@ -6,6 +6,7 @@ import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.games.provider.IGDBProvider;
 import com.mayhew3.mediamogul.games.provider.IGDBProviderImpl;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -22,9 +23,11 @@ import org.jetbrains.annotations.Nullable;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class IGDBUpdateRunner implements UpdateRunner {
 
@@ -80,7 +83,12 @@ public class IGDBUpdateRunner implements UpdateRunner {
 
   @Override
   public @Nullable UpdateMode getUpdateMode() {
-    return null;
+    return updateMode;
+  }
+
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.IGDB_API);
   }
 
   @Override
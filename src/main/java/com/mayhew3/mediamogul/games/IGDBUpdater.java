@@ -1,6 +1,7 @@
 package com.mayhew3.mediamogul.games;
 
 import com.google.common.collect.Lists;
+import com.mayhew3.mediamogul.games.provider.IGDBGameRecord;
 import com.mayhew3.mediamogul.games.provider.IGDBProvider;
 import com.mayhew3.mediamogul.model.games.*;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -8,6 +9,7 @@ import com.mayhew3.postgresobject.db.SQLConnection;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.joda.time.DateTime;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -51,25 +53,25 @@ class IGDBUpdater {
   private void tryToMatch() throws SQLException {
     updatePossibleMatches();
 
-    JSONArray gameMatches = igdbProvider.findGameMatches(getFormattedTitle());
+    List<IGDBGameRecord> gameMatches = igdbProvider.findGameMatchRecords(getFormattedTitle());
     processPossibleMatches(gameMatches);
   }
 
   private void updateAlreadyMatched() throws SQLException {
     debug("Updating already matched game '" + game.title.getValue() + "' with igdb_id " + game.igdb_id.getValue());
-    JSONArray updatedInfoArray = igdbProvider.getUpdatedInfo(game.igdb_id.getValue());
-    if (updatedInfoArray.length() != 1) {
+    List<IGDBGameRecord> updatedInfoList = igdbProvider.getUpdatedGameRecords(game.igdb_id.getValue());
+    if (updatedInfoList.size() != 1) {
       debug("Expected exactly one match for game with igdb_id: " + game.igdb_id.getValue() + ", " +
-          "but there are " + updatedInfoArray.length());
+          "but there are " + updatedInfoList.size());
       changeToFailed();
     } else {
       debug(" - Found IGDB data matching existing ID. Updating.");
-      JSONObject updatedInfo = updatedInfoArray.getJSONObject(0);
-      if (updatedInfo.has("status") && 401 == updatedInfo.getInt("status")) {
+      IGDBGameRecord updatedInfo = updatedInfoList.get(0);
+      if (Objects.equals(401, updatedInfo.getErrorStatus())) {
         logger.error("Error code returned by IGDB.");
-        logger.error("Title: " + updatedInfo.getString("title"));
-        logger.error("Cause: " + updatedInfo.getString("cause"));
-        logger.error("Details: " + updatedInfo.getString("details"));
+        logger.error("Title: " + updatedInfo.getErrorTitle());
+        logger.error("Cause: " + updatedInfo.getErrorCause());
+        logger.error("Details: " + updatedInfo.getErrorDetails());
         throw new IllegalStateException("Failure fetching from IGDB.");
       }
       saveExactMatch(updatedInfo);
@@ -91,11 +93,11 @@ class IGDBUpdater {
     return formattedTitle;
   }
 
-  private void processPossibleMatches(JSONArray results) throws SQLException {
+  private void processPossibleMatches(List<IGDBGameRecord> results) throws SQLException {
     debug("Processing game: ID " + game.id.getValue() + ", Title: " +
         " '" + game.title.getValue() + "', Formatted: '" + getFormattedTitle() + "'");
 
-    Optional<JSONObject> exactMatch = findExactMatch(results);
+    Optional<IGDBGameRecord> exactMatch = findExactMatch(results);
     if (exactMatch.isPresent()) {
       debug(" - Exact match found!");
       saveExactMatch(exactMatch.get());
@@ -133,7 +135,7 @@ class IGDBUpdater {
     Set<String> alternateTitles = getAlternateTitles();
     for (String alternateTitle : alternateTitles) {
       debug(" - Getting possible matches for alternate title: '" + alternateTitle + "'");
-      JSONArray gameMatches = igdbProvider.findGameMatches(alternateTitle);
+      List<IGDBGameRecord> gameMatches = igdbProvider.findGameMatchRecords(alternateTitle);
       List<PossibleGameMatch> possibleMatches = getPossibleMatches(gameMatches);
       int matchCount = originalMatches.size();
       for (PossibleGameMatch possibleMatch : possibleMatches) {
@@ -161,10 +163,10 @@ class IGDBUpdater {
     game.commit(connection);
   }
 
-  private List<PossibleGameMatch> getPossibleMatches(JSONArray results) {
+  private List<PossibleGameMatch> getPossibleMatches(List<IGDBGameRecord> results) {
     List<PossibleGameMatch> possibleGameMatches = new ArrayList<>();
 
-    jsonReader.forEach(results, possibleMatch -> possibleGameMatches.add(createPossibleMatch(possibleMatch)));
+    results.forEach(possibleMatch -> possibleGameMatches.add(createPossibleMatch(possibleMatch)));
 
     return possibleGameMatches.stream().limit(5).collect(Collectors.toList());
   }
@@ -186,38 +188,30 @@ class IGDBUpdater {
     }
   }
 
-  private Date getEarliestReleaseDate(JSONArray release_datesJSON) {
-    List<Integer> releaseDates = new ArrayList<>();
-    for (Object release_dateJSON : release_datesJSON) {
-      Integer releaseDate = jsonReader.getNullableIntegerWithKey((JSONObject) release_dateJSON, "date");
-      releaseDates.add(releaseDate);
-    }
-
+  private Date getEarliestReleaseDate(List<Integer> releaseDates) {
     Optional<Integer> maybeEarliestDate = releaseDates.stream()
         .filter(Objects::nonNull)
         .min(Comparator.naturalOrder());
     return maybeEarliestDate.map(this::convertFromUnixTimestamp).orElse(null);
   }
 
-  private void saveExactMatch(JSONObject exactMatch) throws SQLException {
-    @NotNull Integer id = jsonReader.getIntegerWithKey(exactMatch, "id");
-    @NotNull String name = jsonReader.getStringWithKey(exactMatch, "name");
+  private void saveExactMatch(IGDBGameRecord exactMatch) throws SQLException {
+    @NotNull Integer id = required(exactMatch.getId(), "id");
+    @NotNull String name = required(exactMatch.getName(), "name");
 
-    Double igdb_rating = jsonReader.getNullableDoubleWithKey(exactMatch, "rating");
-    Integer igdb_rating_count = jsonReader.getNullableIntegerWithKey(exactMatch, "rating_count");
-    Double igdb_popularity = jsonReader.getNullableDoubleWithKey(exactMatch, "popularity");
-    String igdb_slug = jsonReader.getNullableStringWithKey(exactMatch, "slug");
-    String igdb_summary = jsonReader.getNullableStringWithKey(exactMatch, "summary");
-    Integer igdb_updated = jsonReader.getNullableIntegerWithKey(exactMatch, "updated_at");
+    Double igdb_rating = exactMatch.getRating();
+    Integer igdb_rating_count = exactMatch.getRatingCount();
+    Double igdb_popularity = exactMatch.getPopularity();
+    String igdb_slug = exactMatch.getSlug();
+    String igdb_summary = exactMatch.getSummary();
+    Integer igdb_updated = exactMatch.getUpdatedAt();
 
     game.igdb_id.changeValue(id);
     game.igdb_title.changeValue(name);
 
-    JSONArray release_datesJSON = jsonReader.getArrayWithKey(exactMatch, "release_dates");
-
     game.igdb_rating.changeValue(igdb_rating);
     game.igdb_rating_count.changeValue(igdb_rating_count);
-    game.igdb_release_date.changeValue(getEarliestReleaseDate(release_datesJSON));
+    game.igdb_release_date.changeValue(getEarliestReleaseDate(exactMatch.getReleaseDates()));
     game.igdb_popularity.changeValue(igdb_popularity);
     game.igdb_slug.changeValue(igdb_slug);
     game.igdb_summary.changeValue(igdb_summary);
@@ -226,14 +220,12 @@ class IGDBUpdater {
     game.igdb_success.changeValue(new Date());
     game.igdb_failed.changeValue(null);
 
-    JSONArray platformsJSON = jsonReader.getArrayWithKey(exactMatch, "platforms");
-
     incrementNextUpdate(30);
 
     if (game.id.getValue() != null) {
 
       updatePosters(id);
-      updatePlatforms(platformsJSON, game);
+      updatePlatforms(exactMatch.getPlatforms(), game);
       updateSteamID(game, exactMatch);
 
     } else {
@@ -241,7 +233,7 @@ class IGDBUpdater {
     }
   }
 
-  private void updateSteamID(Game game, JSONObject updatedInfo) {
+  private void updateSteamID(Game game, IGDBGameRecord updatedInfo) {
     Integer steamID = findSteamID(updatedInfo);
     String title = game.title.getValue();
     if (steamID != null) {
@@ -252,11 +244,8 @@ class IGDBUpdater {
     }
   }
 
-  private Integer findSteamID(JSONObject updatedInfo) {
-    JSONArray websites = jsonReader.getArrayWithKey(updatedInfo, "websites");
-    for (Object websiteObj : websites) {
-      JSONObject website = (JSONObject) websiteObj;
-      String url = jsonReader.getStringWithKey(website, "url");
+  private Integer findSteamID(IGDBGameRecord updatedInfo) {
+    for (String url : updatedInfo.getWebsiteUrls()) {
       if (url.startsWith("https://store.steampowered.com")) {
         String afterUrl = url.replace("https://store.steampowered.com/app/", "");
         String[] split = afterUrl.split("/");
@@ -272,20 +261,19 @@ class IGDBUpdater {
     return null;
   }
 
-  private void updatePlatforms(@NotNull JSONArray platforms, Game game) throws SQLException {
+  private void updatePlatforms(@NotNull List<IGDBGameRecord.Platform> platforms, Game game) throws SQLException {
     List<GamePlatform> allPlatforms = GamePlatform.getAllPlatforms(connection);
 
-    for (Object platformObj : platforms) {
-      JSONObject platform = (JSONObject)platformObj;
+    for (IGDBGameRecord.Platform platform : platforms) {
       GamePlatform gamePlatform = getOrCreateGamePlatform(platform, allPlatforms);
       game.getOrCreatePlatform(gamePlatform, connection);
     }
   }
 
-  private GamePlatform getOrCreateGamePlatform(@NotNull JSONObject igdbPlatform, List<GamePlatform> allPlatforms) throws SQLException {
-    Integer igdbPlatformID = jsonReader.getIntegerWithKey(igdbPlatform, "id");
-    String igdbPlatformName = jsonReader.getStringWithKey(igdbPlatform, "name");
-    String igdbAbbreviation = jsonReader.getNullableStringWithKey(igdbPlatform, "abbreviation");
+  private GamePlatform getOrCreateGamePlatform(@NotNull IGDBGameRecord.Platform igdbPlatform, List<GamePlatform> allPlatforms) throws SQLException {
+    Integer igdbPlatformID = required(igdbPlatform.getId(), "platforms.id");
+    String igdbPlatformName = required(igdbPlatform.getName(), "platforms.name");
+    String igdbAbbreviation = igdbPlatform.getAbbreviation();
 
     Optional<GamePlatform> existing = allPlatforms.stream()
         .filter(gamePlatform -> igdbPlatformID.equals(gamePlatform.igdbPlatformId.getValue()))
@@ -382,12 +370,12 @@ class IGDBUpdater {
     game.commit(connection);
   }
 
-  private PossibleGameMatch createPossibleMatch(JSONObject possibleMatch) {
-    @NotNull Integer id = jsonReader.getIntegerWithKey(possibleMatch, "id");
+  private PossibleGameMatch createPossibleMatch(IGDBGameRecord possibleMatch) {
+    @NotNull Integer id = required(possibleMatch.getId(), "id");
 
     PossibleGameMatch possibleGameMatch = getOrCreateMatch(id);
 
-    @NotNull String name = jsonReader.getStringWithKey(possibleMatch, "name");
+    @NotNull String name = required(possibleMatch.getName(), "name");
 
     possibleGameMatch.gameId.changeValue(game.id.getValue());
     possibleGameMatch.igdbGameExtId.changeValue(id);
@@ -460,26 +448,23 @@ class IGDBUpdater {
     }
   }
 
-  private Optional<JSONObject> findExactMatch(JSONArray possibleMatches) throws SQLException {
+  private Optional<IGDBGameRecord> findExactMatch(List<IGDBGameRecord> possibleMatches) throws SQLException {
     String searchString = getFormattedTitle();
 
-    List<JSONObject> matches = jsonReader.findMatches(possibleMatches, (possibleMatch) -> {
-      String name = jsonReader.getStringWithKey(possibleMatch, "name");
-      return searchString.equalsIgnoreCase(name);
-    });
+    List<IGDBGameRecord> matches = possibleMatches.stream()
+        .filter(possibleMatch -> searchString.equalsIgnoreCase(possibleMatch.getName()))
+        .collect(Collectors.toList());
     if (matches.size() == 1) {
       return Optional.of(matches.get(0));
     } else if (matches.size() > 1) {
       List<String> platformNames = getPlatformNames(game);
 
-      List<JSONObject> matchingOnPlatforms = new ArrayList<>();
+      List<IGDBGameRecord> matchingOnPlatforms = new ArrayList<>();
 
-      for (JSONObject matchObj : matches) {
-        JSONArray platforms = matchObj.getJSONArray("platforms");
+      for (IGDBGameRecord matchObj : matches) {
         List<String> matchPlatforms = new ArrayList<>();
-        for (Object platformObj : platforms) {
-          String abbreviation = jsonReader.getNullableStringWithKey((JSONObject) platformObj, "abbreviation");
-          matchPlatforms.add(abbreviation);
+        for (IGDBGameRecord.Platform platform : matchObj.getPlatforms()) {
+          matchPlatforms.add(platform.getAbbreviation());
         }
         if (matchPlatforms.containsAll(platformNames)) {
           matchingOnPlatforms.add(matchObj);
@@ -508,6 +493,14 @@ class IGDBUpdater {
         .collect(Collectors.toList());
   }
 
+  @NotNull
+  private <T> T required(@Nullable T value, String key) {
+    if (value == null) {
+      throw new IllegalStateException("IGDB game data is missing required field '" + key + "'.");
+    }
+    return value;
+  }
+
   private static void debug(Object message) {
     logger.debug(message);
   }
@@ -8,6 +8,7 @@ import com.mayhew3.mediamogul.games.exception.MetacriticPageNotFoundException;
 import com.mayhew3.mediamogul.games.exception.MetacriticPlatformNameException;
 import com.mayhew3.mediamogul.model.games.AvailableGamePlatform;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.postgresobject.ArgumentChecker;
@@ -97,6 +98,11 @@ public class MetacriticGameUpdateRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.METACRITIC);
+  }
+
   public void runUpdate() {
     methodMap.get(updateMode).run();
   }
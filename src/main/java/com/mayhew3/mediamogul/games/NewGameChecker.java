@@ -8,6 +8,7 @@ import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.games.provider.IGDBProvider;
 import com.mayhew3.mediamogul.games.provider.IGDBProviderImpl;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -26,6 +27,8 @@ import org.openqa.selenium.chrome.ChromeDriver;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class NewGameChecker implements UpdateRunner {
 
@@ -37,6 +40,9 @@ public class NewGameChecker implements UpdateRunner {
   private String giantbomb_api_key;
   private Integer person_id;
 
+  @Nullable
+  private Integer itemsProcessed;
+
   private static Logger logger = LogManager.getLogger(NewGameChecker.class);
 
   public NewGameChecker(SQLConnection connection,
@@ -81,6 +87,16 @@ public class NewGameChecker implements UpdateRunner {
     return null;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.IGDB_API, TaskResource.HEADLESS_CHROME, TaskResource.METACRITIC, TaskResource.GIANT_BOMB_API);
+  }
+
+  @Override
+  public @Nullable Integer getItemsProcessed() {
+    return itemsProcessed;
+  }
+
   @Override
   public void runUpdate() throws SQLException {
 
@@ -97,9 +113,12 @@ public class NewGameChecker implements UpdateRunner {
       browserOpen = true;
     }
 
+    itemsProcessed = 0;
+
     while (resultSet.next()) {
       Game game = new Game();
       game.initializeFromDBObject(resultSet);
+      itemsProcessed++;
 
       try {
         // DO STUFF
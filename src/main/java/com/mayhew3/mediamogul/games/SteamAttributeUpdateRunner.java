@@ -5,6 +5,7 @@ import com.mayhew3.mediamogul.ChromeProvider;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.games.exception.GameFailedException;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.postgresobject.ArgumentChecker;
@@ -25,9 +26,11 @@ import java.io.PrintStream;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class SteamAttributeUpdateRunner implements UpdateRunner {
 
@@ -162,5 +165,10 @@ public class SteamAttributeUpdateRunner implements UpdateRunner {
   public @Nullable UpdateMode getUpdateMode() {
     return null;
   }
+
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.HEADLESS_CHROME);
+  }
 }
 
@@ -12,6 +12,7 @@ import com.mayhew3.mediamogul.games.provider.SteamProvider;
 import com.mayhew3.mediamogul.games.provider.SteamProviderImpl;
 import com.mayhew3.mediamogul.model.games.AvailableGamePlatform;
 import com.mayhew3.mediamogul.model.games.Game;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -327,4 +328,9 @@ public class SteamGameUpdateRunner implements UpdateRunner {
   public @Nullable UpdateMode getUpdateMode() {
     return null;
   }
+
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.STEAM_API, TaskResource.IGDB_API, TaskResource.HEADLESS_CHROME);
+  }
 }
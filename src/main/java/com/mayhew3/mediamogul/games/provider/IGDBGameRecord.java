@@ -0,0 +1,139 @@
+package com.mayhew3.mediamogul.games.provider;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One game from an IGDB /games response, holding just the fields the updaters read. Filled in by
+ * {@link IGDBJsonDecoder}.
+ *
+ * IGDB reports errors as an element of the same array, so a record may instead carry an error status, title, cause and
+ * details; see {@link #isError()}.
+ */
+public class IGDBGameRecord {
+
+  @Nullable Integer id;
+  @Nullable String name;
+  @Nullable Double rating;
+  @Nullable Integer ratingCount;
+  @Nullable Double popularity;
+  @Nullable String slug;
+  @Nullable String summary;
+  @Nullable Integer updatedAt;
+  List<Integer> releaseDates = new ArrayList<>();
+  List<Platform> platforms = new ArrayList<>();
+  List<String> websiteUrls = new ArrayList<>();
+
+  @Nullable Integer errorStatus;
+  @Nullable String errorTitle;
+  @Nullable String errorCause;
+  @Nullable String errorDetails;
+
+  IGDBGameRecord() {
+  }
+
+  @Nullable
+  public Integer getId() {
+    return id;
+  }
+
+  @Nullable
+  public String getName() {
+    return name;
+  }
+
+  @Nullable
+  public Double getRating() {
+    return rating;
+  }
+
+  @Nullable
+  public Integer getRatingCount() {
+    return ratingCount;
+  }
+
+  @Nullable
+  public Double getPopularity() {
+    return popularity;
+  }
+
+  @Nullable
+  public String getSlug() {
+    return slug;
+  }
+
+  @Nullable
+  public String getSummary() {
+    return summary;
+  }
+
+  @Nullable
+  public Integer getUpdatedAt() {
+    return updatedAt;
+  }
+
+  /**
+   * The unix timestamps of each release, leaving out releases with no date.
+   */
+  public List<Integer> getReleaseDates() {
+    return releaseDates;
+  }
+
+  public List<Platform> getPlatforms() {
+    return platforms;
+  }
+
+  public List<String> getWebsiteUrls() {
+    return websiteUrls;
+  }
+
+  public boolean isError() {
+    return errorStatus != null;
+  }
+
+  @Nullable
+  public Integer getErrorStatus() {
+    return errorStatus;
+  }
+
+  @Nullable
+  public String getErrorTitle() {
+    return errorTitle;
+  }
+
+  @Nullable
+  public String getErrorCause() {
+    return errorCause;
+  }
+
+  @Nullable
+  public String getErrorDetails() {
+    return errorDetails;
+  }
+
+  public static class Platform {
+    @Nullable Integer id;
+    @Nullable String name;
+    @Nullable String abbreviation;
+
+    Platform() {
+    }
+
+    @Nullable
+    public Integer getId() {
+      return id;
+    }
+
+    @Nullable
+    public String getName() {
+      return name;
+    }
+
+    @Nullable
+    public String getAbbreviation() {
+      return abbreviation;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.mayhew3.mediamogul.games.provider;
+
+import com.google.gson.stream.JsonReader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import static com.mayhew3.mediamogul.xml.JSONStreamValues.*;
+
+/**
+ * Decodes an IGDB /games response straight from the response body into records, one token at a time. Covers,
+ * keywords, genres and the rest of what the query asks for but the updaters don't read are skipped undecoded.
+ */
+public final class IGDBJsonDecoder {
+
+  private IGDBJsonDecoder() {
+  }
+
+  public static List<IGDBGameRecord> decodeGames(Reader reader) throws IOException {
+    try (JsonReader json = new JsonReader(reader)) {
+      return readObjectArray(json, IGDBJsonDecoder::readGame);
+    }
+  }
+
+  private static IGDBGameRecord readGame(JsonReader json) throws IOException {
+    IGDBGameRecord game = new IGDBGameRecord();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      switch (name) {
+        case "id":
+          game.id = readNullableInteger(json);
+          break;
+        case "name":
+          game.name = readNullableString(json);
+          break;
+        case "rating":
+          game.rating = readNullableDouble(json);
+          break;
+        case "rating_count":
+          game.ratingCount = readNullableInteger(json);
+          break;
+        case "popularity":
+          game.popularity = readNullableDouble(json);
+          break;
+        case "slug":
+          game.slug = readNullableString(json);
+          break;
+        case "summary":
+          game.summary = readNullableString(json);
+          break;
+        case "updated_at":
+          game.updatedAt = readNullableInteger(json);
+          break;
+        case "release_dates":
+          readReleaseDates(json, game.releaseDates);
+          break;
+        case "platforms":
+          game.platforms = readObjectArray(json, IGDBJsonDecoder::readPlatform);
+          break;
+        case "websites":
+          readWebsiteUrls(json, game.websiteUrls);
+          break;
+        case "status":
+          game.errorStatus = readNullableInteger(json);
+          break;
+        case "title":
+          game.errorTitle = readNullableString(json);
+          break;
+        case "cause":
+          game.errorCause = readNullableString(json);
+          break;
+        case "details":
+          game.errorDetails = readNullableString(json);
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+    json.endObject();
+    return game;
+  }
+
+  private static IGDBGameRecord.Platform readPlatform(JsonReader json) throws IOException {
+    IGDBGameRecord.Platform platform = new IGDBGameRecord.Platform();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      switch (name) {
+        case "id":
+          platform.id = readNullableInteger(json);
+          break;
+        case "name":
+          platform.name = readNullableString(json);
+          break;
+        case "abbreviation":
+          platform.abbreviation = readNullableString(json);
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+    json.endObject();
+    return platform;
+  }
+
+  private static void readReleaseDates(JsonReader json, List<Integer> releaseDates) throws IOException {
+    for (Integer date : readObjectArray(json, element -> readIntegerField(element, "date"))) {
+      if (date != null) {
+        releaseDates.add(date);
+      }
+    }
+  }
+
+  private static void readWebsiteUrls(JsonReader json, List<String> websiteUrls) throws IOException {
+    for (String url : readObjectArray(json, element -> readStringField(element, "url"))) {
+      if (url != null) {
+        websiteUrls.add(url);
+      }
+    }
+  }
+
+  @Nullable
+  private static Integer readIntegerField(JsonReader json, String field) throws IOException {
+    Integer value = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (field.equals(json.nextName())) {
+        value = readNullableInteger(json);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return value;
+  }
+
+  @Nullable
+  private static String readStringField(JsonReader json, String field) throws IOException {
+    String value = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if (field.equals(json.nextName())) {
+        value = readNullableString(json);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return value;
+  }
+}
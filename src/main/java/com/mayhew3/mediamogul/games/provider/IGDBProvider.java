@@ -3,6 +3,10 @@ package com.mayhew3.mediamogul.games.provider;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Optional;
 
 public interface IGDBProvider {
@@ -14,4 +18,23 @@ public interface IGDBProvider {
   Optional<JSONObject> getCoverInfo(Integer igdb_cover_id);
 
   JSONArray getCovers(Integer igdb_game_id);
+
+  // Typed versions of the game fetches, for the updaters. A provider that can decode straight from the response should
+  // override these; the defaults go through the JSONArray versions.
+
+  default List<IGDBGameRecord> findGameMatchRecords(String gameTitle) {
+    return decodeGames(findGameMatches(gameTitle));
+  }
+
+  default List<IGDBGameRecord> getUpdatedGameRecords(Integer igdb_id) {
+    return decodeGames(getUpdatedInfo(igdb_id));
+  }
+
+  private static List<IGDBGameRecord> decodeGames(JSONArray games) {
+    try {
+      return IGDBJsonDecoder.decodeGames(new StringReader(games.toString()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 }
@@ -1,19 +1,30 @@
 package com.mayhew3.mediamogul.games.provider;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Preconditions;
 import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mashape.unirest.request.HttpRequest;
+import com.mashape.unirest.request.body.RequestBodyEntity;
+import com.mayhew3.mediamogul.AccessTokenManager;
+import com.mayhew3.mediamogul.ExternalServiceHandler;
+import com.mayhew3.mediamogul.metrics.Metrics;
 import com.mayhew3.postgresobject.EnvironmentChecker;
 import com.mayhew3.postgresobject.exception.MissingEnvException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
 public class IGDBProviderImpl implements IGDBProvider {
@@ -22,19 +33,26 @@ public class IGDBProviderImpl implements IGDBProvider {
   private final String igdb_client_secret;
   private final String api_url_base = "https://api.igdb.com/v4";
 
-  private String token = null;
+  private final AccessTokenManager tokenManager;
+
+  // Twitch app tokens last around two months and say so in expires_in; the default is only a fallback.
+  private static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofDays(1);
+  private static final Duration TOKEN_REFRESH_AHEAD = Duration.ofDays(1);
 
   private static final Logger logger = LogManager.getLogger(IGDBProviderImpl.class);
 
   public IGDBProviderImpl() throws MissingEnvException, UnirestException {
+    this(null);
+  }
+
+  public IGDBProviderImpl(@Nullable ExternalServiceHandler externalServiceHandler) throws MissingEnvException, UnirestException {
     igdb_client_id = EnvironmentChecker.getOrThrow("IGDB_V4_CLIENT_ID");
     igdb_client_secret = EnvironmentChecker.getOrThrow("IGDB_V4_CLIENT_SECRET");
-    if (token == null) {
-      token = getToken();
-    }
+    tokenManager = new AccessTokenManager("igdb", this::fetchToken, externalServiceHandler, TOKEN_REFRESH_AHEAD);
+    tokenManager.start();
   }
 
-  private String getToken() throws UnirestException {
+  private AccessTokenManager.AccessToken fetchToken() throws UnirestException {
     String urlString = "https://id.twitch.tv/oauth2/token";
     HttpRequest httpRequest = Unirest.post(urlString)
         .header("Content-Type", "application/json")
@@ -50,12 +68,15 @@ public class IGDBProviderImpl implements IGDBProvider {
     return parseResponse(responseAsString);
   }
 
-  private String parseResponse(HttpResponse<String> responseAsString) throws UnirestException {
+  private AccessTokenManager.AccessToken parseResponse(HttpResponse<String> responseAsString) throws UnirestException {
     try {
       JSONObject jsonObject = new JSONObject(responseAsString.getBody());
 
       if (jsonObject.has("access_token")) {
-        return jsonObject.getString("access_token");
+        Duration lifetime = jsonObject.has("expires_in") ?
+            Duration.ofSeconds(jsonObject.getLong("expires_in")) :
+            DEFAULT_TOKEN_LIFETIME;
+        return new AccessTokenManager.AccessToken(jsonObject.getString("access_token"), Instant.now().plus(lifetime));
       } else {
         debug("Error fetching access_token. Response: ");
         debug(responseAsString.getBody());
@@ -75,9 +96,15 @@ public class IGDBProviderImpl implements IGDBProvider {
 
   @Override
   public JSONArray findGameMatches(String gameTitle) {
-    Preconditions.checkState(token != null);
+    return getArrayData(api_url_base + "/games/", getGameSearchParams(gameTitle));
+  }
 
-    String url = api_url_base + "/games/";
+  @Override
+  public List<IGDBGameRecord> findGameMatchRecords(String gameTitle) {
+    return getGameRecords(api_url_base + "/games/", getGameSearchParams(gameTitle));
+  }
+
+  private Map<String, Object> getGameSearchParams(String gameTitle) {
     HashMap<String, Object> queryVars = new HashMap<>();
     queryVars.put("search", "\"" + gameTitle + "\"");
     queryVars.put("fields", "name, platforms.name, platforms.abbreviation, cover.image_id, cover.width, cover.height, keywords.name, aggregated_rating, " +
@@ -86,28 +113,30 @@ public class IGDBProviderImpl implements IGDBProvider {
         "    slug, summary, tags, updated_at, url, websites.url");
     queryVars.put("offset", "0");
     queryVars.put("where", "(version_parent = null & release_dates.region = (2,8))");
-
-    return getArrayData(url, queryVars);
+    return queryVars;
   }
 
   @Override
   public JSONArray getUpdatedInfo(Integer igdb_id) {
-    Preconditions.checkState(token != null);
+    return getArrayData(api_url_base + "/games", getUpdatedInfoParams(igdb_id));
+  }
+
+  @Override
+  public List<IGDBGameRecord> getUpdatedGameRecords(Integer igdb_id) {
+    return getGameRecords(api_url_base + "/games", getUpdatedInfoParams(igdb_id));
+  }
 
-    String url = api_url_base + "/games";
+  private Map<String, Object> getUpdatedInfoParams(Integer igdb_id) {
     HashMap<String, Object> queryVars = new HashMap<>();
     queryVars.put("fields", "name, platforms.name, platforms.abbreviation, cover.image_id, cover.width, cover.height, keywords.name, aggregated_rating, " +
         "     aggregated_rating_count, version_parent, first_release_date, genres.name, involved_companies.company.name, " +
         "     player_perspectives.name, rating, rating_count, release_dates.date, release_dates.platform.name, " +
         "     slug, summary, tags, updated_at, url, websites.url");
     queryVars.put("where", "id = " + igdb_id);
-
-    return getArrayData(url, queryVars);
+    return queryVars;
   }
 
   public JSONArray getAllPlatforms() {
-    Preconditions.checkState(token != null);
-
     String url = api_url_base + "/platforms";
     HashMap<String, Object> queryVars = new HashMap<>();
     queryVars.put("fields", "*");
@@ -117,8 +146,6 @@ public class IGDBProviderImpl implements IGDBProvider {
 
   @Override
   public Optional<JSONObject> getCoverInfo(Integer game_id) {
-    Preconditions.checkState(token != null);
-
     String url = api_url_base + "/covers";
     HashMap<String, Object> queryVars = new HashMap<>();
     queryVars.put("where", "game = " + game_id);
@@ -134,8 +161,6 @@ public class IGDBProviderImpl implements IGDBProvider {
 
   @Override
   public JSONArray getCovers(Integer igdb_game_id) {
-    Preconditions.checkState(token != null);
-
     String url = api_url_base + "/covers";
     HashMap<String, Object> queryVars = new HashMap<>();
     queryVars.put("where", "game = " + igdb_game_id);
@@ -156,14 +181,31 @@ public class IGDBProviderImpl implements IGDBProvider {
     return Joiner.on(" ").join(paramStrings);
   }
 
-  private HttpResponse<String> getDataInternal(String url, Map<String, Object> queryParams) throws UnirestException {
+  private <T> HttpResponse<T> getDataInternal(String url, Map<String, Object> queryParams, ResponseReader<T> responseReader) throws UnirestException {
+    String token = tokenManager.getToken();
+    HttpResponse<T> response = getDataInternal(url, queryParams, token, responseReader);
+    if (response.getStatus() == 401) {
+      logger.info("Token rejected. Refreshing...");
+      response = getDataInternal(url, queryParams, tokenManager.refreshAfterRejection(token), responseReader);
+    }
+    return response;
+  }
+
+  private <T> HttpResponse<T> getDataInternal(String url, Map<String, Object> queryParams, String token, ResponseReader<T> responseReader) throws UnirestException {
     String body = createBodyFromParams(queryParams);
-    return Unirest.post(url)
-        .header("Accept", "application/json")
-        .header("Authorization", "Bearer " + token)
-        .header("Client-ID", igdb_client_id)
-        .body(body)
-        .asString();
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      HttpResponse<T> response = responseReader.read(Unirest.post(url)
+          .header("Accept", "application/json")
+          .header("Authorization", "Bearer " + token)
+          .header("Client-ID", igdb_client_id)
+          .body(body));
+      succeeded = response.getStatus() == 200;
+      return response;
+    } finally {
+      Metrics.recordExternalRequest("igdb", startNanos, succeeded);
+    }
   }
 
   private JSONArray getJsonArray(HttpResponse<String> stringData) {
@@ -179,12 +221,33 @@ public class IGDBProviderImpl implements IGDBProvider {
 
   private JSONArray getArrayData(String url, Map<String, Object> queryParams) {
     try {
-      return getJsonArray(getDataInternal(url, queryParams));
+      return getJsonArray(getDataInternal(url, queryParams, RequestBodyEntity::asString));
     } catch (UnirestException e) {
       throw new RuntimeException(e);
     }
   }
 
+  // Unirest reads the whole body into a byte array before asBinary returns, so this doesn't stream from the socket. It
+  // does decode records straight from those bytes, which skips building the body string and a JSONArray.
+  private List<IGDBGameRecord> getGameRecords(String url, Map<String, Object> queryParams) {
+    try {
+      HttpResponse<InputStream> response = getDataInternal(url, queryParams, RequestBodyEntity::asBinary);
+      try (Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)) {
+        return IGDBJsonDecoder.decodeGames(reader);
+      }
+    } catch (IOException | IllegalStateException e) {
+      logger.error("Unable to parse response from " + url);
+      throw new RuntimeException(e);
+    } catch (UnirestException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface ResponseReader<T> {
+    HttpResponse<T> read(RequestBodyEntity request) throws UnirestException;
+  }
+
   private JSONObject getJsonObject(HttpResponse<String> stringData) {
     String body = stringData.getBody();
     try {
@@ -199,7 +262,7 @@ public class IGDBProviderImpl implements IGDBProvider {
   @SuppressWarnings("unused")
   private JSONObject getObjectData(String url, Map<String, Object> queryParams) {
     try {
-      HttpResponse<String> dataInternal = getDataInternal(url, queryParams);
+      HttpResponse<String> dataInternal = getDataInternal(url, queryParams, RequestBodyEntity::asString);
       return getJsonObject(dataInternal);
     } catch (UnirestException e) {
       throw new RuntimeException(e);
@@ -0,0 +1,89 @@
+package com.mayhew3.mediamogul.games.provider;
+
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.mayhew3.mediamogul.games.provider.ReplayIGDBProvider.*;
+
+/**
+ * Passes every call through to another provider, and writes each response, with how long it took, into a replay
+ * corpus that {@link ReplayIGDBProvider} can serve later. Failed calls are recorded as failures, so their rate and
+ * timing replay too.
+ *
+ * The typed fetches use the interface defaults, so everything is recorded through the JSON fetches here. A problem
+ * writing the corpus is logged and otherwise ignored; it never fails the call being recorded.
+ */
+public class RecordingIGDBProvider implements IGDBProvider {
+
+  private final IGDBProvider delegate;
+  private final ReplayCorpus corpus;
+
+  private static final Logger logger = LogManager.getLogger(RecordingIGDBProvider.class);
+
+  public RecordingIGDBProvider(IGDBProvider delegate, ReplayCorpus corpus) {
+    this.delegate = delegate;
+    this.corpus = corpus;
+  }
+
+  @Override
+  public JSONArray findGameMatches(String gameTitle) {
+    return record(SEARCH, searchFile(gameTitle), () -> delegate.findGameMatches(gameTitle), JSONArray::toString);
+  }
+
+  @Override
+  public JSONArray getUpdatedInfo(Integer igdb_id) {
+    return record(GAME, gameFile(igdb_id), () -> delegate.getUpdatedInfo(igdb_id), JSONArray::toString);
+  }
+
+  // saved as an array of zero or one covers, the same shape as the response it came from.
+  @Override
+  public Optional<JSONObject> getCoverInfo(Integer igdb_cover_id) {
+    return record(COVER_INFO, coverInfoFile(igdb_cover_id), () -> delegate.getCoverInfo(igdb_cover_id),
+        cover -> {
+          JSONArray covers = new JSONArray();
+          cover.ifPresent(covers::put);
+          return covers.toString();
+        });
+  }
+
+  @Override
+  public JSONArray getCovers(Integer igdb_game_id) {
+    return record(COVERS, coversFile(igdb_game_id), () -> delegate.getCovers(igdb_game_id), JSONArray::toString);
+  }
+
+  private <T> T record(String endpoint, String fileName, Supplier<T> fetch, Function<T, String> serializer) {
+    long startNanos = System.nanoTime();
+    T response;
+    try {
+      response = fetch.get();
+    } catch (RuntimeException e) {
+      try {
+        corpus.recordFailure(endpoint, fileName, millisSince(startNanos));
+      } catch (IOException writeException) {
+        logger.warn("Unable to record failed IGDB call for " + fileName, writeException);
+      }
+      throw e;
+    }
+
+    long latencyMillis = millisSince(startNanos);
+    try {
+      corpus.recordResponse(endpoint, fileName, serializer.apply(response), latencyMillis);
+    } catch (IOException e) {
+      logger.warn("Unable to record IGDB response for " + fileName, e);
+    }
+    return response;
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
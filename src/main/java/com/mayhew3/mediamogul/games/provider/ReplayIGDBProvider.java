@@ -0,0 +1,116 @@
+package com.mayhew3.mediamogul.games.provider;
+
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
+import com.mayhew3.mediamogul.replay.ReplaySimulator;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves IGDB responses from a replay corpus, written by {@link RecordingIGDBProvider} or laid out by hand like the
+ * IGDBTest fixtures, with the latencies and failures the {@link ReplaySimulator} decides on.
+ */
+public class ReplayIGDBProvider implements IGDBProvider {
+
+  static final String SEARCH = "search";
+  static final String GAME = "game";
+  static final String COVER_INFO = "cover_info";
+  static final String COVERS = "covers";
+
+  private final ReplayCorpus corpus;
+  private final ReplaySimulator simulator;
+
+  public ReplayIGDBProvider(ReplayCorpus corpus, ReplaySimulator simulator) {
+    this.corpus = corpus;
+    this.simulator = simulator;
+  }
+
+  public static ReplayIGDBProvider fromEnvironment(Path directory) throws IOException {
+    ReplayCorpus corpus = new ReplayCorpus(directory);
+    return new ReplayIGDBProvider(corpus, ReplaySimulator.fromEnvironment(corpus));
+  }
+
+  static String searchFile(String gameTitle) {
+    return "search_" + ReplayCorpus.safeFileName(gameTitle) + ".json";
+  }
+
+  static String gameFile(Integer igdb_id) {
+    return "id_" + igdb_id + ".json";
+  }
+
+  static String coverInfoFile(Integer igdb_game_id) {
+    return "cover_info_" + igdb_game_id + ".json";
+  }
+
+  static String coversFile(Integer igdb_game_id) {
+    return "cover_id_" + igdb_game_id + ".json";
+  }
+
+  @Override
+  public JSONArray findGameMatches(String gameTitle) {
+    return replay(SEARCH, searchFile(gameTitle), this::parseJSONArray);
+  }
+
+  @Override
+  public List<IGDBGameRecord> findGameMatchRecords(String gameTitle) {
+    return replay(SEARCH, searchFile(gameTitle), IGDBJsonDecoder::decodeGames);
+  }
+
+  @Override
+  public JSONArray getUpdatedInfo(Integer igdb_id) {
+    return replay(GAME, gameFile(igdb_id), this::parseJSONArray);
+  }
+
+  @Override
+  public List<IGDBGameRecord> getUpdatedGameRecords(Integer igdb_id) {
+    return replay(GAME, gameFile(igdb_id), IGDBJsonDecoder::decodeGames);
+  }
+
+  // the fixtures only have the covers file, whose first entry is what the cover info fetch returns.
+  @Override
+  public Optional<JSONObject> getCoverInfo(Integer igdb_cover_id) {
+    String fileName = Files.exists(corpus.resolve(coverInfoFile(igdb_cover_id))) ?
+        coverInfoFile(igdb_cover_id) :
+        coversFile(igdb_cover_id);
+    JSONArray covers = replay(COVER_INFO, fileName, this::parseJSONArray);
+    return covers.length() > 0 ? Optional.of(covers.getJSONObject(0)) : Optional.empty();
+  }
+
+  @Override
+  public JSONArray getCovers(Integer igdb_game_id) {
+    return replay(COVERS, coversFile(igdb_game_id), this::parseJSONArray);
+  }
+
+  private <T> T replay(String endpoint, String fileName, ResponseDecoder<T> decoder) {
+    if (!simulator.nextCall(endpoint, fileName)) {
+      throw new RuntimeException("Replayed failure for " + fileName);
+    }
+    Path path = corpus.resolve(fileName);
+    if (!Files.exists(path)) {
+      throw new RuntimeException("No recorded response for " + fileName);
+    }
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      return decoder.decode(reader);
+    } catch (IOException | IllegalStateException | JSONException e) {
+      throw new RuntimeException("Unable to replay " + path, e);
+    }
+  }
+
+  private JSONArray parseJSONArray(Reader reader) {
+    return new JSONArray(new JSONTokener(reader));
+  }
+
+  @FunctionalInterface
+  private interface ResponseDecoder<T> {
+    T decode(Reader reader) throws IOException;
+  }
+}
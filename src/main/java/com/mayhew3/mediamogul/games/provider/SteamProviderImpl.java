@@ -1,5 +1,6 @@
 package com.mayhew3.mediamogul.games.provider;
 
+import com.mayhew3.mediamogul.metrics.Metrics;
 import com.mayhew3.postgresobject.EnvironmentChecker;
 import com.mayhew3.postgresobject.exception.MissingEnvException;
 import org.json.JSONException;
@@ -37,10 +38,16 @@ public class SteamProviderImpl implements SteamProvider {
   }
 
   private JSONObject readJsonFromUrl(String url) throws IOException, JSONException {
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
     try (InputStream is = new URL(url).openStream()) {
       BufferedReader rd = new BufferedReader(new InputStreamReader(is, Charset.forName("UTF-8")));
       String jsonText = readAll(rd);
-      return new JSONObject(jsonText);
+      JSONObject jsonObject = new JSONObject(jsonText);
+      succeeded = true;
+      return jsonObject;
+    } finally {
+      Metrics.recordExternalRequest("steam", startNanos, succeeded);
     }
   }
 
@@ -0,0 +1,103 @@
+package com.mayhew3.mediamogul.metrics;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The metrics the updater reports, so every caller records the same names and labels.
+ */
+public final class Metrics {
+
+  private static final MetricsRegistry registry = MetricsRegistry.getInstance();
+
+  private Metrics() {
+  }
+
+  public static void recordTaskRun(String taskName, long startNanos, boolean succeeded, @Nullable Integer itemsProcessed) {
+    double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+
+    registry.observe("mediamogul_task_duration_seconds",
+        "Wall time of each scheduled task run.",
+        seconds,
+        "task", taskName);
+    registry.incrementCounter("mediamogul_task_runs_total",
+        "Scheduled task runs, by outcome.",
+        1,
+        "task", taskName, "outcome", succeeded ? "success" : "failure");
+
+    if (itemsProcessed != null) {
+      registry.incrementCounter("mediamogul_task_items_processed_total",
+          "Items processed by tasks that report a count.",
+          itemsProcessed,
+          "task", taskName);
+      registry.setGauge("mediamogul_task_items_per_second",
+          "Items processed per second during the most recent run of the task.",
+          seconds > 0 ? itemsProcessed / seconds : 0,
+          "task", taskName);
+    }
+  }
+
+  public static void recordExternalRequest(String service, long startNanos, boolean succeeded) {
+    registry.observeSecondsSince("mediamogul_external_request_duration_seconds",
+        "Latency of requests to external services.",
+        startNanos,
+        "service", service);
+    if (!succeeded) {
+      registry.incrementCounter("mediamogul_external_request_errors_total",
+          "Requests to external services that failed or returned an unexpected status.",
+          1,
+          "service", service);
+    }
+  }
+
+  public static void recordRateLimiterWait(String service, String priority, long startNanos) {
+    registry.observeSecondsSince("mediamogul_rate_limiter_wait_seconds",
+        "Time requests waited for the adaptive rate limiter before being sent, by priority.",
+        startNanos,
+        "service", service, "priority", priority);
+  }
+
+  public static void recordRateLimiterBackoff(String service, String reason) {
+    registry.incrementCounter("mediamogul_rate_limiter_backoffs_total",
+        "Responses that asked the adaptive rate limiter to back off, by reason (throttled, server_error, failed, slow).",
+        1,
+        "service", service, "reason", reason);
+  }
+
+  public static void recordRateLimiterState(String service, double requestsPerSecond, double concurrencyLimit) {
+    registry.setGauge("mediamogul_rate_limiter_requests_per_second",
+        "Request rate the adaptive rate limiter currently allows.",
+        requestsPerSecond,
+        "service", service);
+    registry.setGauge("mediamogul_rate_limiter_concurrency",
+        "Requests the adaptive rate limiter currently allows in flight at once.",
+        concurrencyLimit,
+        "service", service);
+  }
+
+  public static void recordCacheLookup(String cache, String result) {
+    registry.incrementCounter("mediamogul_cache_lookups_total",
+        "Response cache lookups, by result (hit, revalidated, miss, bypass).",
+        1,
+        "cache", cache, "result", result);
+  }
+
+  public static void recordCacheSize(String cache, long bytes) {
+    registry.setGauge("mediamogul_cache_size_bytes",
+        "Bytes currently held by a response cache.",
+        bytes,
+        "cache", cache);
+  }
+
+  public static void recordQuery(String queryName, long startNanos) {
+    registry.observeSecondsSince("mediamogul_db_query_duration_seconds",
+        "Time spent in instrumented database queries.",
+        startNanos,
+        "query", queryName);
+  }
+
+  public static void recordConnectionWait(long startNanos) {
+    registry.observeSecondsSince("mediamogul_db_connection_wait_seconds",
+        "Time tasks spent waiting to borrow a pooled database connection.",
+        startNanos);
+  }
+}
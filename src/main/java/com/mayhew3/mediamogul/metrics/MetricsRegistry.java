@@ -0,0 +1,179 @@
+package com.mayhew3.mediamogul.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal in-process metrics store: counters, gauges and histograms keyed by name and label values, rendered in the
+ * Prometheus text exposition format by scrape(). Labels are passed as alternating name/value pairs.
+ */
+public class MetricsRegistry {
+
+  private static final MetricsRegistry instance = new MetricsRegistry();
+
+  static final double[] DEFAULT_BUCKETS = {
+      0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800
+  };
+
+  private enum MetricType {COUNTER, GAUGE, HISTOGRAM}
+
+  private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+  public static MetricsRegistry getInstance() {
+    return instance;
+  }
+
+  public void incrementCounter(String name, String help, double amount, String... labels) {
+    Preconditions.checkArgument(amount >= 0, "Counters can only go up.");
+    Value value = (Value) getFamily(name, help, MetricType.COUNTER).getOrCreate(labels);
+    value.add(amount);
+  }
+
+  public void setGauge(String name, String help, double amount, String... labels) {
+    Value value = (Value) getFamily(name, help, MetricType.GAUGE).getOrCreate(labels);
+    value.set(amount);
+  }
+
+  public void observe(String name, String help, double amount, String... labels) {
+    Histogram histogram = (Histogram) getFamily(name, help, MetricType.HISTOGRAM).getOrCreate(labels);
+    histogram.observe(amount);
+  }
+
+  public void observeSecondsSince(String name, String help, long startNanos, String... labels) {
+    observe(name, help, (System.nanoTime() - startNanos) / 1_000_000_000.0, labels);
+  }
+
+  public String scrape() {
+    StringBuilder sb = new StringBuilder();
+    for (Family family : new TreeMap<>(families).values()) {
+      family.write(sb);
+    }
+    return sb.toString();
+  }
+
+  private Family getFamily(String name, String help, MetricType type) {
+    Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+    if (family.type != type) {
+      throw new IllegalArgumentException("Metric '" + name + "' is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  private static String formatLabels(String... labels) {
+    Preconditions.checkArgument(labels.length % 2 == 0, "Labels must be name/value pairs.");
+    if (labels.length == 0) {
+      return "";
+    }
+    List<String> pairs = new ArrayList<>();
+    for (int i = 0; i < labels.length; i += 2) {
+      pairs.add(labels[i] + "=\"" + escape(labels[i + 1]) + "\"");
+    }
+    return "{" + String.join(",", pairs) + "}";
+  }
+
+  private static String escape(String labelValue) {
+    return String.valueOf(labelValue)
+        .replace("\\", "\\\\")
+        .replace("\"", "\\\"")
+        .replace("\n", "\\n");
+  }
+
+  private static String formatNumber(double number) {
+    if (number == Math.rint(number) && !Double.isInfinite(number)) {
+      return Long.toString((long) number);
+    }
+    return Double.toString(number);
+  }
+
+  // histogram samples need "le" appended to whatever labels the series already has.
+  private static String withLe(String formattedLabels, String le) {
+    String leLabel = "le=\"" + le + "\"";
+    if (formattedLabels.isEmpty()) {
+      return "{" + leLabel + "}";
+    }
+    return formattedLabels.substring(0, formattedLabels.length() - 1) + "," + leLabel + "}";
+  }
+
+  private static class Family {
+    private final String name;
+    private final String help;
+    private final MetricType type;
+    private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+    private Family(String name, String help, MetricType type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    private Object getOrCreate(String... labels) {
+      return series.computeIfAbsent(formatLabels(labels), key -> type == MetricType.HISTOGRAM ? new Histogram(DEFAULT_BUCKETS) : new Value());
+    }
+
+    private void write(StringBuilder sb) {
+      sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+      sb.append("# TYPE ").append(name).append(" ").append(type.name().toLowerCase()).append("\n");
+      for (Map.Entry<String, Object> entry : new TreeMap<>(series).entrySet()) {
+        String labels = entry.getKey();
+        if (type == MetricType.HISTOGRAM) {
+          ((Histogram) entry.getValue()).write(sb, name, labels);
+        } else {
+          sb.append(name).append(labels).append(" ").append(formatNumber(((Value) entry.getValue()).get())).append("\n");
+        }
+      }
+    }
+  }
+
+  private static class Value {
+    private double value = 0;
+
+    private synchronized void add(double amount) {
+      value += amount;
+    }
+
+    private synchronized void set(double amount) {
+      value = amount;
+    }
+
+    private synchronized double get() {
+      return value;
+    }
+  }
+
+  private static class Histogram {
+    private final double[] upperBounds;
+    private final long[] bucketCounts;
+    private double sum = 0;
+    private long count = 0;
+
+    private Histogram(double[] upperBounds) {
+      this.upperBounds = upperBounds;
+      this.bucketCounts = new long[upperBounds.length];
+    }
+
+    private synchronized void observe(double amount) {
+      for (int i = 0; i < upperBounds.length; i++) {
+        if (amount <= upperBounds[i]) {
+          bucketCounts[i]++;
+          break;
+        }
+      }
+      sum += amount;
+      count++;
+    }
+
+    private synchronized void write(StringBuilder sb, String name, String labels) {
+      long cumulative = 0;
+      for (int i = 0; i < upperBounds.length; i++) {
+        cumulative += bucketCounts[i];
+        sb.append(name).append("_bucket").append(withLe(labels, formatNumber(upperBounds[i])))
+            .append(" ").append(cumulative).append("\n");
+      }
+      sb.append(name).append("_bucket").append(withLe(labels, "+Inf")).append(" ").append(count).append("\n");
+      sb.append(name).append("_sum").append(labels).append(" ").append(formatNumber(sum)).append("\n");
+      sb.append(name).append("_count").append(labels).append(" ").append(count).append("\n");
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.mayhew3.mediamogul.metrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the contents of a MetricsRegistry at /metrics for Prometheus to scrape.
+ */
+public class MetricsServer {
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final MetricsRegistry registry;
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final Logger logger = LogManager.getLogger(MetricsServer.class);
+
+  public MetricsServer(int port, MetricsRegistry registry) throws IOException {
+    this.registry = registry;
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("metrics-server")
+        .setDaemon(true)
+        .build());
+
+    server.createContext("/metrics", this::handleScrape);
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    server.start();
+    logger.info("Serving metrics on port " + server.getAddress().getPort() + ".");
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handleScrape(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream outputStream = exchange.getResponseBody()) {
+        outputStream.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -14,6 +14,8 @@ public class ExternalService extends DataObject {
   public FieldValueString service_name = registerStringField("service_name", Nullability.NOT_NULL);
   public FieldValueTimestamp last_connect = registerTimestampField("last_connect", Nullability.NULLABLE);
   public FieldValueTimestamp last_failure = registerTimestampField("last_failure", Nullability.NULLABLE);
+  public FieldValueString access_token = registerStringField("access_token", Nullability.NULLABLE);
+  public FieldValueTimestamp access_token_expires = registerTimestampField("access_token_expires", Nullability.NULLABLE);
 
   @Override
   public String getTableName() {
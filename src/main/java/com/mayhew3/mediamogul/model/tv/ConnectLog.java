@@ -18,6 +18,7 @@ public class ConnectLog extends DataObject {
 
   public FieldValueString taskName = registerStringField("task_name", Nullability.NOT_NULL).defaultValue("Legacy");
   public FieldValueString taskMode = registerStringField("task_mode", Nullability.NULLABLE).defaultValue("Quick");
+  public FieldValueString resumeCursor = registerStringField("resume_cursor", Nullability.NULLABLE);
 
   public FieldValueBoolean fastUpdate = registerBooleanField("fast_update", Nullability.NOT_NULL).defaultValue(true);
 
@@ -40,6 +40,9 @@ public class TVDBEpisode extends RetireableDataObject {
   public FieldValue<String> writer = registerStringField("writer", Nullability.NULLABLE);
   public FieldValue<String> filename = registerStringField("filename", Nullability.NULLABLE);
 
+  /* Hash of the TVDB fields we consume, as of the last time they were applied. */
+  public FieldValue<String> contentDigest = registerStringField("content_digest", Nullability.NULLABLE);
+
   public FieldValueInteger apiVersion = registerIntegerField("api_version", Nullability.NOT_NULL).defaultValue(1);
 
   public TVDBEpisode() {
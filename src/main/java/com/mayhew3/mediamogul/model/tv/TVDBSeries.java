@@ -33,6 +33,9 @@ public class TVDBSeries extends RetireableDataObject {
   public FieldValue<String> imdbId = registerStringField("imdb_id", Nullability.NULLABLE);
   public FieldValue<String> zap2it_id = registerStringField("zap2it_id", Nullability.NULLABLE);
 
+  /* Hash of the TVDB fields we consume, as of the last time they were applied. */
+  public FieldValue<String> contentDigest = registerStringField("content_digest", Nullability.NULLABLE);
+
   public FieldValueInteger apiVersion = registerIntegerField("api_version", Nullability.NOT_NULL).defaultValue(1);
 
   public TVDBSeries() {
@@ -11,6 +11,12 @@ public class TVDBWorkItem extends RetireableDataObject {
   public FieldValueTimestamp lastUpdated = registerTimestampField("last_updated", Nullability.NOT_NULL);
   public FieldValueTimestamp processedTime = registerTimestampField("processed_time", Nullability.NULLABLE);
 
+  /* Queue lease, held by whichever worker is processing the item. */
+  public FieldValueString leaseToken = registerStringField("lease_token", Nullability.NULLABLE);
+  public FieldValueTimestamp leaseExpires = registerTimestampField("lease_expires", Nullability.NULLABLE);
+  public FieldValueInteger attempts = registerIntegerField("attempts", Nullability.NOT_NULL).defaultValue(0);
+  public FieldValueTimestamp nextAttemptTime = registerTimestampField("next_attempt_time", Nullability.NULLABLE);
+
   @Override
   public String getTableName() {
     return "tvdb_work_item";
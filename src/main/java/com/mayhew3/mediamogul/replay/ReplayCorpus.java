@@ -0,0 +1,127 @@
+package com.mayhew3.mediamogul.replay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A directory of recorded responses from one external service, one file per response, named the same way as the
+ * hand-made fixtures under src/test/resources so either can be replayed. The latency.tsv file beside them lists every
+ * recorded call in order: endpoint, file, how long it took in milliseconds, and whether it succeeded.
+ */
+public class ReplayCorpus {
+
+  public static final String LATENCY_FILE = "latency.tsv";
+
+  private final Path directory;
+  private final Object latencyFileLock = new Object();
+
+  private static final Logger logger = LogManager.getLogger(ReplayCorpus.class);
+
+  public ReplayCorpus(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Titles go into file names as they are, like the fixtures, except for characters a file name can't hold.
+   */
+  public static String safeFileName(String name) {
+    return name.replaceAll("[\\\\/:*?\"<>|]", "_");
+  }
+
+  public Path resolve(String fileName) {
+    return directory.resolve(fileName);
+  }
+
+  public void recordResponse(String endpoint, String fileName, String body, long latencyMillis) throws IOException {
+    Path target = resolve(fileName);
+    Path temp = resolve(fileName + ".tmp" + Thread.currentThread().getId());
+    Files.write(temp, body.getBytes(StandardCharsets.UTF_8));
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    appendCall(new RecordedCall(endpoint, fileName, latencyMillis, true));
+  }
+
+  /**
+   * A call the service answered with "not modified" keeps the response recorded before, and adds to the timings as a
+   * success.
+   */
+  public void recordUnchanged(String endpoint, String fileName, long latencyMillis) throws IOException {
+    appendCall(new RecordedCall(endpoint, fileName, latencyMillis, true));
+  }
+
+  /**
+   * A failed call keeps whatever response was recorded for the file before, and only adds to the timings.
+   */
+  public void recordFailure(String endpoint, String fileName, long latencyMillis) throws IOException {
+    appendCall(new RecordedCall(endpoint, fileName, latencyMillis, false));
+  }
+
+  public List<RecordedCall> readCalls() throws IOException {
+    List<RecordedCall> calls = new ArrayList<>();
+    Path latencyFile = resolve(LATENCY_FILE);
+    if (!Files.exists(latencyFile)) {
+      return calls;
+    }
+    for (String line : Files.readAllLines(latencyFile, StandardCharsets.UTF_8)) {
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\t");
+      if (fields.length != 4) {
+        logger.warn("Skipping malformed line in " + latencyFile + ": " + line);
+        continue;
+      }
+      calls.add(new RecordedCall(fields[0], fields[1], Long.parseLong(fields[2]), "ok".equals(fields[3])));
+    }
+    return calls;
+  }
+
+  private void appendCall(RecordedCall call) throws IOException {
+    String line = call.getEndpoint() + "\t" + call.getFileName() + "\t" + call.getLatencyMillis() + "\t" +
+        (call.isSucceeded() ? "ok" : "error") + "\n";
+    synchronized (latencyFileLock) {
+      Files.write(resolve(LATENCY_FILE), line.getBytes(StandardCharsets.UTF_8),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+  }
+
+  public static class RecordedCall {
+    private final String endpoint;
+    private final String fileName;
+    private final long latencyMillis;
+    private final boolean succeeded;
+
+    public RecordedCall(String endpoint, String fileName, long latencyMillis, boolean succeeded) {
+      this.endpoint = endpoint;
+      this.fileName = fileName;
+      this.latencyMillis = latencyMillis;
+      this.succeeded = succeeded;
+    }
+
+    public String getEndpoint() {
+      return endpoint;
+    }
+
+    public String getFileName() {
+      return fileName;
+    }
+
+    public long getLatencyMillis() {
+      return latencyMillis;
+    }
+
+    public boolean isSucceeded() {
+      return succeeded;
+    }
+  }
+}
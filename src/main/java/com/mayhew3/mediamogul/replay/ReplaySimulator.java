@@ -0,0 +1,134 @@
+package com.mayhew3.mediamogul.replay;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Plays back the timing of a replay corpus. Before each replayed call it waits as long as that call took when it was
+ * recorded, and fails it if the recorded call failed, so slow paths and error handling run the way they did against the
+ * real service.
+ *
+ * The calls recorded for a file are played back in order, wrapping around. A file with no recorded calls, like a
+ * hand-made fixture, gets a random latency and failure from everything recorded for its endpoint instead.
+ *
+ * Either can be overridden from the environment: REPLAY_LATENCY_SCALE multiplies every latency (0 turns waiting off),
+ * REPLAY_LATENCY_MS replaces them with a fixed one, and REPLAY_ERROR_RATE fails that fraction of calls at random in
+ * place of the recorded failures. REPLAY_SEED fixes the random choices. Each call draws from its own generator, seeded
+ * from REPLAY_SEED, its file and how many times that file has been asked for, so the choices don't depend on how the
+ * worker threads interleave: a run that asks for each file in the same order gets the same latencies and failures.
+ */
+public class ReplaySimulator {
+
+  private final Map<String, List<ReplayCorpus.RecordedCall>> callsByFile = new HashMap<>();
+  private final Map<String, List<ReplayCorpus.RecordedCall>> callsByEndpoint = new HashMap<>();
+  private final Map<String, AtomicInteger> requestsByFile = new ConcurrentHashMap<>();
+
+  private final double latencyScale;
+  @Nullable
+  private final Long fixedLatencyMillis;
+  @Nullable
+  private final Double errorRate;
+  private final long seed;
+  private final LongConsumer sleeper;
+
+  private static final Logger logger = LogManager.getLogger(ReplaySimulator.class);
+
+  public ReplaySimulator(List<ReplayCorpus.RecordedCall> recordedCalls,
+                         double latencyScale,
+                         @Nullable Long fixedLatencyMillis,
+                         @Nullable Double errorRate,
+                         long seed) {
+    this(recordedCalls, latencyScale, fixedLatencyMillis, errorRate, seed, ReplaySimulator::sleep);
+  }
+
+  @VisibleForTesting
+  ReplaySimulator(List<ReplayCorpus.RecordedCall> recordedCalls,
+                  double latencyScale,
+                  @Nullable Long fixedLatencyMillis,
+                  @Nullable Double errorRate,
+                  long seed,
+                  LongConsumer sleeper) {
+    for (ReplayCorpus.RecordedCall call : recordedCalls) {
+      callsByFile.computeIfAbsent(call.getFileName(), fileName -> new ArrayList<>()).add(call);
+      callsByEndpoint.computeIfAbsent(call.getEndpoint(), endpoint -> new ArrayList<>()).add(call);
+    }
+    this.latencyScale = latencyScale;
+    this.fixedLatencyMillis = fixedLatencyMillis;
+    this.errorRate = errorRate;
+    this.seed = seed;
+    this.sleeper = sleeper;
+  }
+
+  public static ReplaySimulator fromEnvironment(ReplayCorpus corpus) throws IOException {
+    String latencyScale = System.getenv("REPLAY_LATENCY_SCALE");
+    String fixedLatency = System.getenv("REPLAY_LATENCY_MS");
+    String errorRate = System.getenv("REPLAY_ERROR_RATE");
+    String seed = System.getenv("REPLAY_SEED");
+
+    List<ReplayCorpus.RecordedCall> recordedCalls = corpus.readCalls();
+    logger.info("Replaying " + corpus.getDirectory() + " with " + recordedCalls.size() + " recorded calls.");
+
+    return new ReplaySimulator(
+        recordedCalls,
+        latencyScale == null ? 1.0 : Double.parseDouble(latencyScale),
+        fixedLatency == null ? null : Long.parseLong(fixedLatency),
+        errorRate == null ? null : Double.parseDouble(errorRate),
+        seed == null ? System.nanoTime() : Long.parseLong(seed));
+  }
+
+  /**
+   * Wait out the next call's latency.
+   *
+   * @return Whether the call should succeed.
+   */
+  public boolean nextCall(String endpoint, String fileName) {
+    int requestIndex = requestsByFile.computeIfAbsent(fileName, key -> new AtomicInteger()).getAndIncrement();
+    Random random = new Random((seed * 31 + fileName.hashCode()) * 31 + requestIndex);
+
+    ReplayCorpus.RecordedCall call = pickCall(endpoint, fileName, requestIndex, random);
+
+    long latencyMillis;
+    if (fixedLatencyMillis != null) {
+      latencyMillis = fixedLatencyMillis;
+    } else {
+      latencyMillis = call == null ? 0 : Math.round(call.getLatencyMillis() * latencyScale);
+    }
+    if (latencyMillis > 0) {
+      sleeper.accept(latencyMillis);
+    }
+
+    if (errorRate != null) {
+      return random.nextDouble() >= errorRate;
+    }
+    return call == null || call.isSucceeded();
+  }
+
+  @Nullable
+  private ReplayCorpus.RecordedCall pickCall(String endpoint, String fileName, int requestIndex, Random random) {
+    List<ReplayCorpus.RecordedCall> fileCalls = callsByFile.get(fileName);
+    if (fileCalls != null) {
+      return fileCalls.get(Math.floorMod(requestIndex, fileCalls.size()));
+    }
+    List<ReplayCorpus.RecordedCall> endpointCalls = callsByEndpoint.get(endpoint);
+    if (endpointCalls != null) {
+      return endpointCalls.get(random.nextInt(endpointCalls.size()));
+    }
+    return null;
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
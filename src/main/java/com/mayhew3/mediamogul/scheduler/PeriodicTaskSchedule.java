@@ -1,31 +1,44 @@
 package com.mayhew3.mediamogul.scheduler;
 
-import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.joda.time.DateTime;
-import org.joda.time.Minutes;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class PeriodicTaskSchedule {
-  protected SQLConnection connection;
+  private final TaskRunRegistry taskRunRegistry;
+  private final UpdateRunnerFactory runnerFactory;
   private UpdateRunner updateRunner;
   private Integer minutesBetween;
+  private boolean interactive = false;
 
   @Nullable
-  private Date lastRan = null;
+  private Integer maxMinutesBetween;
+  private volatile int currentMinutesBetween;
+
+  @Nullable
+  private String wakeupChannel;
+  @Nullable
+  private Integer maxRunMinutes;
+
+  private long maxJitterMillis = 0;
+  private volatile long jitterMillis = 0;
 
   private static Logger logger = LogManager.getLogger(PeriodicTaskSchedule.class);
 
-  PeriodicTaskSchedule(UpdateRunner updateRunner, SQLConnection connection) {
+  /**
+   * @param runnerFactory Creates the runner that does the actual work, once per run.
+   * @param updateRunner Instance used only for the task's identity and required resources; never run.
+   */
+  PeriodicTaskSchedule(UpdateRunnerFactory runnerFactory, UpdateRunner updateRunner, TaskRunRegistry taskRunRegistry) {
+    this.runnerFactory = runnerFactory;
     this.updateRunner = updateRunner;
-    this.connection = connection;
+    this.taskRunRegistry = taskRunRegistry;
   }
 
   @NotNull
@@ -33,17 +46,52 @@ public class PeriodicTaskSchedule {
     return updateRunner;
   }
 
+  @NotNull
+  UpdateRunnerFactory getRunnerFactory() {
+    return runnerFactory;
+  }
+
   void updateLastRanToNow() {
-    this.lastRan = new Date();
+    taskRunRegistry.recordRun(updateRunner.getUniqueIdentifier(), getTaskMode(), new Date());
+    rollJitter();
   }
 
   PeriodicTaskSchedule withMinutesBetween(Integer minutesBetween) {
     this.minutesBetween = minutesBetween;
+    this.currentMinutesBetween = minutesBetween;
     return this;
   }
 
   PeriodicTaskSchedule withHoursBetween(Integer hoursBetween) {
-    this.minutesBetween = hoursBetween * 60;
+    return withMinutesBetween(hoursBetween * 60);
+  }
+
+  /**
+   * Mark this task as answering a user action, so the execution engine runs it ahead of background work and keeps a
+   * worker and a share of each contended resource free for it.
+   */
+  PeriodicTaskSchedule withInteractivePriority() {
+    this.interactive = true;
+    return this;
+  }
+
+  boolean isInteractive() {
+    return interactive;
+  }
+
+  /**
+   * Let the period stretch while the runner keeps coming back empty: each run that reports zero items processed
+   * doubles the wait, up to maxMinutesBetween, and the first run that finds work drops it straight back to the
+   * configured period. Only has an effect for runners that report getItemsProcessed().
+   */
+  PeriodicTaskSchedule withAdaptiveBackoff(Integer maxMinutesBetween) {
+    if (this.minutesBetween == null) {
+      throw new IllegalStateException("Must set the base period via withMinutesBetween() or withHoursBetween() before adding backoff.");
+    }
+    if (maxMinutesBetween < minutesBetween) {
+      throw new IllegalArgumentException("Max period of " + maxMinutesBetween + " is shorter than base period of " + minutesBetween);
+    }
+    this.maxMinutesBetween = maxMinutesBetween;
     return this;
   }
 
@@ -51,52 +99,92 @@ public class PeriodicTaskSchedule {
     return minutesBetween;
   }
 
-  @NotNull Boolean isEligibleToRun() {
+  int getCurrentMinutesBetween() {
+    return currentMinutesBetween;
+  }
+
+  void recordItemsProcessed(@Nullable Integer itemsProcessed) {
+    if (maxMinutesBetween == null || itemsProcessed == null) {
+      return;
+    }
+    int previous = currentMinutesBetween;
+    if (itemsProcessed > 0) {
+      currentMinutesBetween = minutesBetween;
+    } else {
+      currentMinutesBetween = Math.min(Math.max(previous, 1) * 2, maxMinutesBetween);
+    }
+    if (previous != currentMinutesBetween) {
+      logger.debug("Task '" + this + "' processed " + itemsProcessed + " items. Period changed from " +
+          previous + " to " + currentMinutesBetween + " minutes.");
+    }
+  }
+
+  /**
+   * Spread runs of this task out by up to maxJitterSeconds past its nominal time, so tasks that share a period don't
+   * all land on the same tick.
+   */
+  PeriodicTaskSchedule withJitter(Integer maxJitterSeconds) {
+    this.maxJitterMillis = maxJitterSeconds * 1000L;
+    rollJitter();
+    return this;
+  }
+
+  /**
+   * Run this task as soon as a NOTIFY arrives on the given Postgres channel, rather than only on its period. The period
+   * is then just a fallback in case a notification is missed.
+   */
+  PeriodicTaskSchedule withWakeupChannel(String channel) {
+    this.wakeupChannel = channel;
+    return this;
+  }
+
+  @Nullable
+  String getWakeupChannel() {
+    return wakeupChannel;
+  }
+
+  /**
+   * Cap each run at this many minutes. Runners that support it stop at the next item boundary once the time is up, and
+   * resume from where they stopped on the following run.
+   */
+  PeriodicTaskSchedule withMaxRunMinutes(Integer maxRunMinutes) {
+    this.maxRunMinutes = maxRunMinutes;
+    return this;
+  }
+
+  TaskBudget createBudget() {
+    String resumeCursor = taskRunRegistry.getResumeCursor(updateRunner.getUniqueIdentifier(), getTaskMode());
+    return maxRunMinutes == null ? TaskBudget.unlimited(resumeCursor) : TaskBudget.forMinutes(maxRunMinutes, resumeCursor);
+  }
+
+  /**
+   * @return Epoch millis at which this task is next due. A task that has never run is due immediately.
+   */
+  long getNextRunMillis() {
     if (this.minutesBetween == null) {
       throw new IllegalStateException("Cannot run PeriodicTask before initializing the periodicity via withMinutesBetween() or withHoursBetween().");
     }
+    Date lastRan = taskRunRegistry.getLastRun(updateRunner.getUniqueIdentifier(), getTaskMode());
     if (lastRan == null) {
-      updateLastRanFromDB();
-      if (lastRan == null) {
-        logger.info("Task '" + getUpdateRunner().getUniqueIdentifier() + "' has never been run! Running for first time.");
-        return true;
-      }
-    }
-    Minutes minutes = Minutes.minutesBetween(new DateTime(lastRan), new DateTime());
-    boolean periodExceeded = minutes.getMinutes() >= minutesBetween;
-    if (periodExceeded) {
-      logger.debug("Task '" + getUpdateRunner().getUniqueIdentifier() +
-          "' is eligible to be run: Period of " + minutesBetween + " minutes, last run: " +
-          lastRan + " (" + minutes.getMinutes() + " minutes ago)");
-    }
-    return periodExceeded;
-  }
-
-  private void updateLastRanFromDB() {
-    try {
-      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
-          "SELECT MAX(end_time) AS max_end_time " +
-              "FROM connect_log " +
-              "WHERE task_name = ? ",
-          getUpdateRunner().getUniqueIdentifier());
-      if (resultSet.next()) {
-        Timestamp maxEndTime = resultSet.getTimestamp("max_end_time");
-        if (maxEndTime != null) {
-          lastRan = new Date(maxEndTime.getTime());
-        }
-      }
-    } catch (SQLException e) {
-      throw new RuntimeException(e);
+      logger.info("Task '" + getUpdateRunner().getUniqueIdentifier() + "' has never been run! Running for first time.");
+      return System.currentTimeMillis();
     }
+    return new DateTime(lastRan).plusMinutes(currentMinutesBetween).getMillis() + jitterMillis;
+  }
+
+  @Nullable
+  private String getTaskMode() {
+    UpdateMode updateMode = updateRunner.getUpdateMode();
+    return updateMode == null ? null : updateMode.getTypekey();
   }
 
-  Long getMillisUntilNextRun() {
-    DateTime nextRun = new DateTime(lastRan).plusMinutes(minutesBetween);
-    return nextRun.toDate().getTime() - new Date().getTime();
+  private void rollJitter() {
+    jitterMillis = maxJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(maxJitterMillis + 1) : 0;
   }
 
   @Override
   public String toString() {
-    return updateRunner.getUniqueIdentifier();
+    String taskMode = getTaskMode();
+    return taskMode == null ? updateRunner.getUniqueIdentifier() : updateRunner.getUniqueIdentifier() + " [" + taskMode + "]";
   }
 }
@@ -0,0 +1,74 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Time slice handed to an UpdateRunner for a single run. Runners that can stop partway through check isExhausted()
+ * between items, and record how far they got with checkpoint(), so the next run can pick up from getResumeCursor()
+ * instead of starting over. Runners that finish a whole pass call completed() so the next run starts fresh.
+ */
+public class TaskBudget {
+
+  private final long deadlineMillis;
+
+  @Nullable
+  private final String resumeCursor;
+  @Nullable
+  private volatile String nextCursor;
+
+  private volatile boolean cancelled = false;
+
+  private TaskBudget(long deadlineMillis, @Nullable String resumeCursor) {
+    this.deadlineMillis = deadlineMillis;
+    this.resumeCursor = resumeCursor;
+    this.nextCursor = resumeCursor;
+  }
+
+  public static TaskBudget unlimited() {
+    return new TaskBudget(Long.MAX_VALUE, null);
+  }
+
+  public static TaskBudget unlimited(@Nullable String resumeCursor) {
+    return new TaskBudget(Long.MAX_VALUE, resumeCursor);
+  }
+
+  public static TaskBudget forMinutes(Integer minutes, @Nullable String resumeCursor) {
+    return new TaskBudget(System.currentTimeMillis() + minutes * 60 * 1000L, resumeCursor);
+  }
+
+  public boolean isExhausted() {
+    return cancelled || System.currentTimeMillis() >= deadlineMillis;
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return Cursor saved by the previous run of this task, or null to start from the beginning.
+   */
+  @Nullable
+  public String getResumeCursor() {
+    return resumeCursor;
+  }
+
+  /**
+   * Convenience for the common case where the cursor is the last id processed, for queries ordered by id.
+   */
+  public int getResumeAfterId() {
+    return resumeCursor == null ? 0 : Integer.parseInt(resumeCursor);
+  }
+
+  public void checkpoint(Object position) {
+    nextCursor = String.valueOf(position);
+  }
+
+  public void completed() {
+    nextCursor = null;
+  }
+
+  @Nullable
+  public String getNextCursor() {
+    return nextCursor;
+  }
+}
@@ -0,0 +1,168 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs PeriodicTaskSchedules on a fixed pool of worker threads, enforcing the per-resource caps declared by each
+ * UpdateRunner. Submission never blocks: if a task's resources are all in use, trySubmit returns false and the
+ * caller is expected to offer it again after something else finishes.
+ *
+ * Interactive schedules (new series, new games, manual TVDB requests) get priority so they are picked up promptly
+ * even while long background runs are in flight:
+ * <ul>
+ *   <li>Background tasks can use all but one worker thread, and all but one permit of any resource capped above one.</li>
+ *   <li>Once an interactive task has been turned away for lack of a resource, no background task can take that
+ *   resource until the interactive task has been submitted. Single-permit resources then go to it as soon as the
+ *   current holder finishes.</li>
+ * </ul>
+ * With a single worker there is no thread to hold back, so tasks run one at a time, interactive ones first.
+ */
+class TaskExecutionEngine {
+
+  static final int RESERVED_INTERACTIVE_WORKERS = 1;
+  static final int RESERVED_INTERACTIVE_PERMITS = 1;
+
+  private final int workerThreads;
+  private final int backgroundWorkerLimit;
+  private final ExecutorService executor;
+  private final Map<TaskResource, Integer> permitsInUse = new EnumMap<>(TaskResource.class);
+  private final Set<PeriodicTaskSchedule> runningTasks = new HashSet<>();
+  private final Map<PeriodicTaskSchedule, List<TaskResource>> waitingInteractiveTasks = new HashMap<>();
+  private int runningBackgroundTasks = 0;
+
+  private final Consumer<PeriodicTaskSchedule> taskAction;
+  private final Consumer<PeriodicTaskSchedule> completionListener;
+
+  private static final Logger logger = LogManager.getLogger(TaskExecutionEngine.class);
+
+  TaskExecutionEngine(int workerThreads,
+                      Consumer<PeriodicTaskSchedule> taskAction,
+                      Consumer<PeriodicTaskSchedule> completionListener) {
+    if (workerThreads < 1) {
+      throw new IllegalArgumentException("Need at least one worker thread, got " + workerThreads);
+    }
+    this.workerThreads = workerThreads;
+    this.backgroundWorkerLimit = Math.max(1, workerThreads - RESERVED_INTERACTIVE_WORKERS);
+    this.executor = Executors.newFixedThreadPool(workerThreads, new ThreadFactoryBuilder()
+        .setNameFormat("task-worker-%d")
+        .build());
+    this.taskAction = taskAction;
+    this.completionListener = completionListener;
+
+    for (TaskResource resource : TaskResource.values()) {
+      permitsInUse.put(resource, 0);
+    }
+  }
+
+  /**
+   * @return true if the task was handed to a worker, false if it is already running, there is no worker free for it,
+   * or one of its resources is at capacity.
+   */
+  synchronized boolean trySubmit(PeriodicTaskSchedule taskSchedule) {
+    if (runningTasks.contains(taskSchedule)) {
+      return false;
+    }
+
+    boolean interactive = taskSchedule.isInteractive();
+    List<TaskResource> resources = getResources(taskSchedule);
+
+    if (!interactive && !backgroundMayStart(resources)) {
+      logger.debug("Holding back background task '" + taskSchedule + "' for interactive work.");
+      return false;
+    }
+    if (runningTasks.size() >= workerThreads || !hasCapacity(resources, interactive)) {
+      if (interactive) {
+        waitingInteractiveTasks.put(taskSchedule, resources);
+      }
+      logger.debug("Resources busy for task '" + taskSchedule + "'. Will retry after a running task completes.");
+      return false;
+    }
+
+    acquireAll(resources);
+    waitingInteractiveTasks.remove(taskSchedule);
+    runningTasks.add(taskSchedule);
+    if (!interactive) {
+      runningBackgroundTasks++;
+    }
+    executor.submit(() -> runTask(taskSchedule, resources, interactive));
+    return true;
+  }
+
+  synchronized boolean isRunning(PeriodicTaskSchedule taskSchedule) {
+    return runningTasks.contains(taskSchedule);
+  }
+
+  synchronized boolean hasRunningTasks() {
+    return !runningTasks.isEmpty();
+  }
+
+  void shutdown() {
+    executor.shutdown();
+  }
+
+  private void runTask(PeriodicTaskSchedule taskSchedule, List<TaskResource> resources, boolean interactive) {
+    try {
+      taskAction.accept(taskSchedule);
+    } catch (Throwable e) {
+      logger.error("Unhandled error running task '" + taskSchedule + "'.", e);
+    } finally {
+      synchronized (this) {
+        releaseAll(resources);
+        runningTasks.remove(taskSchedule);
+        if (!interactive) {
+          runningBackgroundTasks--;
+        }
+      }
+      completionListener.accept(taskSchedule);
+    }
+  }
+
+  private List<TaskResource> getResources(PeriodicTaskSchedule taskSchedule) {
+    return new ArrayList<>(taskSchedule.getUpdateRunner().getRequiredResources());
+  }
+
+  private boolean backgroundMayStart(List<TaskResource> resources) {
+    if (runningBackgroundTasks >= backgroundWorkerLimit) {
+      return false;
+    }
+    for (List<TaskResource> claimed : waitingInteractiveTasks.values()) {
+      if (!Collections.disjoint(claimed, resources)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean hasCapacity(List<TaskResource> resources, boolean interactive) {
+    for (TaskResource resource : resources) {
+      int limit = resource.getMaxConcurrent();
+      if (!interactive && limit > RESERVED_INTERACTIVE_PERMITS) {
+        limit -= RESERVED_INTERACTIVE_PERMITS;
+      }
+      if (permitsInUse.get(resource) >= limit) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void acquireAll(List<TaskResource> resources) {
+    for (TaskResource resource : resources) {
+      permitsInUse.merge(resource, 1, Integer::sum);
+    }
+  }
+
+  private void releaseAll(List<TaskResource> resources) {
+    for (TaskResource resource : resources) {
+      permitsInUse.merge(resource, -1, Integer::sum);
+    }
+  }
+
+}
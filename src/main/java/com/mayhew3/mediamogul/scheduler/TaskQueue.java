@@ -0,0 +1,80 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Priority queue of PeriodicTaskSchedules keyed by the instant each is next due. Rescheduling a task that is already
+ * queued just pushes a new entry and marks the old one stale, so every operation stays O(log n). Not thread-safe: the
+ * scheduler only touches it from its dispatcher thread.
+ */
+class TaskQueue {
+
+  private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry.dueMillis));
+  private final Map<PeriodicTaskSchedule, Entry> currentEntries = new HashMap<>();
+
+  void schedule(PeriodicTaskSchedule taskSchedule, long dueMillis) {
+    Entry entry = new Entry(taskSchedule, dueMillis);
+    currentEntries.put(taskSchedule, entry);
+    queue.add(entry);
+  }
+
+  void remove(PeriodicTaskSchedule taskSchedule) {
+    currentEntries.remove(taskSchedule);
+  }
+
+  boolean contains(PeriodicTaskSchedule taskSchedule) {
+    return currentEntries.containsKey(taskSchedule);
+  }
+
+  /**
+   * Remove and return every task due at or before nowMillis, earliest first.
+   */
+  List<PeriodicTaskSchedule> pollDue(long nowMillis) {
+    List<PeriodicTaskSchedule> dueTasks = new ArrayList<>();
+    Entry head;
+    while ((head = peekCurrent()) != null && head.dueMillis <= nowMillis) {
+      queue.poll();
+      currentEntries.remove(head.taskSchedule);
+      dueTasks.add(head.taskSchedule);
+    }
+    return dueTasks;
+  }
+
+  @Nullable
+  PeriodicTaskSchedule peekNext() {
+    Entry head = peekCurrent();
+    return head == null ? null : head.taskSchedule;
+  }
+
+  @Nullable
+  Long peekNextDueMillis() {
+    Entry head = peekCurrent();
+    return head == null ? null : head.dueMillis;
+  }
+
+  boolean isEmpty() {
+    return currentEntries.isEmpty();
+  }
+
+  @Nullable
+  private Entry peekCurrent() {
+    Entry head = queue.peek();
+    while (head != null && currentEntries.get(head.taskSchedule) != head) {
+      queue.poll();
+      head = queue.peek();
+    }
+    return head;
+  }
+
+  private static class Entry {
+    private final PeriodicTaskSchedule taskSchedule;
+    private final long dueMillis;
+
+    private Entry(PeriodicTaskSchedule taskSchedule, long dueMillis) {
+      this.taskSchedule = taskSchedule;
+      this.dueMillis = dueMillis;
+    }
+  }
+}
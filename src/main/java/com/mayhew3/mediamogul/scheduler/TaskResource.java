@@ -0,0 +1,26 @@
+package com.mayhew3.mediamogul.scheduler;
+
+/**
+ * Shared things an UpdateRunner can tie up while it runs. The scheduler will only run as many tasks at once against
+ * a given resource as that resource's cap allows, so independent runners can go in parallel without two of them
+ * fighting over the single headless browser or hammering the same external API.
+ */
+public enum TaskResource {
+  TVDB_API(3),
+  IGDB_API(1),
+  STEAM_API(1),
+  GIANT_BOMB_API(1),
+  METACRITIC(1),
+  HEADLESS_CHROME(1),
+  CLOUDINARY(1);
+
+  private final int maxConcurrent;
+
+  TaskResource(int maxConcurrent) {
+    this.maxConcurrent = maxConcurrent;
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+}
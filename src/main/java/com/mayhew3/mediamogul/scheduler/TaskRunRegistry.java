@@ -0,0 +1,90 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import com.mayhew3.mediamogul.metrics.Metrics;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory record of when each task last ran, and where it left off if it ran out of time. Loaded from connect_log
+ * with a single query at startup, which reads each task's latest row off the (task_name, task_mode, end_time) index,
+ * and kept current afterwards by the scheduler and ConnectionLogger, so nothing needs to scan connect_log per task.
+ *
+ * Entries are keyed by task name and mode together, the same pair connect_log records, since one runner can be
+ * scheduled in several modes on different periods.
+ */
+public class TaskRunRegistry {
+
+  private final Map<String, Date> lastRunTimes = new ConcurrentHashMap<>();
+  private final Map<String, String> resumeCursors = new ConcurrentHashMap<>();
+
+  private static final Logger logger = LogManager.getLogger(TaskRunRegistry.class);
+
+  public void loadLastRuns(SQLConnection connection, Collection<String> taskNames) throws SQLException {
+    if (taskNames.isEmpty()) {
+      return;
+    }
+
+    String placeholders = String.join(", ", Collections.nCopies(taskNames.size(), "?"));
+    String sql = "SELECT DISTINCT ON (task_name, task_mode) task_name, task_mode, end_time, resume_cursor " +
+        "FROM connect_log " +
+        "WHERE task_name IN (" + placeholders + ") " +
+        "AND end_time IS NOT NULL " +
+        "ORDER BY task_name, task_mode, end_time DESC ";
+
+    long startNanos = System.nanoTime();
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, taskNames.toArray());
+    Metrics.recordQuery("last_task_runs", startNanos);
+
+    int found = 0;
+    while (resultSet.next()) {
+      String taskName = resultSet.getString("task_name");
+      String taskMode = resultSet.getString("task_mode");
+      Timestamp endTime = resultSet.getTimestamp("end_time");
+      if (endTime != null) {
+        recordRun(taskName, taskMode, new Date(endTime.getTime()));
+        found++;
+      }
+      recordResumeCursor(taskName, taskMode, resultSet.getString("resume_cursor"));
+    }
+
+    logger.info("Loaded last run times for " + found + " task schedules across " + taskNames.size() + " task names.");
+  }
+
+  public void recordRun(String taskName, @Nullable String taskMode, Date runTime) {
+    lastRunTimes.merge(taskKey(taskName, taskMode), runTime, (existing, latest) -> latest.after(existing) ? latest : existing);
+  }
+
+  @Nullable
+  public Date getLastRun(String taskName, @Nullable String taskMode) {
+    return lastRunTimes.get(taskKey(taskName, taskMode));
+  }
+
+  public void recordResumeCursor(String taskName, @Nullable String taskMode, @Nullable String resumeCursor) {
+    String taskKey = taskKey(taskName, taskMode);
+    if (resumeCursor == null) {
+      resumeCursors.remove(taskKey);
+    } else {
+      resumeCursors.put(taskKey, resumeCursor);
+    }
+  }
+
+  @Nullable
+  public String getResumeCursor(String taskName, @Nullable String taskMode) {
+    return resumeCursors.get(taskKey(taskName, taskMode));
+  }
+
+  private static String taskKey(String taskName, @Nullable String taskMode) {
+    return taskMode == null ? taskName : taskName + "|" + taskMode;
+  }
+}
@@ -2,6 +2,7 @@ package com.mayhew3.mediamogul.scheduler;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mayhew3.mediamogul.ChromeProvider;
 import com.mayhew3.mediamogul.ExternalServiceHandler;
@@ -11,18 +12,26 @@ import com.mayhew3.mediamogul.backup.MediaMogulBackupExecutor;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.db.ExecutionEnvironment;
 import com.mayhew3.mediamogul.db.ExecutionEnvironments;
+import com.mayhew3.mediamogul.db.SQLConnectionPool;
+import com.mayhew3.mediamogul.db.SchemaSupplements;
 import com.mayhew3.mediamogul.games.*;
 import com.mayhew3.mediamogul.games.provider.IGDBProvider;
 import com.mayhew3.mediamogul.games.provider.IGDBProviderImpl;
+import com.mayhew3.mediamogul.games.provider.RecordingIGDBProvider;
+import com.mayhew3.mediamogul.games.provider.ReplayIGDBProvider;
 import com.mayhew3.mediamogul.games.provider.SteamProvider;
 import com.mayhew3.mediamogul.games.provider.SteamProviderImpl;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import com.mayhew3.mediamogul.metrics.MetricsRegistry;
+import com.mayhew3.mediamogul.metrics.MetricsServer;
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
 import com.mayhew3.mediamogul.socket.MySocketFactory;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.*;
+import com.mayhew3.mediamogul.tv.helper.ConnectLogWriter;
 import com.mayhew3.mediamogul.tv.helper.ConnectionLogger;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
-import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
-import com.mayhew3.mediamogul.tv.provider.TVDBJWTProviderImpl;
+import com.mayhew3.mediamogul.tv.provider.*;
 import com.mayhew3.mediamogul.xml.JSONReader;
 import com.mayhew3.mediamogul.xml.JSONReaderImpl;
 import com.mayhew3.postgresobject.ArgumentChecker;
@@ -35,10 +44,18 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class TaskScheduleRunner {
@@ -61,9 +78,35 @@ public class TaskScheduleRunner {
 
   private final Integer person_id;
 
+  private final TaskExecutionEngine executionEngine;
+  private final ConnectLogWriter connectLogWriter;
+  private final SQLConnectionPool connectionPool;
+  private final DatabaseNotificationListener notificationListener;
+  private final Set<TaskBudget> runningBudgets = ConcurrentHashMap.newKeySet();
+  private final TaskRunRegistry taskRunRegistry = new TaskRunRegistry();
+
+  // everything below is only touched from the dispatcher thread.
+  private final ScheduledExecutorService dispatcher;
+  private final TaskQueue taskQueue = new TaskQueue();
+  private final Set<PeriodicTaskSchedule> waitingForResources = new LinkedHashSet<>();
+  private final Set<PeriodicTaskSchedule> wokenWhileRunning = new HashSet<>();
+  @Nullable
+  private ScheduledFuture<?> nextWakeup;
+
+  private static final int WORKER_THREADS = 6;
+  private static final int POOL_MIN_IDLE = 2;
+  private static final int POOL_MAX_IDLE = 4;
+  private static final int POOL_MAX_TOTAL = 12;
+  private static final int TVDB_SERIES_WORKERS = 3;
+  private static final int MAX_JITTER_SECONDS = 20;
+  private static final int NOTIFIED_FALLBACK_MINUTES = 5;
+  private static final int NOTIFIED_MAX_BACKOFF_MINUTES = 30;
+  private static final long RETRY_DELAY_MILLIS = 60 * 1000;
+
   private static final Logger logger = LogManager.getLogger(TaskScheduleRunner.class);
 
   private TaskScheduleRunner(SQLConnection connection,
+                             SQLConnectionPool connectionPool,
                              @Nullable TVDBJWTProvider tvdbjwtProvider,
                              JSONReader jsonReader,
                              ExternalServiceHandler howLongServiceHandler,
@@ -75,6 +118,7 @@ public class TaskScheduleRunner {
                              DatabaseEnvironment databaseEnvironment,
                              Integer person_id) {
     this.connection = connection;
+    this.connectionPool = connectionPool;
     this.tvdbjwtProvider = tvdbjwtProvider;
     this.jsonReader = jsonReader;
     this.howLongServiceHandler = howLongServiceHandler;
@@ -85,15 +129,28 @@ public class TaskScheduleRunner {
     this.executionEnvironment = executionEnvironment;
     this.databaseEnvironment = databaseEnvironment;
     this.person_id = person_id;
+    this.connectLogWriter = new ConnectLogWriter(connectionPool);
+    this.notificationListener = new DatabaseNotificationListener(databaseEnvironment);
+    this.executionEngine = new TaskExecutionEngine(WORKER_THREADS, this::runUpdateForSingleTask, this::onTaskComplete);
+    this.dispatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("task-dispatcher")
+        .build());
   }
 
-  public static void main(String... args) throws URISyntaxException, SQLException, MissingEnvException, UnirestException {
+  public static void main(String... args) throws URISyntaxException, SQLException, MissingEnvException, UnirestException, IOException {
     ArgumentChecker argumentChecker = new ArgumentChecker(args);
     argumentChecker.addExpectedOption("socketEnv", true, "Socket environment to connect to.");
     argumentChecker.addExpectedOption("appRole", false, "Role to connect to socket as.");
+    argumentChecker.addExpectedOption("recordCorpus", false, "Directory to record TVDB and IGDB responses into, for replay.");
+    argumentChecker.addExpectedOption("replayCorpus", false, "Directory of recorded TVDB and IGDB responses to serve instead of the real APIs.");
 
     String socketEnv = argumentChecker.getRequiredValue("socketEnv");
     Optional<String> maybeAppRole = argumentChecker.getOptionalIdentifier("appRole");
+    Optional<Path> recordCorpus = argumentChecker.getOptionalIdentifier("recordCorpus").map(Paths::get);
+    Optional<Path> replayCorpus = argumentChecker.getOptionalIdentifier("replayCorpus").map(Paths::get);
+
+    Preconditions.checkArgument(!(recordCorpus.isPresent() && replayCorpus.isPresent()),
+        "Can't record and replay in the same run.");
 
     List<String> acceptableRoles = Lists.newArrayList("updater", "backup");
 
@@ -102,10 +159,23 @@ public class TaskScheduleRunner {
 
     SQLConnection connection = PostgresConnectionFactory.createConnection(databaseEnvironment);
 
+    // before the service handlers load external_service, which this adds the token columns to.
+    SchemaSupplements.ensureAll(connection);
+
+    SQLConnectionPool connectionPool = new SQLConnectionPool(databaseEnvironment, POOL_MIN_IDLE, POOL_MAX_IDLE, POOL_MAX_TOTAL);
+
     JSONReader jsonReader = new JSONReaderImpl();
-    ExternalServiceHandler tvdbServiceHandler = new ExternalServiceHandler(connection, ExternalServiceType.TVDB);
-    ExternalServiceHandler howLongServiceHandler = new ExternalServiceHandler(connection, ExternalServiceType.HowLongToBeat);
-    IGDBProviderImpl igdbProvider = new IGDBProviderImpl();
+    ExternalServiceHandler tvdbServiceHandler = new ExternalServiceHandler(connectionPool, ExternalServiceType.TVDB);
+    ExternalServiceHandler howLongServiceHandler = new ExternalServiceHandler(connectionPool, ExternalServiceType.HowLongToBeat);
+    ExternalServiceHandler igdbServiceHandler = new ExternalServiceHandler(connectionPool, ExternalServiceType.IGDB);
+    IGDBProvider igdbProvider;
+    if (replayCorpus.isPresent()) {
+      igdbProvider = ReplayIGDBProvider.fromEnvironment(replayCorpus.get().resolve("igdb"));
+    } else if (recordCorpus.isPresent()) {
+      igdbProvider = new RecordingIGDBProvider(new IGDBProviderImpl(igdbServiceHandler), new ReplayCorpus(recordCorpus.get().resolve("igdb")));
+    } else {
+      igdbProvider = new IGDBProviderImpl(igdbServiceHandler);
+    }
     String mediaMogulPersonID = EnvironmentChecker.getOrThrow("MediaMogulPersonID");
     Integer person_id = Integer.parseInt(mediaMogulPersonID);
 
@@ -119,14 +189,24 @@ public class TaskScheduleRunner {
     ChromeProvider chromeProvider = new ChromeProvider();
 
     TVDBJWTProvider tvdbjwtProvider = null;
-    try {
-      tvdbjwtProvider = new TVDBJWTProviderImpl(tvdbServiceHandler);
-    } catch (UnirestException e) {
-      e.printStackTrace();
+    if (replayCorpus.isPresent()) {
+      tvdbjwtProvider = ReplayTVDBProvider.fromEnvironment(replayCorpus.get().resolve("tvdb"));
+    } else {
+      try {
+        TVDBTransport httpTransport = new TVDBHttpTransport();
+        if (recordCorpus.isPresent()) {
+          // underneath the cache, so only what actually went over the network is recorded.
+          httpTransport = new RecordingTVDBTransport(httpTransport, new ReplayCorpus(recordCorpus.get().resolve("tvdb")));
+        }
+        tvdbjwtProvider = new TVDBJWTProviderImpl(tvdbServiceHandler, CachingTVDBTransport.fromEnvironment(httpTransport));
+      } catch (UnirestException e) {
+        e.printStackTrace();
+      }
     }
 
     TaskScheduleRunner taskScheduleRunner = new TaskScheduleRunner(
         connection,
+        connectionPool,
         tvdbjwtProvider,
         jsonReader,
         howLongServiceHandler,
@@ -141,8 +221,8 @@ public class TaskScheduleRunner {
   }
 
   private void createLocalTaskList() throws MissingEnvException {
-    addHourlyTask(new OldDataArchiveRunner(connection, databaseEnvironment.getEnvironmentName()), 1);
-    addHourlyTask(new MediaMogulBackupExecutor(databaseEnvironment), 24);
+    addHourlyTask(taskConnection -> new OldDataArchiveRunner(taskConnection, databaseEnvironment.getEnvironmentName()), 1);
+    addHourlyTask(taskConnection -> new MediaMogulBackupExecutor(databaseEnvironment), 24);
   }
 
   private void redirectOutputToLogger() {
@@ -172,64 +252,84 @@ public class TaskScheduleRunner {
 
     // MINUTELY
 
-    addMinutelyTask(new NewSeriesChecker(connection, tvdbjwtProvider, jsonReader, socket),
-        1);
-    addMinutelyTask(new NewGameChecker(connection, jsonReader, igdbProvider, chromeProvider, howLongServiceHandler, person_id),
-        1);
-    addMinutelyTask(new TVDBUpdateRunner(connection, tvdbjwtProvider, jsonReader, socket, UpdateMode.MANUAL),
-        1);
-    addMinutelyTask(new SeriesDenormUpdater(connection),
+    // these three are woken by database notifications, so their periods are just a fallback. They answer user
+    // actions, so they also get first claim on workers and API slots.
+    addMinutelyTask(taskConnection -> new NewSeriesChecker(taskConnection, tvdbjwtProvider, jsonReader, socket),
+        NOTIFIED_FALLBACK_MINUTES)
+        .withWakeupChannel(SchemaSupplements.SERIES_ADDED_CHANNEL)
+        .withAdaptiveBackoff(NOTIFIED_MAX_BACKOFF_MINUTES)
+        .withInteractivePriority();
+    addMinutelyTask(taskConnection -> new NewGameChecker(taskConnection, jsonReader, igdbProvider, chromeProvider, howLongServiceHandler, person_id),
+        NOTIFIED_FALLBACK_MINUTES)
+        .withWakeupChannel(SchemaSupplements.GAME_ADDED_CHANNEL)
+        .withAdaptiveBackoff(NOTIFIED_MAX_BACKOFF_MINUTES)
+        .withInteractivePriority();
+    addMinutelyTask(taskConnection -> new TVDBUpdateRunner(taskConnection, tvdbjwtProvider, jsonReader, socket, UpdateMode.MANUAL),
+        NOTIFIED_FALLBACK_MINUTES)
+        .withWakeupChannel(SchemaSupplements.TVDB_MANUAL_QUEUE_CHANNEL)
+        .withInteractivePriority();
+    addMinutelyTask(taskConnection -> new SeriesDenormUpdater(taskConnection),
         30);
-    addMinutelyTask(new TVDBUpdateProcessor(connection, tvdbjwtProvider, jsonReader, socket),
-        1);
-    addMinutelyTask(new TVDBUpdateFinder(connection, tvdbjwtProvider, jsonReader),
+    addMinutelyTask(taskConnection -> new TVDBUpdateProcessor(taskConnection, tvdbjwtProvider, jsonReader, socket)
+            .withParallelism(connectionPool, TVDB_SERIES_WORKERS),
+        1)
+        .withAdaptiveBackoff(8);
+    addMinutelyTask(taskConnection -> new TVDBUpdateFinder(taskConnection, tvdbjwtProvider, jsonReader),
         2);
-    addMinutelyTask(new SteamPlaySessionGenerator(connection, person_id),
+    addMinutelyTask(taskConnection -> new SteamPlaySessionGenerator(taskConnection, person_id),
         10);
-    addMinutelyTask(new TVDBUpdateRunner(connection, tvdbjwtProvider, jsonReader, socket, UpdateMode.SANITY),
-        4);
-    addMinutelyTask(new IGDBUpdateRunner(connection, igdbProvider, jsonReader, UpdateMode.SMART),
-        30);
-    addMinutelyTask(new TVDBUpdateRunner(connection, tvdbjwtProvider, jsonReader, socket, UpdateMode.SMART),
+    addMinutelyTask(taskConnection -> new TVDBUpdateRunner(taskConnection, tvdbjwtProvider, jsonReader, socket, UpdateMode.SANITY)
+            .withParallelism(connectionPool, TVDB_SERIES_WORKERS),
+        4)
+        .withMaxRunMinutes(4);
+    addMinutelyTask(taskConnection -> new IGDBUpdateRunner(taskConnection, igdbProvider, jsonReader, UpdateMode.SMART),
         30);
-    addMinutelyTask(new MetacriticTVUpdateRunner(connection, UpdateMode.CHUNKED),
+    addMinutelyTask(taskConnection -> new TVDBUpdateRunner(taskConnection, tvdbjwtProvider, jsonReader, socket, UpdateMode.SMART)
+            .withParallelism(connectionPool, TVDB_SERIES_WORKERS),
+        30)
+        .withMaxRunMinutes(20);
+    addMinutelyTask(taskConnection -> new MetacriticTVUpdateRunner(taskConnection, UpdateMode.CHUNKED),
         7);
-    addMinutelyTask(new MetacriticTVUpdateRunner(connection, UpdateMode.SANITY),
+    addMinutelyTask(taskConnection -> new MetacriticTVUpdateRunner(taskConnection, UpdateMode.SANITY),
         14);
-    addMinutelyTask(new HowLongToBeatUpdateRunner(connection, UpdateMode.QUICK, howLongServiceHandler, chromeProvider),
+    addMinutelyTask(taskConnection -> new HowLongToBeatUpdateRunner(taskConnection, UpdateMode.QUICK, howLongServiceHandler, chromeProvider),
         30);
 
     // HOURLY
-    addHourlyTask(new SteamGameUpdateRunner(connection, person_id, steamProvider, chromeProvider, igdbProvider, jsonReader),
+    addHourlyTask(taskConnection -> new SteamGameUpdateRunner(taskConnection, person_id, steamProvider, chromeProvider, igdbProvider, jsonReader),
         1);
-    addHourlyTask(new HowLongToBeatUpdateRunner(connection, UpdateMode.PING, howLongServiceHandler, chromeProvider),
+    addHourlyTask(taskConnection -> new HowLongToBeatUpdateRunner(taskConnection, UpdateMode.PING, howLongServiceHandler, chromeProvider),
         1);
-    addHourlyTask(new IGDBUpdateRunner(connection, igdbProvider, jsonReader, UpdateMode.SANITY),
+    addHourlyTask(taskConnection -> new IGDBUpdateRunner(taskConnection, igdbProvider, jsonReader, UpdateMode.SANITY),
         24);
-    addHourlyTask(new MetacriticGameUpdateRunner(connection, UpdateMode.SMART, person_id),
+    addHourlyTask(taskConnection -> new MetacriticGameUpdateRunner(taskConnection, UpdateMode.SMART, person_id),
         24);
-    addHourlyTask(new EpisodeGroupUpdater(connection, null),
+    addHourlyTask(taskConnection -> new EpisodeGroupUpdater(taskConnection, null),
         24);
-    addHourlyTask(new SteamAttributeUpdateRunner(connection, UpdateMode.FULL, chromeProvider),
+    addHourlyTask(taskConnection -> new SteamAttributeUpdateRunner(taskConnection, UpdateMode.FULL, chromeProvider),
         24);
-    addHourlyTask(new GiantBombUpdateRunner(connection),
+    addHourlyTask(taskConnection -> new GiantBombUpdateRunner(taskConnection),
         24);
-    addHourlyTask(new CloudinaryUploadRunner(connection, UpdateMode.FULL),
+    addHourlyTask(taskConnection -> new CloudinaryUploadRunner(taskConnection, UpdateMode.FULL),
         24);
 
   }
 
-  private void addMinutelyTask(UpdateRunner updateRunner, Integer minutesBetween) {
-    taskSchedules.add(new PeriodicTaskSchedule(updateRunner, connection)
-        .withMinutesBetween(minutesBetween));
+  private PeriodicTaskSchedule addMinutelyTask(UpdateRunnerFactory runnerFactory, Integer minutesBetween) throws MissingEnvException {
+    PeriodicTaskSchedule taskSchedule = new PeriodicTaskSchedule(runnerFactory, runnerFactory.createRunner(connection), taskRunRegistry)
+        .withMinutesBetween(minutesBetween)
+        .withJitter(MAX_JITTER_SECONDS);
+    taskSchedules.add(taskSchedule);
+    return taskSchedule;
   }
 
-  private void addHourlyTask(UpdateRunner updateRunner, Integer hoursBetween) {
-    taskSchedules.add(new PeriodicTaskSchedule(updateRunner, connection)
-        .withHoursBetween(hoursBetween));
+  private void addHourlyTask(UpdateRunnerFactory runnerFactory, Integer hoursBetween) throws MissingEnvException {
+    taskSchedules.add(new PeriodicTaskSchedule(runnerFactory, runnerFactory.createRunner(connection), taskRunRegistry)
+        .withHoursBetween(hoursBetween)
+        .withJitter(MAX_JITTER_SECONDS));
   }
 
-  private void runUpdates() throws MissingEnvException {
+  private void runUpdates() throws MissingEnvException, SQLException {
     if (tvdbjwtProvider == null) {
       throw new IllegalStateException("Can't currently run updater with no TVDB token. TVDB is the only thing it can handle yet.");
     }
@@ -245,120 +345,211 @@ public class TaskScheduleRunner {
     info("SESSION START!");
     info("");
 
-    runEligibleTasks();
+    if (taskSchedules.isEmpty()) {
+      throw new RuntimeException("No tasks found!");
+    }
 
-  }
+    List<String> taskNames = taskSchedules.stream()
+        .map(taskSchedule -> taskSchedule.getUpdateRunner().getUniqueIdentifier())
+        .collect(Collectors.toList());
+    taskRunRegistry.loadLastRuns(connection, taskNames);
 
-  private boolean isRunningOnHeroku() {
-    return !executionEnvironment.isLocal();
-  }
+    connectLogWriter.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(connectLogWriter::close, "connect-log-shutdown"));
+    Runtime.getRuntime().addShutdownHook(new Thread(connectionPool::close, "db-pool-shutdown"));
+    Runtime.getRuntime().addShutdownHook(new Thread(notificationListener::close, "db-listener-shutdown"));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> runningBudgets.forEach(TaskBudget::cancel), "task-cancel-shutdown"));
 
-  private void scheduleNextFutureTask() {
-    PeriodicTaskSchedule nextTask = getNextTask();
-    Long millisUntilNextRun = nextTask.getMillisUntilNextRun();
+    connectionPool.prewarm();
 
-    long secondsUntilNextRun = millisUntilNextRun / 1000;
-    long minutesUntilNextRun = millisUntilNextRun / 1000 / 60;
+    for (PeriodicTaskSchedule taskSchedule : taskSchedules) {
+      String wakeupChannel = taskSchedule.getWakeupChannel();
+      if (wakeupChannel != null) {
+        notificationListener.addHandler(wakeupChannel, () -> dispatcher.execute(() -> wake(taskSchedule)));
+      }
+    }
+    notificationListener.start();
 
-    long remainderSeconds = secondsUntilNextRun - (minutesUntilNextRun * 60);
+    startMetricsServer();
 
-    logger.debug("Scheduling next task '" + nextTask + "' to run in " + minutesUntilNextRun + " min " + remainderSeconds +
-        " sec.");
+    dispatcher.execute(this::initializeQueue);
 
-    DelayedTask delayedTask = new DelayedTask(this, nextTask);
+  }
 
-    if (millisUntilNextRun < 0) {
-      millisUntilNextRun = 1L;
+  private void startMetricsServer() {
+    String metricsPort = System.getenv("METRICS_PORT");
+    if (metricsPort == null) {
+      logger.debug("No METRICS_PORT set. Metrics endpoint disabled.");
+      return;
     }
-
-    if (minutesUntilNextRun > 5) {
-      try {
-        logger.info("Next task is " + minutesUntilNextRun + " minutes away. Closing DB connection temporarily.");
-        connection.closeConnection();
-      } catch (SQLException e) {
-        logger.info("Failed to close connection: " + e.getLocalizedMessage());
-      }
+    try {
+      MetricsServer metricsServer = new MetricsServer(Integer.parseInt(metricsPort), MetricsRegistry.getInstance());
+      metricsServer.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::stop, "metrics-shutdown"));
+    } catch (IOException | NumberFormatException e) {
+      logger.error("Unable to start metrics endpoint on port '" + metricsPort + "'. Continuing without it.", e);
     }
-
-    Timer timer = new Timer();
-    timer.schedule(delayedTask, millisUntilNextRun);
   }
 
-  private class DelayedTask extends TimerTask {
+  private boolean isRunningOnHeroku() {
+    return !executionEnvironment.isLocal();
+  }
 
-    private final TaskScheduleRunner runner;
-    private final PeriodicTaskSchedule nextTask;
+  private void initializeQueue() {
+    for (PeriodicTaskSchedule taskSchedule : taskSchedules) {
+      enqueue(taskSchedule);
+    }
+    dispatch();
+  }
 
-    private DelayedTask(TaskScheduleRunner runner, PeriodicTaskSchedule nextTask) {
-      this.runner = runner;
-      this.nextTask = nextTask;
+  private void enqueue(PeriodicTaskSchedule taskSchedule) {
+    try {
+      taskQueue.schedule(taskSchedule, taskSchedule.getNextRunMillis());
+    } catch (RuntimeException e) {
+      logger.error("Unable to determine next run for task '" + taskSchedule + "'. Trying again in a minute.", e);
+      taskQueue.schedule(taskSchedule, System.currentTimeMillis() + RETRY_DELAY_MILLIS);
     }
+  }
 
-    @Override
-    public void run() {
-      logger.debug("Timer complete! Beginning delayed task: " + this.nextTask);
-      runUpdateForSingleTask(this.nextTask);
-      logger.debug("Finished delayed task. Throwing back to find eligible tasks.");
-      runner.runEligibleTasks();
+  /**
+   * Hand every due task, plus anything still waiting on resources, to the execution engine, then arm a single wakeup
+   * for whichever queued task is due next. Runs only on the dispatcher thread.
+   */
+  private void dispatch() {
+    try {
+      List<PeriodicTaskSchedule> readyTasks = new ArrayList<>(waitingForResources);
+      waitingForResources.clear();
+      readyTasks.addAll(taskQueue.pollDue(System.currentTimeMillis()));
+
+      if (readyTasks.isEmpty()) {
+        logger.debug("No eligible tasks. Scheduling next task.");
+      } else {
+        submitTasks(readyTasks);
+      }
+    } catch (RuntimeException e) {
+      logger.error("Error dispatching tasks.", e);
     }
+    scheduleNextWakeup();
   }
 
-  private void runEligibleTasks() {
+  private void submitTasks(List<PeriodicTaskSchedule> readyTasks) {
+    logger.debug("Found " + readyTasks.size() + " tasks to run.");
 
-    List<PeriodicTaskSchedule> eligibleTasks = taskSchedules.stream()
-        .filter(PeriodicTaskSchedule::isEligibleToRun)
-        .collect(Collectors.toList());
+    // stable sort, so interactive tasks go first and everything else keeps its waiting/due order.
+    readyTasks.sort(Comparator.comparing((PeriodicTaskSchedule taskSchedule) -> !taskSchedule.isInteractive()));
 
-    if (eligibleTasks.isEmpty()) {
-      logger.debug("No eligible tasks. Scheduling next task.");
-      scheduleNextFutureTask();
-    } else {
-      updateTasks(eligibleTasks);
+    int submitted = 0;
+    for (PeriodicTaskSchedule taskSchedule : readyTasks) {
+      if (executionEngine.trySubmit(taskSchedule)) {
+        submitted++;
+      } else {
+        waitingForResources.add(taskSchedule);
+      }
     }
+
+    logger.debug("Submitted " + submitted + " of " + readyTasks.size() + " eligible tasks. " +
+        "The rest will be retried when a running task frees up its resources.");
   }
 
-  private void updateTasks(List<PeriodicTaskSchedule> eligibleTasks) {
-    logger.debug("Found " + eligibleTasks.size() + " tasks to run.");
+  private void scheduleNextWakeup() {
+    if (nextWakeup != null) {
+      nextWakeup.cancel(false);
+      nextWakeup = null;
+    }
 
-    for (PeriodicTaskSchedule taskSchedule : eligibleTasks) {
-      runUpdateForSingleTask(taskSchedule);
+    PeriodicTaskSchedule nextTask = taskQueue.peekNext();
+    Long nextDueMillis = taskQueue.peekNextDueMillis();
+    if (nextTask == null || nextDueMillis == null) {
+      logger.debug("All tasks are running or waiting on resources. Will schedule next task when one completes.");
+      return;
     }
 
-    logger.debug("Finished current loop. Finding more eligible tasks.");
-    runEligibleTasks();
+    long millisUntilNextRun = Math.max(1L, nextDueMillis - System.currentTimeMillis());
+
+    long secondsUntilNextRun = millisUntilNextRun / 1000;
+    long minutesUntilNextRun = millisUntilNextRun / 1000 / 60;
+
+    long remainderSeconds = secondsUntilNextRun - (minutesUntilNextRun * 60);
+
+    logger.debug("Scheduling next task '" + nextTask + "' to run in " + minutesUntilNextRun + " min " + remainderSeconds +
+        " sec.");
+
+    connectionPool.prewarmBefore(nextDueMillis);
+
+    nextWakeup = dispatcher.schedule(this::dispatch, millisUntilNextRun, TimeUnit.MILLISECONDS);
+  }
+
+  // called on the worker thread that ran the task, so hop back over to the dispatcher before touching the queue.
+  private void onTaskComplete(PeriodicTaskSchedule taskSchedule) {
+    dispatcher.execute(() -> {
+      logger.debug("Finished task '" + taskSchedule + "'. Finding more eligible tasks.");
+      if (wokenWhileRunning.remove(taskSchedule)) {
+        // the run may have started before the new work was committed, so go around once more.
+        taskQueue.schedule(taskSchedule, System.currentTimeMillis());
+      } else {
+        enqueue(taskSchedule);
+      }
+      dispatch();
+    });
+  }
+
+  private void wake(PeriodicTaskSchedule taskSchedule) {
+    if (executionEngine.isRunning(taskSchedule)) {
+      wokenWhileRunning.add(taskSchedule);
+    } else if (taskQueue.contains(taskSchedule)) {
+      logger.debug("Waking task '" + taskSchedule + "' from database notification.");
+      taskQueue.schedule(taskSchedule, System.currentTimeMillis());
+      dispatch();
+    }
   }
 
   private void runUpdateForSingleTask(PeriodicTaskSchedule taskSchedule) {
-    UpdateRunner updateRunner = taskSchedule.getUpdateRunner();
+    String taskName = taskSchedule.getUpdateRunner().getUniqueIdentifier();
+    SQLConnection taskConnection = null;
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    Integer itemsProcessed = null;
     try {
-      ConnectionLogger connectionLogger = new ConnectionLogger(connection);
+      long borrowStartNanos = System.nanoTime();
+      taskConnection = connectionPool.borrow();
+      Metrics.recordConnectionWait(borrowStartNanos);
+      startNanos = System.nanoTime();
 
-      logger.debug("Starting update for '" + updateRunner.getUniqueIdentifier() + "'");
+      UpdateRunner updateRunner = taskSchedule.getRunnerFactory().createRunner(taskConnection);
 
-      connectionLogger.logConnectionStart(updateRunner);
-      updateRunner.runUpdate();
-      connectionLogger.logConnectionEnd();
+      ConnectionLogger connectionLogger = new ConnectionLogger(connectLogWriter, taskRunRegistry);
 
-      logger.debug("Update complete for '" + updateRunner.getUniqueIdentifier() + "'");
+      logger.debug("Starting update for '" + taskName + "'");
+
+      TaskBudget budget = taskSchedule.createBudget();
+      runningBudgets.add(budget);
+      try {
+        connectionLogger.logConnectionStart(updateRunner);
+        updateRunner.runUpdate(budget);
+        connectionLogger.logConnectionEnd(budget.getNextCursor());
+      } finally {
+        runningBudgets.remove(budget);
+      }
+
+      itemsProcessed = updateRunner.getItemsProcessed();
+      taskSchedule.recordItemsProcessed(itemsProcessed);
+      succeeded = true;
+
+      logger.debug("Update complete for '" + taskName + "'");
 
     } catch (Exception e) {
-      logger.error("Exception encountered during run of update '" + updateRunner.getUniqueIdentifier() + "'.");
+      logger.error("Exception encountered during run of update '" + taskName + "'.");
       e.printStackTrace();
     } finally {
+      Metrics.recordTaskRun(taskName, startNanos, succeeded, itemsProcessed);
+      if (taskConnection != null) {
+        connectionPool.release(taskConnection);
+      }
       // mark the task as having been run, whether it succeeds or errors out.
       taskSchedule.updateLastRanToNow();
     }
   }
 
-  private PeriodicTaskSchedule getNextTask() {
-    Optional<PeriodicTaskSchedule> taskSchedule = taskSchedules.stream()
-        .min(Comparator.comparing(PeriodicTaskSchedule::getMillisUntilNextRun));
-    if (taskSchedule.isEmpty()) {
-      throw new RuntimeException("No tasks found!");
-    }
-    return taskSchedule.get();
-  }
-
   private static void info(Object message) {
     logger.info(message);
   }
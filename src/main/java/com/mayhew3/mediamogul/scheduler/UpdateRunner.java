@@ -9,6 +9,8 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public interface UpdateRunner {
   String getRunnerName();
@@ -25,5 +27,30 @@ public interface UpdateRunner {
     }
   }
 
+  /**
+   * Shared resources this runner ties up while it runs. The scheduler caps how many tasks can hold each resource at
+   * once, so runners that touch an external service or the headless browser should say so here. Database access isn't
+   * a resource: the connection pool already bounds it.
+   */
+  default Set<TaskResource> getRequiredResources() {
+    return EnumSet.noneOf(TaskResource.class);
+  }
+
+  /**
+   * How many items the most recent runUpdate() found to work on, or null if this runner doesn't keep track. Schedules
+   * with adaptive backoff use it to tell an idle run from a productive one.
+   */
+  default @Nullable Integer getItemsProcessed() {
+    return null;
+  }
+
   void runUpdate() throws SQLException, BadlyFormattedXMLException, AuthenticationException, UnirestException, InterruptedException, IOException, MissingEnvException;
+
+  /**
+   * Run within the given budget. Runners that work through a long list should override this to check the budget
+   * between items and checkpoint their position; the default just runs to completion.
+   */
+  default void runUpdate(TaskBudget budget) throws SQLException, BadlyFormattedXMLException, AuthenticationException, UnirestException, InterruptedException, IOException, MissingEnvException {
+    runUpdate();
+  }
 }
@@ -0,0 +1,13 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.MissingEnvException;
+
+/**
+ * Builds an UpdateRunner around a given connection. The scheduler creates a fresh runner for each run, bound to a
+ * connection borrowed from the pool for just that run.
+ */
+@FunctionalInterface
+public interface UpdateRunnerFactory {
+  UpdateRunner createRunner(SQLConnection connection) throws MissingEnvException;
+}
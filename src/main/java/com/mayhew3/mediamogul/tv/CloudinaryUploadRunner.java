@@ -6,6 +6,7 @@ import com.google.common.base.Preconditions;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.model.tv.Series;
 import com.mayhew3.mediamogul.model.tv.TVDBPoster;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
@@ -23,8 +24,10 @@ import org.jetbrains.annotations.Nullable;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class CloudinaryUploadRunner implements UpdateRunner {
 
@@ -185,4 +188,9 @@ public class CloudinaryUploadRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.CLOUDINARY);
+  }
+
 }
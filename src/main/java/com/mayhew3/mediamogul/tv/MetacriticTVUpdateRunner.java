@@ -2,6 +2,8 @@ package com.mayhew3.mediamogul.tv;
 
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.model.tv.Series;
+import com.mayhew3.mediamogul.scheduler.TaskBudget;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.MetacriticException;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
@@ -17,8 +19,10 @@ import org.jetbrains.annotations.Nullable;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class MetacriticTVUpdateRunner implements UpdateRunner {
 
@@ -27,6 +31,8 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
 
   private final Map<UpdateMode, Runnable> methodMap;
 
+  private TaskBudget budget = TaskBudget.unlimited();
+
   private static Logger logger = LogManager.getLogger(MetacriticTVUpdateRunner.class);
 
   public MetacriticTVUpdateRunner(SQLConnection connection, UpdateMode updateMode) {
@@ -57,6 +63,12 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
     metacriticTVUpdateRunner.runUpdate();
   }
 
+  @Override
+  public void runUpdate(TaskBudget budget) {
+    this.budget = budget;
+    runUpdate();
+  }
+
   @Override
   public void runUpdate() {
     methodMap.get(updateMode).run();
@@ -66,11 +78,15 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
     String sql = "select * " +
         "from series " +
         "where tvdb_match_status = ? " +
-        "and retired = ? ";
+        "and retired = ? " +
+        "and id > ? " +
+        "order by id ";
 
     try {
-      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, TVDBMatchStatus.MATCH_COMPLETED, 0);
-      runUpdateOnResultSet(resultSet);
+      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, TVDBMatchStatus.MATCH_COMPLETED, 0, budget.getResumeAfterId());
+      if (runUpdateOnResultSet(resultSet)) {
+        budget.completed();
+      }
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
@@ -143,12 +159,19 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
     }
   }
 
-  private void runUpdateOnResultSet(ResultSet resultSet) throws SQLException {
+  /**
+   * @return False if the time budget ran out before the whole result set was processed.
+   */
+  private boolean runUpdateOnResultSet(ResultSet resultSet) throws SQLException {
     debug("Starting update.");
 
     int i = 0;
 
     while (resultSet.next()) {
+      if (budget.isExhausted()) {
+        logger.info("Time budget used up after " + i + " rows. Stopping early.");
+        return false;
+      }
       i++;
       Series series = new Series();
       series.initializeFromDBObject(resultSet);
@@ -167,6 +190,9 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
         logger.error("Uncaught exception during metacritic fetch: " + series.seriesTitle.getValue());
       }
 
+      if (updateMode == UpdateMode.FULL) {
+        budget.checkpoint(series.id.getValue());
+      }
       debug(i + " processed.");
     }
     if (i == 0) {
@@ -174,6 +200,7 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
     } else {
       logger.info("Finished processing " + i + " rows.");
     }
+    return true;
   }
 
   private void debug(Object message) {
@@ -190,4 +217,9 @@ public class MetacriticTVUpdateRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.METACRITIC);
+  }
+
 }
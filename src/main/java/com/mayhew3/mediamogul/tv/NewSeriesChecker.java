@@ -6,12 +6,14 @@ import com.mayhew3.mediamogul.ExternalServiceHandler;
 import com.mayhew3.mediamogul.ExternalServiceType;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
 import com.mayhew3.mediamogul.model.tv.Series;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.socket.MySocketFactory;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
 import com.mayhew3.mediamogul.tv.helper.MetacriticException;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
+import com.mayhew3.mediamogul.tv.provider.AdaptiveRateLimiter;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProviderImpl;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -28,6 +30,8 @@ import org.jetbrains.annotations.Nullable;
 import java.net.URISyntaxException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Set;
 
 public class NewSeriesChecker implements UpdateRunner {
 
@@ -36,6 +40,9 @@ public class NewSeriesChecker implements UpdateRunner {
   private JSONReader jsonReader;
   private final SocketWrapper socket;
 
+  @Nullable
+  private Integer itemsProcessed;
+
   private static Logger logger = LogManager.getLogger(NewSeriesChecker.class);
 
   public NewSeriesChecker(SQLConnection connection, TVDBJWTProvider tvdbjwtProvider, JSONReader jsonReader, SocketWrapper socket) {
@@ -73,6 +80,16 @@ public class NewSeriesChecker implements UpdateRunner {
     return null;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.TVDB_API, TaskResource.METACRITIC, TaskResource.CLOUDINARY);
+  }
+
+  @Override
+  public @Nullable Integer getItemsProcessed() {
+    return itemsProcessed;
+  }
+
   @Override
   public void runUpdate() throws SQLException, UnirestException, AuthenticationException {
     String sql = "SELECT * " +
@@ -82,19 +99,28 @@ public class NewSeriesChecker implements UpdateRunner {
 
     ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, false);
 
-    while (resultSet.next()) {
-      Series series = new Series();
-      series.initializeFromDBObject(resultSet);
-
-      // DO STUFF
-      logger.info("New Series found: '" + series.seriesTitle.getValue() + "'");
+    itemsProcessed = 0;
 
-      updateTVDB(series);
-      updateMetacritic(series);
-      updateCloudinary(series);
-
-      series.firstProcessed.changeValue(true);
-      series.commit(connection);
+    // someone just added these, so their TVDB requests go ahead of background updates.
+    AdaptiveRateLimiter.setCurrentPriority(AdaptiveRateLimiter.Priority.INTERACTIVE);
+    try {
+      while (resultSet.next()) {
+        Series series = new Series();
+        series.initializeFromDBObject(resultSet);
+        itemsProcessed++;
+
+        // DO STUFF
+        logger.info("New Series found: '" + series.seriesTitle.getValue() + "'");
+
+        updateTVDB(series);
+        updateMetacritic(series);
+        updateCloudinary(series);
+
+        series.firstProcessed.changeValue(true);
+        series.commit(connection);
+      }
+    } finally {
+      AdaptiveRateLimiter.clearCurrentPriority();
     }
   }
 
@@ -46,21 +46,7 @@ public class SeriesDenormUpdater implements UpdateRunner {
 
   public void runUpdate() throws SQLException {
     debug("Updating denorms...");
-    updateUnmatchedEpisodes();
-    updateActiveEpisodes();
-    updateUnwatchedEpisodes();
-    updateLastUnwatched();
-    updateFirstUnwatched();
-    updateMostRecent();
-    updateDeletedEpisodes();
-    updateSuggestionEpisodes();
-    updateWatchedEpisodes();
-    updateMatchedEpisodes();
-    updateTVDBOnlyEpisodes();
-    updateUnwatchedUnrecorded();
-
-    updateStreamingEpisodes();
-    updateUnwatchedStreaming();
+    updateSeriesDenorms();
 
     updateMyUnwatchedEpisodes();
     updateMyFirstUnwatched();
@@ -69,247 +55,109 @@ public class SeriesDenormUpdater implements UpdateRunner {
     debug("Done updating denorms.");
   }
 
-  private void updateUnwatchedStreaming() throws SQLException {
-    debug("- Unwatched Streaming");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set unwatched_streaming = (select count(1)\n" +
-            "                            from episode e      \n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id                                           \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and (ete.id is null or te.deleted_date is not null)\n" +
-            "                            and e.streaming = ?\n" +
-            "                            and e.watched = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.air_time < now()\n" +
-            "                            and e.retired = ?)",
-        true, false, 0, 0
-    );
-  }
-
-  private void updateStreamingEpisodes() throws SQLException {
-    debug("- Streaming");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set streaming_episodes = (select count(1)\n" +
-            "                            from episode e\n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id                      \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and (ete.id is null or te.deleted_date is not null)\n" +
-            "                            and e.streaming = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.air_time < now()\n" +
-            "                            and e.retired = ?)",
-        true, 0, 0
-    );
-  }
-
-  private void updateUnwatchedUnrecorded() throws SQLException {
-    debug("- Unwatched Unrecorded");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set unwatched_unrecorded = (select count(1)\n" +
-            "                            from episode e                            \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and e.watched = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        false, false, 0, 0
-    );
-  }
-
-  private void updateTVDBOnlyEpisodes() throws SQLException {
-    debug("- TVDB Only");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set tvdb_only_episodes = (select count(1)\n" +
-            "                            from episode e                            \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        false, 0, 0
-    );
-  }
-
-  private void updateMatchedEpisodes() throws SQLException {
-    debug("- Matched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set matched_episodes = (select count(1)\n" +
-            "                            from episode e                            \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        true, 0, 0
-    );
-  }
-
-  private void updateWatchedEpisodes() throws SQLException {
-    debug("- Watched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set watched_episodes = (select count(1)\n" +
-            "                            from episode e                            \n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.watched = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        true, 0, 0
-    );
-  }
-
-  private void updateSuggestionEpisodes() throws SQLException {
-    debug("- Suggestion");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set suggestion_episodes = (select count(1)\n" +
-            "                            from episode e\n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and te.id is not null\n" +
-            "                            and e.season <> ?\n" +
-            "                            and te.suggestion = ?\n" +
-            "                            and te.deleted_date is null\n" +
-            "                            and e.retired = ?\n" +
-            "                            and te.retired = ?)",
-        true, 0, true, 0, 0
-    );
-  }
-
-  private void updateMostRecent() throws SQLException {
-    debug("- Most Recent");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set most_recent = (select max(e.air_time)\n" +
-            "                            from episode e\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and (e.on_tivo = ? or e.streaming = ?)\n" +
-            "                            and e.air_time < now()\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        true, true, 0, 0
-    );
-  }
-
-  private void updateLastUnwatched() throws SQLException {
-    debug("- Last Unwatched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set last_unwatched = (select max(e.air_time)\n" +
-            "                            from episode e\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and (e.on_tivo = ? or e.streaming = ?)\n" +
-            "                            and e.air_time < now()\n" +
-            "                            and e.watched = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        true, true, false, 0, 0
-    );
-  }
-
-  private void updateFirstUnwatched() throws SQLException {
-    debug("- First Unwatched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set first_unwatched = (select min(e.air_time)\n" +
-            "                            from episode e\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and (e.on_tivo = ? or e.streaming = ?)\n" +
-            "                            and e.air_time < now()\n" +
-            "                            and e.watched = ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?)",
-        true, true, false, 0, 0
+  /**
+   * All of the series-level counts and air times in one pass: a single aggregate over the live episodes and their TiVo
+   * recordings, plus the unmatched recordings grouped by TiVo series. Only series whose values actually changed are
+   * written.
+   *
+   * The TiVo joins repeat an episode once per recording, so the counts that are about episodes rather than recordings
+   * count distinct episode ids.
+   */
+  private void updateSeriesDenorms() throws SQLException {
+    debug("- Series");
+    Integer updatedRows = connection.prepareAndExecuteStatementUpdate(
+        "WITH episode_denorm AS (\n" +
+            "  SELECT e.series_id,\n" +
+            "         count(1) FILTER (WHERE e.on_tivo AND te.id IS NOT NULL AND te.retired = 0\n" +
+            "                            AND te.suggestion IS DISTINCT FROM true AND te.deleted_date IS NULL\n" +
+            "                            AND NOT e.watched) AS unwatched_episodes,\n" +
+            "         count(1) FILTER (WHERE e.on_tivo AND te.id IS NOT NULL AND te.retired = 0\n" +
+            "                            AND te.suggestion IS DISTINCT FROM true AND te.deleted_date IS NULL) AS active_episodes,\n" +
+            "         count(1) FILTER (WHERE e.on_tivo AND te.id IS NOT NULL AND te.retired = 0\n" +
+            "                            AND te.deleted_date IS NOT NULL) AS deleted_episodes,\n" +
+            "         count(1) FILTER (WHERE e.on_tivo AND te.id IS NOT NULL AND te.retired = 0\n" +
+            "                            AND te.suggestion AND te.deleted_date IS NULL) AS suggestion_episodes,\n" +
+            "         count(1) FILTER (WHERE (ete.id IS NULL OR te.deleted_date IS NOT NULL)\n" +
+            "                            AND e.streaming AND e.air_time < now()) AS streaming_episodes,\n" +
+            "         count(1) FILTER (WHERE (ete.id IS NULL OR te.deleted_date IS NOT NULL)\n" +
+            "                            AND e.streaming AND e.air_time < now() AND NOT e.watched) AS unwatched_streaming,\n" +
+            "         count(DISTINCT e.id) FILTER (WHERE e.watched) AS watched_episodes,\n" +
+            "         count(DISTINCT e.id) FILTER (WHERE e.on_tivo) AS matched_episodes,\n" +
+            "         count(DISTINCT e.id) FILTER (WHERE NOT e.on_tivo) AS tvdb_only_episodes,\n" +
+            "         count(DISTINCT e.id) FILTER (WHERE NOT e.on_tivo AND NOT e.watched) AS unwatched_unrecorded,\n" +
+            "         max(e.air_time) FILTER (WHERE (e.on_tivo OR e.streaming) AND e.air_time < now()) AS most_recent,\n" +
+            "         max(e.air_time) FILTER (WHERE (e.on_tivo OR e.streaming) AND e.air_time < now()\n" +
+            "                                   AND NOT e.watched) AS last_unwatched,\n" +
+            "         min(e.air_time) FILTER (WHERE (e.on_tivo OR e.streaming) AND e.air_time < now()\n" +
+            "                                   AND NOT e.watched) AS first_unwatched\n" +
+            "  FROM episode e\n" +
+            "  LEFT OUTER JOIN edge_tivo_episode ete\n" +
+            "   ON ete.episode_id = e.id\n" +
+            "  LEFT OUTER JOIN tivo_episode te\n" +
+            "   ON ete.tivo_episode_id = te.id\n" +
+            "  WHERE e.retired = 0\n" +
+            "  AND e.season <> 0\n" +
+            "  GROUP BY e.series_id\n" +
+            "), unmatched_denorm AS (\n" +
+            "  SELECT te.tivo_series_v2_ext_id,\n" +
+            "         count(1) AS unmatched_episodes\n" +
+            "  FROM tivo_episode te\n" +
+            "  WHERE NOT EXISTS (SELECT 1 FROM edge_tivo_episode ete WHERE ete.tivo_episode_id = te.id)\n" +
+            "  AND te.retired = 0\n" +
+            "  AND te.ignore_matching = false\n" +
+            "  GROUP BY te.tivo_series_v2_ext_id\n" +
+            "), series_denorm AS (\n" +
+            "  SELECT s.id,\n" +
+            "         coalesce(u.unmatched_episodes, 0) AS unmatched_episodes,\n" +
+            "         coalesce(d.active_episodes, 0) AS active_episodes,\n" +
+            "         coalesce(d.unwatched_episodes, 0) AS unwatched_episodes,\n" +
+            "         d.last_unwatched,\n" +
+            "         d.first_unwatched,\n" +
+            "         d.most_recent,\n" +
+            "         coalesce(d.deleted_episodes, 0) AS deleted_episodes,\n" +
+            "         coalesce(d.suggestion_episodes, 0) AS suggestion_episodes,\n" +
+            "         coalesce(d.watched_episodes, 0) AS watched_episodes,\n" +
+            "         coalesce(d.matched_episodes, 0) AS matched_episodes,\n" +
+            "         coalesce(d.tvdb_only_episodes, 0) AS tvdb_only_episodes,\n" +
+            "         coalesce(d.unwatched_unrecorded, 0) AS unwatched_unrecorded,\n" +
+            "         coalesce(d.streaming_episodes, 0) AS streaming_episodes,\n" +
+            "         coalesce(d.unwatched_streaming, 0) AS unwatched_streaming\n" +
+            "  FROM series s\n" +
+            "  LEFT OUTER JOIN episode_denorm d\n" +
+            "   ON d.series_id = s.id\n" +
+            "  LEFT OUTER JOIN unmatched_denorm u\n" +
+            "   ON u.tivo_series_v2_ext_id = s.tivo_series_v2_ext_id\n" +
+            ")\n" +
+            "UPDATE series\n" +
+            "SET unmatched_episodes = sd.unmatched_episodes,\n" +
+            "    active_episodes = sd.active_episodes,\n" +
+            "    unwatched_episodes = sd.unwatched_episodes,\n" +
+            "    last_unwatched = sd.last_unwatched,\n" +
+            "    first_unwatched = sd.first_unwatched,\n" +
+            "    most_recent = sd.most_recent,\n" +
+            "    deleted_episodes = sd.deleted_episodes,\n" +
+            "    suggestion_episodes = sd.suggestion_episodes,\n" +
+            "    watched_episodes = sd.watched_episodes,\n" +
+            "    matched_episodes = sd.matched_episodes,\n" +
+            "    tvdb_only_episodes = sd.tvdb_only_episodes,\n" +
+            "    unwatched_unrecorded = sd.unwatched_unrecorded,\n" +
+            "    streaming_episodes = sd.streaming_episodes,\n" +
+            "    unwatched_streaming = sd.unwatched_streaming\n" +
+            "FROM series_denorm sd\n" +
+            "WHERE sd.id = series.id\n" +
+            "AND (series.unmatched_episodes, series.active_episodes, series.unwatched_episodes,\n" +
+            "     series.last_unwatched, series.first_unwatched, series.most_recent,\n" +
+            "     series.deleted_episodes, series.suggestion_episodes, series.watched_episodes,\n" +
+            "     series.matched_episodes, series.tvdb_only_episodes, series.unwatched_unrecorded,\n" +
+            "     series.streaming_episodes, series.unwatched_streaming)\n" +
+            "  IS DISTINCT FROM\n" +
+            "    (sd.unmatched_episodes, sd.active_episodes, sd.unwatched_episodes,\n" +
+            "     sd.last_unwatched, sd.first_unwatched, sd.most_recent,\n" +
+            "     sd.deleted_episodes, sd.suggestion_episodes, sd.watched_episodes,\n" +
+            "     sd.matched_episodes, sd.tvdb_only_episodes, sd.unwatched_unrecorded,\n" +
+            "     sd.streaming_episodes, sd.unwatched_streaming)"
     );
-  }
-
-  private void updateUnwatchedEpisodes() throws SQLException {
-    debug("- Unwatched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series s\n" +
-            "set unwatched_episodes = (select count(1)\n" +
-            "                            from episode e\n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id\n" +
-            "                            where e.series_id = s.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and te.suggestion is distinct from ?\n" +
-            "                            and te.id is not null\n" +
-            "                            and te.deleted_date is null\n" +
-            "                            and e.watched <> ?\n" +
-            "                            and e.season <> ?\n" +
-            "                            and e.retired = ?\n" +
-            "                            and te.retired = ?)",
-        true, true, true, 0, 0, 0);
-  }
-
-  private void updateActiveEpisodes() throws SQLException {
-    debug("- Active");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set active_episodes = (select count(1)\n" +
-            "                            from episode e\n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and te.suggestion is distinct from ?\n" +
-            "                            and te.id is not null\n" +
-            "                            and e.season <> ?\n" +
-            "                            and te.deleted_date is null\n" +
-            "                            and e.retired = ?\n" +
-            "                            and te.retired = ?)",
-        true, true, 0, 0, 0);
-  }
-
-  private void updateDeletedEpisodes() throws SQLException {
-    debug("- Deleted");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set deleted_episodes = (select count(1)\n" +
-            "                            from episode e\n" +
-            "                            left outer join edge_tivo_episode ete\n" +
-            "                             on ete.episode_id = e.id\n" +
-            "                            left outer join tivo_episode te\n" +
-            "                             on ete.tivo_episode_id = te.id\n" +
-            "                            where e.series_id = series.id\n" +
-            "                            and e.on_tivo = ?\n" +
-            "                            and te.id is not null\n" +
-            "                            and e.season <> ?\n" +
-            "                            and te.deleted_date is not null\n" +
-            "                            and e.retired = ?\n" +
-            "                            and te.retired = ?)",
-        true, 0, 0, 0);
-  }
-
-  private void updateUnmatchedEpisodes() throws SQLException {
-    debug("- Unmatched");
-    connection.prepareAndExecuteStatementUpdate(
-        "update series\n" +
-            "set unmatched_episodes = (select count(1)\n" +
-            "                            from tivo_episode te\n" +
-            "                            where not exists (select 1 from edge_tivo_episode ete where ete.tivo_episode_id = te.id)\n" +
-            "                            and te.tivo_series_v2_ext_id = series.tivo_series_v2_ext_id\n" +
-            "                            and te.retired = ? " +
-            "                            and te.ignore_matching = ?)",
-        0, false);
+    debug("  " + updatedRows + " series changed.");
   }
 
   private void updateMyUnwatchedEpisodes() throws SQLException {
@@ -0,0 +1,242 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.google.common.base.Preconditions;
+import com.mayhew3.mediamogul.db.JdbcConnections;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Write path for one TVDB series update. Everything the update writes goes into a single transaction instead of one
+ * autocommit per row. Episodes that actually write sit behind a savepoint, so a bad episode can be rolled back on its
+ * own, as it could when every row committed separately. Migration log rows are held until the end and inserted a few
+ * hundred at a time.
+ *
+ * Anything outside the database that should only see an episode once its rows are safe (the episode index) is deferred
+ * to finishEpisode. Error rows about the update are deferred until the transaction has ended, so a series rollback
+ * doesn't take the record of what went wrong with it.
+ */
+class SeriesWriteBatch {
+
+  private final SQLConnection connection;
+
+  private final List<MigrationLogRow> pendingLogs = new ArrayList<>();
+  private final List<MigrationLogRow> episodeLogs = new ArrayList<>();
+  private final List<Runnable> episodeFinishActions = new ArrayList<>();
+  private final List<TransactionAction> afterTransactionWrites = new ArrayList<>();
+
+  @Nullable
+  private Connection transactionConnection;
+  @Nullable
+  private Savepoint episodeSavepoint;
+
+  private static final int MAX_ROWS_PER_INSERT = 500;
+
+  private static final Logger logger = LogManager.getLogger(SeriesWriteBatch.class);
+
+  SeriesWriteBatch(SQLConnection connection) {
+    this.connection = connection;
+  }
+
+  void begin() throws SQLException {
+    Preconditions.checkState(transactionConnection == null, "Series write batch is already in a transaction.");
+    Connection jdbcConnection = JdbcConnections.get(connection);
+    jdbcConnection.setAutoCommit(false);
+    transactionConnection = jdbcConnection;
+  }
+
+  void commit() throws SQLException {
+    Preconditions.checkState(transactionConnection != null, "Series write batch has no open transaction.");
+    flushMigrationLogs();
+    try {
+      transactionConnection.commit();
+    } finally {
+      endTransaction();
+    }
+    runAfterTransactionWrites();
+  }
+
+  void rollback() throws SQLException {
+    pendingLogs.clear();
+    episodeLogs.clear();
+    episodeFinishActions.clear();
+    episodeSavepoint = null;
+    if (transactionConnection != null) {
+      try {
+        transactionConnection.rollback();
+      } finally {
+        endTransaction();
+      }
+    }
+    // the caller is already failing, so a problem here is logged rather than allowed to replace the original error.
+    try {
+      runAfterTransactionWrites();
+    } catch (SQLException e) {
+      logger.warn("Unable to record errors after series rollback: " + e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Called once an episode has something to write, so episodes that turn out unchanged don't pay for a savepoint.
+   */
+  void startEpisode() throws SQLException {
+    Preconditions.checkState(transactionConnection != null, "Series write batch has no open transaction.");
+    episodeSavepoint = transactionConnection.setSavepoint();
+  }
+
+  void finishEpisode() throws SQLException {
+    if (episodeSavepoint != null) {
+      Savepoint savepoint = episodeSavepoint;
+      episodeSavepoint = null;
+      Objects.requireNonNull(transactionConnection).releaseSavepoint(savepoint);
+    }
+    pendingLogs.addAll(episodeLogs);
+    episodeLogs.clear();
+    List<Runnable> actions = new ArrayList<>(episodeFinishActions);
+    episodeFinishActions.clear();
+    actions.forEach(Runnable::run);
+  }
+
+  /**
+   * Undo whatever the current episode wrote, so the transaction is usable again for the rest of the series.
+   */
+  void abandonEpisode() throws SQLException {
+    episodeLogs.clear();
+    episodeFinishActions.clear();
+    if (episodeSavepoint != null) {
+      Savepoint savepoint = episodeSavepoint;
+      episodeSavepoint = null;
+      Connection jdbcConnection = Objects.requireNonNull(transactionConnection);
+      jdbcConnection.rollback(savepoint);
+      jdbcConnection.releaseSavepoint(savepoint);
+    }
+  }
+
+  /**
+   * Run the action once the current episode's writes are kept, or drop it if the episode is abandoned. Runs straight
+   * away when no episode is open.
+   */
+  void onEpisodeFinished(Runnable action) {
+    if (episodeSavepoint != null) {
+      episodeFinishActions.add(action);
+    } else {
+      action.run();
+    }
+  }
+
+  /**
+   * Write outside the series transaction, once it has committed or rolled back, so the write survives either way.
+   * Writes straight away when no transaction is open.
+   */
+  void writeAfterTransaction(TransactionAction write) throws SQLException {
+    if (transactionConnection != null) {
+      afterTransactionWrites.add(write);
+    } else {
+      write.run();
+    }
+  }
+
+  void addMigrationLog(Integer tvdbSeriesId, @Nullable Integer tvdbEpisodeId, String fieldName, @Nullable Object oldValue, @Nullable Object newValue) {
+    MigrationLogRow row = new MigrationLogRow(
+        tvdbSeriesId,
+        tvdbEpisodeId,
+        fieldName,
+        oldValue == null ? null : oldValue.toString(),
+        newValue == null ? null : newValue.toString());
+    if (episodeSavepoint != null) {
+      episodeLogs.add(row);
+    } else {
+      pendingLogs.add(row);
+    }
+  }
+
+  private void flushMigrationLogs() throws SQLException {
+    if (pendingLogs.isEmpty()) {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    Timestamp now = new Timestamp(new Date().getTime());
+
+    for (int start = 0; start < pendingLogs.size(); start += MAX_ROWS_PER_INSERT) {
+      List<MigrationLogRow> chunk = pendingLogs.subList(start, Math.min(start + MAX_ROWS_PER_INSERT, pendingLogs.size()));
+
+      List<Object> params = new ArrayList<>();
+      List<String> rows = new ArrayList<>();
+      for (MigrationLogRow row : chunk) {
+        rows.add("(?, ?::integer, ?, ?::text, ?::text, ?, ?)");
+        params.add(row.tvdbSeriesId);
+        params.add(row.tvdbEpisodeId);
+        params.add(row.fieldName);
+        params.add(row.oldValue);
+        params.add(row.newValue);
+        params.add(now);
+        params.add(0);
+      }
+
+      String sql = "INSERT INTO tvdb_migration_log (tvdb_series_id, tvdb_episode_id, tvdb_field_name, old_value, new_value, date_added, retired) " +
+          "VALUES " + String.join(", ", rows);
+      connection.prepareAndExecuteStatementUpdate(sql, params.toArray());
+    }
+
+    pendingLogs.clear();
+    Metrics.recordQuery("tvdb_migration_log_batch", startNanos);
+  }
+
+  private void endTransaction() throws SQLException {
+    Connection jdbcConnection = Objects.requireNonNull(transactionConnection);
+    transactionConnection = null;
+    episodeSavepoint = null;
+    jdbcConnection.setAutoCommit(true);
+  }
+
+  private void runAfterTransactionWrites() throws SQLException {
+    List<TransactionAction> writes = new ArrayList<>(afterTransactionWrites);
+    afterTransactionWrites.clear();
+    // one failed write shouldn't cost the others, so they all get a try before the first failure is reported.
+    SQLException firstFailure = null;
+    for (TransactionAction write : writes) {
+      try {
+        write.run();
+      } catch (SQLException e) {
+        if (firstFailure == null) {
+          firstFailure = e;
+        }
+      }
+    }
+    if (firstFailure != null) {
+      throw firstFailure;
+    }
+  }
+
+  interface TransactionAction {
+    void run() throws SQLException;
+  }
+
+  private static class MigrationLogRow {
+    private final Integer tvdbSeriesId;
+    @Nullable private final Integer tvdbEpisodeId;
+    private final String fieldName;
+    @Nullable private final String oldValue;
+    @Nullable private final String newValue;
+
+    private MigrationLogRow(Integer tvdbSeriesId, @Nullable Integer tvdbEpisodeId, String fieldName, @Nullable String oldValue, @Nullable String newValue) {
+      this.tvdbSeriesId = tvdbSeriesId;
+      this.tvdbEpisodeId = tvdbEpisodeId;
+      this.fieldName = fieldName;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+  }
+}
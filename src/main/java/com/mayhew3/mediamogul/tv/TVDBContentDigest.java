@@ -0,0 +1,100 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.google.common.hash.Hashing;
+import com.mayhew3.mediamogul.tv.provider.TVDBEpisodeRecord;
+import com.mayhew3.mediamogul.tv.provider.TVDBSeriesRecord;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stable hashes of the TVDB fields the updaters read, stored on tvdb_series and tvdb_episode so an update can tell when
+ * TVDB has sent nothing new and skip re-applying it. They're taken over the decoded records, so key order in the JSON
+ * doesn't matter, and fields we don't read can change without invalidating anything.
+ *
+ * Bump VERSION whenever the fields hashed here change, or when the updaters start deriving something new from them.
+ */
+class TVDBContentDigest {
+
+  // 2: hashed from the decoded records, where blank strings are already null.
+  private static final String VERSION = "2";
+
+  private TVDBContentDigest() {
+  }
+
+  static String forSeries(TVDBSeriesRecord series) {
+    StringBuilder canonical = new StringBuilder("series:" + VERSION + "\n");
+    appendValue(canonical, "id", series.getId());
+    appendValue(canonical, "seriesName", series.getSeriesName());
+    appendValue(canonical, "airsDayOfWeek", series.getAirsDayOfWeek());
+    appendValue(canonical, "airsTime", series.getAirsTime());
+    appendValue(canonical, "firstAired", series.getFirstAired());
+    appendValue(canonical, "network", series.getNetwork());
+    appendValue(canonical, "overview", series.getOverview());
+    appendValue(canonical, "siteRating", series.getSiteRating());
+    appendValue(canonical, "siteRatingCount", series.getSiteRatingCount());
+    appendValue(canonical, "runtime", series.getRuntime());
+    appendValue(canonical, "status", series.getStatus());
+    appendValue(canonical, "banner", series.getBanner());
+    appendValue(canonical, "lastUpdated", series.getLastUpdated());
+    appendValue(canonical, "imdbId", series.getImdbId());
+    appendValue(canonical, "zap2itId", series.getZap2itId());
+    for (String genre : series.getGenres()) {
+      appendValue(canonical, "genre", genre);
+    }
+    return hash(canonical);
+  }
+
+  /**
+   * Episode rows also take a few values from their series, so those are part of the episode's digest too.
+   */
+  static String forEpisode(TVDBEpisodeRecord episode,
+                           @Nullable String seriesTitle,
+                           @Nullable String seriesAirTime,
+                           @Nullable Integer tvdbSeriesId,
+                           Boolean seriesStreaming) {
+    StringBuilder canonical = new StringBuilder("episode:" + VERSION + "\n");
+    appendValue(canonical, "id", episode.getId());
+    appendValue(canonical, "airedEpisodeNumber", episode.getAiredEpisodeNumber());
+    appendValue(canonical, "episodeName", episode.getEpisodeName());
+    appendValue(canonical, "airedSeason", episode.getAiredSeason());
+    appendValue(canonical, "firstAired", episode.getFirstAired());
+    appendValue(canonical, "absoluteNumber", episode.getAbsoluteNumber());
+    appendValue(canonical, "overview", episode.getOverview());
+    appendValue(canonical, "productionCode", episode.getProductionCode());
+    appendValue(canonical, "siteRating", episode.getSiteRating());
+    appendValue(canonical, "siteRatingCount", episode.getSiteRatingCount());
+    appendValue(canonical, "director", episode.getDirector());
+    appendValue(canonical, "lastUpdated", episode.getLastUpdated());
+    appendValue(canonical, "airedSeasonID", episode.getAiredSeasonID());
+    appendValue(canonical, "filename", episode.getFilename());
+    appendValue(canonical, "airsAfterSeason", episode.getAirsAfterSeason());
+    appendValue(canonical, "airsBeforeSeason", episode.getAirsBeforeSeason());
+    appendValue(canonical, "airsBeforeEpisode", episode.getAirsBeforeEpisode());
+    appendValue(canonical, "thumbHeight", episode.getThumbHeight());
+    appendValue(canonical, "thumbWidth", episode.getThumbWidth());
+    appendValue(canonical, "@seriesTitle", seriesTitle);
+    appendValue(canonical, "@seriesAirTime", seriesAirTime);
+    appendValue(canonical, "@tvdbSeriesId", tvdbSeriesId);
+    appendValue(canonical, "@seriesStreaming", seriesStreaming);
+    return hash(canonical);
+  }
+
+  private static void appendValue(StringBuilder canonical, String key, @Nullable Object value) {
+    canonical.append(key).append('=');
+    if (value == null) {
+      // can't collide with a string value, which always gets quotes.
+      canonical.append("null");
+    } else if (value instanceof String) {
+      canonical.append(JSONObject.quote((String) value));
+    } else {
+      canonical.append(value);
+    }
+    canonical.append('\n');
+  }
+
+  private static String hash(CharSequence canonical) {
+    return Hashing.sha256().hashString(canonical, StandardCharsets.UTF_8).toString();
+  }
+}
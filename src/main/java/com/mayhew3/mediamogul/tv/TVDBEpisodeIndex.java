@@ -0,0 +1,178 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.model.tv.Episode;
+import com.mayhew3.mediamogul.model.tv.TVDBEpisode;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * The episodes and TVDB episodes of one series, indexed by TVDB external id, by season and episode number, and by
+ * tvdb_episode_id, so the per-episode lookups during a series update don't each scan the whole series.
+ *
+ * Season and episode number change as TVDB data is applied, so callers put a TVDB episode again after changing it, and
+ * its entries are moved to match. Rows are tracked by identity, since new rows have no id until they're committed.
+ */
+class TVDBEpisodeIndex {
+
+  private final List<TVDBEpisode> tvdbEpisodes = new ArrayList<>();
+  private final List<Episode> episodes = new ArrayList<>();
+
+  private final Map<Integer, List<TVDBEpisode>> tvdbEpisodesByExtId = new HashMap<>();
+  private final Map<EpisodeNumber, List<TVDBEpisode>> tvdbEpisodesByNumber = new HashMap<>();
+  private final Map<Integer, Episode> episodesByTVDBEpisodeId = new HashMap<>();
+
+  // the keys each row is currently filed under, so a put can take it out of the old ones.
+  private final Map<TVDBEpisode, IndexedKeys> tvdbEpisodeKeys = new IdentityHashMap<>();
+  private final Map<Episode, Integer> episodeKeys = new IdentityHashMap<>();
+
+  TVDBEpisodeIndex(List<TVDBEpisode> tvdbEpisodes, List<Episode> episodes) {
+    tvdbEpisodes.forEach(this::putTVDBEpisode);
+    episodes.forEach(this::putEpisode);
+  }
+
+  List<TVDBEpisode> getTVDBEpisodes() {
+    return Collections.unmodifiableList(tvdbEpisodes);
+  }
+
+  List<Episode> getEpisodes() {
+    return Collections.unmodifiableList(episodes);
+  }
+
+  /**
+   * Add a TVDB episode, or re-file one already in the index after its ext id, season or episode number changed.
+   */
+  void putTVDBEpisode(TVDBEpisode tvdbEpisode) {
+    IndexedKeys previousKeys = tvdbEpisodeKeys.get(tvdbEpisode);
+    if (previousKeys == null) {
+      tvdbEpisodes.add(tvdbEpisode);
+    } else {
+      unfile(tvdbEpisode, previousKeys);
+    }
+
+    IndexedKeys keys = new IndexedKeys(
+        tvdbEpisode.tvdbEpisodeExtId.getValue(),
+        new EpisodeNumber(tvdbEpisode.seasonNumber.getValue(), tvdbEpisode.episodeNumber.getValue()));
+    if (keys.extId != null) {
+      tvdbEpisodesByExtId.computeIfAbsent(keys.extId, extId -> new ArrayList<>()).add(tvdbEpisode);
+    }
+    tvdbEpisodesByNumber.computeIfAbsent(keys.episodeNumber, episodeNumber -> new ArrayList<>()).add(tvdbEpisode);
+    tvdbEpisodeKeys.put(tvdbEpisode, keys);
+  }
+
+  void removeTVDBEpisode(TVDBEpisode tvdbEpisode) {
+    IndexedKeys keys = tvdbEpisodeKeys.remove(tvdbEpisode);
+    if (keys != null) {
+      unfile(tvdbEpisode, keys);
+      removeByIdentity(tvdbEpisodes, tvdbEpisode);
+    }
+  }
+
+  /**
+   * Add an episode, or re-file one already in the index after it was linked to its tvdb_episode row.
+   */
+  void putEpisode(Episode episode) {
+    boolean alreadyIndexed = episodeKeys.containsKey(episode);
+    Integer previousKey = episodeKeys.get(episode);
+    if (previousKey != null) {
+      episodesByTVDBEpisodeId.remove(previousKey, episode);
+    }
+    if (!alreadyIndexed) {
+      episodes.add(episode);
+    }
+
+    Integer tvdbEpisodeId = episode.tvdbEpisodeId.getValue();
+    if (tvdbEpisodeId != null) {
+      episodesByTVDBEpisodeId.put(tvdbEpisodeId, episode);
+    }
+    episodeKeys.put(episode, tvdbEpisodeId);
+  }
+
+  void removeEpisode(Episode episode) {
+    if (!episodeKeys.containsKey(episode)) {
+      return;
+    }
+    Integer tvdbEpisodeId = episodeKeys.remove(episode);
+    if (tvdbEpisodeId != null && episodesByTVDBEpisodeId.get(tvdbEpisodeId) == episode) {
+      episodesByTVDBEpisodeId.remove(tvdbEpisodeId);
+    }
+    removeByIdentity(episodes, episode);
+  }
+
+  List<TVDBEpisode> getTVDBEpisodesByExtId(Integer tvdbEpisodeExtId) {
+    return Collections.unmodifiableList(tvdbEpisodesByExtId.getOrDefault(tvdbEpisodeExtId, Collections.emptyList()));
+  }
+
+  Optional<TVDBEpisode> findTVDBEpisodeByExtId(Integer tvdbEpisodeExtId) {
+    return getTVDBEpisodesByExtId(tvdbEpisodeExtId).stream().findFirst();
+  }
+
+  List<TVDBEpisode> getTVDBEpisodesByNumber(@Nullable Integer seasonNumber, @Nullable Integer episodeNumber) {
+    List<TVDBEpisode> matches = tvdbEpisodesByNumber.get(new EpisodeNumber(seasonNumber, episodeNumber));
+    return matches == null ? Collections.emptyList() : Collections.unmodifiableList(matches);
+  }
+
+  Optional<Episode> findEpisodeByTVDBEpisodeId(Integer tvdbEpisodeId) {
+    return Optional.ofNullable(episodesByTVDBEpisodeId.get(tvdbEpisodeId));
+  }
+
+  private void unfile(TVDBEpisode tvdbEpisode, IndexedKeys keys) {
+    if (keys.extId != null) {
+      removeFromBucket(tvdbEpisodesByExtId, keys.extId, tvdbEpisode);
+    }
+    removeFromBucket(tvdbEpisodesByNumber, keys.episodeNumber, tvdbEpisode);
+  }
+
+  private static <K> void removeFromBucket(Map<K, List<TVDBEpisode>> map, K key, TVDBEpisode tvdbEpisode) {
+    List<TVDBEpisode> bucket = map.get(key);
+    if (bucket != null) {
+      removeByIdentity(bucket, tvdbEpisode);
+      if (bucket.isEmpty()) {
+        map.remove(key);
+      }
+    }
+  }
+
+  private static <T> void removeByIdentity(List<T> list, T item) {
+    for (Iterator<T> iterator = list.iterator(); iterator.hasNext(); ) {
+      if (iterator.next() == item) {
+        iterator.remove();
+        return;
+      }
+    }
+  }
+
+  private static class IndexedKeys {
+    @Nullable private final Integer extId;
+    private final EpisodeNumber episodeNumber;
+
+    private IndexedKeys(@Nullable Integer extId, EpisodeNumber episodeNumber) {
+      this.extId = extId;
+      this.episodeNumber = episodeNumber;
+    }
+  }
+
+  private static class EpisodeNumber {
+    @Nullable private final Integer season;
+    @Nullable private final Integer episode;
+
+    private EpisodeNumber(@Nullable Integer season, @Nullable Integer episode) {
+      this.season = season;
+      this.episode = episode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof EpisodeNumber)) {
+        return false;
+      }
+      EpisodeNumber other = (EpisodeNumber) obj;
+      return Objects.equals(season, other.season) && Objects.equals(episode, other.episode);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(season, episode);
+    }
+  }
+}
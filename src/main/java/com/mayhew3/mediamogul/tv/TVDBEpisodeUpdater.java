@@ -3,10 +3,9 @@ package com.mayhew3.mediamogul.tv;
 import com.mayhew3.mediamogul.model.tv.Episode;
 import com.mayhew3.mediamogul.model.tv.Series;
 import com.mayhew3.mediamogul.model.tv.TVDBEpisode;
-import com.mayhew3.mediamogul.model.tv.TVDBMigrationLog;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.helper.TVDBApprovalStatus;
-import com.mayhew3.mediamogul.xml.JSONReader;
+import com.mayhew3.mediamogul.tv.provider.TVDBEpisodeRecord;
 import com.mayhew3.postgresobject.dataobject.FieldValue;
 import com.mayhew3.postgresobject.db.SQLConnection;
 import org.apache.logging.log4j.LogManager;
@@ -27,34 +26,34 @@ class TVDBEpisodeUpdater {
   enum EPISODE_RESULT {ADDED, UPDATED, RETIRED, NONE}
 
   private Series series;
-  private List<Episode> episodes;
-  private List<TVDBEpisode> tvdbEpisodes;
+  private Boolean seriesStreaming;
+  private TVDBEpisodeIndex episodeIndex;
 
-  private JSONObject episodeJson;
+  private TVDBEpisodeRecord episodeRecord;
 
   final private SocketWrapper socket;
 
   private SQLConnection connection;
+  private SeriesWriteBatch writeBatch;
   private Integer tvdbRemoteId;
-  private JSONReader jsonReader;
 
   private static Logger logger = LogManager.getLogger(TVDBEpisodeUpdater.class);
 
   TVDBEpisodeUpdater(Series series,
+                     Boolean seriesStreaming,
                      SQLConnection connection,
+                     SeriesWriteBatch writeBatch,
                      Integer tvdbEpisodeId,
-                     JSONReader jsonReader,
-                     List<Episode> episodes,
-                     List<TVDBEpisode> tvdbEpisodes,
-                     JSONObject episodeJSON,
+                     TVDBEpisodeIndex episodeIndex,
+                     TVDBEpisodeRecord episodeRecord,
                      SocketWrapper socket) {
     this.series = series;
+    this.seriesStreaming = seriesStreaming;
     this.connection = connection;
+    this.writeBatch = writeBatch;
     this.tvdbRemoteId = tvdbEpisodeId;
-    this.jsonReader = jsonReader;
-    this.episodes = episodes;
-    this.tvdbEpisodes = tvdbEpisodes;
-    this.episodeJson = episodeJSON;
+    this.episodeIndex = episodeIndex;
+    this.episodeRecord = episodeRecord;
     this.socket = socket;
   }
 
@@ -133,10 +132,23 @@ class TVDBEpisodeUpdater {
 
     Optional<TVDBEpisode> existingEpisode = findExistingTVDBEpisode();
 
-    @NotNull Integer episodenumber = jsonReader.getIntegerWithKey(episodeJson, "airedEpisodeNumber");
-    @Nullable String episodename = jsonReader.getNullableStringWithKey(episodeJson, "episodeName");
-    @NotNull Integer seasonnumber = jsonReader.getIntegerWithKey(episodeJson, "airedSeason");
-    @Nullable String firstaired = jsonReader.getNullableStringWithKey(episodeJson, "firstAired");
+    String contentDigest = TVDBContentDigest.forEpisode(
+        episodeRecord,
+        series.seriesTitle.getValue(),
+        series.airTime.getValue(),
+        series.tvdbSeriesId.getValue(),
+        seriesStreaming);
+
+    if (existingEpisode.isPresent() && isUnchangedSinceLastUpdate(existingEpisode.get(), contentDigest)) {
+      return EPISODE_RESULT.NONE;
+    }
+
+    writeBatch.startEpisode();
+
+    @NotNull Integer episodenumber = required(episodeRecord.getAiredEpisodeNumber(), "airedEpisodeNumber");
+    @Nullable String episodename = episodeRecord.getEpisodeName();
+    @NotNull Integer seasonnumber = required(episodeRecord.getAiredSeason(), "airedSeason");
+    @Nullable String firstaired = episodeRecord.getFirstAired();
 
     boolean added = false;
     boolean changed = false;
@@ -161,7 +173,7 @@ class TVDBEpisodeUpdater {
 
     // todo: Add log entry for when TVDB values change.
 
-    Integer absoluteNumber = jsonReader.getNullableIntegerWithKey(episodeJson, "absoluteNumber");
+    Integer absoluteNumber = episodeRecord.getAbsoluteNumber();
 
     if (tvdbEpisode.tvdbEpisodeExtId.getValue() == null ||
         tvdbEpisode.tvdbEpisodeExtId.getValue().equals(tvdbRemoteId)) {
@@ -181,27 +193,27 @@ class TVDBEpisodeUpdater {
     updateLinkedFieldsFromStringIfNotOverridden(episode.airDate, tvdbEpisode.firstAired, firstaired);
 
     tvdbEpisode.tvdbSeriesId.changeValue(series.tvdbSeriesId.getValue());
-    tvdbEpisode.overview.changeValue(jsonReader.getNullableStringWithKey(episodeJson, "overview"));
-    tvdbEpisode.productionCode.changeValue(jsonReader.getNullableStringWithKey(episodeJson, "productionCode"));
-    tvdbEpisode.rating.changeValue(jsonReader.getNullableDoubleWithKey(episodeJson, "siteRating"));
-    tvdbEpisode.ratingCount.changeValue(jsonReader.getNullableIntegerWithKey(episodeJson, "siteRatingCount"));
-    tvdbEpisode.director.changeValue(jsonReader.getNullableStringWithKey(episodeJson, "director"));
+    tvdbEpisode.overview.changeValue(episodeRecord.getOverview());
+    tvdbEpisode.productionCode.changeValue(episodeRecord.getProductionCode());
+    tvdbEpisode.rating.changeValue(episodeRecord.getSiteRating());
+    tvdbEpisode.ratingCount.changeValue(episodeRecord.getSiteRatingCount());
+    tvdbEpisode.director.changeValue(episodeRecord.getDirector());
 
     // todo: writers array
 //    tvdbEpisode.writer.changeValueFromString(episodeJson.getString("writers"));
 
-    tvdbEpisode.lastUpdated.changeValue(jsonReader.getIntegerWithKey(episodeJson, "lastUpdated"));
+    tvdbEpisode.lastUpdated.changeValue(required(episodeRecord.getLastUpdated(), "lastUpdated"));
 
-    tvdbEpisode.tvdbSeasonExtId.changeValue(jsonReader.getNullableIntegerWithKey(episodeJson, "airedSeasonID"));
+    tvdbEpisode.tvdbSeasonExtId.changeValue(episodeRecord.getAiredSeasonID());
 
-    tvdbEpisode.filename.changeValue(jsonReader.getNullableStringWithKey(episodeJson, "filename"));
+    tvdbEpisode.filename.changeValue(episodeRecord.getFilename());
 
-    tvdbEpisode.airsAfterSeason.changeValue(jsonReader.getNullableIntegerWithKey(episodeJson, "airsAfterSeason"));
-    tvdbEpisode.airsBeforeSeason.changeValue(jsonReader.getNullableIntegerWithKey(episodeJson, "airsBeforeSeason"));
-    tvdbEpisode.airsBeforeEpisode.changeValue(jsonReader.getNullableIntegerWithKey(episodeJson, "airsBeforeEpisode"));
+    tvdbEpisode.airsAfterSeason.changeValue(episodeRecord.getAirsAfterSeason());
+    tvdbEpisode.airsBeforeSeason.changeValue(episodeRecord.getAirsBeforeSeason());
+    tvdbEpisode.airsBeforeEpisode.changeValue(episodeRecord.getAirsBeforeEpisode());
 
-    tvdbEpisode.thumbHeight.changeValueFromString(jsonReader.getNullableStringWithKey(episodeJson, "thumbHeight"));
-    tvdbEpisode.thumbWidth.changeValueFromString(jsonReader.getNullableStringWithKey(episodeJson, "thumbWidth"));
+    tvdbEpisode.thumbHeight.changeValueFromString(episodeRecord.getThumbHeight());
+    tvdbEpisode.thumbWidth.changeValueFromString(episodeRecord.getThumbWidth());
 
     if (tvdbEpisode.hasChanged() && !tvdbEpisode.isForInsert()) {
       changed = true;
@@ -209,16 +221,17 @@ class TVDBEpisodeUpdater {
     }
 
     tvdbEpisode.apiVersion.changeValue(2);
+    tvdbEpisode.contentDigest.changeValue(contentDigest);
 
-    if (tvdbEpisode.isForInsert()) {
-      tvdbEpisodes.add(tvdbEpisode);
+    // unchanged rows are the common case on a re-fetch, and shouldn't cost a statement each.
+    if (tvdbEpisode.isForInsert() || tvdbEpisode.hasChanged()) {
+      tvdbEpisode.commit(connection);
     }
-    tvdbEpisode.commit(connection);
 
     episode.seriesTitle.changeValueFromString(series.seriesTitle.getValue());
     episode.tvdbEpisodeId.changeValue(tvdbEpisode.id.getValue());
     episode.title.changeValue(episodename);
-    episode.streaming.changeValue(series.isStreaming(connection));
+    episode.streaming.changeValue(seriesStreaming);
 
     episode.updateAirTime(series.airTime.getValue());
 
@@ -250,8 +263,15 @@ class TVDBEpisodeUpdater {
       changed = true;
     }
 
-    episode.commit(connection);
-    episodes.add(episode);
+    if (episode.isForInsert() || episode.hasChanged()) {
+      episode.commit(connection);
+    }
+
+    // only once the savepoint is released, so an abandoned episode never leaves ids in the index that were rolled back.
+    writeBatch.onEpisodeFinished(() -> {
+      episodeIndex.putTVDBEpisode(tvdbEpisode);
+      episodeIndex.putEpisode(episode);
+    });
 
     if (shouldFlagPastEpisode) {
       JSONObject pendingReturnObj = createPendingReturnObj(episode);
@@ -277,6 +297,16 @@ class TVDBEpisodeUpdater {
     }
   }
 
+  private boolean isUnchangedSinceLastUpdate(TVDBEpisode tvdbEpisode, String contentDigest) {
+    if (!contentDigest.equals(tvdbEpisode.contentDigest.getValue())) {
+      return false;
+    }
+    // a pending episode can become resolvable from changes on our side, so it always gets the full pass.
+    Optional<Episode> episode = episodeIndex.findEpisodeByTVDBEpisodeId(tvdbEpisode.id.getValue());
+    return episode.isPresent() &&
+        !TVDBApprovalStatus.PENDING.getTypeKey().equals(episode.get().tvdbApproval.getValue());
+  }
+
   private JSONObject createPendingReturnObj(Episode episode) {
     JSONObject episodeObj = new JSONObject();
     episodeObj.put("id", episode.id.getValue());
@@ -297,27 +327,26 @@ class TVDBEpisodeUpdater {
     return episodeObj;
   }
 
-  private void addChangeLogs(TVDBEpisode tvdbEpisode) throws SQLException {
+  private void addChangeLogs(TVDBEpisode tvdbEpisode) {
     List<FieldValue> changedFields = tvdbEpisode.getChangedFields();
     changedFields.remove(tvdbEpisode.lastUpdated);
 
     for (FieldValue fieldValue : changedFields) {
-      TVDBMigrationLog tvdbMigrationLog = new TVDBMigrationLog();
-      tvdbMigrationLog.initializeForInsert();
-
-      tvdbMigrationLog.tvdbSeriesId.changeValue(tvdbEpisode.tvdbSeriesId.getValue());
-      tvdbMigrationLog.tvdbEpisodeId.changeValue(tvdbEpisode.id.getValue());
-
-      tvdbMigrationLog.tvdbFieldName.changeValue(fieldValue.getFieldName());
-      tvdbMigrationLog.oldValue.changeValue(fieldValue.getOriginalValue() == null ?
-          null :
-          fieldValue.getOriginalValue().toString());
-      tvdbMigrationLog.newValue.changeValue(fieldValue.getChangedValue() == null ?
-          null :
-          fieldValue.getChangedValue().toString());
+      writeBatch.addMigrationLog(
+          tvdbEpisode.tvdbSeriesId.getValue(),
+          tvdbEpisode.id.getValue(),
+          fieldValue.getFieldName(),
+          fieldValue.getOriginalValue(),
+          fieldValue.getChangedValue());
+    }
+  }
 
-      tvdbMigrationLog.commit(connection);
+  @NotNull
+  private <T> T required(@Nullable T value, String key) {
+    if (value == null) {
+      throw new IllegalStateException("TVDB episode " + tvdbRemoteId + " is missing required field '" + key + "'.");
     }
+    return value;
   }
 
   private <T> void updateLinkedFieldsIfNotOverridden(FieldValue<T> slaveField, FieldValue<T> masterField, @Nullable T newValue) {
@@ -345,18 +374,15 @@ class TVDBEpisodeUpdater {
   }
 
   private Optional<TVDBEpisode> findExistingTVDBEpisode() {
-    int tvdbEpisodeExtId = episodeJson.getInt("id");
-    return findExistingTVDBEpisodeByTVDBID(tvdbEpisodeExtId);
+    return findExistingTVDBEpisodeByTVDBID(tvdbRemoteId);
   }
 
   private Optional<TVDBEpisode> findExistingTVDBEpisodeByTVDBID(Integer tvdbEpisodeExtId) {
-    return tvdbEpisodes.stream()
-        .filter(tvdbEpisode -> tvdbEpisodeExtId.equals(tvdbEpisode.tvdbEpisodeExtId.getValue()))
-        .findFirst();
+    return episodeIndex.findTVDBEpisodeByExtId(tvdbEpisodeExtId);
   }
 
   private Optional<TVDBEpisode> findExistingTVDBEpisodeByEpisodeNumber(Integer episodeNumber, Integer seasonNumber) {
-    return tvdbEpisodes.stream()
+    return episodeIndex.getTVDBEpisodesByNumber(seasonNumber, episodeNumber).stream()
         .filter(tvdbEpisode -> matchesByEpisodeNumber(tvdbEpisode, episodeNumber, seasonNumber, series.tvdbSeriesId.getValue()))
         .findFirst();
   }
@@ -368,9 +394,7 @@ class TVDBEpisodeUpdater {
   }
 
   private Episode getEpisodeFromTVDBEpisodeID(Integer tvdbEpisodeID) {
-    Optional<Episode> optionalEpisode = episodes.stream()
-        .filter(episode -> tvdbEpisodeID.equals(episode.tvdbEpisodeId.getValue()))
-        .findFirst();
+    Optional<Episode> optionalEpisode = episodeIndex.findEpisodeByTVDBEpisodeId(tvdbEpisodeID);
 
     if (optionalEpisode.isPresent()) {
       return optionalEpisode.get();
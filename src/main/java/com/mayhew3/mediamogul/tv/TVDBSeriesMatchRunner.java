@@ -8,6 +8,7 @@ import com.mayhew3.mediamogul.model.tv.Series;
 import com.mayhew3.mediamogul.model.tv.TVDBConnectionLog;
 import com.mayhew3.mediamogul.model.tv.TVDBEpisode;
 import com.mayhew3.mediamogul.model.tv.TiVoEpisode;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
@@ -33,9 +34,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public class TVDBSeriesMatchRunner implements UpdateRunner {
 
@@ -126,6 +129,11 @@ public class TVDBSeriesMatchRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.TVDB_API);
+  }
+
   /**
    * Go to theTVDB and update all series in my DB with the ones from theirs.
    */
@@ -6,9 +6,11 @@ import com.mayhew3.mediamogul.model.tv.*;
 import com.mayhew3.mediamogul.model.tv.group.TVGroupEpisode;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
+import com.mayhew3.mediamogul.tv.provider.TVDBEpisodePage;
+import com.mayhew3.mediamogul.tv.provider.TVDBEpisodeRecord;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
+import com.mayhew3.mediamogul.tv.provider.TVDBSeriesRecord;
 import com.mayhew3.mediamogul.xml.JSONReader;
-import com.mayhew3.mediamogul.xml.JSONReaderImpl;
 import com.mayhew3.postgresobject.dataobject.FieldValue;
 import com.mayhew3.postgresobject.db.SQLConnection;
 import org.apache.http.auth.AuthenticationException;
@@ -22,16 +24,18 @@ import org.json.JSONObject;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class TVDBSeriesUpdater {
 
   private Series series;
-  private List<Episode> episodes;
-  private List<TVDBEpisode> tvdbEpisodes;
-  private List<Integer> originalTVDBIDs;
+  private TVDBEpisodeIndex episodeIndex;
+  private Set<Integer> originalTVDBIDs;
+  private Boolean seriesStreaming;
 
   private SQLConnection connection;
+  private SeriesWriteBatch writeBatch;
   private TVDBJWTProvider tvdbDataProvider;
   private JSONReader jsonReader;
 
@@ -44,6 +48,14 @@ public class TVDBSeriesUpdater {
   private Integer episodesUpdated = 0;
   private Integer episodesFailed = 0;
 
+  // everything fetched from TVDB, gathered before the write transaction opens.
+  private TVDBSeriesRecord seriesRecord;
+  private List<String> posterFilenames;
+  private List<TVDBEpisodePage> episodePages;
+  private boolean allEpisodePagesFetched;
+
+  private static final int MAX_EPISODE_PAGES_IN_FLIGHT = 4;
+
   private static Logger logger = LogManager.getLogger(TVDBSeriesUpdater.class);
 
   TVDBSeriesUpdater(SQLConnection connection,
@@ -53,6 +65,7 @@ public class TVDBSeriesUpdater {
                     SocketWrapper socket) {
     this.series = series;
     this.connection = connection;
+    this.writeBatch = new SeriesWriteBatch(connection);
     this.tvdbDataProvider = tvdbWebProvider;
     this.jsonReader = jsonReader;
     this.socket = socket;
@@ -64,19 +77,6 @@ public class TVDBSeriesUpdater {
   void updateSeries() throws SQLException, ShowFailedException, UnirestException, AuthenticationException {
     String seriesTitle = series.seriesTitle.getValue();
 
-    episodes = series.getEpisodes(connection);
-    tvdbEpisodes = series.getTVDBEpisodes(connection);
-    originalTVDBIDs = tvdbEpisodes.stream()
-        .map(tvdbEpisode -> tvdbEpisode.tvdbEpisodeExtId.getValue())
-        .collect(Collectors.toList());
-
-    debug(seriesTitle + ": ID found, getting show data.");
-
-    updateShowData();
-  }
-
-  private void updateShowData() throws SQLException, UnirestException, AuthenticationException, ShowFailedException {
-    debug("UpdateShowData...");
     if (series.tvdbMatchId.getValue() != null && TVDBMatchStatus.MATCH_CONFIRMED.equals(series.tvdbMatchStatus.getValue())) {
       series.tvdbSeriesExtId.changeValue(series.tvdbMatchId.getValue());
     }
@@ -87,17 +87,44 @@ public class TVDBSeriesUpdater {
       throw new ShowFailedException("Updater trying to process series with null TVDB ID: " + series);
     }
 
-    String seriesTitle = series.seriesTitle.getValue();
+    debug(seriesTitle + ": ID found, getting show data.");
 
-    JSONObject seriesRoot = tvdbDataProvider.getSeriesData(tvdbSeriesExtId);
+    // all the TVDB calls happen up front, so the transaction below is only open for as long as the writes take.
+    fetchShowData(tvdbSeriesExtId);
 
-    debug(seriesTitle + ": Data found, updating.");
+    // the episode index is rebuilt from the database for each update, so nothing it picked up survives a rollback.
+    writeBatch.begin();
+    try {
+      List<TVDBEpisode> tvdbEpisodes = series.getTVDBEpisodes(connection);
+      episodeIndex = new TVDBEpisodeIndex(tvdbEpisodes, series.getEpisodes(connection));
+      originalTVDBIDs = tvdbEpisodes.stream()
+          .map(tvdbEpisode -> tvdbEpisode.tvdbEpisodeExtId.getValue())
+          .collect(Collectors.toSet());
+
+      updateShowData(tvdbSeriesExtId);
+      writeBatch.commit();
+    } catch (Exception e) {
+      writeBatch.rollback();
+      throw e;
+    }
+  }
 
-    JSONObject seriesJson = seriesRoot.getJSONObject("data");
+  private void fetchShowData(Integer tvdbSeriesExtId) throws UnirestException, AuthenticationException {
+    seriesRecord = tvdbDataProvider.getSeriesRecord(tvdbSeriesExtId);
+    posterFilenames = fetchPosterFilenames(tvdbSeriesExtId);
+    fetchEpisodePages(tvdbSeriesExtId);
+  }
+
+  private void updateShowData(Integer tvdbSeriesExtId) throws SQLException, ShowFailedException {
+    debug("UpdateShowData...");
+
+    String seriesTitle = series.seriesTitle.getValue();
+
+    debug(seriesTitle + ": Data found, updating.");
 
     TVDBSeries tvdbSeries = getTVDBSeries(tvdbSeriesExtId);
 
-    updateTVDBSeries(tvdbSeriesExtId, seriesJson, tvdbSeries);
+    boolean seriesDataChanged = updateTVDBSeries(seriesRecord, tvdbSeries);
 
     // If we are finalizing the series match for the first time, add it to the collection of the person who made the add request.
     if (series.addedByUser.getValue() != null &&
@@ -111,14 +138,15 @@ public class TVDBSeriesUpdater {
     series.lastTVDBUpdate.changeValue(new Date());
     series.tvdbManualQueue.changeValue(false);
 
-    JSONArray genres = jsonReader.getArrayWithKey(seriesJson, "genre");
-    updateGenres(series, genres);
+    if (seriesDataChanged) {
+      updateGenres(series, seriesRecord.getGenres());
+    }
 
     series.commit(connection);
 
     debug("Finished series update.");
 
-    updateAllEpisodes(tvdbSeriesExtId);
+    updateAllEpisodes();
     updateOnlyAbsoluteNumbers();
 
     series.tvdbNew.changeValue(false);
@@ -200,42 +228,68 @@ public class TVDBSeriesUpdater {
     masterField.changeValue(newValue);
   }
 
-  private void updateAllEpisodes(Integer tvdbID) throws SQLException {
-    Set<Integer> tvdb_ids = new HashSet<>();
-
-    Integer pageNumber = 1;
-    Integer lastPage;
+  /**
+   * Fetch every episode page for the series. If a page fails, the pages before it are still kept and applied, but
+   * nothing is retired, since the episode list is incomplete.
+   */
+  private void fetchEpisodePages(Integer tvdbID) {
+    episodePages = new ArrayList<>();
+    allEpisodePagesFetched = false;
 
-    boolean erroredOut = false;
+    // the first page tells us how many pages there are. The rest are fetched a few at a time ahead of where we are, but
+    // still kept strictly in page order.
+    Deque<CompletableFuture<TVDBEpisodePage>> pagesInFlight = new ArrayDeque<>();
 
-    do {
-
-      try {
-        JSONObject episodeData = tvdbDataProvider.getEpisodeSummaries(tvdbID, pageNumber);
+    try {
+      TVDBEpisodePage firstPage = tvdbDataProvider.getEpisodePage(tvdbID, 1);
+      Integer lastPage = firstPage.getLastPage();
+      if (lastPage == null) {
+        throw new IllegalStateException("TVDB episode page has no last page link.");
+      }
+      debug("Page 1 of " + lastPage + "...");
+      addEpisodePage(firstPage);
+
+      int nextPageToRequest = 2;
+      for (int pageNumber = 2; pageNumber <= lastPage; pageNumber++) {
+        while (nextPageToRequest <= lastPage && pagesInFlight.size() < MAX_EPISODE_PAGES_IN_FLIGHT) {
+          pagesInFlight.add(tvdbDataProvider.getEpisodePageAsync(tvdbID, nextPageToRequest));
+          nextPageToRequest++;
+        }
 
-        JSONObject links = episodeData.getJSONObject("links");
-        lastPage = jsonReader.getIntegerWithKey(links, "last");
+        TVDBEpisodePage episodeData = pagesInFlight.poll().join();
         debug("Page " + pageNumber + " of " + lastPage + "...");
+        addEpisodePage(episodeData);
+      }
+      allEpisodePagesFetched = true;
+    } catch (Exception e) {
+      logger.warn("Error fetching episode data for series with TVDB ID: " + tvdbID);
+      pagesInFlight.forEach(page -> page.cancel(false));
+    }
+  }
 
-        JSONArray episodeArray = episodeData.getJSONArray("data");
-
-        for (int i = 0; i < episodeArray.length(); i++) {
-          JSONObject episode = episodeArray.getJSONObject(i);
-          int id = episode.getInt("id");
-          tvdb_ids.add(id);
-          updateEpisode(episode);
-        }
-      } catch (Exception e) {
-        logger.warn("Error fetching episode data for series with TVDB ID: " + tvdbID);
-        lastPage = 0;
-        erroredOut = true;
+  private void addEpisodePage(TVDBEpisodePage episodeData) {
+    for (TVDBEpisodeRecord episode : episodeData.getEpisodes()) {
+      if (episode.getId() == null) {
+        throw new IllegalStateException("TVDB episode with no id on page for series " + series.tvdbSeriesExtId.getValue());
       }
+    }
+    episodePages.add(episodeData);
+  }
+
+  private void updateAllEpisodes() throws SQLException {
+    Set<Integer> tvdb_ids = new HashSet<>();
 
-      pageNumber++;
+    // the same for every episode, so look it up once rather than per episode.
+    seriesStreaming = series.isStreaming(connection);
 
-    } while (pageNumber <= lastPage);
+    for (TVDBEpisodePage episodeData : episodePages) {
+      for (TVDBEpisodeRecord episode : episodeData.getEpisodes()) {
+        tvdb_ids.add(episode.getId());
+        updateEpisode(episode);
+      }
+    }
 
-    if (!erroredOut && !tvdb_ids.isEmpty()) {
+    if (allEpisodePagesFetched && !tvdb_ids.isEmpty()) {
       retireRemovedEpisodes(tvdb_ids);
     }
 
@@ -243,31 +297,12 @@ public class TVDBSeriesUpdater {
   }
 
   private Optional<Episode> getEpisodeFromTVDBEpisode(TVDBEpisode tvdbEpisode) {
-    return episodes.stream()
-        .filter(episode -> episode.tvdbEpisodeId.getValue().equals(tvdbEpisode.id.getValue()))
-        .findAny();
-  }
-
-  private TVDBEpisode getTVDBEpisodeFromExtID(Integer tvdb_episode_ext_id) {
-    // todo: fix retired pre-populate
-    List<TVDBEpisode> tvdbEpisodes = this.tvdbEpisodes.stream()
-        .filter(tvdbEpisode -> tvdb_episode_ext_id.equals(tvdbEpisode.tvdbEpisodeExtId.getValue()) && tvdbEpisode.retired.getValue() == 0)
-        .collect(Collectors.toList());
-    if (tvdbEpisodes.size() == 1) {
-      return tvdbEpisodes.get(0);
-    } else {
-      throw new IllegalStateException("Expected exactly one un-retired tvdb_episode with ext_id: " + tvdb_episode_ext_id + ". Found " + tvdbEpisodes.size() + ".");
-    }
+    return episodeIndex.findEpisodeByTVDBEpisodeId(tvdbEpisode.id.getValue());
   }
 
   private Optional<TVDBEpisode> findReplacement(TVDBEpisode original, Set<Integer> tvdb_ids) {
-    Set<TVDBEpisode> added = tvdb_ids.stream()
-        .filter(tvdb_id -> !originalTVDBIDs.contains(tvdb_id))
-        .map(this::getTVDBEpisodeFromExtID)
-        .collect(Collectors.toSet());
-    List<TVDBEpisode> matches = added.stream()
-        .filter(tvdbEpisode -> original.seasonNumber.getValue().equals(tvdbEpisode.seasonNumber.getValue()) &&
-            original.episodeNumber.getValue().equals(tvdbEpisode.episodeNumber.getValue()))
+    List<TVDBEpisode> matches = episodeIndex.getTVDBEpisodesByNumber(original.seasonNumber.getValue(), original.episodeNumber.getValue()).stream()
+        .filter(tvdbEpisode -> isAddedThisUpdate(tvdbEpisode, tvdb_ids))
         .collect(Collectors.toList());
     if (matches.size() == 1) {
       return Optional.of(matches.get(0));
@@ -276,8 +311,15 @@ public class TVDBSeriesUpdater {
     }
   }
 
+  private boolean isAddedThisUpdate(TVDBEpisode tvdbEpisode, Set<Integer> tvdb_ids) {
+    Integer tvdbEpisodeExtId = tvdbEpisode.tvdbEpisodeExtId.getValue();
+    return tvdb_ids.contains(tvdbEpisodeExtId) &&
+        !originalTVDBIDs.contains(tvdbEpisodeExtId) &&
+        tvdbEpisode.retired.getValue() == 0;
+  }
+
   private void retireRemovedEpisodes(Set<Integer> tvdb_ids) throws SQLException {
-    Set<TVDBEpisode> removed = tvdbEpisodes.stream()
+    Set<TVDBEpisode> removed = episodeIndex.getTVDBEpisodes().stream()
         .filter(tvdbEpisode -> !tvdb_ids.contains(tvdbEpisode.tvdbEpisodeExtId.getValue()))
         .collect(Collectors.toSet());
     if (!removed.isEmpty()) {
@@ -321,13 +363,13 @@ public class TVDBSeriesUpdater {
   private void retireEpisode(Episode episode) throws SQLException {
     episode.retire();
     episode.commit(connection);
-    episodes.remove(episode);
+    episodeIndex.removeEpisode(episode);
   }
 
   private void retireTVDBEpisode(TVDBEpisode tvdbEpisode) throws SQLException {
     tvdbEpisode.retire();
     tvdbEpisode.commit(connection);
-    tvdbEpisodes.remove(tvdbEpisode);
+    episodeIndex.removeTVDBEpisode(tvdbEpisode);
   }
 
   private Boolean hasRatings(Episode episode) throws SQLException {
@@ -375,21 +417,22 @@ public class TVDBSeriesUpdater {
     return tvdbSeries;
   }
 
-  private void updateEpisode(JSONObject episode) throws SQLException {
-    Integer episodeRemoteId = episode.getInt("id");
-    debug("updateEpisode " + episode.getInt("airedSeason") + "x" + episode.getInt("airedEpisodeNumber") + ": " + episodeRemoteId);
+  private void updateEpisode(TVDBEpisodeRecord episode) throws SQLException {
+    Integer episodeRemoteId = episode.getId();
+    debug("updateEpisode " + episode.getAiredSeason() + "x" + episode.getAiredEpisodeNumber() + ": " + episodeRemoteId);
 
     try {
       TVDBEpisodeUpdater tvdbEpisodeUpdater = new TVDBEpisodeUpdater(
           series,
+          seriesStreaming,
           connection,
+          writeBatch,
           episodeRemoteId,
-          new JSONReaderImpl(),
-          episodes,
-          tvdbEpisodes,
+          episodeIndex,
           episode,
           socket);
       TVDBEpisodeUpdater.EPISODE_RESULT episodeResult = tvdbEpisodeUpdater.updateSingleEpisode();
+      writeBatch.finishEpisode();
 
       if (episodeResult == TVDBEpisodeUpdater.EPISODE_RESULT.ADDED) {
         episodesAdded++;
@@ -403,56 +446,41 @@ public class TVDBSeriesUpdater {
     } catch (Exception e) {
       debug("TVDB update of episode failed: ");
       e.printStackTrace();
+      writeBatch.abandonEpisode();
       episodesFailed++;
       erroredEpisodeIds.add(episodeRemoteId);
-      updateEpisodeLastError(episodeRemoteId);
-      addUpdateError(episodeRemoteId, e);
-      addMigrationError(episodeRemoteId, e);
+      writeBatch.writeAfterTransaction(() -> {
+        updateEpisodeLastError(episodeRemoteId);
+        addUpdateError(episodeRemoteId, e);
+        addMigrationError(episodeRemoteId, e);
+      });
     }
   }
 
-  private void updateTVDBSeries(Integer tvdbID, JSONObject seriesJson, TVDBSeries tvdbSeries) throws SQLException {
-    String tvdbSeriesName = jsonReader.getStringWithKey(seriesJson, "seriesName");
-
-    Integer id = jsonReader.getIntegerWithKey(seriesJson, "id");
-
-    tvdbSeries.tvdbSeriesExtId.changeValue(id);
-    tvdbSeries.name.changeValue(tvdbSeriesName);
-    tvdbSeries.airsDayOfWeek.changeValue(jsonReader.getNullableStringWithKey(seriesJson, "airsDayOfWeek"));
-
-    updateLinkedFieldsIfNotOverridden(series.airTime, tvdbSeries.airsTime, jsonReader.getNullableStringWithKey(seriesJson, "airsTime"));
-
-    tvdbSeries.firstAired.changeValueFromString(jsonReader.getNullableStringWithKey(seriesJson, "firstAired"));
-    tvdbSeries.network.changeValue(jsonReader.getNullableStringWithKey(seriesJson, "network"));
-    tvdbSeries.overview.changeValue(jsonReader.getNullableStringWithKey(seriesJson, "overview"));
-    tvdbSeries.rating.changeValue(jsonReader.getNullableDoubleWithKey(seriesJson, "siteRating"));
-    tvdbSeries.ratingCount.changeValue(jsonReader.getNullableIntegerWithKey(seriesJson, "siteRatingCount"));
-    tvdbSeries.runtime.changeValueFromString(jsonReader.getNullableStringWithKey(seriesJson, "runtime"));
-    tvdbSeries.status.changeValue(jsonReader.getNullableStringWithKey(seriesJson, "status"));
-
-    tvdbSeries.banner.changeValueFromString(jsonReader.getNullableStringWithKey(seriesJson, "banner"));
-
-    // todo: change to integer in data model
-    tvdbSeries.lastUpdated.changeValueFromString(((Integer)seriesJson.getInt("lastUpdated")).toString());
-    tvdbSeries.imdbId.changeValueFromString(jsonReader.getNullableStringWithKey(seriesJson, "imdbId"));
-    tvdbSeries.zap2it_id.changeValueFromString(jsonReader.getNullableStringWithKey(seriesJson, "zap2itId"));
+  /**
+   * @return Whether TVDB's series data was (re-)applied, rather than skipped because it hasn't changed since last time.
+   */
+  private boolean updateTVDBSeries(TVDBSeriesRecord seriesRecord, TVDBSeries tvdbSeries) throws SQLException {
+    String contentDigest = TVDBContentDigest.forSeries(seriesRecord);
+    boolean dataChanged = tvdbSeries.isForInsert() || !contentDigest.equals(tvdbSeries.contentDigest.getValue());
 
-    // todo: 'added' field
-    // todo: 'networkid' field
-
-    // todo: add api_version column to tvdb_series and tvdb_episode, and change it when this finishes processing.
-    // todo: create api_change_log table and add a row for each change to series or episode
-    // todo: create tvdb_error_log table and log any json format issues where non-nullable are null, or values are wrong type.
+    if (dataChanged) {
+      applySeriesData(seriesRecord, tvdbSeries);
+    } else {
+      debug("TVDB series data unchanged since last update.");
+    }
 
     Boolean isForInsert = tvdbSeries.isForInsert();
 
     // if we are inserting, need to commit before adding posters, which will reference tvdb_series.id
     if (isForInsert) {
+      tvdbSeries.contentDigest.changeValue(contentDigest);
       tvdbSeries.commit(connection);
     }
 
+    // posters come from their own endpoint, so they aren't covered by the digest.
     String originalTVDBPoster = tvdbSeries.lastPoster.getValue();
-    Optional<TVDBPoster> optionalLastAdded = updatePosters(tvdbID, tvdbSeries);
+    Optional<TVDBPoster> optionalLastAdded = updatePosters(tvdbSeries);
     if (optionalLastAdded.isPresent()) {
       TVDBPoster lastAdded = optionalLastAdded.get();
       tvdbSeries.lastPoster.changeValue(lastAdded.posterPath.getValue());
@@ -467,13 +495,59 @@ public class TVDBSeriesUpdater {
       addChangeLogs(tvdbSeries);
     }
 
-    tvdbSeries.commit(connection);
+    tvdbSeries.contentDigest.changeValue(contentDigest);
+    if (tvdbSeries.hasChanged()) {
+      tvdbSeries.commit(connection);
+    }
+
+    return dataChanged;
+  }
+
+  private void applySeriesData(TVDBSeriesRecord seriesRecord, TVDBSeries tvdbSeries) {
+    String tvdbSeriesName = required(seriesRecord.getSeriesName(), "seriesName");
+
+    Integer id = required(seriesRecord.getId(), "id");
+
+    tvdbSeries.tvdbSeriesExtId.changeValue(id);
+    tvdbSeries.name.changeValue(tvdbSeriesName);
+    tvdbSeries.airsDayOfWeek.changeValue(seriesRecord.getAirsDayOfWeek());
+
+    updateLinkedFieldsIfNotOverridden(series.airTime, tvdbSeries.airsTime, seriesRecord.getAirsTime());
+
+    tvdbSeries.firstAired.changeValueFromString(seriesRecord.getFirstAired());
+    tvdbSeries.network.changeValue(seriesRecord.getNetwork());
+    tvdbSeries.overview.changeValue(seriesRecord.getOverview());
+    tvdbSeries.rating.changeValue(seriesRecord.getSiteRating());
+    tvdbSeries.ratingCount.changeValue(seriesRecord.getSiteRatingCount());
+    tvdbSeries.runtime.changeValueFromString(seriesRecord.getRuntime());
+    tvdbSeries.status.changeValue(seriesRecord.getStatus());
+
+    tvdbSeries.banner.changeValueFromString(seriesRecord.getBanner());
+
+    // todo: change to integer in data model
+    tvdbSeries.lastUpdated.changeValueFromString(required(seriesRecord.getLastUpdated(), "lastUpdated").toString());
+    tvdbSeries.imdbId.changeValueFromString(seriesRecord.getImdbId());
+    tvdbSeries.zap2it_id.changeValueFromString(seriesRecord.getZap2itId());
+
+    // todo: 'added' field
+    // todo: 'networkid' field
+
+    // todo: add api_version column to tvdb_series and tvdb_episode, and change it when this finishes processing.
+    // todo: create api_change_log table and add a row for each change to series or episode
+    // todo: create tvdb_error_log table and log any json format issues where non-nullable are null, or values are wrong type.
+  }
+
+  @NotNull
+  private <T> T required(@Nullable T value, String key) {
+    if (value == null) {
+      throw new IllegalStateException("TVDB series data is missing required field '" + key + "'.");
+    }
+    return value;
   }
 
-  private void updateGenres(Series series, JSONArray genreArray) throws SQLException {
+  private void updateGenres(Series series, List<String> genres) throws SQLException {
     List<String> added = new ArrayList<>();
-    for (int i = 0; i < genreArray.length(); i++) {
-      String genre = genreArray.getString(i);
+    for (String genre : genres) {
       Optional<SeriesGenre> seriesGenre = series.addGenre(connection, genre);
       if (seriesGenre.isPresent()) {
         added.add(genre);
@@ -484,31 +558,31 @@ public class TVDBSeriesUpdater {
     }
   }
 
-  private Optional<TVDBPoster> updatePosters(Integer tvdbID, TVDBSeries tvdbSeries)  {
-
+  private List<String> fetchPosterFilenames(Integer tvdbID) {
     try {
       JSONObject imageData = tvdbDataProvider.getPosterData(tvdbID);
       @NotNull JSONArray images = jsonReader.getArrayWithKey(imageData, "data");
 
-      if (images.length() == 0) {
-        return Optional.empty();
-      }
-
-      Optional<TVDBPoster> mostRecentPoster = Optional.empty();
-
+      List<String> filenames = new ArrayList<>();
       for (int i = 0; i < images.length(); i++) {
         JSONObject image = images.getJSONObject(i);
-        @NotNull String filename = jsonReader.getStringWithKey(image, "fileName");
-        mostRecentPoster = tvdbSeries.addPosterIfDoesntExist(filename, null, connection);
+        filenames.add(jsonReader.getStringWithKey(image, "fileName"));
       }
-
-      return mostRecentPoster;
+      return filenames;
     } catch (Exception e) {
-      logger.warn("Error fetching posters for series: " + tvdbSeries.name.getValue());
-      return Optional.empty();
+      logger.warn("Error fetching posters for series: " + series.seriesTitle.getValue());
+      return new ArrayList<>();
     }
   }
 
+  private Optional<TVDBPoster> updatePosters(TVDBSeries tvdbSeries) throws SQLException {
+    Optional<TVDBPoster> mostRecentPoster = Optional.empty();
+    for (String filename : posterFilenames) {
+      mostRecentPoster = tvdbSeries.addPosterIfDoesntExist(filename, null, connection);
+    }
+    return mostRecentPoster;
+  }
+
   private void updateEpisodeLastError(Integer tvdbEpisodeExtId) {
     String sql = "SELECT e.* " +
         "FROM valid_episode e " +
@@ -556,22 +630,14 @@ public class TVDBSeriesUpdater {
 
 
 
-  private void addChangeLogs(TVDBSeries tvdbSeries) throws SQLException {
+  private void addChangeLogs(TVDBSeries tvdbSeries) {
     for (FieldValue fieldValue : tvdbSeries.getChangedFields()) {
-      TVDBMigrationLog tvdbMigrationLog = new TVDBMigrationLog();
-      tvdbMigrationLog.initializeForInsert();
-
-      tvdbMigrationLog.tvdbSeriesId.changeValue(tvdbSeries.id.getValue());
-
-      tvdbMigrationLog.tvdbFieldName.changeValue(fieldValue.getFieldName());
-      tvdbMigrationLog.oldValue.changeValue(fieldValue.getOriginalValue() == null ?
-          null :
-          fieldValue.getOriginalValue().toString());
-      tvdbMigrationLog.newValue.changeValue(fieldValue.getChangedValue() == null ?
-          null :
-          fieldValue.getChangedValue().toString());
-
-      tvdbMigrationLog.commit(connection);
+      writeBatch.addMigrationLog(
+          tvdbSeries.id.getValue(),
+          null,
+          fieldValue.getFieldName(),
+          fieldValue.getOriginalValue(),
+          fieldValue.getChangedValue());
     }
   }
 
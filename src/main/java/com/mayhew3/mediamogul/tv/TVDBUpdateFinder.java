@@ -1,8 +1,9 @@
 package com.mayhew3.mediamogul.tv;
 
+import com.google.common.base.Joiner;
 import com.mashape.unirest.http.exceptions.UnirestException;
-import com.mayhew3.mediamogul.model.tv.Series;
-import com.mayhew3.mediamogul.model.tv.TVDBWorkItem;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
@@ -21,10 +22,7 @@ import org.json.JSONObject;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.Optional;
-import java.util.TimeZone;
+import java.util.*;
 
 public class TVDBUpdateFinder implements UpdateRunner {
 
@@ -53,6 +51,11 @@ public class TVDBUpdateFinder implements UpdateRunner {
     return null;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.TVDB_API);
+  }
+
   public void runUpdate() throws SQLException, UnirestException, AuthenticationException {
     Timestamp lastUpdateTime = getLastUpdateTime();
     Timestamp startTime = createStartTimeWithBuffer(lastUpdateTime);
@@ -88,61 +91,62 @@ public class TVDBUpdateFinder implements UpdateRunner {
 
     logger.info("Total series found: " + seriesArray.length());
 
+    // a series listed twice only needs its earliest update, which is what checking them one at a time used to keep.
+    Map<Integer, Integer> lastUpdatedEpochs = new LinkedHashMap<>();
     for (int i = 0; i < seriesArray.length(); i++) {
       JSONObject seriesRow = seriesArray.getJSONObject(i);
       @NotNull Integer tvdbSeriesExtId = jsonReader.getIntegerWithKey(seriesRow, "id");
       @NotNull Integer lastUpdatedEpoch = jsonReader.getIntegerWithKey(seriesRow, "lastUpdated");
-      Timestamp tvdbLastUpdated = getFromEpochTime(lastUpdatedEpoch);
+      lastUpdatedEpochs.merge(tvdbSeriesExtId, lastUpdatedEpoch, Math::min);
+    }
 
-      maybeUpdateSeries(now, tvdbSeriesExtId, tvdbLastUpdated);
+    if (!lastUpdatedEpochs.isEmpty()) {
+      addWorkItems(now, lastUpdatedEpochs);
     }
   }
 
-  private void maybeUpdateSeries(Timestamp now, Integer tvdbSeriesExtId, Timestamp tvdbLastUpdated) throws SQLException {
-    String sql = "select * " +
-        "from series " +
-        "where tvdb_series_ext_id = ? " +
-        "and tvdb_match_status = ? " +
-        "and retired = ? ";
-
-    @NotNull ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, tvdbSeriesExtId, TVDBMatchStatus.MATCH_COMPLETED, 0);
-    if (resultSet.next()) {
-      if (hasWorkItemAlready(tvdbSeriesExtId, tvdbLastUpdated)) {
-        debug("Work item already exists for TVDB ID " + tvdbSeriesExtId + " and update time of " + tvdbLastUpdated);
-      } else {
-        updateSingleSeries(now, tvdbSeriesExtId, tvdbLastUpdated, resultSet);
-      }
-    } else {
-      debug("Recently updated series not found: ID " + tvdbSeriesExtId + ", updated " + tvdbLastUpdated);
+  /**
+   * Match the whole payload against our series in one statement, and add a work item for each matched series that
+   * doesn't already have one from at or before this update. Most of what TVDB sends is for series we don't track, so
+   * this replaces a lookup per payload row.
+   */
+  private void addWorkItems(Timestamp now, Map<Integer, Integer> lastUpdatedEpochs) throws SQLException {
+    String sql = "INSERT INTO tvdb_work_item (tvdb_series_ext_id, series_id, last_updated, found_time, date_added, retired) " +
+        "SELECT DISTINCT ON (p.tvdb_series_ext_id) p.tvdb_series_ext_id, s.id, p.last_updated, ?, ?, ? " +
+        "FROM (SELECT tvdb_series_ext_id, to_timestamp(last_updated_epoch)::timestamp AS last_updated " +
+        "      FROM unnest(?::integer[], ?::bigint[]) AS payload (tvdb_series_ext_id, last_updated_epoch)) p " +
+        "INNER JOIN series s " +
+        "  ON s.tvdb_series_ext_id = p.tvdb_series_ext_id " +
+        "  AND s.tvdb_match_status = ? " +
+        "  AND s.retired = ? " +
+        "WHERE NOT EXISTS (SELECT 1 " +
+        "                  FROM tvdb_work_item w " +
+        "                  WHERE w.tvdb_series_ext_id = p.tvdb_series_ext_id " +
+        "                  AND w.last_updated <= p.last_updated) " +
+        "ORDER BY p.tvdb_series_ext_id, s.id " +
+        "RETURNING tvdb_series_ext_id, series_id, last_updated ";
+
+    long startNanos = System.nanoTime();
+    @NotNull ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql,
+        now, now, 0,
+        toArrayLiteral(lastUpdatedEpochs.keySet()),
+        toArrayLiteral(lastUpdatedEpochs.values()),
+        TVDBMatchStatus.MATCH_COMPLETED, 0);
+    Metrics.recordQuery("tvdb_update_finder_work_items", startNanos);
+
+    int added = 0;
+    while (resultSet.next()) {
+      added++;
+      debug("Found update for series ID " + resultSet.getInt("series_id") + " (TVDB ID " + resultSet.getInt("tvdb_series_ext_id") +
+          "), updated " + resultSet.getTimestamp("last_updated"));
     }
-  }
 
-  private Boolean hasWorkItemAlready(Integer tvdbSeriesExtId, Timestamp tvdbLastUpdated) throws SQLException {
-    String sql = "select * " +
-        "from tvdb_work_item " +
-        "where tvdb_series_ext_id = ? " +
-        "and last_updated <= ?";
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, tvdbSeriesExtId, tvdbLastUpdated);
-    return resultSet.next();
+    logger.info("Work items added: " + added);
   }
 
-  private void updateSingleSeries(Timestamp now, Integer tvdbSeriesExtId, Timestamp tvdbLastUpdated, ResultSet resultSet) throws SQLException {
-    Series series = new Series();
-    series.initializeFromDBObject(resultSet);
-
-    debug("Found update for series '" + series.seriesTitle.getValue() + "', updated " + tvdbLastUpdated);
-
-    Integer seriesId = series.id.getValue();
-
-    TVDBWorkItem workItem = new TVDBWorkItem();
-    workItem.initializeForInsert();
-
-    workItem.tvdbSeriesExtId.changeValue(tvdbSeriesExtId);
-    workItem.seriesId.changeValue(seriesId);
-    workItem.lastUpdated.changeValue(tvdbLastUpdated);
-    workItem.foundTime.changeValue(now);
-
-    workItem.commit(connection);
+  // ids and epoch seconds only, so there's nothing to quote.
+  private String toArrayLiteral(Collection<Integer> values) {
+    return "{" + Joiner.on(",").join(values) + "}";
   }
 
   private static void debug(Object message) {
@@ -219,10 +223,6 @@ public class TVDBUpdateFinder implements UpdateRunner {
     return null;
   }
 
-  private Timestamp getFromEpochTime(long epochTime) {
-    return new Timestamp(epochTime * 1000L);
-  }
-
   @NotNull
   private Timestamp now() {
     return new Timestamp(new Date().getTime());
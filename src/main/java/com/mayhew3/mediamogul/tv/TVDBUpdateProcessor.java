@@ -1,11 +1,16 @@
 package com.mayhew3.mediamogul.tv;
 
-import com.google.common.collect.Lists;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mayhew3.mediamogul.db.SQLConnectionPool;
 import com.mayhew3.mediamogul.model.tv.Series;
 import com.mayhew3.mediamogul.model.tv.TVDBConnectionLog;
 import com.mayhew3.mediamogul.model.tv.TVDBUpdateError;
 import com.mayhew3.mediamogul.model.tv.TVDBWorkItem;
+import com.mayhew3.mediamogul.scheduler.TaskBudget;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
@@ -22,12 +27,19 @@ import org.jetbrains.annotations.Nullable;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
-
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Drains tvdb_work_item as a job queue. Each worker claims every pending item for one series at a time, by leasing them
+ * for LEASE_MINUTES. Other workers, on other threads or other dynos, skip series that are locked or leased. A finished
+ * series has its items marked processed; a failed one has its lease dropped and is retried after an exponential
+ * backoff. A worker that dies just lets its lease run out.
+ *
+ * While a series is being processed its lease is renewed every LEASE_RENEWAL_MINUTES, on a pooled connection of its
+ * own, so a slow series isn't handed to a second worker halfway through. Runs without a pool have only the one
+ * connection, which is busy with the series, so their leases aren't renewed.
+ */
 public class TVDBUpdateProcessor implements UpdateRunner {
 
 
@@ -38,12 +50,43 @@ public class TVDBUpdateProcessor implements UpdateRunner {
   private JSONReader jsonReader;
   private final SocketWrapper socket;
 
+  @Nullable
+  private SQLConnectionPool connectionPool;
+  private Integer workerCount = 1;
+
+  private TaskBudget budget = TaskBudget.unlimited();
+
   private TVDBConnectionLog tvdbConnectionLog;
 
-  // todo: add a failure_time field instead. just don't retry a work item, let the failure updater handle it.
+  @Nullable
+  private ScheduledExecutorService leaseRenewer;
+
+  @Nullable
+  private Integer itemsProcessed;
+  private int itemsClaimed;
+
+  // series at or past this many consecutive failures are left for the error passes in TVDBUpdateRunner.
   @SuppressWarnings("FieldCanBeLocal")
   private final Integer ERROR_THRESHOLD = 3;
 
+  private static final int LEASE_MINUTES = 10;
+  private static final int LEASE_RENEWAL_MINUTES = 3;
+  private static final int MAX_BACKOFF_MINUTES = 60;
+
+  // a series with due, unleased work items and fewer than ERROR_THRESHOLD consecutive failures. Aliases the series as s.
+  private static final String CLAIMABLE_SERIES_CONDITION =
+      "s.consecutive_tvdb_errors < ? " +
+      "AND EXISTS (SELECT 1 " +
+      "            FROM tvdb_work_item pending " +
+      "            WHERE pending.series_id = s.id " +
+      "            AND pending.processed_time IS NULL " +
+      "            AND (pending.next_attempt_time IS NULL OR pending.next_attempt_time <= now())) " +
+      "AND NOT EXISTS (SELECT 1 " +
+      "                FROM tvdb_work_item leased " +
+      "                WHERE leased.series_id = s.id " +
+      "                AND leased.processed_time IS NULL " +
+      "                AND leased.lease_expires > now()) ";
+
   private static Logger logger = LogManager.getLogger(TVDBUpdateProcessor.class);
 
   public TVDBUpdateProcessor(SQLConnection connection, TVDBJWTProvider tvdbjwtProvider, JSONReader jsonReader, SocketWrapper socket) {
@@ -53,6 +96,16 @@ public class TVDBUpdateProcessor implements UpdateRunner {
     this.socket = socket;
   }
 
+  /**
+   * Drain the queue with this many workers, each on its own pooled connection.
+   */
+  public TVDBUpdateProcessor withParallelism(SQLConnectionPool connectionPool, Integer workerCount) {
+    Preconditions.checkArgument(workerCount > 0, "Worker count must be positive.");
+    this.connectionPool = connectionPool;
+    this.workerCount = workerCount;
+    return this;
+  }
+
   @Override
   public String getRunnerName() {
     return "TVDB Update Processor";
@@ -63,48 +116,136 @@ public class TVDBUpdateProcessor implements UpdateRunner {
     return null;
   }
 
-  public void runUpdate() throws SQLException, UnirestException {
-    List<TVDBWorkItem> workItems = getUnprocessedWorkItems();
-    if (workItems.isEmpty()) {
-      logger.info("No series in queue.");
-    } else {
-      logger.info("Updating " + workItems.size() + " shows...");
-      runPeriodicUpdate(workItems);
-    }
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.TVDB_API);
   }
 
-  private void runPeriodicUpdate(List<TVDBWorkItem> workItems) throws SQLException, UnirestException {
+  @Override
+  public @Nullable Integer getItemsProcessed() {
+    return itemsProcessed;
+  }
 
-    List<WorkItemGroup> workItemGroups = groupWorkItems(workItems);
+  @Override
+  public void runUpdate(TaskBudget budget) throws SQLException, UnirestException {
+    this.budget = budget;
+    runUpdate();
+  }
 
+  public void runUpdate() throws SQLException, UnirestException {
+    itemsClaimed = 0;
     initializeConnectionLog(UpdateMode.SERVICE);
+    if (connectionPool != null) {
+      leaseRenewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("tvdb-lease-renewer")
+          .setDaemon(true)
+          .build());
+    }
 
     try {
-      for (WorkItemGroup workItemGroup : workItemGroups) {
-        try {
-          SeriesUpdateResult updateResult = processWorkItemGroup(workItemGroup);
-          if (SeriesUpdateResult.UPDATE_SUCCESS.equals(updateResult)) {
-            tvdbConnectionLog.updatedShows.increment(1);
-          } else {
-            tvdbConnectionLog.failedShows.increment(1);
-          }
-        } catch (Exception e) {
-          logger.error("Show failed on initialization from DB.");
-        }
-
+      if (connectionPool == null || workerCount == 1) {
+        drainQueue(connection);
+      } else {
+        drainQueueInParallel();
       }
-
       tvdbConnectionLog.finishTime.changeValue(new Date());
-
     } catch (Exception e) {
       e.printStackTrace();
       addUpdateError(e);
     } finally {
-      tvdbConnectionLog.commit(connection);
+      if (leaseRenewer != null) {
+        leaseRenewer.shutdownNow();
+        leaseRenewer = null;
+      }
+      itemsProcessed = itemsClaimed;
+      if (itemsClaimed == 0) {
+        logger.info("No series in queue.");
+      } else {
+        logger.info("Processed " + itemsClaimed + " work items.");
+        tvdbConnectionLog.commit(connection);
+      }
       tvdbConnectionLog = null;
     }
   }
 
+  private void drainQueueInParallel() throws InterruptedException {
+    assert connectionPool != null;
+    ExecutorService workerPool = Executors.newFixedThreadPool(workerCount, new ThreadFactoryBuilder()
+        .setNameFormat("tvdb-work-item-worker-%d")
+        .build());
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int i = 0; i < workerCount; i++) {
+        workers.add(workerPool.submit(() -> {
+          SQLConnection workerConnection = connectionPool.borrow();
+          try {
+            drainQueue(workerConnection);
+          } finally {
+            connectionPool.release(workerConnection);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        try {
+          worker.get();
+        } catch (ExecutionException e) {
+          logger.error("TVDB work item worker failed.", e.getCause());
+        }
+      }
+    } finally {
+      workerPool.shutdownNow();
+    }
+  }
+
+  private void drainQueue(SQLConnection workerConnection) throws SQLException {
+    while (!budget.isExhausted()) {
+      Optional<WorkItemGroup> claimed = claimNextGroup(workerConnection);
+      if (!claimed.isPresent()) {
+        if (hasClaimableSeries(workerConnection)) {
+          // lost the race for a series to another worker, but there's more in the queue.
+          continue;
+        }
+        return;
+      }
+      WorkItemGroup workItemGroup = claimed.get();
+      recordClaimed(workItemGroup);
+
+      SeriesUpdateResult updateResult;
+      ScheduledFuture<?> leaseRenewal = scheduleLeaseRenewal(workItemGroup);
+      try {
+        updateResult = processWorkItemGroup(workItemGroup, workerConnection);
+      } catch (Exception e) {
+        logger.error("Show failed on initialization from DB.");
+        updateResult = SeriesUpdateResult.UPDATE_FAILED;
+      } finally {
+        if (leaseRenewal != null) {
+          leaseRenewal.cancel(false);
+        }
+      }
+      recordResult(updateResult);
+
+      if (SeriesUpdateResult.UPDATE_SUCCESS.equals(updateResult)) {
+        completeWorkItems(workItemGroup, workerConnection);
+      } else {
+        releaseForRetry(workItemGroup, workerConnection);
+      }
+    }
+    logger.info("Time budget used up. Leaving the rest of the queue for the next run.");
+  }
+
+  private synchronized void recordClaimed(WorkItemGroup workItemGroup) {
+    itemsClaimed += workItemGroup.workItems.size();
+  }
+
+  private synchronized void recordResult(SeriesUpdateResult updateResult) {
+    if (SeriesUpdateResult.UPDATE_SUCCESS.equals(updateResult)) {
+      tvdbConnectionLog.updatedShows.increment(1);
+    } else {
+      tvdbConnectionLog.failedShows.increment(1);
+    }
+  }
+
 
   private void addUpdateError(Exception e) throws SQLException {
     TVDBUpdateError tvdbUpdateError = new TVDBUpdateError();
@@ -129,15 +270,16 @@ public class TVDBUpdateProcessor implements UpdateRunner {
     tvdbConnectionLog.updateType.changeValue(updateMode.getTypekey());
   }
 
-  private @NotNull SeriesUpdateResult processWorkItemGroup(WorkItemGroup workItemGroup) throws SQLException {
+  private @NotNull SeriesUpdateResult processWorkItemGroup(WorkItemGroup workItemGroup, SQLConnection workerConnection) throws SQLException {
     Series series = null;
 
     try {
-      series = getSeries(workItemGroup);
+      series = getSeries(workItemGroup, workerConnection);
 
-      updateTVDB(series);
-      resetTVDBErrors(series);
-      updateWorkItems(workItemGroup);
+      // a work item means TVDB changed this series, so anything cached for it is stale.
+      tvdbjwtProvider.invalidateSeries(series.tvdbSeriesExtId.getValue());
+      updateTVDB(series, workerConnection);
+      resetTVDBErrors(series, workerConnection);
 
       return SeriesUpdateResult.UPDATE_SUCCESS;
     } catch (Exception e) {
@@ -146,32 +288,146 @@ public class TVDBUpdateProcessor implements UpdateRunner {
         logger.info(workItemGroup.workItems.size() + " work items failed for series id: " + workItemGroup.seriesId);
       } else {
         logger.warn("Series TVDB failed: " + series.seriesTitle.getValue());
-        updateTVDBErrors(series);
+        updateTVDBErrors(series, workerConnection);
       }
       return SeriesUpdateResult.UPDATE_FAILED;
     }
   }
 
-  private void updateWorkItems(WorkItemGroup workItemGroup) throws SQLException {
-    for (TVDBWorkItem workItem : workItemGroup.workItems) {
-      workItem.processedTime.changeValue(now());
-      workItem.commit(connection);
+  /**
+   * Lease every pending item for the series with the oldest pending item that nobody else is working on. The series row
+   * lock is only held for this one statement, and SKIP LOCKED keeps concurrent claimers from queueing behind it; after
+   * that, the lease is what keeps other workers away. The UPDATE rechecks the lease on each item, so if two workers
+   * race for the same series, the second comes away with nothing. That doesn't mean the queue is empty; see
+   * hasClaimableSeries().
+   */
+  @VisibleForTesting
+  Optional<WorkItemGroup> claimNextGroup(SQLConnection workerConnection) throws SQLException {
+    String leaseToken = UUID.randomUUID().toString();
+
+    String sql = "WITH claimed_series AS ( " +
+        "  SELECT s.id " +
+        "  FROM series s " +
+        "  WHERE " + CLAIMABLE_SERIES_CONDITION +
+        "  ORDER BY (SELECT min(oldest.id) " +
+        "            FROM tvdb_work_item oldest " +
+        "            WHERE oldest.series_id = s.id " +
+        "            AND oldest.processed_time IS NULL) " +
+        "  LIMIT 1 " +
+        "  FOR UPDATE OF s SKIP LOCKED " +
+        ") " +
+        "UPDATE tvdb_work_item twi " +
+        "SET lease_token = ?, " +
+        "    lease_expires = now() + ? * interval '1 minute', " +
+        "    attempts = twi.attempts + 1 " +
+        "FROM claimed_series " +
+        "WHERE twi.series_id = claimed_series.id " +
+        "AND twi.processed_time IS NULL " +
+        "AND (twi.lease_expires IS NULL OR twi.lease_expires <= now()) " +
+        "RETURNING twi.* ";
+
+    ResultSet resultSet = workerConnection.prepareAndExecuteStatementFetch(sql, ERROR_THRESHOLD, leaseToken, LEASE_MINUTES);
+
+    List<TVDBWorkItem> workItems = new ArrayList<>();
+    while (resultSet.next()) {
+      TVDBWorkItem workItem = new TVDBWorkItem();
+      workItem.initializeFromDBObject(resultSet);
+      workItems.add(workItem);
+    }
+
+    if (workItems.isEmpty()) {
+      return Optional.empty();
+    }
+    return Optional.of(new WorkItemGroup(workItems.get(0).seriesId.getValue(), leaseToken, workItems));
+  }
+
+  /**
+   * Whether any series is still waiting to be claimed, without leasing anything. Lets a worker whose claim came back
+   * empty tell losing a race apart from having nothing left to do. Series row-locked by someone else are skipped, just
+   * as the claim skips them, so a long write elsewhere can't keep a worker spinning here.
+   */
+  @VisibleForTesting
+  boolean hasClaimableSeries(SQLConnection workerConnection) throws SQLException {
+    String sql = "SELECT 1 " +
+        "FROM series s " +
+        "WHERE " + CLAIMABLE_SERIES_CONDITION +
+        "LIMIT 1 " +
+        "FOR UPDATE OF s SKIP LOCKED ";
+    ResultSet resultSet = workerConnection.prepareAndExecuteStatementFetch(sql, ERROR_THRESHOLD);
+    return resultSet.next();
+  }
+
+  @Nullable
+  private ScheduledFuture<?> scheduleLeaseRenewal(WorkItemGroup workItemGroup) {
+    if (leaseRenewer == null) {
+      return null;
+    }
+    return leaseRenewer.scheduleWithFixedDelay(() -> renewLeaseOnPooledConnection(workItemGroup),
+        LEASE_RENEWAL_MINUTES, LEASE_RENEWAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  // an exception would cancel the schedule, so failures are only logged; the next renewal tries again.
+  private void renewLeaseOnPooledConnection(WorkItemGroup workItemGroup) {
+    assert connectionPool != null;
+    try {
+      SQLConnection renewalConnection = connectionPool.borrow();
+      try {
+        if (!renewLease(workItemGroup, renewalConnection)) {
+          logger.warn("Lease on work items for series id " + workItemGroup.seriesId + " was taken over by another worker.");
+        }
+      } finally {
+        connectionPool.release(renewalConnection);
+      }
+    } catch (SQLException | RuntimeException e) {
+      logger.warn("Unable to renew lease on work items for series id " + workItemGroup.seriesId, e);
     }
   }
 
-  @NotNull
-  private Timestamp now() {
-    return new Timestamp(new Date().getTime());
+  /**
+   * Push the lease out another LEASE_MINUTES from now, as long as no other worker has claimed the items since. A claim
+   * replaces the lease token, so that's all this needs to check.
+   *
+   * @return Whether the lease was still ours.
+   */
+  @VisibleForTesting
+  boolean renewLease(WorkItemGroup workItemGroup, SQLConnection renewalConnection) throws SQLException {
+    String sql = "UPDATE tvdb_work_item " +
+        "SET lease_expires = now() + ? * interval '1 minute' " +
+        "WHERE lease_token = ? " +
+        "AND processed_time IS NULL ";
+    Integer renewedRows = renewalConnection.prepareAndExecuteStatementUpdate(sql, LEASE_MINUTES, workItemGroup.leaseToken);
+    return renewedRows > 0;
+  }
+
+  @VisibleForTesting
+  void completeWorkItems(WorkItemGroup workItemGroup, SQLConnection workerConnection) throws SQLException {
+    String sql = "UPDATE tvdb_work_item " +
+        "SET processed_time = now(), lease_token = NULL, lease_expires = NULL, next_attempt_time = NULL " +
+        "WHERE lease_token = ? " +
+        "AND processed_time IS NULL ";
+    workerConnection.prepareAndExecuteStatementUpdate(sql, workItemGroup.leaseToken);
   }
 
-  private Series getSeries(WorkItemGroup workItemGroup) throws SQLException {
+  // 1, 2, 4, 8... minutes after each failed attempt, up to MAX_BACKOFF_MINUTES.
+  @VisibleForTesting
+  void releaseForRetry(WorkItemGroup workItemGroup, SQLConnection workerConnection) throws SQLException {
+    String sql = "UPDATE tvdb_work_item " +
+        "SET lease_token = NULL, " +
+        "    lease_expires = NULL, " +
+        "    next_attempt_time = now() + LEAST(?, power(2, GREATEST(attempts - 1, 0))) * interval '1 minute' " +
+        "WHERE lease_token = ? " +
+        "AND processed_time IS NULL ";
+    workerConnection.prepareAndExecuteStatementUpdate(sql, MAX_BACKOFF_MINUTES, workItemGroup.leaseToken);
+  }
+
+  private Series getSeries(WorkItemGroup workItemGroup, SQLConnection workerConnection) throws SQLException {
     Integer seriesId = workItemGroup.seriesId;
 
     String sql = "select * " +
         "from series " +
         "where id = ? " +
         "and retired = ? ";
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, seriesId, 0);
+    ResultSet resultSet = workerConnection.prepareAndExecuteStatementFetch(sql, seriesId, 0);
     if (resultSet.next()) {
       Series series = new Series();
       series.initializeFromDBObject(resultSet);
@@ -180,73 +436,41 @@ public class TVDBUpdateProcessor implements UpdateRunner {
     throw new IllegalStateException("Work item with invalid series id: " + seriesId);
   }
 
-  private void updateTVDBErrors(Series series) throws SQLException {
+  private void updateTVDBErrors(Series series, SQLConnection workerConnection) throws SQLException {
     series.lastTVDBError.changeValue(new Date());
     series.consecutiveTVDBErrors.increment(1);
-    series.commit(connection);
+    series.commit(workerConnection);
   }
 
-  private void resetTVDBErrors(Series series) throws SQLException {
+  private void resetTVDBErrors(Series series, SQLConnection workerConnection) throws SQLException {
     series.lastTVDBError.changeValue(null);
     series.consecutiveTVDBErrors.changeValue(0);
-    series.commit(connection);
+    series.commit(workerConnection);
   }
 
-  private void updateTVDB(Series series) throws SQLException, BadlyFormattedXMLException, ShowFailedException, UnirestException, AuthenticationException {
-    TVDBSeriesUpdater updater = new TVDBSeriesUpdater(connection, series, tvdbjwtProvider, jsonReader, socket);
+  private void updateTVDB(Series series, SQLConnection workerConnection) throws SQLException, BadlyFormattedXMLException, ShowFailedException, UnirestException, AuthenticationException {
+    TVDBSeriesUpdater updater = new TVDBSeriesUpdater(workerConnection, series, tvdbjwtProvider, jsonReader, socket);
     updater.updateSeries();
   }
 
+  @VisibleForTesting
+  static class WorkItemGroup {
+    private final Integer seriesId;
+    private final String leaseToken;
+    private final List<TVDBWorkItem> workItems;
 
-  private List<TVDBWorkItem> getUnprocessedWorkItems() throws SQLException {
-    List<TVDBWorkItem> workItems = new ArrayList<>();
-
-    String sql = "select twi.* " +
-        "from tvdb_work_item twi " +
-        "inner join series s " +
-        " on twi.series_id = s.id " +
-        "where processed_time is null " +
-        "and s.consecutive_tvdb_errors < ? " +
-        "order by twi.id asc ";
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, ERROR_THRESHOLD);
-    while(resultSet.next()) {
-      TVDBWorkItem workItem = new TVDBWorkItem();
-      workItem.initializeFromDBObject(resultSet);
-
-      workItems.add(workItem);
-    }
-    return workItems;
-  }
-
-  private List<WorkItemGroup> groupWorkItems(List<TVDBWorkItem> workItems) {
-    List<WorkItemGroup> groups = new ArrayList<>();
-    for (TVDBWorkItem workItem : workItems) {
-      Optional<WorkItemGroup> matchingGroup = groups
-          .stream()
-          .filter(group -> group.seriesId.equals(workItem.seriesId.getValue()))
-          .findFirst();
-
-      if (matchingGroup.isPresent()) {
-        matchingGroup.get().addWorkItem(workItem);
-      } else {
-        WorkItemGroup workItemGroup = new WorkItemGroup(workItem.seriesId.getValue(), Lists.newArrayList(workItem));
-        groups.add(workItemGroup);
-      }
-    }
-    return groups;
-  }
-
-  private class WorkItemGroup {
-    private Integer seriesId;
-    private List<TVDBWorkItem> workItems;
-
-    private WorkItemGroup(Integer seriesId, List<TVDBWorkItem> workItems) {
+    private WorkItemGroup(Integer seriesId, String leaseToken, List<TVDBWorkItem> workItems) {
       this.seriesId = seriesId;
+      this.leaseToken = leaseToken;
       this.workItems = workItems;
     }
 
-    void addWorkItem(TVDBWorkItem workItem) {
-      workItems.add(workItem);
+    Integer getSeriesId() {
+      return seriesId;
+    }
+
+    String getLeaseToken() {
+      return leaseToken;
     }
   }
 
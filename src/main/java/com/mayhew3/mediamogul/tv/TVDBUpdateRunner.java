@@ -1,18 +1,25 @@
 package com.mayhew3.mediamogul.tv;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mayhew3.mediamogul.ExternalServiceHandler;
 import com.mayhew3.mediamogul.ExternalServiceType;
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
+import com.mayhew3.mediamogul.db.SchemaSupplements;
+import com.mayhew3.mediamogul.db.SQLConnectionPool;
 import com.mayhew3.mediamogul.model.tv.Episode;
 import com.mayhew3.mediamogul.model.tv.Series;
 import com.mayhew3.mediamogul.model.tv.TVDBConnectionLog;
 import com.mayhew3.mediamogul.model.tv.TVDBUpdateError;
+import com.mayhew3.mediamogul.scheduler.TaskBudget;
+import com.mayhew3.mediamogul.scheduler.TaskResource;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
 import com.mayhew3.mediamogul.socket.MySocketFactory;
 import com.mayhew3.mediamogul.socket.SocketWrapper;
 import com.mayhew3.mediamogul.tv.exception.ShowFailedException;
 import com.mayhew3.mediamogul.tv.helper.UpdateMode;
+import com.mayhew3.mediamogul.tv.provider.AdaptiveRateLimiter;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
 import com.mayhew3.mediamogul.tv.provider.TVDBJWTProviderImpl;
 import com.mayhew3.mediamogul.xml.JSONReader;
@@ -35,6 +42,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class TVDBUpdateRunner implements UpdateRunner {
@@ -56,6 +67,25 @@ public class TVDBUpdateRunner implements UpdateRunner {
   private TVDBConnectionLog tvdbConnectionLog;
   private UpdateMode updateMode;
 
+  private TaskBudget budget = TaskBudget.unlimited();
+  private boolean stoppedEarly = false;
+
+  @Nullable
+  private SQLConnectionPool connectionPool;
+  private Integer workerCount = 1;
+  @Nullable
+  private ExecutorService workerPool;
+  private final Deque<InFlightSeries> inFlight = new ArrayDeque<>();
+
+  // modes that walk series in id order, and so can pick up where a previous run ran out of time.
+  private static final Set<UpdateMode> RESUMABLE_MODES = EnumSet.of(UpdateMode.FULL, UpdateMode.SMART);
+
+  // modes where TVDB or a user has told us the series changed, so cached TVDB responses can't be trusted.
+  private static final Set<UpdateMode> FORCE_REFRESH_MODES = EnumSet.of(UpdateMode.RECENT, UpdateMode.MANUAL, UpdateMode.SINGLE);
+
+  // modes a user is waiting on, so their TVDB requests go ahead of background passes.
+  private static final Set<UpdateMode> INTERACTIVE_MODES = EnumSet.of(UpdateMode.MANUAL, UpdateMode.SINGLE);
+
   private static Logger logger = LogManager.getLogger(TVDBUpdateRunner.class);
 
   @SuppressWarnings("FieldCanBeLocal")
@@ -114,16 +144,55 @@ public class TVDBUpdateRunner implements UpdateRunner {
     socket.disconnect();
   }
 
+  /**
+   * Update up to workerCount series at once. Each worker borrows its own connection from the pool and updates its series
+   * in a single transaction. Nearly all of a series update is spent waiting on TVDB, so long passes mostly get their time
+   * back from this.
+   */
+  public TVDBUpdateRunner withParallelism(SQLConnectionPool connectionPool, Integer workerCount) {
+    Preconditions.checkArgument(workerCount > 0, "Worker count must be positive.");
+    this.connectionPool = connectionPool;
+    this.workerCount = workerCount;
+    return this;
+  }
+
+  @Override
+  public void runUpdate(TaskBudget budget) throws SQLException {
+    this.budget = budget;
+    runUpdate();
+  }
+
   public void runUpdate() throws SQLException {
 
     initializeConnectionLog(updateMode);
+    stoppedEarly = false;
+
+    // set before the worker pool exists, so its threads inherit it.
+    AdaptiveRateLimiter.setCurrentPriority(INTERACTIVE_MODES.contains(updateMode) ?
+        AdaptiveRateLimiter.Priority.INTERACTIVE :
+        AdaptiveRateLimiter.Priority.BACKGROUND);
+
+    if (connectionPool != null && workerCount > 1) {
+      workerPool = Executors.newFixedThreadPool(workerCount, new ThreadFactoryBuilder()
+          .setNameFormat("tvdb-series-worker-%d")
+          .build());
+    }
 
     try {
       methodMap.get(updateMode).run();
+      if (!stoppedEarly) {
+        budget.completed();
+      }
       tvdbConnectionLog.finishTime.changeValue(new Date());
     } catch (Exception e) {
       e.printStackTrace();
     } finally {
+      if (workerPool != null) {
+        workerPool.shutdownNow();
+        workerPool = null;
+      }
+      inFlight.clear();
+      AdaptiveRateLimiter.clearCurrentPriority();
       tvdbConnectionLog.commit(connection);
       tvdbConnectionLog = null;
     }
@@ -150,6 +219,11 @@ public class TVDBUpdateRunner implements UpdateRunner {
     return updateMode;
   }
 
+  @Override
+  public Set<TaskResource> getRequiredResources() {
+    return EnumSet.of(TaskResource.TVDB_API);
+  }
+
   /**
    * Go to theTVDB and update all matched series in my DB with the ones from theirs.
    */
@@ -157,10 +231,12 @@ public class TVDBUpdateRunner implements UpdateRunner {
     String sql = "select * " +
         "from series " +
         "where tvdb_match_status = ? " +
-        "and retired = ? ";
+        "and retired = ? " +
+        "and id > ? " +
+        "order by id ";
 
     try {
-      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, TVDBMatchStatus.MATCH_COMPLETED, 0);
+      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, TVDBMatchStatus.MATCH_COMPLETED, 0, budget.getResumeAfterId());
       runUpdateOnResultSet(resultSet);
     } catch (SQLException e) {
       throw new RuntimeException(e);
@@ -451,22 +527,23 @@ public class TVDBUpdateRunner implements UpdateRunner {
     int i = 0;
 
     while (resultSet.next()) {
+      if (outOfTime(i)) {
+        break;
+      }
       i++;
       Series series = new Series();
 
       try {
-        @NotNull SeriesUpdateResult result = processSingleSeries(resultSet, series);
-        if (result.equals(SeriesUpdateResult.UPDATE_SUCCESS)) {
-          tvdbConnectionLog.updatedShows.increment(1);
-        } else {
-          tvdbConnectionLog.failedShows.increment(1);
-        }
+        series.initializeFromDBObject(resultSet);
+        updateSeries(series, true);
       } catch (Exception e) {
         logger.error("Show failed on initialization from DB.");
+        recordSeriesProcessed(null);
       }
 
-      seriesUpdates++;
+      checkpoint(resultSet.getInt("id"));
     }
+    awaitInFlight();
 
     logger.info("Update complete for result set: " + i + " processed.");
   }
@@ -481,21 +558,14 @@ public class TVDBUpdateRunner implements UpdateRunner {
     int i = 0;
 
     for (Series series : sortedSerieses) {
-      i++;
-
-      try {
-        @NotNull SeriesUpdateResult result = runUpdateOnSingleSeries(series, false);
-        if (result.equals(SeriesUpdateResult.UPDATE_SUCCESS)) {
-          tvdbConnectionLog.updatedShows.increment(1);
-        } else {
-          tvdbConnectionLog.failedShows.increment(1);
-        }
-      } catch (Exception e) {
-        logger.error("Show failed on initialization from DB.");
+      if (outOfTime(i)) {
+        break;
       }
+      i++;
 
-      seriesUpdates++;
+      updateSeries(series, false);
     }
+    awaitInFlight();
 
     logger.info("Update complete for result set: " + i + " processed.");
   }
@@ -504,36 +574,48 @@ public class TVDBUpdateRunner implements UpdateRunner {
 
     debug("Starting update.");
 
+    DateTime now = new DateTime(new Date());
+    Timestamp aWeekAgo = new Timestamp(now.minusDays(ERROR_FOLLOW_UP_THRESHOLD_IN_DAYS).toDate().getTime());
+    Timestamp aDayAgo = new Timestamp(now.minusDays(1).toDate().getTime());
+
+    // the candidate predicate is repeated as-is so the partial index can be used. The clauses after it pick out the
+    // series that actually need an update:
+    // - errored recently, still under the error threshold
+    // - errored over a week ago, regardless of threshold
+    // - match confirmed but never completed
+    // - has unmatched episodes, and hasn't been updated for a day
     String sql = "select * " +
         "from series " +
-        "where retired = ? ";
+        "where " + SchemaSupplements.TVDB_SMART_CANDIDATE_PREDICATE +
+        "and id > ? " +
+        "and ((last_tvdb_error is not null and consecutive_tvdb_errors < ? and tvdb_match_status = ?) " +
+        "  or (last_tvdb_error < ? and tvdb_match_status = ?) " +
+        "  or (tvdb_match_status = ? and consecutive_tvdb_errors < ?) " +
+        "  or (last_tvdb_update < ? and suggestion = ? and unmatched_episodes > ?)) " +
+        "order by id ";
 
     try {
-      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql, 0);
+      ResultSet resultSet = connection.prepareAndExecuteStatementFetch(sql,
+          budget.getResumeAfterId(),
+          ERROR_THRESHOLD, TVDBMatchStatus.MATCH_COMPLETED,
+          aWeekAgo, TVDBMatchStatus.MATCH_COMPLETED,
+          TVDBMatchStatus.MATCH_CONFIRMED, ERROR_THRESHOLD,
+          aDayAgo, false, 0);
 
       int i = 0;
 
       while (resultSet.next()) {
+        if (outOfTime(i)) {
+          break;
+        }
         i++;
         Series series = new Series();
         series.initializeFromDBObject(resultSet);
 
-        if (shouldUpdateSeries(series)) {
-
-          try {
-            @NotNull SeriesUpdateResult result = processSingleSeries(resultSet, series);
-            if (result.equals(SeriesUpdateResult.UPDATE_SUCCESS)) {
-              tvdbConnectionLog.updatedShows.increment(1);
-            } else {
-              tvdbConnectionLog.failedShows.increment(1);
-            }
-          } catch (Exception e) {
-            logger.error("Show failed on initialization from DB.");
-          }
-
-          seriesUpdates++;
-        }
+        updateSeries(series, false);
+        checkpoint(series.id.getValue());
       }
+      awaitInFlight();
 
       debug("Update complete for series: " + (i-1) + " processed.");
     } catch (SQLException e) {
@@ -541,61 +623,99 @@ public class TVDBUpdateRunner implements UpdateRunner {
     }
   }
 
-  private Boolean shouldUpdateSeries(Series series) {
-    return isRecentlyErrored(series) ||
-        isOldErrored(series) ||
-        matchReadyToComplete(series) ||
-        hasUnmatchedEpisodes(series);
+  private boolean outOfTime(int processed) {
+    if (budget.isExhausted()) {
+      logger.info("Time budget used up after " + processed + " series. Stopping early.");
+      stoppedEarly = true;
+      return true;
+    }
+    return false;
   }
 
-  private Boolean isRecentlyErrored(Series series) {
-    return hasError(series) &&
-        withinConsecutiveErrorThreshold(series) &&
-        hasMatchStatus(series, TVDBMatchStatus.MATCH_COMPLETED);
+  // with workers running, a series only counts as done once everything submitted before it has finished too.
+  private void checkpoint(Integer seriesID) {
+    if (!RESUMABLE_MODES.contains(updateMode)) {
+      return;
+    }
+    InFlightSeries newest = inFlight.peekLast();
+    if (newest == null) {
+      budget.checkpoint(seriesID);
+    } else {
+      newest.checkpointAfter = seriesID;
+    }
   }
 
-  private Boolean isOldErrored(Series series) {
-    DateTime now = new DateTime(new Date());
-    DateTime aWeekAgo = now.minusDays(ERROR_FOLLOW_UP_THRESHOLD_IN_DAYS);
-    Timestamp timestamp = new Timestamp(aWeekAgo.toDate().getTime());
+  private void updateSeries(Series series, boolean addingSeries) {
+    if (workerPool == null) {
+      updateAndRecord(series, addingSeries, connection);
+      return;
+    }
 
-    return hasError(series) &&
-        withinErrorDateThreshold(series, timestamp) &&
-        hasMatchStatus(series, TVDBMatchStatus.MATCH_COMPLETED);
+    while (inFlight.size() >= workerCount * 2) {
+      awaitOldest();
+    }
+    inFlight.add(new InFlightSeries(workerPool.submit(() -> updateOnWorkerConnection(series, addingSeries))));
   }
 
-  private Boolean matchReadyToComplete(Series series) {
-    return hasMatchStatus(series, TVDBMatchStatus.MATCH_CONFIRMED) &&
-        withinConsecutiveErrorThreshold(series);
+  private void updateOnWorkerConnection(Series series, boolean addingSeries) throws SQLException {
+    assert connectionPool != null;
+    SQLConnection workerConnection = connectionPool.borrow();
+    try {
+      updateAndRecord(series, addingSeries, workerConnection);
+    } finally {
+      connectionPool.release(workerConnection);
+    }
   }
 
-
-
-  private Boolean withinConsecutiveErrorThreshold(Series series) {
-    return series.consecutiveTVDBErrors.getValue() < ERROR_THRESHOLD;
+  private void updateAndRecord(Series series, boolean addingSeries, SQLConnection seriesConnection) {
+    SeriesUpdateResult result = null;
+    try {
+      result = runUpdateOnSingleSeries(series, addingSeries, seriesConnection);
+    } catch (Exception e) {
+      logger.error("Show failed on initialization from DB.");
+    }
+    recordSeriesProcessed(result);
   }
 
-  private Boolean hasMatchStatus(Series series, String matchStatus) {
-    return matchStatus.equals(series.tvdbMatchStatus.getValue());
+  private void awaitOldest() {
+    InFlightSeries oldest = inFlight.poll();
+    if (oldest == null) {
+      return;
+    }
+    try {
+      oldest.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warn("Interrupted waiting on series workers. Stopping early.");
+      stoppedEarly = true;
+      inFlight.clear();
+      return;
+    } catch (ExecutionException e) {
+      logger.error("Series worker failed.", e.getCause());
+    }
+    if (oldest.checkpointAfter != null) {
+      budget.checkpoint(oldest.checkpointAfter);
+    }
   }
 
-  private Boolean hasError(Series series) {
-    return series.lastTVDBError.getValue() != null;
+  private void awaitInFlight() {
+    while (!inFlight.isEmpty()) {
+      awaitOldest();
+    }
   }
 
-  private Boolean withinErrorDateThreshold(Series series, Timestamp timestamp) {
-    return series.lastTVDBError.getValue().before(timestamp);
+  private synchronized void recordSeriesProcessed(@Nullable SeriesUpdateResult result) {
+    if (SeriesUpdateResult.UPDATE_SUCCESS.equals(result)) {
+      tvdbConnectionLog.updatedShows.increment(1);
+    } else if (SeriesUpdateResult.UPDATE_FAILED.equals(result)) {
+      tvdbConnectionLog.failedShows.increment(1);
+    }
+    seriesUpdates++;
   }
 
-  private Boolean hasUnmatchedEpisodes(Series series) {
-    DateTime now = new DateTime(new Date());
-    DateTime aDayAgo = now.minusDays(1);
-    Timestamp timestamp = new Timestamp(aDayAgo.toDate().getTime());
-
-    return series.lastTVDBUpdate.getValue() != null &&
-        series.lastTVDBUpdate.getValue().before(timestamp) &&
-        !series.isSuggestion.getValue() &&
-        series.unmatchedEpisodes.getValue() > 0;
+  private synchronized void recordEpisodeCounts(Integer added, Integer updated) {
+    episodesAdded += added;
+    episodesUpdated += updated;
   }
 
   @NotNull
@@ -606,27 +726,31 @@ public class TVDBUpdateRunner implements UpdateRunner {
       addingSeries = true;
     }
 
-    return runUpdateOnSingleSeries(series, addingSeries);
+    return runUpdateOnSingleSeries(series, addingSeries, connection);
   }
 
-  private @NotNull SeriesUpdateResult runUpdateOnSingleSeries(Series series, boolean addingSeries) throws SQLException {
+  private @NotNull SeriesUpdateResult runUpdateOnSingleSeries(Series series, boolean addingSeries, SQLConnection seriesConnection) throws SQLException {
+    if (FORCE_REFRESH_MODES.contains(updateMode)) {
+      tvdbjwtProvider.invalidateSeries(series.tvdbSeriesExtId.getValue());
+    }
     try {
-      updateTVDB(series);
+      // TVDBSeriesUpdater applies the series in its own transaction, and rolls it back if the update fails.
+      updateTVDB(series, seriesConnection);
       if (addingSeries) {
-        maybeUpdateSeriesRequest(series);
+        maybeUpdateSeriesRequest(series, seriesConnection);
       }
-      resetTVDBErrors(series);
+      resetTVDBErrors(series, seriesConnection);
       return SeriesUpdateResult.UPDATE_SUCCESS;
     } catch (Exception e) {
       e.printStackTrace();
       debug("Show failed TVDB: " + series.seriesTitle.getValue());
-      updateTVDBErrors(series);
-      addUpdateError(e, series);
+      updateTVDBErrors(series, seriesConnection);
+      addUpdateError(e, series, seriesConnection);
       return SeriesUpdateResult.UPDATE_FAILED;
     }
   }
 
-  private void maybeUpdateSeriesRequest(Series series) throws SQLException {
+  private void maybeUpdateSeriesRequest(Series series, SQLConnection connection) throws SQLException {
     String sql = "UPDATE series_request " +
         "SET completed = ? " +
         "WHERE tvdb_series_ext_id = ? " +
@@ -639,7 +763,7 @@ public class TVDBUpdateRunner implements UpdateRunner {
         0);
   }
 
-  private void addUpdateError(Exception e, Series series) throws SQLException {
+  private void addUpdateError(Exception e, Series series, SQLConnection connection) throws SQLException {
     TVDBUpdateError tvdbUpdateError = new TVDBUpdateError();
     tvdbUpdateError.initializeForInsert();
 
@@ -677,24 +801,23 @@ public class TVDBUpdateRunner implements UpdateRunner {
     }
   }
 
-  private void updateTVDBErrors(Series series) throws SQLException {
+  private void updateTVDBErrors(Series series, SQLConnection connection) throws SQLException {
     series.lastTVDBError.changeValue(new Date());
     series.consecutiveTVDBErrors.increment(1);
     series.commit(connection);
   }
 
-  private void resetTVDBErrors(Series series) throws SQLException {
+  private void resetTVDBErrors(Series series, SQLConnection connection) throws SQLException {
     series.lastTVDBError.changeValue(null);
     series.consecutiveTVDBErrors.changeValue(0);
     series.commit(connection);
   }
 
-  private void updateTVDB(Series series) throws SQLException, ShowFailedException, UnirestException, AuthenticationException {
+  private void updateTVDB(Series series, SQLConnection connection) throws SQLException, ShowFailedException, UnirestException, AuthenticationException {
     TVDBSeriesUpdater updater = new TVDBSeriesUpdater(connection, series, tvdbjwtProvider, jsonReader, socket);
     updater.updateSeries();
 
-    episodesAdded += updater.getEpisodesAdded();
-    episodesUpdated += updater.getEpisodesUpdated();
+    recordEpisodeCounts(updater.getEpisodesAdded(), updater.getEpisodesUpdated());
   }
 
   private Integer getSeriesUpdates() {
@@ -715,5 +838,14 @@ public class TVDBUpdateRunner implements UpdateRunner {
     logger.debug(message);
   }
 
-}
+  private static class InFlightSeries {
+    private final Future<?> future;
+    @Nullable
+    private Integer checkpointAfter;
 
+    private InFlightSeries(Future<?> future) {
+      this.future = future;
+    }
+  }
+
+}
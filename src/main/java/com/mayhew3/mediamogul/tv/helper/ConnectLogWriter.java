@@ -0,0 +1,318 @@
+package com.mayhew3.mediamogul.tv.helper;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.mayhew3.mediamogul.db.SQLConnectionPool;
+import com.mayhew3.mediamogul.db.SchemaSupplements;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind sink for connect_log rows. ConnectionLoggers hand it start and end records, which are queued and written
+ * in batches by a background thread, so logging never holds up the task being logged. Connection ids come from a
+ * database sequence, fetched a block at a time.
+ *
+ * Records aren't dropped. When the database falls behind, the queue fills and submitters wait for room. A batch that
+ * fails to write is kept and retried with backoff, resuming after whichever of its statements already went through.
+ * Given a pool, the background thread borrows a connection of its own for each batch.
+ *
+ * If start() is never called there is no background thread, and every record is written as soon as it's submitted.
+ * Records that fail are then retried on the next submit.
+ */
+public class ConnectLogWriter {
+
+  @Nullable
+  private final SQLConnection connection;
+  @Nullable
+  private final SQLConnectionPool connectionPool;
+  private final BlockingQueue<LogRecord> queue;
+
+  private final Deque<Integer> allocatedIDs = new ArrayDeque<>();
+
+  // taken from the queue but not yet written. Guarded by writeLock rather than this, so id allocation never waits on a
+  // batch write.
+  private final Object writeLock = new Object();
+  private final List<StartRecord> unwrittenStarts = new ArrayList<>();
+  private final List<EndRecord> unwrittenEnds = new ArrayList<>();
+
+  @Nullable
+  private Thread flushThread;
+  private volatile boolean running = false;
+
+  private static final int QUEUE_CAPACITY = 1000;
+  private static final int MAX_BATCH_SIZE = 100;
+  private static final int ID_BLOCK_SIZE = 20;
+  private static final long INITIAL_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+  private static final long MAX_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final Logger logger = LogManager.getLogger(ConnectLogWriter.class);
+
+  public ConnectLogWriter(SQLConnection connection) {
+    this.connection = connection;
+    this.connectionPool = null;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  }
+
+  public ConnectLogWriter(SQLConnectionPool connectionPool) {
+    this.connection = null;
+    this.connectionPool = connectionPool;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    flushThread = new Thread(this::flushLoop, "connect-log-writer");
+    flushThread.setDaemon(true);
+    flushThread.start();
+  }
+
+  /**
+   * Stop the background thread and write whatever is still queued.
+   */
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = flushThread;
+      flushThread = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (!flushQueued()) {
+      synchronized (writeLock) {
+        logger.error("Shutting down with " + (unwrittenStarts.size() + unwrittenEnds.size() + queue.size()) +
+            " connect log records unwritten.");
+      }
+    }
+  }
+
+  synchronized Integer nextConnectionID() throws SQLException {
+    if (allocatedIDs.isEmpty()) {
+      SQLConnection idConnection = borrowConnection();
+      try {
+        ResultSet resultSet = idConnection.prepareAndExecuteStatementFetch(
+            "SELECT nextval('" + SchemaSupplements.CONNECTION_ID_SEQUENCE + "') AS next_id " +
+                "FROM generate_series(1, ?) ",
+            ID_BLOCK_SIZE);
+        while (resultSet.next()) {
+          allocatedIDs.add(resultSet.getInt("next_id"));
+        }
+      } finally {
+        releaseConnection(idConnection);
+      }
+      if (allocatedIDs.isEmpty()) {
+        throw new IllegalStateException("Unable to allocate connection ids from sequence.");
+      }
+    }
+    return allocatedIDs.poll();
+  }
+
+  void submitStart(Integer connectionID, Timestamp startTime, @Nullable String taskName, @Nullable String taskMode, Boolean fastUpdate) {
+    submit(new StartRecord(connectionID, startTime, taskName, taskMode, fastUpdate));
+  }
+
+  void submitEnd(Integer connectionID, Timestamp endTime, Long timeConnected, @Nullable String resumeCursor) {
+    submit(new EndRecord(connectionID, endTime, timeConnected, resumeCursor));
+  }
+
+  private void submit(LogRecord record) {
+    if (!running) {
+      synchronized (writeLock) {
+        addUnwritten(record);
+      }
+      flushQueued();
+      return;
+    }
+    if (!queue.offer(record)) {
+      logger.warn("Connect log queue is full. Waiting for the writer to catch up before queueing " + record);
+      Uninterruptibles.putUninterruptibly(queue, record);
+    }
+  }
+
+  private void flushLoop() {
+    while (running) {
+      try {
+        LogRecord first = queue.take();
+        synchronized (writeLock) {
+          addUnwritten(first);
+          drainUnwritten(MAX_BATCH_SIZE - 1);
+        }
+
+        long retryMillis = INITIAL_RETRY_MILLIS;
+        while (!writeUnwritten()) {
+          Thread.sleep(retryMillis);
+          retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return false if a batch failed to write. Its records stay unwritten, and are the first thing the next flush tries.
+   */
+  private boolean flushQueued() {
+    synchronized (writeLock) {
+      while (true) {
+        if (unwrittenStarts.isEmpty() && unwrittenEnds.isEmpty() && drainUnwritten(MAX_BATCH_SIZE) == 0) {
+          return true;
+        }
+        if (!writeUnwritten()) {
+          return false;
+        }
+      }
+    }
+  }
+
+  private int drainUnwritten(int maxRecords) {
+    List<LogRecord> batch = new ArrayList<>();
+    queue.drainTo(batch, maxRecords);
+    batch.forEach(this::addUnwritten);
+    return batch.size();
+  }
+
+  private void addUnwritten(LogRecord record) {
+    if (record instanceof StartRecord) {
+      unwrittenStarts.add((StartRecord) record);
+    } else {
+      unwrittenEnds.add((EndRecord) record);
+    }
+  }
+
+  // every end is queued after its start, so writing the starts before the ends keeps them in order. Each list is cleared
+  // as soon as its statement succeeds, so a retry doesn't insert the same starts twice.
+  private boolean writeUnwritten() {
+    synchronized (writeLock) {
+      long startNanos = System.nanoTime();
+      int recordCount = unwrittenStarts.size() + unwrittenEnds.size();
+      try {
+        SQLConnection writeConnection = borrowConnection();
+        try {
+          if (!unwrittenStarts.isEmpty()) {
+            insertStarts(writeConnection, unwrittenStarts);
+            unwrittenStarts.clear();
+          }
+          if (!unwrittenEnds.isEmpty()) {
+            updateEnds(writeConnection, unwrittenEnds);
+            unwrittenEnds.clear();
+          }
+        } finally {
+          releaseConnection(writeConnection);
+        }
+        Metrics.recordQuery("connect_log_batch", startNanos);
+        return true;
+      } catch (SQLException e) {
+        logger.warn("Failed to write " + recordCount + " connect log records. Will retry.", e);
+        return false;
+      }
+    }
+  }
+
+  private SQLConnection borrowConnection() throws SQLException {
+    return connectionPool == null ? Objects.requireNonNull(connection) : connectionPool.borrow();
+  }
+
+  private void releaseConnection(SQLConnection borrowed) {
+    if (connectionPool != null) {
+      connectionPool.release(borrowed);
+    }
+  }
+
+  private void insertStarts(SQLConnection writeConnection, List<StartRecord> starts) throws SQLException {
+    List<Object> params = new ArrayList<>();
+    List<String> rows = new ArrayList<>();
+    for (StartRecord start : starts) {
+      rows.add("(?, ?, ?, ?, ?)");
+      params.add(start.startTime);
+      params.add(start.connectionID);
+      params.add(start.taskName == null ? "Legacy" : start.taskName);
+      params.add(start.taskMode);
+      params.add(start.fastUpdate);
+    }
+
+    String sql = "INSERT INTO connect_log (start_time, connection_id, task_name, task_mode, fast_update) " +
+        "VALUES " + String.join(", ", rows);
+    writeConnection.prepareAndExecuteStatementUpdate(sql, params.toArray());
+  }
+
+  private void updateEnds(SQLConnection writeConnection, List<EndRecord> ends) throws SQLException {
+    List<Object> params = new ArrayList<>();
+    List<String> rows = new ArrayList<>();
+    for (EndRecord end : ends) {
+      rows.add("(?::integer, ?::timestamptz, ?::integer, ?::text)");
+      params.add(end.connectionID);
+      params.add(end.endTime);
+      params.add(end.timeConnected);
+      params.add(end.resumeCursor);
+    }
+
+    String sql = "UPDATE connect_log cl " +
+        "SET end_time = v.end_time, time_connected = v.time_connected, resume_cursor = v.resume_cursor " +
+        "FROM (VALUES " + String.join(", ", rows) + ") AS v (connection_id, end_time, time_connected, resume_cursor) " +
+        "WHERE cl.connection_id = v.connection_id ";
+    writeConnection.prepareAndExecuteStatementUpdate(sql, params.toArray());
+  }
+
+  private interface LogRecord {
+  }
+
+  private static class StartRecord implements LogRecord {
+    private final Integer connectionID;
+    private final Timestamp startTime;
+    @Nullable private final String taskName;
+    @Nullable private final String taskMode;
+    private final Boolean fastUpdate;
+
+    private StartRecord(Integer connectionID, Timestamp startTime, @Nullable String taskName, @Nullable String taskMode, Boolean fastUpdate) {
+      this.connectionID = connectionID;
+      this.startTime = startTime;
+      this.taskName = taskName;
+      this.taskMode = taskMode;
+      this.fastUpdate = fastUpdate;
+    }
+
+    @Override
+    public String toString() {
+      return "start of connection " + connectionID + " (" + taskName + ")";
+    }
+  }
+
+  private static class EndRecord implements LogRecord {
+    private final Integer connectionID;
+    private final Timestamp endTime;
+    private final Long timeConnected;
+    @Nullable private final String resumeCursor;
+
+    private EndRecord(Integer connectionID, Timestamp endTime, Long timeConnected, @Nullable String resumeCursor) {
+      this.connectionID = connectionID;
+      this.endTime = endTime;
+      this.timeConnected = timeConnected;
+      this.resumeCursor = resumeCursor;
+    }
+
+    @Override
+    public String toString() {
+      return "end of connection " + connectionID;
+    }
+  }
+}
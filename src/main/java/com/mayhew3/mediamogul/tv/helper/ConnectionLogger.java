@@ -1,103 +1,95 @@
 package com.mayhew3.mediamogul.tv.helper;
 
-import com.mayhew3.mediamogul.model.tv.ConnectLog;
 import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.mediamogul.scheduler.TaskRunRegistry;
 import com.mayhew3.mediamogul.scheduler.UpdateRunner;
+import org.jetbrains.annotations.Nullable;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
-import java.util.Optional;
 
+/**
+ * Logs the start and end of a single task run to connect_log. The rows themselves are written by a ConnectLogWriter,
+ * which may do so asynchronously, so none of this waits on the database except for the occasional id block fetch.
+ */
 public class ConnectionLogger {
 
-  private SQLConnection connection;
+  private ConnectLogWriter writer;
   private Integer connectionID;
 
+  @Nullable
+  private final TaskRunRegistry taskRunRegistry;
+  @Nullable
+  private String taskName;
+  @Nullable
+  private String taskMode;
+  @Nullable
+  private Timestamp startTime;
+
   public ConnectionLogger(SQLConnection connection) throws SQLException {
-    this.connection = connection;
-    ConnectLog lastConnectLog = findMostRecentLog().orElse(null);
-    connectionID = (lastConnectLog == null ? 0 : lastConnectLog.connectionID.getValue()) + 1;
+    this(new ConnectLogWriter(connection), null);
   }
 
-  public void close() {
-    connection = null;
-    connectionID = null;
+  public ConnectionLogger(ConnectLogWriter writer, @Nullable TaskRunRegistry taskRunRegistry) throws SQLException {
+    this.writer = writer;
+    this.taskRunRegistry = taskRunRegistry;
+    connectionID = writer.nextConnectionID();
   }
 
-  private Optional<ConnectLog> findMostRecentLog() throws SQLException {
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch("SELECT * FROM connect_log ORDER BY id DESC LIMIT 1 ");
-
-    if (resultSet.next()) {
-      ConnectLog connectLog = new ConnectLog();
-      connectLog.initializeFromDBObject(resultSet);
-      return Optional.of(connectLog);
-    }
-
-    return Optional.empty();
+  public void close() {
+    writer = null;
+    connectionID = null;
   }
 
   @Deprecated
-  public void logConnectionStart(Boolean lookAtAllShows) throws SQLException {
+  public void logConnectionStart(Boolean lookAtAllShows) {
     if (connectionID == null) {
       throw new IllegalStateException("No connection id on start.");
     }
 
-    ConnectLog connectLog = new ConnectLog();
-    connectLog.initializeForInsert();
-
-    connectLog.startTime.changeValue(new Date());
-    connectLog.connectionID.changeValue(connectionID);
-    connectLog.fastUpdate.changeValue(!lookAtAllShows);
-
-    connectLog.commit(connection);
+    startTime = new Timestamp(new Date().getTime());
+    writer.submitStart(connectionID, startTime, null, null, !lookAtAllShows);
   }
 
-  public void logConnectionStart(UpdateRunner updateRunner) throws SQLException {
+  public void logConnectionStart(UpdateRunner updateRunner) {
     if (connectionID == null) {
       throw new IllegalStateException("No connection id on start.");
     }
 
-    ConnectLog connectLog = new ConnectLog();
-    connectLog.initializeForInsert();
-
-    connectLog.startTime.changeValue(new Date());
-    connectLog.connectionID.changeValue(connectionID);
-    connectLog.fastUpdate.changeValue(false);
-    connectLog.taskName.changeValue(updateRunner.getUniqueIdentifier());
+    taskName = updateRunner.getUniqueIdentifier();
+    startTime = new Timestamp(new Date().getTime());
 
     UpdateMode updateMode = updateRunner.getUpdateMode();
-    connectLog.taskMode.changeValue(updateMode == null ? null : updateMode.getTypekey());
+    taskMode = updateMode == null ? null : updateMode.getTypekey();
 
-    connectLog.commit(connection);
+    writer.submitStart(connectionID, startTime, taskName, taskMode, false);
   }
 
-  public void logConnectionEnd() throws SQLException {
-    if (connectionID == null) {
+  public void logConnectionEnd() {
+    logConnectionEnd(null);
+  }
+
+  /**
+   * @param resumeCursor Where the task left off, if it stopped before finishing a full pass. Null to start over next time.
+   */
+  public void logConnectionEnd(@Nullable String resumeCursor) {
+    if (connectionID == null || startTime == null) {
       throw new IllegalStateException("Cannot have connection end that has no start.");
     }
 
-    ResultSet resultSet = connection.prepareAndExecuteStatementFetch("SELECT * FROM connect_log WHERE connection_id = ?", connectionID);
-
-    if (resultSet.next()) {
-      ConnectLog connectLog = new ConnectLog();
-      connectLog.initializeFromDBObject(resultSet);
-
-      Timestamp startTime = connectLog.startTime.getValue();
-      Timestamp endTime = new Timestamp(new Date().getTime());
+    Timestamp endTime = new Timestamp(new Date().getTime());
 
-      long diffInMillis = endTime.getTime() - startTime.getTime();
-      long diffInSeconds = diffInMillis / 1000;
+    long diffInMillis = endTime.getTime() - startTime.getTime();
+    long diffInSeconds = diffInMillis / 1000;
 
-      connectLog.endTime.changeValue(endTime);
-      connectLog.timeConnected.changeValue(diffInSeconds);
-      connectLog.commit(connection);
+    writer.submitEnd(connectionID, endTime, diffInSeconds, resumeCursor);
 
-      close();
-    } else {
-      throw new RuntimeException("Unable to find connect log with ID " + connectionID);
+    if (taskRunRegistry != null && taskName != null) {
+      taskRunRegistry.recordRun(taskName, taskMode, endTime);
+      taskRunRegistry.recordResumeCursor(taskName, taskMode, resumeCursor);
     }
 
+    close();
   }
 }
@@ -0,0 +1,292 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide limit on requests to one external service: a token bucket for the request rate, plus a cap on requests
+ * in flight. Both adjust AIMD-style from what the service tells us. Every fast success raises them a little, and a 429,
+ * a 5xx, a failed request or a response slower than the latency target cuts them, at most once per cooldown so one
+ * burst of errors only counts once. A Retry-After on a 429 pauses everyone until it passes.
+ *
+ * Interactive requests (the manual queue, newly added series) go ahead of any waiting background request, and no
+ * background request starts while an interactive one is waiting. Background work also leaves the last in-flight slot
+ * free whenever the limit is above one. At a limit of one, background work may use the single slot only while no
+ * interactive request is waiting; reserving it outright would stall background work until something interactive came
+ * along to raise the limit again.
+ *
+ * The priority is taken from the calling thread; see {@link #setCurrentPriority}.
+ */
+public class AdaptiveRateLimiter {
+
+  public enum Priority {
+    INTERACTIVE,
+    BACKGROUND
+  }
+
+  public enum Outcome {
+    SUCCESS,
+    THROTTLED,
+    SERVER_ERROR,
+    FAILED
+  }
+
+  public static final AdaptiveRateLimiter TVDB = new AdaptiveRateLimiter("tvdb", 10);
+
+  // worker pools a runner creates inherit its priority when their threads start.
+  private static final InheritableThreadLocal<Priority> currentPriority = new InheritableThreadLocal<>();
+
+  private static final double INITIAL_RATE = 5.0;
+  private static final double MIN_RATE = 0.5;
+  private static final double MAX_RATE = 20.0;
+  // rate gained per second of steady success, and in-flight slots gained per window of successes.
+  private static final double RATE_INCREASE_PER_SECOND = 0.5;
+  private static final double INITIAL_CONCURRENCY = 4.0;
+  private static final double ERROR_DECREASE_FACTOR = 0.5;
+  private static final double SLOW_DECREASE_FACTOR = 0.8;
+  private static final long LATENCY_TARGET_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(2);
+  private static final long MAX_WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+  private static final int BACKGROUND_RESERVED_SLOTS = 1;
+
+  private final String service;
+  private final int maxConcurrency;
+  private final LongSupplier nanoClock;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition stateChanged = lock.newCondition();
+
+  private double rate = INITIAL_RATE;
+  private double concurrencyLimit;
+  private double tokens = 1.0;
+  private long lastRefillNanos;
+  private int inFlight = 0;
+  private long pausedUntilNanos;
+  private long lastDecreaseNanos;
+  private final Map<Priority, Integer> waiting = new EnumMap<>(Priority.class);
+
+  public AdaptiveRateLimiter(String service, int maxConcurrency) {
+    this(service, maxConcurrency, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  AdaptiveRateLimiter(String service, int maxConcurrency, LongSupplier nanoClock) {
+    this.service = service;
+    this.maxConcurrency = maxConcurrency;
+    this.nanoClock = nanoClock;
+    this.concurrencyLimit = Math.min(INITIAL_CONCURRENCY, maxConcurrency);
+
+    long now = nanoClock.getAsLong();
+    this.lastRefillNanos = now;
+    this.pausedUntilNanos = now;
+    this.lastDecreaseNanos = now - DECREASE_COOLDOWN_NANOS;
+    for (Priority priority : Priority.values()) {
+      waiting.put(priority, 0);
+    }
+  }
+
+  /**
+   * Run requests made from this thread, and from threads it starts, at the given priority until cleared. Anything that
+   * doesn't set one runs as background work.
+   */
+  public static void setCurrentPriority(Priority priority) {
+    currentPriority.set(priority);
+  }
+
+  public static void clearCurrentPriority() {
+    currentPriority.remove();
+  }
+
+  public static Priority getCurrentPriority() {
+    Priority priority = currentPriority.get();
+    return priority == null ? Priority.BACKGROUND : priority;
+  }
+
+  /**
+   * Block until a request at this priority may start. The caller must hand the permit back to {@link #release} once the
+   * response (or failure) is in.
+   */
+  public Permit acquire(Priority priority) throws InterruptedException {
+    long waitStartNanos = System.nanoTime();
+    lock.lockInterruptibly();
+    try {
+      waiting.merge(priority, 1, Integer::sum);
+      try {
+        while (true) {
+          long now = nanoClock.getAsLong();
+          refill(now);
+          if (canStart(priority, now)) {
+            tokens -= 1.0;
+            inFlight++;
+            Metrics.recordRateLimiterWait(service, priority.name().toLowerCase(), waitStartNanos);
+            return new Permit(now);
+          }
+          stateChanged.awaitNanos(nanosUntilChange(now));
+        }
+      } finally {
+        waiting.merge(priority, -1, Integer::sum);
+        // a departing interactive waiter may be what was holding background work back.
+        stateChanged.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Start a request now if one is allowed, without waiting.
+   */
+  @Nullable
+  @VisibleForTesting
+  Permit tryAcquire(Priority priority) {
+    lock.lock();
+    try {
+      long now = nanoClock.getAsLong();
+      refill(now);
+      if (!canStart(priority, now)) {
+        return null;
+      }
+      tokens -= 1.0;
+      inFlight++;
+      return new Permit(now);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void release(Permit permit, Outcome outcome) {
+    release(permit, outcome, null);
+  }
+
+  public void release(Permit permit, Outcome outcome, @Nullable Long retryAfterMillis) {
+    lock.lock();
+    try {
+      if (permit.released) {
+        return;
+      }
+      permit.released = true;
+      inFlight--;
+
+      long now = nanoClock.getAsLong();
+      refill(now);
+      long latencyNanos = now - permit.startNanos;
+
+      if (retryAfterMillis != null && retryAfterMillis > 0) {
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+      }
+
+      if (outcome != Outcome.SUCCESS) {
+        decrease(now, ERROR_DECREASE_FACTOR);
+        Metrics.recordRateLimiterBackoff(service, outcome.name().toLowerCase());
+      } else if (latencyNanos > LATENCY_TARGET_NANOS) {
+        decrease(now, SLOW_DECREASE_FACTOR);
+        Metrics.recordRateLimiterBackoff(service, "slow");
+      } else {
+        increase();
+      }
+
+      Metrics.recordRateLimiterState(service, rate, concurrencyLimit);
+      stateChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @VisibleForTesting
+  double getRate() {
+    lock.lock();
+    try {
+      return rate;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @VisibleForTesting
+  double getConcurrencyLimit() {
+    lock.lock();
+    try {
+      return concurrencyLimit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @VisibleForTesting
+  int getWaiting(Priority priority) {
+    lock.lock();
+    try {
+      return waiting.get(priority);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean canStart(Priority priority, long now) {
+    if (now < pausedUntilNanos || tokens < 1.0) {
+      return false;
+    }
+    int slots = (int) Math.floor(concurrencyLimit);
+    if (priority == Priority.BACKGROUND) {
+      if (waiting.get(Priority.INTERACTIVE) > 0) {
+        return false;
+      }
+      // at a limit of one there's nothing to hold back, and only the waiting check above protects interactive work.
+      slots = Math.max(1, slots - BACKGROUND_RESERVED_SLOTS);
+    }
+    return inFlight < slots;
+  }
+
+  private void refill(long now) {
+    long elapsedNanos = now - lastRefillNanos;
+    if (elapsedNanos > 0) {
+      // one second of burst at the current rate, but always room for a single request.
+      double capacity = Math.max(1.0, rate);
+      tokens = Math.min(capacity, tokens + rate * elapsedNanos / 1_000_000_000.0);
+      lastRefillNanos = now;
+    }
+  }
+
+  private long nanosUntilChange(long now) {
+    long untilChange = MAX_WAIT_SLICE_NANOS;
+    if (now < pausedUntilNanos) {
+      untilChange = Math.min(untilChange, pausedUntilNanos - now);
+    } else if (tokens < 1.0) {
+      untilChange = Math.min(untilChange, (long) ((1.0 - tokens) / rate * 1_000_000_000.0));
+    }
+    // releases signal, so the slice only bounds how long a token refill can go unnoticed.
+    return Math.max(1, untilChange);
+  }
+
+  private void increase() {
+    rate = Math.min(MAX_RATE, rate + RATE_INCREASE_PER_SECOND / rate);
+    concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1.0 / concurrencyLimit);
+  }
+
+  private void decrease(long now, double factor) {
+    if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+      return;
+    }
+    lastDecreaseNanos = now;
+    rate = Math.max(MIN_RATE, rate * factor);
+    concurrencyLimit = Math.max(1.0, concurrencyLimit * factor);
+    tokens = Math.min(tokens, Math.max(1.0, rate));
+  }
+
+  public static class Permit {
+    private final long startNanos;
+    private boolean released = false;
+
+    private Permit(long startNanos) {
+      this.startNanos = startNanos;
+    }
+  }
+}
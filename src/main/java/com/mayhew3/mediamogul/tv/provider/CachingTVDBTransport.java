@@ -0,0 +1,397 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.mayhew3.mediamogul.metrics.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache in front of another TVDBTransport for the per-series and per-episode endpoints. Entries younger than their
+ * endpoint's TTL are served without a request; older ones are revalidated with If-None-Match / If-Modified-Since when
+ * TVDB gave us a validator, and refetched otherwise. Total size is capped, evicting least recently used entries first.
+ *
+ * Single-episode responses are keyed by episode id, so each one also records the series it belongs to, taken from the
+ * response itself. That lets invalidateSeries drop them along with the series' own entries.
+ *
+ * Searches, logins and the updated-series feed always go straight through.
+ */
+public class CachingTVDBTransport implements TVDBTransport {
+
+  private enum CachePolicy {
+    SERIES(Pattern.compile("/series/\\d+"), Duration.ofHours(12)),
+    EPISODE_SUMMARIES(Pattern.compile("/series/\\d+/episodes"), Duration.ofHours(12)),
+    POSTERS(Pattern.compile("/series/\\d+/images/query"), Duration.ofDays(7)),
+    EPISODE(Pattern.compile("/episodes/\\d+"), Duration.ofDays(7));
+
+    private final Pattern pathPattern;
+    private final Duration timeToLive;
+
+    CachePolicy(Pattern pathPattern, Duration timeToLive) {
+      this.pathPattern = pathPattern;
+      this.timeToLive = timeToLive;
+    }
+
+    private static Optional<CachePolicy> forUrl(String url) {
+      String path = URI.create(url).getPath();
+      return Arrays.stream(values())
+          .filter(policy -> policy.pathPattern.matcher(path).matches())
+          .findFirst();
+    }
+  }
+
+  // everything fetched through a series' own endpoints shares a file name prefix, so it can be dropped together.
+  private static final Pattern GROUP_PATTERN = Pattern.compile("/(series|episodes)/(\\d+)");
+  private static final String EPISODE_GROUP_PREFIX = "episodes-";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final TVDBTransport delegate;
+  private final Path cacheDirectory;
+  private final long maxBytes;
+  private final Clock clock;
+
+  // access-ordered, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+  // series id of each cached single-episode response, which its episode-keyed file name doesn't carry.
+  private final Map<String, Integer> episodeEntrySeries = new HashMap<>();
+  private long totalBytes = 0;
+
+  private static final long DEFAULT_MAX_MEGABYTES = 256;
+
+  private static final Logger logger = LogManager.getLogger(CachingTVDBTransport.class);
+
+  public CachingTVDBTransport(TVDBTransport delegate, Path cacheDirectory, long maxBytes) throws IOException {
+    this(delegate, cacheDirectory, maxBytes, Clock.systemUTC());
+  }
+
+  @VisibleForTesting
+  CachingTVDBTransport(TVDBTransport delegate, Path cacheDirectory, long maxBytes, Clock clock) throws IOException {
+    this.delegate = delegate;
+    this.cacheDirectory = cacheDirectory;
+    this.maxBytes = maxBytes;
+    this.clock = clock;
+
+    Files.createDirectories(cacheDirectory);
+    deleteLeftoverTempFiles();
+    loadExistingEntries();
+  }
+
+  /**
+   * Cache under TVDB_CACHE_DIR (or the temp directory) up to TVDB_CACHE_MAX_MB. If the directory can't be used, requests
+   * just go uncached.
+   */
+  public static TVDBTransport fromEnvironment(TVDBTransport delegate) {
+    String cacheDir = System.getenv("TVDB_CACHE_DIR");
+    String maxMegabytes = System.getenv("TVDB_CACHE_MAX_MB");
+
+    Path directory = cacheDir == null ?
+        Paths.get(System.getProperty("java.io.tmpdir"), "mediamogul-tvdb-cache") :
+        Paths.get(cacheDir);
+    long maxBytes = (maxMegabytes == null ? DEFAULT_MAX_MEGABYTES : Long.parseLong(maxMegabytes)) * 1024 * 1024;
+
+    try {
+      return new CachingTVDBTransport(delegate, directory, maxBytes);
+    } catch (IOException e) {
+      logger.error("Unable to use TVDB cache directory " + directory + ". Continuing without a cache.", e);
+      return delegate;
+    }
+  }
+
+  @Override
+  public TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) throws IOException {
+    Optional<CachePolicy> policy = CachePolicy.forUrl(url);
+    if (!policy.isPresent()) {
+      Metrics.recordCacheLookup("tvdb", "bypass");
+      return delegate.get(url, queryParams, token, headers);
+    }
+
+    String fileName = fileName(url, queryParams);
+    CachedResponse cached = read(fileName);
+    if (cached != null && cached.isFresh(policy.get(), clock.millis())) {
+      Metrics.recordCacheLookup("tvdb", "hit");
+      return cached.toResponse();
+    }
+
+    TVDBResponse response = delegate.get(url, queryParams, token, withValidators(headers, cached));
+    return handleFetched(fileName, cached, response);
+  }
+
+  @Override
+  public CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+    Optional<CachePolicy> policy = CachePolicy.forUrl(url);
+    if (!policy.isPresent()) {
+      Metrics.recordCacheLookup("tvdb", "bypass");
+      return delegate.getAsync(url, queryParams, token, headers);
+    }
+
+    String fileName = fileName(url, queryParams);
+    CachedResponse cached = read(fileName);
+    if (cached != null && cached.isFresh(policy.get(), clock.millis())) {
+      Metrics.recordCacheLookup("tvdb", "hit");
+      return CompletableFuture.completedFuture(cached.toResponse());
+    }
+
+    return delegate.getAsync(url, queryParams, token, withValidators(headers, cached))
+        .thenApply(response -> handleFetched(fileName, cached, response));
+  }
+
+  @Override
+  public TVDBResponse post(String url, JSONObject body) throws IOException {
+    return delegate.post(url, body);
+  }
+
+  @Override
+  public void invalidateSeries(Integer tvdbSeriesId) {
+    String prefix = "series-" + tvdbSeriesId + ".";
+    List<String> removed;
+    synchronized (this) {
+      removed = entrySizes.keySet().stream()
+          .filter(fileName -> fileName.startsWith(prefix) || tvdbSeriesId.equals(episodeEntrySeries.get(fileName)))
+          .collect(Collectors.toList());
+      removed.forEach(this::removeEntry);
+    }
+    if (!removed.isEmpty()) {
+      logger.debug("Invalidated " + removed.size() + " cached responses for TVDB series " + tvdbSeriesId);
+    }
+    delegate.invalidateSeries(tvdbSeriesId);
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  private TVDBResponse handleFetched(String fileName, @Nullable CachedResponse cached, TVDBResponse response) {
+    if (response.getStatus() == 304 && cached != null) {
+      Metrics.recordCacheLookup("tvdb", "revalidated");
+      write(fileName, cached.refreshed(clock.millis()));
+      return cached.toResponse();
+    }
+    if (response.getStatus() == 200) {
+      Metrics.recordCacheLookup("tvdb", "miss");
+      write(fileName, new CachedResponse(
+          response.getBody(),
+          response.getHeader("ETag"),
+          response.getHeader("Last-Modified"),
+          clock.millis(),
+          fileName.startsWith(EPISODE_GROUP_PREFIX) ? seriesIdOfEpisode(response.getBody()) : null));
+    }
+    return response;
+  }
+
+  private Map<String, String> withValidators(Map<String, String> headers, @Nullable CachedResponse cached) {
+    if (cached == null || (cached.etag == null && cached.lastModified == null)) {
+      return headers;
+    }
+    Map<String, String> conditionalHeaders = new HashMap<>(headers);
+    if (cached.etag != null) {
+      conditionalHeaders.put("If-None-Match", cached.etag);
+    }
+    if (cached.lastModified != null) {
+      conditionalHeaders.put("If-Modified-Since", cached.lastModified);
+    }
+    return conditionalHeaders;
+  }
+
+  @Nullable
+  private Integer seriesIdOfEpisode(String body) {
+    try {
+      JSONObject data = new JSONObject(body).optJSONObject("data");
+      return data == null || data.isNull("seriesId") ? null : data.getInt("seriesId");
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
+  private String fileName(String url, Map<String, Object> queryParams) {
+    String requestKey = url + "?" + new TreeMap<>(queryParams);
+    String hash = Hashing.sha256().hashString(requestKey, StandardCharsets.UTF_8).toString();
+
+    Matcher matcher = GROUP_PATTERN.matcher(URI.create(url).getPath());
+    String group = matcher.find() ? matcher.group(1) + "-" + matcher.group(2) : "other";
+
+    return group + "." + hash + ".json";
+  }
+
+  @Nullable
+  private CachedResponse read(String fileName) {
+    synchronized (this) {
+      // touch the entry for LRU ordering, and skip the disk when we know it isn't there.
+      if (entrySizes.get(fileName) == null) {
+        return null;
+      }
+    }
+    try {
+      String contents = new String(Files.readAllBytes(cacheDirectory.resolve(fileName)), StandardCharsets.UTF_8);
+      return CachedResponse.fromJSON(new JSONObject(contents));
+    } catch (IOException | JSONException e) {
+      // evicted underneath us, or a partial file from a crash. Either way, treat it as a miss.
+      logger.debug("Unable to read cached response " + fileName + ": " + e.getMessage());
+      synchronized (this) {
+        removeEntry(fileName);
+      }
+      return null;
+    }
+  }
+
+  private void write(String fileName, CachedResponse cachedResponse) {
+    byte[] contents = cachedResponse.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+    Path target = cacheDirectory.resolve(fileName);
+    Path temp = null;
+    try {
+      temp = Files.createTempFile(cacheDirectory, fileName, TEMP_SUFFIX);
+      Files.write(temp, contents);
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.warn("Unable to write cached response " + fileName + ": " + e.getMessage());
+      deleteQuietly(temp);
+      return;
+    }
+
+    synchronized (this) {
+      if (cachedResponse.seriesId != null) {
+        episodeEntrySeries.put(fileName, cachedResponse.seriesId);
+      }
+      Long previousSize = entrySizes.put(fileName, (long) contents.length);
+      totalBytes += contents.length - (previousSize == null ? 0 : previousSize);
+      evictOverLimit();
+      Metrics.recordCacheSize("tvdb", totalBytes);
+    }
+  }
+
+  private void evictOverLimit() {
+    Iterator<String> leastRecentlyUsed = new ArrayList<>(entrySizes.keySet()).iterator();
+    while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+      removeEntry(leastRecentlyUsed.next());
+    }
+  }
+
+  private void removeEntry(String fileName) {
+    episodeEntrySeries.remove(fileName);
+    Long size = entrySizes.remove(fileName);
+    if (size != null) {
+      totalBytes -= size;
+    }
+    try {
+      Files.deleteIfExists(cacheDirectory.resolve(fileName));
+    } catch (IOException e) {
+      logger.warn("Unable to delete cached response " + fileName + ": " + e.getMessage());
+    }
+  }
+
+  // oldest files first, so a restart roughly keeps the previous LRU order.
+  private void loadExistingEntries() throws IOException {
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      List<Path> entries = files
+          .filter(path -> path.getFileName().toString().endsWith(".json"))
+          .sorted(Comparator.comparing(path -> path.toFile().lastModified()))
+          .collect(Collectors.toList());
+      for (Path entry : entries) {
+        String fileName = entry.getFileName().toString();
+        long size = Files.size(entry);
+        entrySizes.put(fileName, size);
+        totalBytes += size;
+        if (fileName.startsWith(EPISODE_GROUP_PREFIX)) {
+          loadEpisodeEntrySeries(fileName);
+        }
+      }
+    }
+    synchronized (this) {
+      evictOverLimit();
+    }
+    logger.info("TVDB cache at " + cacheDirectory + " holds " + entrySizes.size() + " responses (" + totalBytes / 1024 + " KB).");
+  }
+
+  private void loadEpisodeEntrySeries(String fileName) {
+    CachedResponse cached = read(fileName);
+    if (cached != null && cached.seriesId != null) {
+      episodeEntrySeries.put(fileName, cached.seriesId);
+    }
+  }
+
+  // writes interrupted by a crash or kill leave their temp file behind, and nothing else will ever clean it up.
+  private void deleteLeftoverTempFiles() throws IOException {
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      List<Path> leftovers = files
+          .filter(path -> path.getFileName().toString().endsWith(TEMP_SUFFIX))
+          .collect(Collectors.toList());
+      leftovers.forEach(this::deleteQuietly);
+      if (!leftovers.isEmpty()) {
+        logger.info("Deleted " + leftovers.size() + " partially written TVDB cache files.");
+      }
+    }
+  }
+
+  private void deleteQuietly(@Nullable Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      logger.warn("Unable to delete " + path + ": " + e.getMessage());
+    }
+  }
+
+  private static class CachedResponse {
+    private final String body;
+    @Nullable private final String etag;
+    @Nullable private final String lastModified;
+    private final long storedAt;
+    @Nullable private final Integer seriesId;
+
+    private CachedResponse(String body, @Nullable String etag, @Nullable String lastModified, long storedAt, @Nullable Integer seriesId) {
+      this.body = body;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.storedAt = storedAt;
+      this.seriesId = seriesId;
+    }
+
+    private boolean isFresh(CachePolicy policy, long nowMillis) {
+      return nowMillis - storedAt < policy.timeToLive.toMillis();
+    }
+
+    private CachedResponse refreshed(long nowMillis) {
+      return new CachedResponse(body, etag, lastModified, nowMillis, seriesId);
+    }
+
+    private TVDBResponse toResponse() {
+      return new TVDBResponse(200, "OK", body);
+    }
+
+    private JSONObject toJSON() {
+      return new JSONObject()
+          .put("body", body)
+          .put("etag", etag == null ? JSONObject.NULL : etag)
+          .put("last_modified", lastModified == null ? JSONObject.NULL : lastModified)
+          .put("stored_at", storedAt)
+          .put("series_id", seriesId == null ? JSONObject.NULL : seriesId);
+    }
+
+    private static CachedResponse fromJSON(JSONObject jsonObject) {
+      return new CachedResponse(
+          jsonObject.getString("body"),
+          jsonObject.isNull("etag") ? null : jsonObject.getString("etag"),
+          jsonObject.isNull("last_modified") ? null : jsonObject.getString("last_modified"),
+          jsonObject.getLong("stored_at"),
+          jsonObject.isNull("series_id") ? null : jsonObject.getInt("series_id"));
+    }
+  }
+}
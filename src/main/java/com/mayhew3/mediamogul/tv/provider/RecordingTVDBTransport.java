@@ -0,0 +1,180 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.mayhew3.mediamogul.tv.provider.ReplayTVDBProvider.*;
+
+/**
+ * Sits directly on the HTTP transport, underneath CachingTVDBTransport, and writes every response that came from TVDB,
+ * with how long it took, into a replay corpus that {@link ReplayTVDBProvider} can serve later. Cache hits never get
+ * here, so the recorded timings are the ones the network actually produced. Failed calls and error statuses are
+ * recorded as failures, so their rate and timing replay too.
+ *
+ * A revalidated response (304) is recorded as a call without a body, keeping the one recorded before. If the corpus
+ * doesn't have that body yet, the validators are dropped so TVDB sends it in full.
+ *
+ * Only the endpoints the replay provider serves are recorded; logins and anything else pass straight through. A
+ * problem writing the corpus is logged and otherwise ignored; it never fails the call being recorded.
+ */
+public class RecordingTVDBTransport implements TVDBTransport {
+
+  private static final Pattern SERIES_PATH = Pattern.compile("/series/(\\d+)");
+  private static final Pattern EPISODES_PATH = Pattern.compile("/series/(\\d+)/episodes");
+  private static final Pattern POSTERS_PATH = Pattern.compile("/series/(\\d+)/images/query");
+  private static final Pattern EPISODE_PATH = Pattern.compile("/episodes/(\\d+)");
+
+  private final TVDBTransport delegate;
+  private final ReplayCorpus corpus;
+
+  private static final Logger logger = LogManager.getLogger(RecordingTVDBTransport.class);
+
+  public RecordingTVDBTransport(TVDBTransport delegate, ReplayCorpus corpus) {
+    this.delegate = delegate;
+    this.corpus = corpus;
+  }
+
+  @Override
+  public TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) throws IOException {
+    RecordedRequest request = RecordedRequest.forUrl(url, queryParams);
+    if (request == null) {
+      return delegate.get(url, queryParams, token, headers);
+    }
+
+    long startNanos = System.nanoTime();
+    TVDBResponse response;
+    try {
+      response = delegate.get(url, queryParams, token, withoutUnrecordedValidators(request, headers));
+    } catch (IOException | RuntimeException e) {
+      recordFailure(request, startNanos);
+      throw e;
+    }
+    record(request, response, startNanos);
+    return response;
+  }
+
+  @Override
+  public CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+    RecordedRequest request = RecordedRequest.forUrl(url, queryParams);
+    if (request == null) {
+      return delegate.getAsync(url, queryParams, token, headers);
+    }
+
+    long startNanos = System.nanoTime();
+    return delegate.getAsync(url, queryParams, token, withoutUnrecordedValidators(request, headers))
+        .whenComplete((response, throwable) -> {
+          if (throwable != null) {
+            recordFailure(request, startNanos);
+          } else {
+            record(request, response, startNanos);
+          }
+        });
+  }
+
+  @Override
+  public TVDBResponse post(String url, JSONObject body) throws IOException {
+    return delegate.post(url, body);
+  }
+
+  @Override
+  public void invalidateSeries(Integer tvdbSeriesId) {
+    delegate.invalidateSeries(tvdbSeriesId);
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  private Map<String, String> withoutUnrecordedValidators(RecordedRequest request, Map<String, String> headers) {
+    if (Files.exists(corpus.resolve(request.fileName)) ||
+        !(headers.containsKey("If-None-Match") || headers.containsKey("If-Modified-Since"))) {
+      return headers;
+    }
+    Map<String, String> unconditionalHeaders = new HashMap<>(headers);
+    unconditionalHeaders.remove("If-None-Match");
+    unconditionalHeaders.remove("If-Modified-Since");
+    return unconditionalHeaders;
+  }
+
+  private void record(RecordedRequest request, TVDBResponse response, long startNanos) {
+    long latencyMillis = millisSince(startNanos);
+    try {
+      if (response.getStatus() == 200) {
+        corpus.recordResponse(request.endpoint, request.fileName, response.getBody(), latencyMillis);
+      } else if (response.getStatus() == 304) {
+        corpus.recordUnchanged(request.endpoint, request.fileName, latencyMillis);
+      } else {
+        corpus.recordFailure(request.endpoint, request.fileName, latencyMillis);
+      }
+    } catch (IOException e) {
+      logger.warn("Unable to record TVDB response for " + request.fileName, e);
+    }
+  }
+
+  private void recordFailure(RecordedRequest request, long startNanos) {
+    try {
+      corpus.recordFailure(request.endpoint, request.fileName, millisSince(startNanos));
+    } catch (IOException e) {
+      logger.warn("Unable to record failed TVDB call for " + request.fileName, e);
+    }
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  private static class RecordedRequest {
+    private final String endpoint;
+    private final String fileName;
+
+    private RecordedRequest(String endpoint, String fileName) {
+      this.endpoint = endpoint;
+      this.fileName = fileName;
+    }
+
+    @Nullable
+    private static RecordedRequest forUrl(String url, Map<String, Object> queryParams) {
+      String path = URI.create(url).getPath();
+
+      if ("/search/series".equals(path) && queryParams.containsKey("name")) {
+        return new RecordedRequest(SEARCH, searchFile(queryParams.get("name").toString()));
+      }
+      if ("/updated/query".equals(path)) {
+        return new RecordedRequest(UPDATED, updatedFile());
+      }
+
+      Matcher matcher = SERIES_PATH.matcher(path);
+      if (matcher.matches()) {
+        return new RecordedRequest(SERIES, seriesFile(Integer.valueOf(matcher.group(1))));
+      }
+      matcher = EPISODES_PATH.matcher(path);
+      if (matcher.matches()) {
+        Object page = queryParams.getOrDefault("page", 1);
+        return new RecordedRequest(EPISODES, episodePageFile(Integer.valueOf(matcher.group(1)), Integer.valueOf(page.toString())));
+      }
+      matcher = POSTERS_PATH.matcher(path);
+      if (matcher.matches()) {
+        return new RecordedRequest(POSTERS, postersFile(Integer.valueOf(matcher.group(1))));
+      }
+      matcher = EPISODE_PATH.matcher(path);
+      if (matcher.matches()) {
+        return new RecordedRequest(EPISODE, episodeFile(Integer.valueOf(matcher.group(1))));
+      }
+      return null;
+    }
+  }
+}
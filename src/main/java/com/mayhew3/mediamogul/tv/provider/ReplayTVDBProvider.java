@@ -0,0 +1,173 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mashape.unirest.http.exceptions.UnirestException;
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
+import com.mayhew3.mediamogul.replay.ReplaySimulator;
+import org.apache.http.auth.AuthenticationException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves TVDB responses from a replay corpus, written by {@link RecordingTVDBTransport} or laid out by hand like the
+ * TVDBTest fixtures, with the latencies and failures the {@link ReplaySimulator} decides on. Lets the whole scheduler
+ * run against production-sized data without TVDB.
+ *
+ * The async fetches run on their own threads, so paged episode fetches overlap the way they do against the real API.
+ */
+public class ReplayTVDBProvider implements TVDBJWTProvider {
+
+  static final String SEARCH = "search";
+  static final String SERIES = "series";
+  static final String EPISODES = "episodes";
+  static final String EPISODE = "episode";
+  static final String POSTERS = "posters";
+  static final String UPDATED = "updated";
+
+  private static final ExecutorService replayExecutor = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("tvdb-replay-%d")
+          .setDaemon(true)
+          .build());
+
+  private final ReplayCorpus corpus;
+  private final ReplaySimulator simulator;
+
+  public ReplayTVDBProvider(ReplayCorpus corpus, ReplaySimulator simulator) {
+    this.corpus = corpus;
+    this.simulator = simulator;
+  }
+
+  public static ReplayTVDBProvider fromEnvironment(Path directory) throws IOException {
+    ReplayCorpus corpus = new ReplayCorpus(directory);
+    return new ReplayTVDBProvider(corpus, ReplaySimulator.fromEnvironment(corpus));
+  }
+
+  static String searchFile(String formattedTitle) {
+    return "search_" + ReplayCorpus.safeFileName(formattedTitle) + ".json";
+  }
+
+  static String seriesFile(Integer tvdbSeriesId) {
+    return tvdbSeriesId + "_summary.json";
+  }
+
+  // page 1 has the fixtures' name, so a hand-made single page series replays as well.
+  static String episodePageFile(Integer tvdbSeriesId, Integer pageNumber) {
+    return pageNumber == 1 ?
+        tvdbSeriesId + "_episodes.json" :
+        tvdbSeriesId + "_episodes_" + pageNumber + ".json";
+  }
+
+  static String episodeFile(Integer tvdbEpisodeId) {
+    return "E" + tvdbEpisodeId + ".json";
+  }
+
+  static String postersFile(Integer tvdbId) {
+    return tvdbId + "_posters.json";
+  }
+
+  static String updatedFile() {
+    return "_updated.json";
+  }
+
+  @Override
+  public JSONObject findSeriesMatches(String formattedTitle) throws UnirestException {
+    return replay(SEARCH, searchFile(formattedTitle), this::parseJSONObject);
+  }
+
+  @Override
+  public JSONObject getSeriesData(Integer tvdbSeriesId) throws UnirestException {
+    return replay(SERIES, seriesFile(tvdbSeriesId), this::parseJSONObject);
+  }
+
+  @Override
+  public TVDBSeriesRecord getSeriesRecord(Integer tvdbSeriesId) throws UnirestException {
+    return replay(SERIES, seriesFile(tvdbSeriesId), TVDBJsonDecoder::decodeSeries);
+  }
+
+  @Override
+  public JSONObject getEpisodeSummaries(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException {
+    return replay(EPISODES, episodePageFile(tvdbSeriesId, pageNumber), this::parseJSONObject);
+  }
+
+  @Override
+  public TVDBEpisodePage getEpisodePage(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException {
+    return replay(EPISODES, episodePageFile(tvdbSeriesId, pageNumber), TVDBJsonDecoder::decodeEpisodePage);
+  }
+
+  @Override
+  public JSONObject getEpisodeData(Integer tvdbEpisodeId) throws UnirestException {
+    return replay(EPISODE, episodeFile(tvdbEpisodeId), this::parseJSONObject);
+  }
+
+  @Override
+  public JSONObject getPosterData(Integer tvdbId) throws UnirestException {
+    return replay(POSTERS, postersFile(tvdbId), this::parseJSONObject);
+  }
+
+  @Override
+  public JSONObject getUpdatedSeries(Timestamp fromDate) throws UnirestException {
+    return replay(UPDATED, updatedFile(), this::parseJSONObject);
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> getSeriesDataAsync(Integer tvdbSeriesId) {
+    return async(() -> getSeriesData(tvdbSeriesId));
+  }
+
+  @Override
+  public CompletableFuture<TVDBEpisodePage> getEpisodePageAsync(Integer tvdbSeriesId, Integer pageNumber) {
+    return async(() -> getEpisodePage(tvdbSeriesId, pageNumber));
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> getEpisodeDataAsync(Integer tvdbEpisodeId) {
+    return async(() -> getEpisodeData(tvdbEpisodeId));
+  }
+
+  @Override
+  public CompletableFuture<JSONObject> getPosterDataAsync(Integer tvdbId) {
+    return async(() -> getPosterData(tvdbId));
+  }
+
+  private <T> T replay(String endpoint, String fileName, PayloadDecoder<T> decoder) throws UnirestException {
+    if (!simulator.nextCall(endpoint, fileName)) {
+      throw new UnirestException("Replayed failure for " + fileName);
+    }
+    Path path = corpus.resolve(fileName);
+    if (!Files.exists(path)) {
+      throw new UnirestException("No recorded response for " + fileName);
+    }
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      return decoder.decode(reader);
+    } catch (IOException | IllegalStateException | JSONException e) {
+      throw new UnirestException(new IOException("Unable to replay " + path, e));
+    }
+  }
+
+  private JSONObject parseJSONObject(Reader reader) {
+    return new JSONObject(new JSONTokener(reader));
+  }
+
+  private static <T> CompletableFuture<T> async(BlockingFetch<T> fetch) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return fetch.fetch();
+      } catch (UnirestException | AuthenticationException e) {
+        throw new CompletionException(e);
+      }
+    }, replayExecutor);
+  }
+}
@@ -0,0 +1,32 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * One page of a series' episode list, decoded by {@link TVDBJsonDecoder}.
+ */
+public class TVDBEpisodePage {
+
+  private final List<TVDBEpisodeRecord> episodes;
+  @Nullable
+  private final Integer lastPage;
+
+  TVDBEpisodePage(List<TVDBEpisodeRecord> episodes, @Nullable Integer lastPage) {
+    this.episodes = episodes;
+    this.lastPage = lastPage;
+  }
+
+  public List<TVDBEpisodeRecord> getEpisodes() {
+    return episodes;
+  }
+
+  /**
+   * From the page's links. Null if TVDB left it out, which it does when there are no episodes.
+   */
+  @Nullable
+  public Integer getLastPage() {
+    return lastPage;
+  }
+}
@@ -0,0 +1,128 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One episode from a TVDB episode page, holding just the fields the updaters read. Filled in by {@link TVDBJsonDecoder};
+ * blank strings are already null, as they are from JSONReader.
+ */
+public class TVDBEpisodeRecord {
+
+  @Nullable Integer id;
+  @Nullable Integer airedEpisodeNumber;
+  @Nullable String episodeName;
+  @Nullable Integer airedSeason;
+  @Nullable String firstAired;
+  @Nullable Integer absoluteNumber;
+  @Nullable String overview;
+  @Nullable String productionCode;
+  @Nullable Double siteRating;
+  @Nullable Integer siteRatingCount;
+  @Nullable String director;
+  @Nullable Integer lastUpdated;
+  @Nullable Integer airedSeasonID;
+  @Nullable String filename;
+  @Nullable Integer airsAfterSeason;
+  @Nullable Integer airsBeforeSeason;
+  @Nullable Integer airsBeforeEpisode;
+  @Nullable String thumbHeight;
+  @Nullable String thumbWidth;
+
+  TVDBEpisodeRecord() {
+  }
+
+  @Nullable
+  public Integer getId() {
+    return id;
+  }
+
+  @Nullable
+  public Integer getAiredEpisodeNumber() {
+    return airedEpisodeNumber;
+  }
+
+  @Nullable
+  public String getEpisodeName() {
+    return episodeName;
+  }
+
+  @Nullable
+  public Integer getAiredSeason() {
+    return airedSeason;
+  }
+
+  @Nullable
+  public String getFirstAired() {
+    return firstAired;
+  }
+
+  @Nullable
+  public Integer getAbsoluteNumber() {
+    return absoluteNumber;
+  }
+
+  @Nullable
+  public String getOverview() {
+    return overview;
+  }
+
+  @Nullable
+  public String getProductionCode() {
+    return productionCode;
+  }
+
+  @Nullable
+  public Double getSiteRating() {
+    return siteRating;
+  }
+
+  @Nullable
+  public Integer getSiteRatingCount() {
+    return siteRatingCount;
+  }
+
+  @Nullable
+  public String getDirector() {
+    return director;
+  }
+
+  @Nullable
+  public Integer getLastUpdated() {
+    return lastUpdated;
+  }
+
+  @Nullable
+  public Integer getAiredSeasonID() {
+    return airedSeasonID;
+  }
+
+  @Nullable
+  public String getFilename() {
+    return filename;
+  }
+
+  @Nullable
+  public Integer getAirsAfterSeason() {
+    return airsAfterSeason;
+  }
+
+  @Nullable
+  public Integer getAirsBeforeSeason() {
+    return airsBeforeSeason;
+  }
+
+  @Nullable
+  public Integer getAirsBeforeEpisode() {
+    return airsBeforeEpisode;
+  }
+
+  @Nullable
+  public String getThumbHeight() {
+    return thumbHeight;
+  }
+
+  @Nullable
+  public String getThumbWidth() {
+    return thumbWidth;
+  }
+}
@@ -0,0 +1,221 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Dedicated HTTP client for api.thetvdb.com, so TVDB calls stop sharing Unirest's global default client. Connections are
+ * kept alive in a sized pool to avoid a TLS handshake per request, responses are gzipped, and every request has connect
+ * and read timeouts. Async requests run on a bounded executor the same size as the pool.
+ *
+ * Every request that reaches the network goes through a rate limiter, by default the one shared by all TVDB callers in
+ * the process, at the priority of the thread that made the call.
+ */
+public class TVDBHttpTransport implements TVDBTransport {
+
+  private final CloseableHttpClient httpClient;
+  private final ExecutorService asyncExecutor;
+  private final AdaptiveRateLimiter rateLimiter;
+
+  private static final int DEFAULT_MAX_CONNECTIONS = 10;
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_MILLIS = 30000;
+  private static final int POOL_WAIT_MILLIS = 30000;
+  private static final int CONNECTION_TTL_SECONDS = 300;
+  private static final int IDLE_EVICTION_SECONDS = 60;
+
+  private static final Logger logger = LogManager.getLogger(TVDBHttpTransport.class);
+
+  public TVDBHttpTransport() {
+    this(DEFAULT_MAX_CONNECTIONS);
+  }
+
+  public TVDBHttpTransport(int maxConnections) {
+    this(maxConnections, AdaptiveRateLimiter.TVDB);
+  }
+
+  public TVDBHttpTransport(int maxConnections, AdaptiveRateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(CONNECTION_TTL_SECONDS, TimeUnit.SECONDS);
+    // everything goes to the one host, so the per-route limit is the real limit.
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+        .setSocketTimeout(READ_TIMEOUT_MILLIS)
+        .setConnectionRequestTimeout(POOL_WAIT_MILLIS)
+        .build();
+
+    // content compression is on by default: requests send Accept-Encoding and gzipped responses are decoded.
+    httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections(IDLE_EVICTION_SECONDS, TimeUnit.SECONDS)
+        .build();
+
+    asyncExecutor = Executors.newFixedThreadPool(maxConnections, new ThreadFactoryBuilder()
+        .setNameFormat("tvdb-http-%d")
+        .setDaemon(true)
+        .build());
+  }
+
+  @Override
+  public TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) throws IOException {
+    return get(url, queryParams, token, headers, AdaptiveRateLimiter.getCurrentPriority());
+  }
+
+  private TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers, AdaptiveRateLimiter.Priority priority) throws IOException {
+    HttpGet request = new HttpGet(buildUri(url, queryParams));
+    addHeaders(request, token);
+    request.setHeader("Accept-Language", "en");
+    headers.forEach(request::setHeader);
+    return execute(request, priority);
+  }
+
+  @Override
+  public CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+    CompletableFuture<TVDBResponse> future = new CompletableFuture<>();
+    // the executor's threads are shared, so the priority has to come from the caller.
+    AdaptiveRateLimiter.Priority priority = AdaptiveRateLimiter.getCurrentPriority();
+    try {
+      asyncExecutor.execute(() -> {
+        try {
+          future.complete(get(url, queryParams, token, headers, priority));
+        } catch (IOException | RuntimeException e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public TVDBResponse post(String url, JSONObject body) throws IOException {
+    HttpPost request = new HttpPost(url);
+    addHeaders(request, null);
+    request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+    return execute(request, AdaptiveRateLimiter.getCurrentPriority());
+  }
+
+  @Override
+  public void close() {
+    asyncExecutor.shutdownNow();
+    try {
+      httpClient.close();
+    } catch (IOException e) {
+      logger.warn("Error closing TVDB HTTP client.", e);
+    }
+  }
+
+  private void addHeaders(HttpRequestBase request, @Nullable String token) {
+    request.setHeader("Content-Type", "application/json");
+    request.setHeader("Accept", "application/json");
+    if (token != null) {
+      request.setHeader("Authorization", "Bearer " + token);
+    }
+  }
+
+  private TVDBResponse execute(HttpRequestBase request, AdaptiveRateLimiter.Priority priority) throws IOException {
+    AdaptiveRateLimiter.Permit permit;
+    try {
+      permit = rateLimiter.acquire(priority);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to send TVDB request.");
+    }
+
+    AdaptiveRateLimiter.Outcome outcome = AdaptiveRateLimiter.Outcome.FAILED;
+    Long retryAfterMillis = null;
+    try {
+      TVDBResponse response = executeRequest(request);
+      outcome = getOutcome(response.getStatus());
+      retryAfterMillis = getRetryAfterMillis(response);
+      return response;
+    } finally {
+      rateLimiter.release(permit, outcome, retryAfterMillis);
+    }
+  }
+
+  private AdaptiveRateLimiter.Outcome getOutcome(int status) {
+    if (status == 429) {
+      return AdaptiveRateLimiter.Outcome.THROTTLED;
+    } else if (status >= 500) {
+      return AdaptiveRateLimiter.Outcome.SERVER_ERROR;
+    } else {
+      return AdaptiveRateLimiter.Outcome.SUCCESS;
+    }
+  }
+
+  // only the delay-seconds form of Retry-After is read; an HTTP-date just gets the normal backoff.
+  @Nullable
+  private Long getRetryAfterMillis(TVDBResponse response) {
+    String retryAfter = response.getHeader("Retry-After");
+    if (retryAfter == null) {
+      return null;
+    }
+    try {
+      return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private TVDBResponse executeRequest(HttpRequestBase request) throws IOException {
+    try (CloseableHttpResponse response = httpClient.execute(request)) {
+      HttpEntity entity = response.getEntity();
+      // reading the entity fully is what hands the connection back to the pool for reuse.
+      String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+      Map<String, String> headers = new HashMap<>();
+      for (Header header : response.getAllHeaders()) {
+        headers.put(header.getName(), header.getValue());
+      }
+      return new TVDBResponse(
+          response.getStatusLine().getStatusCode(),
+          response.getStatusLine().getReasonPhrase(),
+          body,
+          headers);
+    }
+  }
+
+  private URI buildUri(String url, Map<String, Object> queryParams) throws IOException {
+    try {
+      URIBuilder uriBuilder = new URIBuilder(url);
+      for (Map.Entry<String, Object> param : queryParams.entrySet()) {
+        uriBuilder.addParameter(param.getKey(), String.valueOf(param.getValue()));
+      }
+      return uriBuilder.build();
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid TVDB url: " + url, e);
+    }
+  }
+}
@@ -4,7 +4,11 @@ import com.mashape.unirest.http.exceptions.UnirestException;
 import org.apache.http.auth.AuthenticationException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
 
 public interface TVDBJWTProvider {
 
@@ -20,6 +24,68 @@ public interface TVDBJWTProvider {
 
   JSONObject getUpdatedSeries(Timestamp fromDate) throws UnirestException, AuthenticationException;
 
+  // Typed versions of the series and episode fetches, for the updaters. A provider that can decode straight from the
+  // response should override these; the defaults go through the JSONObject versions.
+
+  default TVDBSeriesRecord getSeriesRecord(Integer tvdbSeriesId) throws UnirestException, AuthenticationException {
+    return decode(getSeriesData(tvdbSeriesId).toString(), TVDBJsonDecoder::decodeSeries);
+  }
+
+  default TVDBEpisodePage getEpisodePage(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException, AuthenticationException {
+    return decode(getEpisodeSummaries(tvdbSeriesId, pageNumber).toString(), TVDBJsonDecoder::decodeEpisodePage);
+  }
+
+  /**
+   * Called when TVDB reports a series changed, so the next fetch for it doesn't come from a local cache.
+   */
+  default void invalidateSeries(Integer tvdbSeriesId) {
+  }
+
+  // Non-blocking versions of the per-series fetches. These defaults just run the blocking call, for providers that
+  // have nothing better to offer, like the local JSON one used in tests.
+
+  default CompletableFuture<JSONObject> getSeriesDataAsync(Integer tvdbSeriesId) {
+    return completed(() -> getSeriesData(tvdbSeriesId));
+  }
+
+  default CompletableFuture<TVDBEpisodePage> getEpisodePageAsync(Integer tvdbSeriesId, Integer pageNumber) {
+    return completed(() -> getEpisodePage(tvdbSeriesId, pageNumber));
+  }
+
+  default CompletableFuture<JSONObject> getEpisodeDataAsync(Integer tvdbEpisodeId) {
+    return completed(() -> getEpisodeData(tvdbEpisodeId));
+  }
+
+  default CompletableFuture<JSONObject> getPosterDataAsync(Integer tvdbId) {
+    return completed(() -> getPosterData(tvdbId));
+  }
+
+  private static <T> CompletableFuture<T> completed(BlockingFetch<T> fetch) {
+    try {
+      return CompletableFuture.completedFuture(fetch.fetch());
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static <T> T decode(String body, PayloadDecoder<T> decoder) throws UnirestException {
+    try {
+      return decoder.decode(new StringReader(body));
+    } catch (IOException e) {
+      throw new UnirestException(e);
+    }
+  }
+
+  @FunctionalInterface
+  interface BlockingFetch<T> {
+    T fetch() throws UnirestException, AuthenticationException;
+  }
+
+  @FunctionalInterface
+  interface PayloadDecoder<T> {
+    T decode(Reader reader) throws IOException;
+  }
+
   public class EpisodeDetail {
     public Integer seriesNumber;
     public Integer episodeNumber;
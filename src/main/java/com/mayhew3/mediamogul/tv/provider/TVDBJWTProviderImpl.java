@@ -1,12 +1,10 @@
 package com.mayhew3.mediamogul.tv.provider;
 
-import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
-import com.mashape.unirest.request.HttpRequest;
+import com.mayhew3.mediamogul.AccessTokenManager;
 import com.mayhew3.mediamogul.ExternalServiceHandler;
+import com.mayhew3.mediamogul.metrics.Metrics;
 import com.mayhew3.postgresobject.EnvironmentChecker;
 import com.mayhew3.postgresobject.exception.MissingEnvException;
 import org.apache.http.auth.AuthenticationException;
@@ -20,31 +18,45 @@ import org.json.JSONObject;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 public class TVDBJWTProviderImpl implements TVDBJWTProvider {
-  private String token = null;
+  private final AccessTokenManager tokenManager;
   private ExternalServiceHandler externalServiceHandler;
   private String tvdbApiKey;
+  private final TVDBTransport transport;
+
+  // TVDB tokens last a day; used when the token doesn't say when it expires.
+  private static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofHours(24);
+  private static final Duration TOKEN_REFRESH_AHEAD = Duration.ofHours(1);
 
   private static Logger logger = LogManager.getLogger(TVDBJWTProviderImpl.class);
 
   public TVDBJWTProviderImpl(ExternalServiceHandler externalServiceHandler) throws UnirestException, MissingEnvException {
-    tvdbApiKey = EnvironmentChecker.getOrThrow("TVDB_API_KEY");
-    if (token == null) {
-      token = getToken();
-    }
+    this(externalServiceHandler, new TVDBHttpTransport());
+  }
+
+  public TVDBJWTProviderImpl(ExternalServiceHandler externalServiceHandler, TVDBTransport transport) throws UnirestException, MissingEnvException {
+    this.transport = transport;
     this.externalServiceHandler = externalServiceHandler;
+    tvdbApiKey = EnvironmentChecker.getOrThrow("TVDB_API_KEY");
+    tokenManager = new AccessTokenManager("tvdb", this::fetchToken, externalServiceHandler, TOKEN_REFRESH_AHEAD);
+    tokenManager.start();
   }
 
 
   @Override
   public JSONObject findSeriesMatches(String formattedTitle) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/search/series";
 
     Map<String, Object> queryParams = Maps.newHashMap();
@@ -55,17 +67,27 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
 
   @Override
   public JSONObject getSeriesData(Integer tvdbSeriesId) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId;
 
     return getData(seriesUrl);
   }
 
   @Override
-  public JSONObject getEpisodeSummaries(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
+  public CompletableFuture<JSONObject> getSeriesDataAsync(Integer tvdbSeriesId) {
+    String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId;
 
+    return getDataAsync(seriesUrl, Maps.newHashMap(), this::getJsonObject);
+  }
+
+  @Override
+  public TVDBSeriesRecord getSeriesRecord(Integer tvdbSeriesId) throws UnirestException, AuthenticationException {
+    String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId;
+
+    return decodeBody(getStringData(seriesUrl), TVDBJsonDecoder::decodeSeries);
+  }
+
+  @Override
+  public JSONObject getEpisodeSummaries(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException, AuthenticationException {
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId + "/episodes";
 
     Map<String, Object> queryParams = Maps.newHashMap();
@@ -75,18 +97,41 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
   @Override
-  public JSONObject getEpisodeData(Integer tvdbEpisodeId) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
+  public TVDBEpisodePage getEpisodePage(Integer tvdbSeriesId, Integer pageNumber) throws UnirestException, AuthenticationException {
+    String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId + "/episodes";
+
+    Map<String, Object> queryParams = Maps.newHashMap();
+    queryParams.put("page", pageNumber);
+
+    return decodeBody(getStringData(seriesUrl, queryParams), TVDBJsonDecoder::decodeEpisodePage);
+  }
+
+  @Override
+  public CompletableFuture<TVDBEpisodePage> getEpisodePageAsync(Integer tvdbSeriesId, Integer pageNumber) {
+    String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId + "/episodes";
+
+    Map<String, Object> queryParams = Maps.newHashMap();
+    queryParams.put("page", pageNumber);
 
+    return getDataAsync(seriesUrl, queryParams, response -> decodeBody(response, TVDBJsonDecoder::decodeEpisodePage));
+  }
+
+  @Override
+  public JSONObject getEpisodeData(Integer tvdbEpisodeId) throws UnirestException, AuthenticationException {
     String seriesUrl = "https://api.thetvdb.com/episodes/" + tvdbEpisodeId;
 
     return getData(seriesUrl);
   }
 
   @Override
-  public JSONObject getPosterData(Integer tvdbId) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
+  public CompletableFuture<JSONObject> getEpisodeDataAsync(Integer tvdbEpisodeId) {
+    String seriesUrl = "https://api.thetvdb.com/episodes/" + tvdbEpisodeId;
+
+    return getDataAsync(seriesUrl, Maps.newHashMap(), this::getJsonObject);
+  }
 
+  @Override
+  public JSONObject getPosterData(Integer tvdbId) throws UnirestException, AuthenticationException {
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbId + "/images/query";
 
     Map<String, Object> queryParams = Maps.newHashMap();
@@ -96,9 +141,17 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
   @Override
-  public JSONObject getUpdatedSeries(Timestamp fromDate) throws UnirestException, AuthenticationException {
-    Preconditions.checkState(token != null);
+  public CompletableFuture<JSONObject> getPosterDataAsync(Integer tvdbId) {
+    String seriesUrl = "https://api.thetvdb.com/series/" + tvdbId + "/images/query";
+
+    Map<String, Object> queryParams = Maps.newHashMap();
+    queryParams.put("keyType", "poster");
 
+    return getDataAsync(seriesUrl, queryParams, this::getJsonObject);
+  }
+
+  @Override
+  public JSONObject getUpdatedSeries(Timestamp fromDate) throws UnirestException, AuthenticationException {
     long epochTime = getEpochTime(fromDate);
 
     debug("Epoch time: " + epochTime);
@@ -111,13 +164,16 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
     return getData(seriesUrl, queryParams);
   }
 
+  @Override
+  public void invalidateSeries(Integer tvdbSeriesId) {
+    transport.invalidateSeries(tvdbSeriesId);
+  }
+
   public long getEpochTime(Timestamp fromDate) {
     return fromDate.getTime() / 1000L;
   }
 
   public void writeSearchToFile(String formattedTitle) throws UnirestException, IOException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/search/series";
 
     Map<String, Object> queryParams = Maps.newHashMap();
@@ -131,8 +187,6 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
   public void writeSeriesToFile(Integer tvdbId) throws UnirestException, IOException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbId;
 
     JSONObject jsonObject = getData(seriesUrl);
@@ -143,8 +197,6 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
   public void writePostersToFile(Integer tvdbSeriesId) throws UnirestException, IOException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId + "/images/query";
 
     Map<String, Object> queryParams = Maps.newHashMap();
@@ -165,8 +217,6 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
   private void writeEpisodeDetailToFile(Integer tvdbSeriesId, Integer seasonNumber, Integer episodeNumber) throws UnirestException, IOException, AuthenticationException {
-    Preconditions.checkState(token != null);
-
     String seriesUrl = "https://api.thetvdb.com/series/" + tvdbSeriesId + "/episodes/query";
     Map<String, Object> params = Maps.newHashMap();
     params.put("airedSeason", seasonNumber);
@@ -202,20 +252,34 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
   }
 
 
-  private String getToken() throws UnirestException {
+  private AccessTokenManager.AccessToken fetchToken() throws UnirestException {
     String urlString = "https://api.thetvdb.com/login";
-    HttpRequest httpRequest = Unirest.post(urlString)
-        .header("Content-Type", "application/json")
-        .header("Accept", "application/json")
-        .body(new JSONObject().put("apikey", tvdbApiKey))
-        .getHttpRequest();
-
-    HttpResponse<String> responseAsString = httpRequest.asString();
+    try {
+      TVDBResponse responseAsString = transport.post(urlString, new JSONObject().put("apikey", tvdbApiKey));
+      String token = parseResponse(responseAsString);
+      return new AccessTokenManager.AccessToken(token, getExpiration(token));
+    } catch (IOException e) {
+      throw new UnirestException(e);
+    }
+  }
 
-    return parseResponse(responseAsString);
+  // the token is a JWT, whose payload has the expiry as epoch seconds.
+  private Instant getExpiration(String token) {
+    String[] parts = token.split("\\.");
+    if (parts.length == 3) {
+      try {
+        JSONObject payload = new JSONObject(new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8));
+        if (payload.has("exp")) {
+          return Instant.ofEpochSecond(payload.getLong("exp"));
+        }
+      } catch (IllegalArgumentException | JSONException e) {
+        debug("Unable to read expiry from TVDB token: " + e.getMessage());
+      }
+    }
+    return Instant.now().plus(DEFAULT_TOKEN_LIFETIME);
   }
 
-  private String parseResponse(HttpResponse<String> responseAsString) throws UnirestException {
+  private String parseResponse(TVDBResponse responseAsString) throws UnirestException {
     try {
       JSONObject jsonObject = new JSONObject(responseAsString.getBody());
 
@@ -234,17 +298,21 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
     }
   }
 
-  private HttpResponse<String> getStringData(String url, Map<String, Object> queryParams) throws UnirestException, AuthenticationException {
-    HttpResponse<String> response = getDataInternal(url, queryParams);
+  private TVDBResponse getStringData(String url, Map<String, Object> queryParams) throws UnirestException, AuthenticationException {
+    String token = tokenManager.getToken();
+    return handleResponse(url, queryParams, token, getDataInternal(url, queryParams, token));
+  }
 
+  private TVDBResponse handleResponse(String url, Map<String, Object> queryParams, String token, TVDBResponse response) throws UnirestException, AuthenticationException {
     if (response.getStatus() == 200) {
       externalServiceHandler.connectionSuccess();
       return response;
     } else if ("Unauthorized".equals(response.getStatusText())) {
-      logger.info("Refreshing token...");
+      // tokens are normally replaced before they expire, so this one was revoked or the saved one went stale.
+      logger.info("Token rejected. Refreshing...");
 
-      token = getToken();
-      response = getDataInternal(url, queryParams);
+      String refreshedToken = tokenManager.refreshAfterRejection(token);
+      response = getDataInternal(url, queryParams, refreshedToken);
 
       if ("Unauthorized".equals(response.getStatusText())) {
         externalServiceHandler.connectionFailed();
@@ -259,23 +327,50 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
     }
   }
 
-  private HttpResponse<String> getDataInternal(String url, Map<String, Object> queryParams) throws UnirestException {
-    return Unirest.get(url)
-        .header("Content-Type", "application/json")
-        .header("Accept", "application/json")
-        .header("Authorization", "Bearer " + token)
-        .header("Accept-Language", "en")
-        .queryString(queryParams)
-        .asString();
+  private TVDBResponse getDataInternal(String url, Map<String, Object> queryParams, String token) throws UnirestException {
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      TVDBResponse response = transport.get(url, queryParams, token);
+      succeeded = response.getStatus() == 200;
+      return response;
+    } catch (IOException e) {
+      throw new UnirestException(e);
+    } finally {
+      Metrics.recordExternalRequest("tvdb", startNanos, succeeded);
+    }
+  }
+
+  // after a 401 the token refresh and retry run on the transport thread that got the 401.
+  private <T> CompletableFuture<T> getDataAsync(String url, Map<String, Object> queryParams, ResponseDecoder<T> decoder) {
+    String token;
+    try {
+      token = tokenManager.getToken();
+    } catch (UnirestException e) {
+      CompletableFuture<T> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    long startNanos = System.nanoTime();
+    return transport.getAsync(url, queryParams, token)
+        .whenComplete((response, throwable) ->
+            Metrics.recordExternalRequest("tvdb", startNanos, response != null && response.getStatus() == 200))
+        .thenApply(response -> {
+          try {
+            return decoder.decode(handleResponse(url, queryParams, token, response));
+          } catch (UnirestException | AuthenticationException e) {
+            throw new CompletionException(e);
+          }
+        });
   }
 
   private JSONObject getData(String url) throws UnirestException, AuthenticationException {
-    HttpResponse<String> stringData = getStringData(url);
+    TVDBResponse stringData = getStringData(url);
     return getJsonObject(stringData);
   }
 
   @NotNull
-  private JSONObject getJsonObject(HttpResponse<String> stringData) {
+  private JSONObject getJsonObject(TVDBResponse stringData) {
     String body = stringData.getBody();
     try {
       return new JSONObject(body);
@@ -286,12 +381,29 @@ public class TVDBJWTProviderImpl implements TVDBJWTProvider {
     }
   }
 
+  // the body is decoded into records as it's read, without a JSONObject in between.
+  private <T> T decodeBody(TVDBResponse response, PayloadDecoder<T> decoder) throws UnirestException {
+    String body = response.getBody();
+    try {
+      return decoder.decode(new StringReader(body));
+    } catch (IOException | IllegalStateException e) {
+      debug("Unable to parse response: ");
+      debug(body);
+      throw new UnirestException(e);
+    }
+  }
+
+  @FunctionalInterface
+  private interface ResponseDecoder<T> {
+    T decode(TVDBResponse response) throws UnirestException;
+  }
+
   private JSONObject getData(String url, Map<String, Object> queryParams) throws UnirestException, AuthenticationException {
-    HttpResponse<String> stringData = getStringData(url, queryParams);
+    TVDBResponse stringData = getStringData(url, queryParams);
     return getJsonObject(stringData);
   }
 
-  private HttpResponse<String> getStringData(String url) throws UnirestException, AuthenticationException {
+  private TVDBResponse getStringData(String url) throws UnirestException, AuthenticationException {
     return getStringData(url, Maps.newHashMap());
   }
 
@@ -0,0 +1,250 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mayhew3.mediamogul.xml.JSONStreamValues.*;
+
+/**
+ * Decodes TVDB's series and episode payloads straight from the response text into records, one token at a time, so a
+ * page of episodes never exists as a tree of JSONObjects. Fields the updaters don't read are skipped without being
+ * decoded.
+ */
+public final class TVDBJsonDecoder {
+
+  private TVDBJsonDecoder() {
+  }
+
+  /**
+   * The body of /series/{id}/episodes.
+   */
+  public static TVDBEpisodePage decodeEpisodePage(Reader reader) throws IOException {
+    try (JsonReader json = new JsonReader(reader)) {
+      List<TVDBEpisodeRecord> episodes = new ArrayList<>();
+      Integer lastPage = null;
+
+      json.beginObject();
+      while (json.hasNext()) {
+        String name = json.nextName();
+        if ("data".equals(name)) {
+          episodes = readObjectArray(json, TVDBJsonDecoder::readEpisode);
+        } else if ("links".equals(name)) {
+          lastPage = readLastPage(json);
+        } else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
+
+      return new TVDBEpisodePage(episodes, lastPage);
+    }
+  }
+
+  /**
+   * A single episode object on its own, as it appears in a page's data array.
+   */
+  public static TVDBEpisodeRecord decodeEpisode(Reader reader) throws IOException {
+    try (JsonReader json = new JsonReader(reader)) {
+      return readEpisode(json);
+    }
+  }
+
+  /**
+   * The body of /series/{id}.
+   */
+  public static TVDBSeriesRecord decodeSeries(Reader reader) throws IOException {
+    try (JsonReader json = new JsonReader(reader)) {
+      TVDBSeriesRecord series = null;
+
+      json.beginObject();
+      while (json.hasNext()) {
+        if ("data".equals(json.nextName())) {
+          series = readSeries(json);
+        } else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
+
+      if (series == null) {
+        throw new IllegalStateException("TVDB series response has no data.");
+      }
+      return series;
+    }
+  }
+
+  @Nullable
+  private static Integer readLastPage(JsonReader json) throws IOException {
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return null;
+    }
+    Integer lastPage = null;
+    json.beginObject();
+    while (json.hasNext()) {
+      if ("last".equals(json.nextName())) {
+        lastPage = readNullableInteger(json);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return lastPage;
+  }
+
+  private static TVDBEpisodeRecord readEpisode(JsonReader json) throws IOException {
+    TVDBEpisodeRecord episode = new TVDBEpisodeRecord();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      switch (name) {
+        case "id":
+          episode.id = readNullableInteger(json);
+          break;
+        case "airedEpisodeNumber":
+          episode.airedEpisodeNumber = readNullableInteger(json);
+          break;
+        case "episodeName":
+          episode.episodeName = readNullableString(json);
+          break;
+        case "airedSeason":
+          episode.airedSeason = readNullableInteger(json);
+          break;
+        case "firstAired":
+          episode.firstAired = readNullableString(json);
+          break;
+        case "absoluteNumber":
+          episode.absoluteNumber = readNullableInteger(json);
+          break;
+        case "overview":
+          episode.overview = readNullableString(json);
+          break;
+        case "productionCode":
+          episode.productionCode = readNullableString(json);
+          break;
+        case "siteRating":
+          episode.siteRating = readNullableDouble(json);
+          break;
+        case "siteRatingCount":
+          episode.siteRatingCount = readNullableInteger(json);
+          break;
+        case "director":
+          episode.director = readNullableString(json);
+          break;
+        case "lastUpdated":
+          episode.lastUpdated = readNullableInteger(json);
+          break;
+        case "airedSeasonID":
+          episode.airedSeasonID = readNullableInteger(json);
+          break;
+        case "filename":
+          episode.filename = readNullableString(json);
+          break;
+        case "airsAfterSeason":
+          episode.airsAfterSeason = readNullableInteger(json);
+          break;
+        case "airsBeforeSeason":
+          episode.airsBeforeSeason = readNullableInteger(json);
+          break;
+        case "airsBeforeEpisode":
+          episode.airsBeforeEpisode = readNullableInteger(json);
+          break;
+        case "thumbHeight":
+          episode.thumbHeight = readNullableString(json);
+          break;
+        case "thumbWidth":
+          episode.thumbWidth = readNullableString(json);
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+    json.endObject();
+    return episode;
+  }
+
+  private static TVDBSeriesRecord readSeries(JsonReader json) throws IOException {
+    TVDBSeriesRecord series = new TVDBSeriesRecord();
+    json.beginObject();
+    while (json.hasNext()) {
+      String name = json.nextName();
+      switch (name) {
+        case "id":
+          series.id = readNullableInteger(json);
+          break;
+        case "seriesName":
+          series.seriesName = readNullableString(json);
+          break;
+        case "airsDayOfWeek":
+          series.airsDayOfWeek = readNullableString(json);
+          break;
+        case "airsTime":
+          series.airsTime = readNullableString(json);
+          break;
+        case "firstAired":
+          series.firstAired = readNullableString(json);
+          break;
+        case "network":
+          series.network = readNullableString(json);
+          break;
+        case "overview":
+          series.overview = readNullableString(json);
+          break;
+        case "siteRating":
+          series.siteRating = readNullableDouble(json);
+          break;
+        case "siteRatingCount":
+          series.siteRatingCount = readNullableInteger(json);
+          break;
+        case "runtime":
+          series.runtime = readNullableString(json);
+          break;
+        case "status":
+          series.status = readNullableString(json);
+          break;
+        case "banner":
+          series.banner = readNullableString(json);
+          break;
+        case "lastUpdated":
+          series.lastUpdated = readNullableInteger(json);
+          break;
+        case "imdbId":
+          series.imdbId = readNullableString(json);
+          break;
+        case "zap2itId":
+          series.zap2itId = readNullableString(json);
+          break;
+        case "genre":
+          series.genres = readStringArray(json);
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+    json.endObject();
+    return series;
+  }
+
+  private static List<String> readStringArray(JsonReader json) throws IOException {
+    List<String> values = new ArrayList<>();
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return values;
+    }
+    json.beginArray();
+    while (json.hasNext()) {
+      String value = readNullableString(json);
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    json.endArray();
+    return values;
+  }
+}
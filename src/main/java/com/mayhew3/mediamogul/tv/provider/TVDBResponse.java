@@ -0,0 +1,44 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TVDBResponse {
+
+  private final int status;
+  private final String statusText;
+  private final String body;
+  private final Map<String, String> headers;
+
+  public TVDBResponse(int status, String statusText, String body) {
+    this(status, statusText, body, Collections.emptyMap());
+  }
+
+  public TVDBResponse(int status, String statusText, String body, Map<String, String> headers) {
+    this.status = status;
+    this.statusText = statusText;
+    this.body = body;
+    this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    this.headers.putAll(headers);
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getStatusText() {
+    return statusText;
+  }
+
+  public String getBody() {
+    return body;
+  }
+
+  @Nullable
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+}
@@ -0,0 +1,112 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The series fields the updaters read from TVDB's series payload. Filled in by {@link TVDBJsonDecoder}; blank strings
+ * are already null, as they are from JSONReader.
+ */
+public class TVDBSeriesRecord {
+
+  @Nullable Integer id;
+  @Nullable String seriesName;
+  @Nullable String airsDayOfWeek;
+  @Nullable String airsTime;
+  @Nullable String firstAired;
+  @Nullable String network;
+  @Nullable String overview;
+  @Nullable Double siteRating;
+  @Nullable Integer siteRatingCount;
+  @Nullable String runtime;
+  @Nullable String status;
+  @Nullable String banner;
+  @Nullable Integer lastUpdated;
+  @Nullable String imdbId;
+  @Nullable String zap2itId;
+  List<String> genres = new ArrayList<>();
+
+  TVDBSeriesRecord() {
+  }
+
+  @Nullable
+  public Integer getId() {
+    return id;
+  }
+
+  @Nullable
+  public String getSeriesName() {
+    return seriesName;
+  }
+
+  @Nullable
+  public String getAirsDayOfWeek() {
+    return airsDayOfWeek;
+  }
+
+  @Nullable
+  public String getAirsTime() {
+    return airsTime;
+  }
+
+  @Nullable
+  public String getFirstAired() {
+    return firstAired;
+  }
+
+  @Nullable
+  public String getNetwork() {
+    return network;
+  }
+
+  @Nullable
+  public String getOverview() {
+    return overview;
+  }
+
+  @Nullable
+  public Double getSiteRating() {
+    return siteRating;
+  }
+
+  @Nullable
+  public Integer getSiteRatingCount() {
+    return siteRatingCount;
+  }
+
+  @Nullable
+  public String getRuntime() {
+    return runtime;
+  }
+
+  @Nullable
+  public String getStatus() {
+    return status;
+  }
+
+  @Nullable
+  public String getBanner() {
+    return banner;
+  }
+
+  @Nullable
+  public Integer getLastUpdated() {
+    return lastUpdated;
+  }
+
+  @Nullable
+  public String getImdbId() {
+    return imdbId;
+  }
+
+  @Nullable
+  public String getZap2itId() {
+    return zap2itId;
+  }
+
+  public List<String> getGenres() {
+    return genres;
+  }
+}
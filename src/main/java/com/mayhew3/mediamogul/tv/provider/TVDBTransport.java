@@ -0,0 +1,41 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP layer underneath TVDBJWTProviderImpl. The provider owns authentication and response handling; the transport only
+ * moves requests and responses.
+ */
+public interface TVDBTransport extends Closeable {
+
+  TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) throws IOException;
+
+  CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers);
+
+  TVDBResponse post(String url, JSONObject body) throws IOException;
+
+  default TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token) throws IOException {
+    return get(url, queryParams, token, Collections.emptyMap());
+  }
+
+  default CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token) {
+    return getAsync(url, queryParams, token, Collections.emptyMap());
+  }
+
+  /**
+   * Drop anything held locally for this series, because TVDB has told us it changed.
+   */
+  default void invalidateSeries(Integer tvdbSeriesId) {
+  }
+
+  @Override
+  void close();
+
+}
@@ -0,0 +1,103 @@
+package com.mayhew3.mediamogul.xml;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scalar reads for the streaming decoders, lenient in the same ways JSONReaderImpl is: numbers may arrive as strings,
+ * and blank strings come back as null.
+ */
+public final class JSONStreamValues {
+
+  private JSONStreamValues() {
+  }
+
+  @Nullable
+  public static String readNullableString(JsonReader json) throws IOException {
+    JsonToken token = json.peek();
+    switch (token) {
+      case NULL:
+        json.nextNull();
+        return null;
+      case STRING:
+      case NUMBER:
+        String value = json.nextString();
+        return "".equals(value) ? null : value;
+      case BOOLEAN:
+        return String.valueOf(json.nextBoolean());
+      default:
+        throw new IllegalStateException("Expected a string but was " + token + " at " + json.getPath());
+    }
+  }
+
+  @Nullable
+  public static Integer readNullableInteger(JsonReader json) throws IOException {
+    String value = readNullableNumber(json);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      // a decimal where we want a whole number is truncated, as JSONObject.getInt does.
+      return (int) parseDouble(value, json);
+    }
+  }
+
+  @Nullable
+  public static Double readNullableDouble(JsonReader json) throws IOException {
+    String value = readNullableNumber(json);
+    return value == null ? null : parseDouble(value, json);
+  }
+
+  /**
+   * Read an array of objects, or null, with each element handed to the element reader.
+   */
+  public static <T> List<T> readObjectArray(JsonReader json, ElementReader<T> elementReader) throws IOException {
+    List<T> elements = new ArrayList<>();
+    if (json.peek() == JsonToken.NULL) {
+      json.nextNull();
+      return elements;
+    }
+    json.beginArray();
+    while (json.hasNext()) {
+      elements.add(elementReader.read(json));
+    }
+    json.endArray();
+    return elements;
+  }
+
+  @FunctionalInterface
+  public interface ElementReader<T> {
+    T read(JsonReader json) throws IOException;
+  }
+
+  @Nullable
+  private static String readNullableNumber(JsonReader json) throws IOException {
+    JsonToken token = json.peek();
+    switch (token) {
+      case NULL:
+        json.nextNull();
+        return null;
+      case STRING:
+      case NUMBER:
+        String value = json.nextString().trim();
+        return "".equals(value) ? null : value;
+      default:
+        throw new IllegalStateException("Expected a number but was " + token + " at " + json.getPath());
+    }
+  }
+
+  private static double parseDouble(String value, JsonReader json) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalStateException("Expected a number but was '" + value + "' at " + json.getPath());
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.mayhew3.mediamogul;
+
+import com.mayhew3.mediamogul.AccessTokenManager.AccessToken;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class AccessTokenManagerTest {
+
+  private static final Instant NOW = Instant.parse("2026-10-17T12:00:00Z");
+
+  private AtomicInteger fetchCount;
+  private ExternalServiceHandler externalServiceHandler;
+
+  @Before
+  public void setUp() {
+    fetchCount = new AtomicInteger();
+    externalServiceHandler = mock(ExternalServiceHandler.class);
+    when(externalServiceHandler.getStoredAccessToken()).thenReturn(Optional.empty());
+  }
+
+  @Test
+  public void testStartReusesSavedToken() throws Exception {
+    AccessToken saved = new AccessToken("saved", NOW.plus(Duration.ofHours(12)));
+    when(externalServiceHandler.getStoredAccessToken()).thenReturn(Optional.of(saved));
+
+    AccessTokenManager tokenManager = createManager(this::nextToken);
+    tokenManager.start();
+
+    assertThat(tokenManager.getToken()).isEqualTo("saved");
+    assertThat(fetchCount.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testExpiredSavedTokenIsReplacedAndSaved() throws Exception {
+    AccessToken saved = new AccessToken("saved", NOW.minus(Duration.ofMinutes(5)));
+    when(externalServiceHandler.getStoredAccessToken()).thenReturn(Optional.of(saved));
+
+    AccessTokenManager tokenManager = createManager(this::nextToken);
+    tokenManager.start();
+
+    assertThat(tokenManager.getToken()).isEqualTo("token1");
+    verify(externalServiceHandler).storeAccessToken(any(AccessToken.class));
+  }
+
+  @Test
+  public void testTokenAboutToExpireIsNotHandedOut() throws Exception {
+    AccessTokenManager tokenManager = createManager(() -> {
+      int count = fetchCount.incrementAndGet();
+      Duration lifetime = count == 1 ? Duration.ofSeconds(10) : Duration.ofHours(24);
+      return new AccessToken("token" + count, NOW.plus(lifetime));
+    });
+    tokenManager.start();
+
+    assertThat(tokenManager.getToken()).isEqualTo("token2");
+  }
+
+  @Test
+  public void testRejectionOfReplacedTokenDoesNotLogInAgain() throws Exception {
+    AccessTokenManager tokenManager = createManager(this::nextToken);
+    tokenManager.start();
+
+    assertThat(tokenManager.refreshAfterRejection("token1")).isEqualTo("token2");
+    assertThat(tokenManager.refreshAfterRejection("token1")).isEqualTo("token2");
+    assertThat(fetchCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testConcurrentRejectionsShareOneLogin() throws Exception {
+    CountDownLatch loginStarted = new CountDownLatch(1);
+    CountDownLatch finishLogin = new CountDownLatch(1);
+    AccessTokenManager tokenManager = createManager(() -> {
+      if (fetchCount.get() > 0) {
+        loginStarted.countDown();
+        awaitQuietly(finishLogin);
+      }
+      return nextToken();
+    });
+    tokenManager.start();
+
+    ExecutorService callers = Executors.newFixedThreadPool(4);
+    try {
+      Future<String> first = callers.submit(() -> tokenManager.refreshAfterRejection("token1"));
+      assertThat(loginStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+      Future<String> second = callers.submit(() -> tokenManager.refreshAfterRejection("token1"));
+      Future<String> third = callers.submit(() -> tokenManager.refreshAfterRejection("token1"));
+      finishLogin.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("token2");
+      assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("token2");
+      assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("token2");
+      assertThat(fetchCount.get()).isEqualTo(2);
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  private AccessTokenManager createManager(AccessTokenManager.TokenFetcher tokenFetcher) {
+    return new AccessTokenManager("test", tokenFetcher, externalServiceHandler, Duration.ofHours(1), Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  private AccessToken nextToken() {
+    return new AccessToken("token" + fetchCount.incrementAndGet(), NOW.plus(Duration.ofHours(24)));
+  }
+
+  private void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.mayhew3.mediamogul;
 
 import com.mayhew3.mediamogul.db.DatabaseEnvironments;
+import com.mayhew3.mediamogul.db.SchemaSupplements;
 import com.mayhew3.mediamogul.model.MediaMogulSchema;
 import com.mayhew3.postgresobject.dataobject.DatabaseRecreator;
 import com.mayhew3.postgresobject.db.DatabaseEnvironment;
@@ -96,6 +97,7 @@ public abstract class DatabaseTest {
     connection = PostgresConnectionFactory.createConnection(environment);
     deleteViews();
     new DatabaseRecreator(connection).recreateDatabase(MediaMogulSchema.schema);
+    SchemaSupplements.ensureAll(connection);
     createViews();
     logger.info("DB re-created.");
   }
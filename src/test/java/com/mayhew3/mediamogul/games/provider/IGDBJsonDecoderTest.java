@@ -0,0 +1,45 @@
+package com.mayhew3.mediamogul.games.provider;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class IGDBJsonDecoderTest {
+
+  @Test
+  public void testDecodeGames() throws IOException {
+    List<IGDBGameRecord> games;
+    try (Reader reader = Files.newBufferedReader(Paths.get("src/test/resources/IGDBTest/search_Jollup.json"), StandardCharsets.UTF_8)) {
+      games = IGDBJsonDecoder.decodeGames(reader);
+    }
+
+    assertThat(games).hasSize(2);
+
+    IGDBGameRecord game = games.get(0);
+    assertThat(game.getId()).isEqualTo(28365);
+    assertThat(game.getName()).isEqualTo("Jollup");
+    assertThat(game.getReleaseDates()).containsExactly(1454630400);
+    assertThat(game.getPlatforms()).hasSize(2);
+    assertThat(game.getPlatforms().get(0).getAbbreviation()).isEqualTo("PC");
+    assertThat(game.isError()).isFalse();
+  }
+
+  @Test
+  public void testDecodeError() throws IOException {
+    List<IGDBGameRecord> games = IGDBJsonDecoder.decodeGames(new StringReader(
+        "[{\"title\": \"Authorization Failure\", \"status\": 401, \"cause\": \"Invalid token\"}]"));
+
+    assertThat(games).hasSize(1);
+    assertThat(games.get(0).isError()).isTrue();
+    assertThat(games.get(0).getErrorStatus()).isEqualTo(401);
+    assertThat(games.get(0).getErrorCause()).isEqualTo("Invalid token");
+  }
+}
@@ -0,0 +1,67 @@
+package com.mayhew3.mediamogul.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MetricsRegistryTest {
+
+  private MetricsRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new MetricsRegistry();
+  }
+
+  @Test
+  public void testCounterAccumulatesPerLabelSet() {
+    registry.incrementCounter("test_runs_total", "Test runs.", 1, "task", "a");
+    registry.incrementCounter("test_runs_total", "Test runs.", 2, "task", "a");
+    registry.incrementCounter("test_runs_total", "Test runs.", 1, "task", "b");
+
+    String output = registry.scrape();
+
+    assertThat(output).contains("# HELP test_runs_total Test runs.\n");
+    assertThat(output).contains("# TYPE test_runs_total counter\n");
+    assertThat(output).contains("test_runs_total{task=\"a\"} 3\n");
+    assertThat(output).contains("test_runs_total{task=\"b\"} 1\n");
+  }
+
+  @Test
+  public void testGaugeKeepsLatestValue() {
+    registry.setGauge("test_rate", "Test rate.", 4.5);
+    registry.setGauge("test_rate", "Test rate.", 2.25);
+
+    assertThat(registry.scrape()).contains("test_rate 2.25\n");
+  }
+
+  @Test
+  public void testHistogramBucketsAreCumulative() {
+    registry.observe("test_seconds", "Test durations.", 0.3, "task", "a");
+    registry.observe("test_seconds", "Test durations.", 7, "task", "a");
+
+    String output = registry.scrape();
+
+    assertThat(output).contains("# TYPE test_seconds histogram\n");
+    assertThat(output).contains("test_seconds_bucket{task=\"a\",le=\"0.25\"} 0\n");
+    assertThat(output).contains("test_seconds_bucket{task=\"a\",le=\"0.5\"} 1\n");
+    assertThat(output).contains("test_seconds_bucket{task=\"a\",le=\"10\"} 2\n");
+    assertThat(output).contains("test_seconds_bucket{task=\"a\",le=\"+Inf\"} 2\n");
+    assertThat(output).contains("test_seconds_sum{task=\"a\"} 7.3\n");
+    assertThat(output).contains("test_seconds_count{task=\"a\"} 2\n");
+  }
+
+  @Test
+  public void testLabelValuesAreEscaped() {
+    registry.incrementCounter("test_total", "Test.", 1, "task", "Say \"hi\"");
+
+    assertThat(registry.scrape()).contains("test_total{task=\"Say \\\"hi\\\"\"} 1\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTypeMismatchIsRejected() {
+    registry.incrementCounter("test_metric", "Test.", 1);
+    registry.setGauge("test_metric", "Test.", 1);
+  }
+}
@@ -0,0 +1,100 @@
+package com.mayhew3.mediamogul.replay;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ReplaySimulatorTest {
+
+  private List<Long> sleeps;
+
+  private final List<ReplayCorpus.RecordedCall> recordedCalls = Lists.newArrayList(
+      new ReplayCorpus.RecordedCall("series", "1_summary.json", 120, true),
+      new ReplayCorpus.RecordedCall("series", "1_summary.json", 3000, false),
+      new ReplayCorpus.RecordedCall("episodes", "1_episodes.json", 80, true));
+
+  @Before
+  public void setUp() {
+    sleeps = new ArrayList<>();
+  }
+
+  @Test
+  public void testRecordedCallsReplayInOrderAndWrap() {
+    ReplaySimulator simulator = createSimulator(1.0, null, null);
+
+    assertThat(simulator.nextCall("series", "1_summary.json")).isTrue();
+    assertThat(simulator.nextCall("series", "1_summary.json")).isFalse();
+    assertThat(simulator.nextCall("series", "1_summary.json")).isTrue();
+    assertThat(sleeps).containsExactly(120L, 3000L, 120L);
+  }
+
+  @Test
+  public void testUnrecordedFileSamplesItsEndpoint() {
+    ReplaySimulator simulator = createSimulator(1.0, null, null);
+
+    simulator.nextCall("episodes", "2_episodes.json");
+
+    assertThat(sleeps).containsExactly(80L);
+  }
+
+  @Test
+  public void testUnknownEndpointIsInstantAndSucceeds() {
+    ReplaySimulator simulator = createSimulator(1.0, null, null);
+
+    assertThat(simulator.nextCall("posters", "1_posters.json")).isTrue();
+    assertThat(sleeps).isEmpty();
+  }
+
+  @Test
+  public void testLatencyScaleAndFixedLatency() {
+    createSimulator(0.5, null, null).nextCall("series", "1_summary.json");
+    createSimulator(0.5, 40L, null).nextCall("series", "1_summary.json");
+    createSimulator(0.0, null, null).nextCall("series", "1_summary.json");
+
+    assertThat(sleeps).containsExactly(60L, 40L);
+  }
+
+  @Test
+  public void testErrorRateReplacesRecordedFailures() {
+    ReplaySimulator alwaysFails = createSimulator(0.0, null, 1.0);
+    ReplaySimulator neverFails = createSimulator(0.0, null, 0.0);
+
+    assertThat(alwaysFails.nextCall("episodes", "1_episodes.json")).isFalse();
+    neverFails.nextCall("series", "1_summary.json");
+    assertThat(neverFails.nextCall("series", "1_summary.json")).isTrue();
+  }
+
+  @Test
+  public void testRandomChoicesDontDependOnInterleaving() {
+    ReplaySimulator inOrder = createSimulator(0.0, null, 0.5);
+    ReplaySimulator interleaved = createSimulator(0.0, null, 0.5);
+
+    List<Boolean> firstInOrder = new ArrayList<>();
+    List<Boolean> secondInOrder = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      firstInOrder.add(inOrder.nextCall("series", "1_summary.json"));
+    }
+    for (int i = 0; i < 20; i++) {
+      secondInOrder.add(inOrder.nextCall("episodes", "2_episodes.json"));
+    }
+
+    List<Boolean> firstInterleaved = new ArrayList<>();
+    List<Boolean> secondInterleaved = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      secondInterleaved.add(interleaved.nextCall("episodes", "2_episodes.json"));
+      firstInterleaved.add(interleaved.nextCall("series", "1_summary.json"));
+    }
+
+    assertThat(firstInterleaved).isEqualTo(firstInOrder);
+    assertThat(secondInterleaved).isEqualTo(secondInOrder);
+  }
+
+  private ReplaySimulator createSimulator(double latencyScale, Long fixedLatencyMillis, Double errorRate) {
+    return new ReplaySimulator(recordedCalls, latencyScale, fixedLatencyMillis, errorRate, 17L, sleeps::add);
+  }
+}
@@ -0,0 +1,124 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import com.mayhew3.mediamogul.tv.helper.UpdateMode;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PeriodicTaskScheduleTest {
+
+  private static final String TASK_NAME = "Test Runner";
+
+  private TaskRunRegistry taskRunRegistry;
+  private PeriodicTaskSchedule taskSchedule;
+
+  @Before
+  public void setUp() {
+    UpdateRunner updateRunner = mock(UpdateRunner.class);
+    when(updateRunner.getUniqueIdentifier()).thenReturn(TASK_NAME);
+
+    taskRunRegistry = new TaskRunRegistry();
+    taskSchedule = new PeriodicTaskSchedule(connection -> updateRunner, updateRunner, taskRunRegistry)
+        .withMinutesBetween(2)
+        .withAdaptiveBackoff(10);
+  }
+
+  @Test
+  public void testNeverRunIsDueNow() {
+    long before = System.currentTimeMillis();
+    assertThat(taskSchedule.getNextRunMillis()).isGreaterThanOrEqualTo(before);
+    assertThat(taskSchedule.getNextRunMillis()).isLessThanOrEqualTo(System.currentTimeMillis());
+  }
+
+  @Test
+  public void testEmptyRunsDoubleUpToMax() {
+    taskSchedule.recordItemsProcessed(0);
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(4);
+
+    taskSchedule.recordItemsProcessed(0);
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(8);
+
+    taskSchedule.recordItemsProcessed(0);
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(10);
+
+    taskSchedule.recordItemsProcessed(0);
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(10);
+  }
+
+  @Test
+  public void testWorkSnapsBackToBasePeriod() {
+    taskSchedule.recordItemsProcessed(0);
+    taskSchedule.recordItemsProcessed(0);
+    taskSchedule.recordItemsProcessed(3);
+
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(2);
+  }
+
+  @Test
+  public void testUnreportedRunLeavesPeriodAlone() {
+    taskSchedule.recordItemsProcessed(0);
+    taskSchedule.recordItemsProcessed(null);
+
+    assertThat(taskSchedule.getCurrentMinutesBetween()).isEqualTo(4);
+  }
+
+  @Test
+  public void testNextRunUsesCurrentPeriod() {
+    DateTime lastRan = new DateTime(2020, 6, 1, 12, 0, 0);
+    taskRunRegistry.recordRun(TASK_NAME, null, lastRan.toDate());
+
+    taskSchedule.recordItemsProcessed(0);
+
+    assertThat(taskSchedule.getNextRunMillis()).isEqualTo(lastRan.plusMinutes(4).getMillis());
+  }
+
+  @Test
+  public void testRegistryKeepsLatestRun() {
+    Date earlier = new DateTime(2020, 6, 1, 12, 0, 0).toDate();
+    Date later = new DateTime(2020, 6, 1, 13, 0, 0).toDate();
+
+    taskRunRegistry.recordRun(TASK_NAME, null, later);
+    taskRunRegistry.recordRun(TASK_NAME, null, earlier);
+
+    assertThat(taskRunRegistry.getLastRun(TASK_NAME, null)).isEqualTo(later);
+  }
+
+  @Test
+  public void testSchedulesSharingIdentifierKeepSeparateRuns() {
+    UpdateRunner smartRunner = mock(UpdateRunner.class);
+    when(smartRunner.getUniqueIdentifier()).thenReturn(TASK_NAME);
+    when(smartRunner.getUpdateMode()).thenReturn(UpdateMode.SMART);
+
+    UpdateRunner sanityRunner = mock(UpdateRunner.class);
+    when(sanityRunner.getUniqueIdentifier()).thenReturn(TASK_NAME);
+    when(sanityRunner.getUpdateMode()).thenReturn(UpdateMode.SANITY);
+
+    PeriodicTaskSchedule smartSchedule = new PeriodicTaskSchedule(connection -> smartRunner, smartRunner, taskRunRegistry)
+        .withMinutesBetween(30);
+    PeriodicTaskSchedule sanitySchedule = new PeriodicTaskSchedule(connection -> sanityRunner, sanityRunner, taskRunRegistry)
+        .withHoursBetween(24);
+
+    DateTime sanityRan = new DateTime(2020, 6, 1, 12, 0, 0);
+    taskRunRegistry.recordRun(TASK_NAME, UpdateMode.SANITY.getTypekey(), sanityRan.toDate());
+    taskRunRegistry.recordResumeCursor(TASK_NAME, UpdateMode.SANITY.getTypekey(), "42");
+
+    smartSchedule.updateLastRanToNow();
+
+    assertThat(sanitySchedule.getNextRunMillis()).isEqualTo(sanityRan.plusHours(24).getMillis());
+    assertThat(sanitySchedule.createBudget().getResumeCursor()).isEqualTo("42");
+    assertThat(smartSchedule.createBudget().getResumeCursor()).isNull();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxShorterThanBaseIsRejected() {
+    new PeriodicTaskSchedule(connection -> null, mock(UpdateRunner.class), taskRunRegistry)
+        .withMinutesBetween(5)
+        .withAdaptiveBackoff(2);
+  }
+}
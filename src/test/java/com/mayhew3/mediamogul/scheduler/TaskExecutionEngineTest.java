@@ -0,0 +1,119 @@
+package com.mayhew3.mediamogul.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TaskExecutionEngineTest {
+
+  private final Map<PeriodicTaskSchedule, CountDownLatch> releases = new ConcurrentHashMap<>();
+  private final Semaphore completions = new Semaphore(0);
+  private TaskExecutionEngine engine;
+
+  @Before
+  public void setUp() {
+    engine = new TaskExecutionEngine(3, this::blockUntilReleased, taskSchedule -> completions.release());
+  }
+
+  @After
+  public void tearDown() {
+    releases.values().forEach(CountDownLatch::countDown);
+    engine.shutdown();
+  }
+
+  @Test
+  public void testBackgroundLeavesWorkerForInteractive() {
+    assertThat(engine.trySubmit(createSchedule("first", false))).isTrue();
+    assertThat(engine.trySubmit(createSchedule("second", false))).isTrue();
+    assertThat(engine.trySubmit(createSchedule("third", false))).isFalse();
+
+    assertThat(engine.trySubmit(createSchedule("interactive", true))).isTrue();
+  }
+
+  @Test
+  public void testBackgroundLeavesSharedPermitForInteractive() {
+    assertThat(engine.trySubmit(createSchedule("sanity", false, TaskResource.TVDB_API))).isTrue();
+    assertThat(engine.trySubmit(createSchedule("smart", false, TaskResource.TVDB_API))).isFalse();
+
+    assertThat(engine.trySubmit(createSchedule("manual", true, TaskResource.TVDB_API))).isTrue();
+  }
+
+  @Test
+  public void testWaitingInteractiveClaimsResourceFromBackground() throws InterruptedException {
+    PeriodicTaskSchedule background = createSchedule("metacritic", false, TaskResource.METACRITIC);
+    PeriodicTaskSchedule interactive = createSchedule("new_series", true, TaskResource.METACRITIC, TaskResource.CLOUDINARY);
+    PeriodicTaskSchedule otherBackground = createSchedule("metacritic_games", false, TaskResource.METACRITIC);
+
+    assertThat(engine.trySubmit(background)).isTrue();
+    assertThat(engine.trySubmit(interactive)).isFalse();
+
+    finish(background);
+
+    assertThat(engine.trySubmit(otherBackground)).isFalse();
+    assertThat(engine.trySubmit(interactive)).isTrue();
+
+    finish(interactive);
+
+    assertThat(engine.trySubmit(otherBackground)).isTrue();
+  }
+
+  @Test
+  public void testSingleWorkerRunsOneTaskAtATime() throws InterruptedException {
+    TaskExecutionEngine singleWorker = new TaskExecutionEngine(1, this::blockUntilReleased, taskSchedule -> completions.release());
+    try {
+      PeriodicTaskSchedule background = createSchedule("background", false);
+      PeriodicTaskSchedule interactive = createSchedule("interactive", true);
+
+      assertThat(singleWorker.trySubmit(background)).isTrue();
+      assertThat(singleWorker.trySubmit(interactive)).isFalse();
+
+      finish(background);
+
+      assertThat(singleWorker.trySubmit(interactive)).isTrue();
+    } finally {
+      singleWorker.shutdown();
+    }
+  }
+
+  private PeriodicTaskSchedule createSchedule(String name, boolean interactive, TaskResource... resources) {
+    UpdateRunner updateRunner = mock(UpdateRunner.class);
+    when(updateRunner.getUniqueIdentifier()).thenReturn(name);
+    EnumSet<TaskResource> required = EnumSet.noneOf(TaskResource.class);
+    for (TaskResource resource : resources) {
+      required.add(resource);
+    }
+    when(updateRunner.getRequiredResources()).thenReturn(required);
+
+    PeriodicTaskSchedule taskSchedule = new PeriodicTaskSchedule(connection -> updateRunner, updateRunner, new TaskRunRegistry())
+        .withMinutesBetween(1);
+    if (interactive) {
+      taskSchedule.withInteractivePriority();
+    }
+    releases.put(taskSchedule, new CountDownLatch(1));
+    return taskSchedule;
+  }
+
+  private void blockUntilReleased(PeriodicTaskSchedule taskSchedule) {
+    try {
+      releases.get(taskSchedule).await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void finish(PeriodicTaskSchedule taskSchedule) throws InterruptedException {
+    releases.get(taskSchedule).countDown();
+    assertThat(completions.tryAcquire(10, TimeUnit.SECONDS)).isTrue();
+  }
+}
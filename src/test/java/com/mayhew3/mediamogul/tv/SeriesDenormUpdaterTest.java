@@ -0,0 +1,151 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.DatabaseTest;
+import com.mayhew3.mediamogul.model.tv.*;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SeriesDenormUpdaterTest extends DatabaseTest {
+
+  private static final String TIVO_SERIES_ID = "SH0123456";
+
+  @Test
+  public void testSeriesCountsAndAirTimes() throws SQLException {
+    Series series = createSeries("The Leftovers", TIVO_SERIES_ID);
+
+    Date firstAired = DateTime.now().minusWeeks(3).toDate();
+    Date secondAired = DateTime.now().minusWeeks(2).toDate();
+    Date thirdAired = DateTime.now().minusWeeks(1).toDate();
+
+    // recorded twice, once since deleted. Watched.
+    Episode watchedEpisode = addEpisode(series, 1, 1, firstAired, false, true);
+    addTiVoEpisode(watchedEpisode, firstAired, false);
+    addTiVoEpisode(watchedEpisode, DateTime.now().minusWeeks(3).plusDays(1).toDate(), true);
+
+    // recorded, since deleted. Not watched.
+    Episode deletedEpisode = addEpisode(series, 1, 2, secondAired, false, false);
+    addTiVoEpisode(deletedEpisode, secondAired, true);
+
+    // streaming only. Not watched.
+    addEpisode(series, 1, 3, thirdAired, true, false);
+
+    // specials are left out of every count.
+    addEpisode(series, 0, 1, thirdAired, true, false);
+
+    addUnmatchedTiVoEpisode(TIVO_SERIES_ID);
+
+    new SeriesDenormUpdater(connection).runUpdate();
+
+    Series updated = findSeries(series.id.getValue());
+    assertThat(updated.unmatchedEpisodes.getValue()).isEqualTo(1);
+    assertThat(updated.activeEpisodes.getValue()).isEqualTo(1);
+    assertThat(updated.unwatchedEpisodes.getValue()).isEqualTo(0);
+    assertThat(updated.deletedEpisodes.getValue()).isEqualTo(2);
+    assertThat(updated.suggestionEpisodes.getValue()).isEqualTo(0);
+    assertThat(updated.watchedEpisodes.getValue()).isEqualTo(1);
+    assertThat(updated.matchedEpisodes.getValue()).isEqualTo(2);
+    assertThat(updated.tvdbOnlyEpisodes.getValue()).isEqualTo(1);
+    assertThat(updated.unwatchedUnrecorded.getValue()).isEqualTo(1);
+    assertThat(updated.streamingEpisodes.getValue()).isEqualTo(1);
+    assertThat(updated.unwatchedStreaming.getValue()).isEqualTo(1);
+
+    assertThat(updated.mostRecent.getValue().getTime()).isEqualTo(thirdAired.getTime());
+    assertThat(updated.lastUnwatched.getValue().getTime()).isEqualTo(thirdAired.getTime());
+    assertThat(updated.firstUnwatched.getValue().getTime()).isEqualTo(secondAired.getTime());
+  }
+
+  @Test
+  public void testSeriesWithoutEpisodesIsReset() throws SQLException {
+    Series series = createSeries("Lodge 49", null);
+    series.watchedEpisodes.changeValue(5);
+    series.tvdbOnlyEpisodes.changeValue(3);
+    series.mostRecent.changeValue(new Date());
+    series.commit(connection);
+
+    new SeriesDenormUpdater(connection).runUpdate();
+
+    Series updated = findSeries(series.id.getValue());
+    assertThat(updated.watchedEpisodes.getValue()).isEqualTo(0);
+    assertThat(updated.tvdbOnlyEpisodes.getValue()).isEqualTo(0);
+    assertThat(updated.mostRecent.getValue()).isNull();
+  }
+
+  private Series createSeries(String seriesName, String tivoSeriesId) throws SQLException {
+    TVDBSeries tvdbSeries = new TVDBSeries();
+    tvdbSeries.initializeForInsert();
+    tvdbSeries.name.changeValue(seriesName);
+    tvdbSeries.commit(connection);
+
+    Series series = new Series();
+    series.initializeForInsert();
+    series.seriesTitle.changeValue(seriesName);
+    series.tvdbSeriesId.changeValue(tvdbSeries.id.getValue());
+    series.tivoSeriesV2ExtId.changeValue(tivoSeriesId);
+    series.commit(connection);
+
+    return series;
+  }
+
+  private Episode addEpisode(Series series, Integer seasonNumber, Integer episodeNumber, Date airTime, Boolean streaming, Boolean watched) throws SQLException {
+    TVDBEpisode tvdbEpisode = new TVDBEpisode();
+    tvdbEpisode.initializeForInsert();
+    tvdbEpisode.tvdbSeriesId.changeValue(series.tvdbSeriesId.getValue());
+    tvdbEpisode.seasonNumber.changeValue(seasonNumber);
+    tvdbEpisode.episodeNumber.changeValue(episodeNumber);
+    tvdbEpisode.commit(connection);
+
+    Episode episode = new Episode();
+    episode.initializeForInsert();
+    episode.seriesId.changeValue(series.id.getValue());
+    episode.tvdbEpisodeId.changeValue(tvdbEpisode.id.getValue());
+    episode.setSeason(seasonNumber, connection);
+    episode.episodeNumber.changeValue(episodeNumber);
+    episode.airTime.changeValue(airTime);
+    episode.streaming.changeValue(streaming);
+    episode.watched.changeValue(watched);
+    episode.tvdbApproval.changeValue("approved");
+    episode.commit(connection);
+
+    return episode;
+  }
+
+  private void addTiVoEpisode(Episode episode, Date captureDate, Boolean deleted) throws SQLException {
+    TiVoEpisode tiVoEpisode = createTiVoEpisode(TIVO_SERIES_ID, captureDate);
+    if (deleted) {
+      tiVoEpisode.deletedDate.changeValue(new Date());
+      tiVoEpisode.commit(connection);
+    }
+    episode.addToTiVoEpisodes(connection, tiVoEpisode);
+  }
+
+  private void addUnmatchedTiVoEpisode(String tivoSeriesId) throws SQLException {
+    createTiVoEpisode(tivoSeriesId, new Date());
+  }
+
+  private TiVoEpisode createTiVoEpisode(String tivoSeriesId, Date captureDate) throws SQLException {
+    TiVoEpisode tiVoEpisode = new TiVoEpisode();
+    tiVoEpisode.initializeForInsert();
+    tiVoEpisode.tivoSeriesV2ExtId.changeValue(tivoSeriesId);
+    tiVoEpisode.programV2Id.changeValue("EP" + captureDate.getTime());
+    tiVoEpisode.captureDate.changeValue(captureDate);
+    tiVoEpisode.suggestion.changeValue(false);
+    tiVoEpisode.recordingNow.changeValue(false);
+    tiVoEpisode.commit(connection);
+    return tiVoEpisode;
+  }
+
+  private Series findSeries(Integer seriesId) throws SQLException {
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch("SELECT * FROM series WHERE id = ?", seriesId);
+    assertThat(resultSet.next()).isTrue();
+
+    Series series = new Series();
+    series.initializeFromDBObject(resultSet);
+    return series;
+  }
+}
@@ -0,0 +1,52 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.tv.provider.TVDBEpisodeRecord;
+import com.mayhew3.mediamogul.tv.provider.TVDBJsonDecoder;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TVDBContentDigestTest {
+
+  @Test
+  public void testKeyOrderAndUnreadFieldsDontMatter() throws IOException {
+    TVDBEpisodeRecord first = episode("{\"id\": 5578415, \"episodeName\": \"Brave\", \"airedSeason\": 3, \"language\": {\"overview\": \"en\"}}");
+    TVDBEpisodeRecord second = episode("{\"airedSeason\": 3, \"episodeName\": \"Brave\", \"id\": 5578415, \"language\": {\"overview\": \"fr\"}}");
+
+    assertThat(digest(first, false)).isEqualTo(digest(second, false));
+  }
+
+  @Test
+  public void testReadFieldChangesDigest() throws IOException {
+    TVDBEpisodeRecord original = episode("{\"id\": 5578415, \"episodeName\": \"Brave\", \"airedSeason\": 3}");
+    TVDBEpisodeRecord renamed = episode("{\"id\": 5578415, \"episodeName\": \"Braver\", \"airedSeason\": 3}");
+
+    assertThat(digest(original, false)).isNotEqualTo(digest(renamed, false));
+  }
+
+  @Test
+  public void testSeriesValuesChangeEpisodeDigest() throws IOException {
+    TVDBEpisodeRecord episode = episode("{\"id\": 5578415, \"episodeName\": \"Brave\", \"airedSeason\": 3}");
+
+    assertThat(digest(episode, false)).isNotEqualTo(digest(episode, true));
+  }
+
+  @Test
+  public void testNullIsDistinctFromTheStringNull() throws IOException {
+    TVDBEpisodeRecord missing = episode("{\"id\": 5578415, \"episodeName\": null}");
+    TVDBEpisodeRecord literal = episode("{\"id\": 5578415, \"episodeName\": \"null\"}");
+
+    assertThat(digest(missing, false)).isNotEqualTo(digest(literal, false));
+  }
+
+  private TVDBEpisodeRecord episode(String json) throws IOException {
+    return TVDBJsonDecoder.decodeEpisode(new StringReader(json));
+  }
+
+  private String digest(TVDBEpisodeRecord episode, Boolean streaming) {
+    return TVDBContentDigest.forEpisode(episode, "Inside Amy Schumer", "10:30 PM", 265374, streaming);
+  }
+}
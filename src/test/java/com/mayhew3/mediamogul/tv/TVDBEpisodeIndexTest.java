@@ -0,0 +1,108 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.google.common.collect.Lists;
+import com.mayhew3.mediamogul.model.tv.Episode;
+import com.mayhew3.mediamogul.model.tv.TVDBEpisode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TVDBEpisodeIndexTest {
+
+  private TVDBEpisode pilot;
+  private TVDBEpisode secondEpisode;
+  private Episode pilotEpisode;
+
+  private TVDBEpisodeIndex episodeIndex;
+
+  @Before
+  public void setUp() {
+    pilot = createTVDBEpisode(10, 1001, 1, 1);
+    secondEpisode = createTVDBEpisode(11, 1002, 1, 2);
+    pilotEpisode = createEpisode(10);
+
+    episodeIndex = new TVDBEpisodeIndex(Lists.newArrayList(pilot, secondEpisode), Lists.newArrayList(pilotEpisode));
+  }
+
+  @Test
+  public void testLookupsFindLoadedRows() {
+    assertThat(episodeIndex.findTVDBEpisodeByExtId(1002).get()).isSameAs(secondEpisode);
+    assertThat(episodeIndex.getTVDBEpisodesByNumber(1, 1)).containsExactly(pilot);
+    assertThat(episodeIndex.findEpisodeByTVDBEpisodeId(10).get()).isSameAs(pilotEpisode);
+
+    assertThat(episodeIndex.findTVDBEpisodeByExtId(9999).isPresent()).isFalse();
+    assertThat(episodeIndex.getTVDBEpisodesByNumber(2, 1)).isEmpty();
+    assertThat(episodeIndex.findEpisodeByTVDBEpisodeId(11).isPresent()).isFalse();
+  }
+
+  @Test
+  public void testPutAfterRenumberMovesEpisode() {
+    pilot.seasonNumber.changeValue(0);
+    pilot.episodeNumber.changeValue(5);
+    episodeIndex.putTVDBEpisode(pilot);
+
+    assertThat(episodeIndex.getTVDBEpisodesByNumber(1, 1)).isEmpty();
+    assertThat(episodeIndex.getTVDBEpisodesByNumber(0, 5)).containsExactly(pilot);
+    assertThat(episodeIndex.getTVDBEpisodes()).hasSize(2);
+  }
+
+  @Test
+  public void testNewEpisodeIsAddedOnce() {
+    TVDBEpisode added = createTVDBEpisode(null, 1003, 1, 3);
+    episodeIndex.putTVDBEpisode(added);
+    episodeIndex.putTVDBEpisode(added);
+
+    assertThat(episodeIndex.findTVDBEpisodeByExtId(1003).get()).isSameAs(added);
+    assertThat(episodeIndex.getTVDBEpisodes()).hasSize(3);
+
+    Episode addedEpisode = createEpisode(null);
+    episodeIndex.putEpisode(addedEpisode);
+    addedEpisode.tvdbEpisodeId.changeValue(12);
+    episodeIndex.putEpisode(addedEpisode);
+
+    assertThat(episodeIndex.findEpisodeByTVDBEpisodeId(12).get()).isSameAs(addedEpisode);
+    assertThat(episodeIndex.getEpisodes()).hasSize(2);
+  }
+
+  @Test
+  public void testRemoveDropsFromEveryLookup() {
+    episodeIndex.removeTVDBEpisode(pilot);
+    episodeIndex.removeEpisode(pilotEpisode);
+
+    assertThat(episodeIndex.findTVDBEpisodeByExtId(1001).isPresent()).isFalse();
+    assertThat(episodeIndex.getTVDBEpisodesByNumber(1, 1)).isEmpty();
+    assertThat(episodeIndex.findEpisodeByTVDBEpisodeId(10).isPresent()).isFalse();
+    assertThat(episodeIndex.getTVDBEpisodes()).containsExactly(secondEpisode);
+    assertThat(episodeIndex.getEpisodes()).isEmpty();
+  }
+
+  @Test
+  public void testDuplicateExtIdsAreAllKept() {
+    TVDBEpisode duplicate = createTVDBEpisode(12, 1001, 1, 1);
+    episodeIndex = new TVDBEpisodeIndex(Lists.newArrayList(pilot, duplicate), new ArrayList<>());
+
+    assertThat(episodeIndex.getTVDBEpisodesByExtId(1001)).containsExactly(pilot, duplicate);
+    assertThat(episodeIndex.findTVDBEpisodeByExtId(1001).get()).isSameAs(pilot);
+
+    episodeIndex.removeTVDBEpisode(pilot);
+    assertThat(episodeIndex.getTVDBEpisodesByExtId(1001)).containsExactly(duplicate);
+  }
+
+  private TVDBEpisode createTVDBEpisode(Integer id, Integer extId, Integer season, Integer episodeNumber) {
+    TVDBEpisode tvdbEpisode = new TVDBEpisode();
+    tvdbEpisode.id.changeValue(id);
+    tvdbEpisode.tvdbEpisodeExtId.changeValue(extId);
+    tvdbEpisode.seasonNumber.changeValue(season);
+    tvdbEpisode.episodeNumber.changeValue(episodeNumber);
+    return tvdbEpisode;
+  }
+
+  private Episode createEpisode(Integer tvdbEpisodeId) {
+    Episode episode = new Episode();
+    episode.tvdbEpisodeId.changeValue(tvdbEpisodeId);
+    return episode;
+  }
+}
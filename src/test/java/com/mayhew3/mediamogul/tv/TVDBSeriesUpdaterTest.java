@@ -2,6 +2,7 @@ package com.mayhew3.mediamogul.tv;
 
 import com.mashape.unirest.http.exceptions.UnirestException;
 import com.mayhew3.mediamogul.DatabaseTest;
+import com.mayhew3.postgresobject.db.SQLConnection;
 import com.mayhew3.postgresobject.exception.MissingEnvException;
 import com.mayhew3.mediamogul.model.Person;
 import com.mayhew3.mediamogul.model.tv.*;
@@ -754,6 +755,38 @@ public class TVDBSeriesUpdaterTest extends DatabaseTest {
   }
 
 
+  @Test
+  public void testEpisodeErrorsSurviveSeriesRollback() throws SQLException, UnirestException, AuthenticationException {
+    createSeries(SCHUMER_SERIES_NAME, SCHUMER_SERIES_ID);
+
+    // the third episode has no episode number, and the absolute number pass after the episodes fails the whole series.
+    TVDBLocalJSONProvider tvdbLocalJSONProvider = new TVDBLocalJSONProvider("src\\test\\resources\\TVDBBadEpisodeTest\\");
+    SQLConnection failingConnection = spy(connection);
+    doThrow(new SQLException("Absolute numbers unavailable."))
+        .when(failingConnection).prepareAndExecuteStatementFetch(contains("FROM regular_episode"), any());
+
+    Series series = findSeriesWithTitle(SCHUMER_SERIES_NAME);
+
+    TVDBSeriesUpdater tvdbSeriesUpdater = new TVDBSeriesUpdater(failingConnection, series, tvdbLocalJSONProvider, new JSONReaderImpl(), socket);
+    try {
+      tvdbSeriesUpdater.updateSeries();
+      fail();
+    } catch (ShowFailedException | SQLException e) {
+      // expected: the series rolls back.
+    }
+
+    assertThat(findTVDBEpisodeWithTVDBID(SCHUMER_EPISODE_ID1))
+        .isNull();
+    assertThat(findTVDBEpisodeWithTVDBID(SCHUMER_EPISODE_ID3))
+        .isNull();
+
+    assertThat(countRowsForTVDBEpisode("tvdb_update_error", SCHUMER_EPISODE_ID3))
+        .isEqualTo(1);
+    assertThat(countRowsForTVDBEpisode("tvdb_migration_error", SCHUMER_EPISODE_ID3))
+        .isEqualTo(1);
+  }
+
+
   // private methods
 
   private Series createSeries(String seriesName, Integer tvdbId) throws SQLException {
@@ -868,6 +901,16 @@ public class TVDBSeriesUpdaterTest extends DatabaseTest {
     }
   }
 
+  private int countRowsForTVDBEpisode(String tableName, Integer tvdbEpisodeExtId) throws SQLException {
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+        "SELECT COUNT(1) AS row_count " +
+            "FROM " + tableName + " " +
+            "WHERE tvdb_episode_ext_id = ?", tvdbEpisodeExtId
+    );
+    resultSet.next();
+    return resultSet.getInt("row_count");
+  }
+
   @Nullable
   private TVDBEpisode findTVDBEpisodeWithTVDBID(Integer tvdbId) throws SQLException {
     ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
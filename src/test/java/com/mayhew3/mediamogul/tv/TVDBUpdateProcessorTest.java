@@ -0,0 +1,244 @@
+package com.mayhew3.mediamogul.tv;
+
+import com.mayhew3.mediamogul.DatabaseTest;
+import com.mayhew3.mediamogul.db.DatabaseEnvironments;
+import com.mayhew3.mediamogul.db.JdbcConnections;
+import com.mayhew3.mediamogul.model.tv.Series;
+import com.mayhew3.mediamogul.model.tv.TVDBSeries;
+import com.mayhew3.mediamogul.model.tv.TVDBWorkItem;
+import com.mayhew3.mediamogul.socket.SocketWrapper;
+import com.mayhew3.mediamogul.tv.provider.TVDBJWTProvider;
+import com.mayhew3.mediamogul.xml.JSONReader;
+import com.mayhew3.postgresobject.db.PostgresConnectionFactory;
+import com.mayhew3.postgresobject.db.SQLConnection;
+import com.mayhew3.postgresobject.exception.MissingEnvException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+@SuppressWarnings("OptionalGetWithoutIsPresent")
+public class TVDBUpdateProcessorTest extends DatabaseTest {
+
+  private SQLConnection otherConnection;
+  private TVDBUpdateProcessor worker;
+  private TVDBUpdateProcessor otherWorker;
+
+  @Override
+  public void setUp() throws URISyntaxException, SQLException, MissingEnvException {
+    super.setUp();
+    otherConnection = PostgresConnectionFactory.createConnection(DatabaseEnvironments.environments.get("test"));
+    // a claim that waits on a row lock fails the test instead of hanging it.
+    otherConnection.prepareAndExecuteStatementUpdate("SET statement_timeout = 5000");
+
+    worker = createWorker(connection);
+    otherWorker = createWorker(otherConnection);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    otherConnection.closeConnection();
+  }
+
+  @Test
+  public void testTwoWorkersClaimEachSeriesOnce() throws Exception {
+    List<Integer> seriesIds = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      seriesIds.add(createSeriesWithWorkItems("Series " + i, 1000 + i, 2));
+    }
+
+    ExecutorService workerThreads = Executors.newFixedThreadPool(2);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      Future<List<Integer>> claimedByWorker = workerThreads.submit(() -> drain(worker, connection, start));
+      Future<List<Integer>> claimedByOtherWorker = workerThreads.submit(() -> drain(otherWorker, otherConnection, start));
+      start.countDown();
+
+      List<Integer> claimed = new ArrayList<>(claimedByWorker.get(30, TimeUnit.SECONDS));
+      claimed.addAll(claimedByOtherWorker.get(30, TimeUnit.SECONDS));
+
+      assertThat(claimed).hasSize(seriesIds.size());
+      assertThat(new HashSet<>(claimed)).isEqualTo(new HashSet<>(seriesIds));
+    } finally {
+      workerThreads.shutdownNow();
+    }
+
+    assertThat(countUnprocessedWorkItems()).isEqualTo(0);
+  }
+
+  @Test
+  public void testLeasedSeriesIsNotClaimedAgain() throws SQLException {
+    Integer firstSeriesId = createSeriesWithWorkItems("First", 1001, 2);
+    Integer secondSeriesId = createSeriesWithWorkItems("Second", 1002, 1);
+
+    TVDBUpdateProcessor.WorkItemGroup firstClaim = worker.claimNextGroup(connection).get();
+    TVDBUpdateProcessor.WorkItemGroup secondClaim = otherWorker.claimNextGroup(otherConnection).get();
+
+    assertThat(firstClaim.getSeriesId()).isEqualTo(firstSeriesId);
+    assertThat(secondClaim.getSeriesId()).isEqualTo(secondSeriesId);
+    assertThat(otherWorker.claimNextGroup(otherConnection).isPresent()).isFalse();
+    assertThat(otherWorker.hasClaimableSeries(otherConnection)).isFalse();
+  }
+
+  @Test
+  public void testClaimSkipsSeriesLockedByAnotherTransaction() throws SQLException {
+    Integer lockedSeriesId = createSeriesWithWorkItems("Locked", 1001, 1);
+    Integer freeSeriesId = createSeriesWithWorkItems("Free", 1002, 1);
+
+    Connection jdbcConnection = JdbcConnections.get(connection);
+    jdbcConnection.setAutoCommit(false);
+    try {
+      connection.prepareAndExecuteStatementFetch("SELECT id FROM series WHERE id = ? FOR UPDATE", lockedSeriesId);
+
+      TVDBUpdateProcessor.WorkItemGroup claim = otherWorker.claimNextGroup(otherConnection).get();
+
+      assertThat(claim.getSeriesId()).isEqualTo(freeSeriesId);
+      assertThat(otherWorker.hasClaimableSeries(otherConnection)).isFalse();
+    } finally {
+      jdbcConnection.rollback();
+      jdbcConnection.setAutoCommit(true);
+    }
+
+    assertThat(otherWorker.claimNextGroup(otherConnection).get().getSeriesId()).isEqualTo(lockedSeriesId);
+  }
+
+  @Test
+  public void testFailedSeriesBacksOffBeforeRetry() throws SQLException {
+    Integer seriesId = createSeriesWithWorkItems("Flaky", 1001, 1);
+
+    worker.releaseForRetry(worker.claimNextGroup(connection).get(), connection);
+
+    assertThat(otherWorker.claimNextGroup(otherConnection).isPresent()).isFalse();
+    assertThat(secondsUntilNextAttempt(seriesId)).isGreaterThan(50.0).isLessThanOrEqualTo(60.0);
+
+    makeDueNow(seriesId);
+    TVDBUpdateProcessor.WorkItemGroup retry = otherWorker.claimNextGroup(otherConnection).get();
+    assertThat(retry.getSeriesId()).isEqualTo(seriesId);
+    assertThat(attempts(seriesId)).isEqualTo(2);
+
+    // the second failure waits twice as long.
+    otherWorker.releaseForRetry(retry, otherConnection);
+    assertThat(secondsUntilNextAttempt(seriesId)).isGreaterThan(110.0).isLessThanOrEqualTo(120.0);
+
+    makeDueNow(seriesId);
+    worker.completeWorkItems(worker.claimNextGroup(connection).get(), connection);
+    assertThat(countUnprocessedWorkItems()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRenewalExtendsLeaseUntilTakenOver() throws SQLException {
+    Integer seriesId = createSeriesWithWorkItems("Slow", 1001, 2);
+
+    TVDBUpdateProcessor.WorkItemGroup claim = worker.claimNextGroup(connection).get();
+    connection.prepareAndExecuteStatementUpdate(
+        "UPDATE tvdb_work_item SET lease_expires = now() + interval '1 minute' WHERE series_id = ?", seriesId);
+
+    // renewed on a different connection, the way the renewal thread does while the worker's is busy.
+    assertThat(worker.renewLease(claim, otherConnection)).isTrue();
+    assertThat(secondsUntilLeaseExpires(seriesId)).isGreaterThan(590.0).isLessThanOrEqualTo(600.0);
+    assertThat(otherWorker.claimNextGroup(otherConnection).isPresent()).isFalse();
+
+    // a worker that stops renewing loses the series once the lease runs out, and can't get it back.
+    connection.prepareAndExecuteStatementUpdate(
+        "UPDATE tvdb_work_item SET lease_expires = now() - interval '1 second' WHERE series_id = ?", seriesId);
+    TVDBUpdateProcessor.WorkItemGroup takeover = otherWorker.claimNextGroup(otherConnection).get();
+
+    assertThat(takeover.getLeaseToken()).isNotEqualTo(claim.getLeaseToken());
+    assertThat(worker.renewLease(claim, connection)).isFalse();
+  }
+
+
+  // private methods
+
+  private TVDBUpdateProcessor createWorker(SQLConnection workerConnection) {
+    return new TVDBUpdateProcessor(workerConnection, mock(TVDBJWTProvider.class), mock(JSONReader.class), mock(SocketWrapper.class));
+  }
+
+  // the same loop as TVDBUpdateProcessor.drainQueue, with every series succeeding.
+  private List<Integer> drain(TVDBUpdateProcessor processor, SQLConnection workerConnection, CountDownLatch start) throws Exception {
+    start.await();
+    List<Integer> claimed = new ArrayList<>();
+    while (true) {
+      Optional<TVDBUpdateProcessor.WorkItemGroup> workItemGroup = processor.claimNextGroup(workerConnection);
+      if (workItemGroup.isPresent()) {
+        claimed.add(workItemGroup.get().getSeriesId());
+        processor.completeWorkItems(workItemGroup.get(), workerConnection);
+      } else if (!processor.hasClaimableSeries(workerConnection)) {
+        return claimed;
+      }
+    }
+  }
+
+  private Integer createSeriesWithWorkItems(String seriesName, Integer tvdbId, int workItemCount) throws SQLException {
+    TVDBSeries tvdbSeries = new TVDBSeries();
+    tvdbSeries.initializeForInsert();
+    tvdbSeries.tvdbSeriesExtId.changeValue(tvdbId);
+    tvdbSeries.name.changeValue(seriesName);
+    tvdbSeries.commit(connection);
+
+    Series series = new Series();
+    series.initializeForInsert();
+    series.seriesTitle.changeValue(seriesName);
+    series.tvdbSeriesExtId.changeValue(tvdbId);
+    series.tvdbSeriesId.changeValue(tvdbSeries.id.getValue());
+    series.matchedWrong.changeValue(false);
+    series.needsTVDBRedo.changeValue(false);
+    series.commit(connection);
+
+    for (int i = 0; i < workItemCount; i++) {
+      TVDBWorkItem workItem = new TVDBWorkItem();
+      workItem.initializeForInsert();
+      workItem.tvdbSeriesExtId.changeValue(tvdbId);
+      workItem.seriesId.changeValue(series.id.getValue());
+      workItem.foundTime.changeValue(new Date());
+      workItem.lastUpdated.changeValue(new Date());
+      workItem.commit(connection);
+    }
+
+    return series.id.getValue();
+  }
+
+  private void makeDueNow(Integer seriesId) throws SQLException {
+    connection.prepareAndExecuteStatementUpdate(
+        "UPDATE tvdb_work_item SET next_attempt_time = now() - interval '1 second' WHERE series_id = ?", seriesId);
+  }
+
+  private int countUnprocessedWorkItems() throws SQLException {
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+        "SELECT COUNT(1) AS unprocessed FROM tvdb_work_item WHERE processed_time IS NULL");
+    resultSet.next();
+    return resultSet.getInt("unprocessed");
+  }
+
+  private int attempts(Integer seriesId) throws SQLException {
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+        "SELECT MAX(attempts) AS attempts FROM tvdb_work_item WHERE series_id = ?", seriesId);
+    resultSet.next();
+    return resultSet.getInt("attempts");
+  }
+
+  private double secondsUntilNextAttempt(Integer seriesId) throws SQLException {
+    return secondsUntil("next_attempt_time", seriesId);
+  }
+
+  private double secondsUntilLeaseExpires(Integer seriesId) throws SQLException {
+    return secondsUntil("lease_expires", seriesId);
+  }
+
+  private double secondsUntil(String columnName, Integer seriesId) throws SQLException {
+    ResultSet resultSet = connection.prepareAndExecuteStatementFetch(
+        "SELECT EXTRACT(EPOCH FROM (MIN(" + columnName + ") - now())) AS seconds " +
+            "FROM tvdb_work_item " +
+            "WHERE series_id = ?", seriesId);
+    resultSet.next();
+    return resultSet.getDouble("seconds");
+  }
+}
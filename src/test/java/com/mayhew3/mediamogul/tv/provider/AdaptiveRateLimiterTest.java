@@ -0,0 +1,131 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.mayhew3.mediamogul.tv.provider.AdaptiveRateLimiter.Outcome;
+import com.mayhew3.mediamogul.tv.provider.AdaptiveRateLimiter.Permit;
+import com.mayhew3.mediamogul.tv.provider.AdaptiveRateLimiter.Priority;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class AdaptiveRateLimiterTest {
+
+  private long now;
+  private AdaptiveRateLimiter rateLimiter;
+
+  @Before
+  public void setUp() {
+    now = 0;
+    rateLimiter = new AdaptiveRateLimiter("test", 10, () -> now);
+  }
+
+  @Test
+  public void testThrottledResponseHalvesRateAndConcurrency() {
+    double rate = rateLimiter.getRate();
+    double concurrency = rateLimiter.getConcurrencyLimit();
+
+    rateLimiter.release(acquireNow(Priority.BACKGROUND), Outcome.THROTTLED);
+
+    assertThat(rateLimiter.getRate()).isEqualTo(rate / 2);
+    assertThat(rateLimiter.getConcurrencyLimit()).isEqualTo(concurrency / 2);
+  }
+
+  @Test
+  public void testBurstOfErrorsOnlyBacksOffOnce() {
+    Permit first = acquireNow(Priority.BACKGROUND);
+    advanceMillis(200);
+    Permit second = acquireNow(Priority.BACKGROUND);
+    double rate = rateLimiter.getRate();
+
+    rateLimiter.release(first, Outcome.SERVER_ERROR);
+    rateLimiter.release(second, Outcome.SERVER_ERROR);
+
+    assertThat(rateLimiter.getRate()).isEqualTo(rate / 2);
+  }
+
+  @Test
+  public void testFastSuccessesRaiseRateAndSlowOnesLowerIt() {
+    double rate = rateLimiter.getRate();
+    for (int i = 0; i < 5; i++) {
+      advanceMillis(1000);
+      rateLimiter.release(acquireNow(Priority.BACKGROUND), Outcome.SUCCESS);
+    }
+    double raisedRate = rateLimiter.getRate();
+    assertThat(raisedRate).isGreaterThan(rate);
+
+    advanceMillis(1000);
+    Permit slow = acquireNow(Priority.BACKGROUND);
+    advanceMillis(5000);
+    rateLimiter.release(slow, Outcome.SUCCESS);
+
+    assertThat(rateLimiter.getRate()).isLessThan(raisedRate);
+  }
+
+  @Test
+  public void testLastSlotIsKeptForInteractiveWork() {
+    // one throttle takes the limit from four in flight to two.
+    rateLimiter.release(acquireNow(Priority.BACKGROUND), Outcome.THROTTLED);
+    advanceMillis(1000);
+
+    acquireNow(Priority.BACKGROUND);
+    assertThat(rateLimiter.tryAcquire(Priority.BACKGROUND)).isNull();
+    assertThat(rateLimiter.tryAcquire(Priority.INTERACTIVE)).isNotNull();
+  }
+
+  @Test
+  public void testSingleSlotGoesToWaitingInteractiveWork() throws Exception {
+    rateLimiter = new AdaptiveRateLimiter("test", 1, () -> now);
+
+    // with nothing interactive waiting, background work may use the only slot.
+    Permit background = acquireNow(Priority.BACKGROUND);
+    advanceMillis(1000);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Permit> interactive = executor.submit(() -> rateLimiter.acquire(Priority.INTERACTIVE));
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+      while (rateLimiter.getWaiting(Priority.INTERACTIVE) == 0 && !interactive.isDone()) {
+        assertThat(System.currentTimeMillis()).isLessThan(deadline);
+        Thread.sleep(10);
+      }
+
+      rateLimiter.release(background, Outcome.SUCCESS);
+      assertThat(rateLimiter.tryAcquire(Priority.BACKGROUND)).isNull();
+
+      Permit interactivePermit = interactive.get(10, TimeUnit.SECONDS);
+      assertThat(rateLimiter.tryAcquire(Priority.BACKGROUND)).isNull();
+
+      rateLimiter.release(interactivePermit, Outcome.SUCCESS);
+      advanceMillis(1000);
+      assertThat(rateLimiter.tryAcquire(Priority.BACKGROUND)).isNotNull();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testRetryAfterPausesEveryone() {
+    rateLimiter.release(acquireNow(Priority.INTERACTIVE), Outcome.THROTTLED, TimeUnit.SECONDS.toMillis(30));
+
+    advanceMillis(29000);
+    assertThat(rateLimiter.tryAcquire(Priority.INTERACTIVE)).isNull();
+
+    advanceMillis(1000);
+    assertThat(rateLimiter.tryAcquire(Priority.INTERACTIVE)).isNotNull();
+  }
+
+  private Permit acquireNow(Priority priority) {
+    Permit permit = rateLimiter.tryAcquire(priority);
+    assertThat(permit).isNotNull();
+    return permit;
+  }
+
+  private void advanceMillis(long millis) {
+    now += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
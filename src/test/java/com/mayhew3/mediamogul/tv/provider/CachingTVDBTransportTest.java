@@ -0,0 +1,181 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class CachingTVDBTransportTest {
+
+  private static final String SERIES_URL = "https://api.thetvdb.com/series/265374";
+  private static final String EPISODES_URL = "https://api.thetvdb.com/series/265374/episodes";
+  private static final String EPISODE_URL = "https://api.thetvdb.com/episodes/5578415";
+  private static final String OTHER_SERIES_URL = "https://api.thetvdb.com/series/81189";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path cacheDirectory;
+  private CountingTransport delegate;
+  private MutableClock clock;
+  private CachingTVDBTransport transport;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDirectory = temporaryFolder.getRoot().toPath();
+    delegate = new CountingTransport();
+    clock = new MutableClock(Instant.parse("2020-01-01T00:00:00Z"));
+    transport = new CachingTVDBTransport(delegate, cacheDirectory, 1024 * 1024, clock);
+  }
+
+  @Test
+  public void testFreshEntryIsServedFromCache() throws IOException {
+    String first = transport.get(SERIES_URL, Collections.emptyMap(), "token").getBody();
+    String second = transport.get(SERIES_URL, Collections.emptyMap(), "token").getBody();
+
+    assertThat(second).isEqualTo(first);
+    assertThat(delegate.requestCount(SERIES_URL)).isEqualTo(1);
+  }
+
+  @Test
+  public void testExpiredEntryIsRevalidated() throws IOException {
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+
+    clock.advance(Duration.ofHours(13));
+    TVDBResponse response = transport.get(SERIES_URL, Collections.emptyMap(), "token");
+
+    assertThat(delegate.requestCount(SERIES_URL)).isEqualTo(2);
+    assertThat(delegate.lastHeaders.get("If-None-Match")).isEqualTo(CountingTransport.ETAG);
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getBody()).isEqualTo(CountingTransport.bodyFor(SERIES_URL));
+
+    // the 304 restarts the TTL.
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+    assertThat(delegate.requestCount(SERIES_URL)).isEqualTo(2);
+  }
+
+  @Test
+  public void testInvalidateSeriesDropsSeriesAndEpisodeEntries() throws IOException {
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+    transport.get(EPISODES_URL, Collections.singletonMap("page", 1), "token");
+    transport.get(EPISODE_URL, Collections.emptyMap(), "token");
+    transport.get(OTHER_SERIES_URL, Collections.emptyMap(), "token");
+
+    transport.invalidateSeries(265374);
+
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+    transport.get(EPISODES_URL, Collections.singletonMap("page", 1), "token");
+    transport.get(EPISODE_URL, Collections.emptyMap(), "token");
+    transport.get(OTHER_SERIES_URL, Collections.emptyMap(), "token");
+
+    assertThat(delegate.requestCount(SERIES_URL)).isEqualTo(2);
+    assertThat(delegate.requestCount(EPISODES_URL)).isEqualTo(2);
+    assertThat(delegate.requestCount(EPISODE_URL)).isEqualTo(2);
+    assertThat(delegate.requestCount(OTHER_SERIES_URL)).isEqualTo(1);
+  }
+
+  @Test
+  public void testEpisodeEntriesStayLinkedToSeriesAfterRestart() throws IOException {
+    transport.get(EPISODE_URL, Collections.emptyMap(), "token");
+
+    CachingTVDBTransport restarted = new CachingTVDBTransport(delegate, cacheDirectory, 1024 * 1024, clock);
+    restarted.invalidateSeries(265374);
+    restarted.get(EPISODE_URL, Collections.emptyMap(), "token");
+
+    assertThat(delegate.requestCount(EPISODE_URL)).isEqualTo(2);
+  }
+
+  @Test
+  public void testLeftoverTempFilesAreDeleted() throws IOException {
+    Path leftover = Files.write(cacheDirectory.resolve("series-265374.abc.json12345.tmp"), new byte[]{'{'});
+
+    new CachingTVDBTransport(delegate, cacheDirectory, 1024 * 1024, clock);
+
+    assertThat(Files.exists(leftover)).isFalse();
+  }
+
+  private static class CountingTransport implements TVDBTransport {
+    private static final String ETAG = "\"v1\"";
+
+    private final Map<String, Integer> requestCounts = new HashMap<>();
+    private Map<String, String> lastHeaders = Collections.emptyMap();
+
+    private static String bodyFor(String url) {
+      JSONObject data = new JSONObject().put("url", url);
+      if (url.equals(EPISODE_URL)) {
+        data.put("seriesId", 265374);
+      }
+      return new JSONObject().put("data", data).toString();
+    }
+
+    private int requestCount(String url) {
+      return requestCounts.getOrDefault(url, 0);
+    }
+
+    @Override
+    public TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+      requestCounts.merge(url, 1, Integer::sum);
+      lastHeaders = headers;
+      if (ETAG.equals(headers.get("If-None-Match"))) {
+        return new TVDBResponse(304, "Not Modified", "");
+      }
+      return new TVDBResponse(200, "OK", bodyFor(url), Collections.singletonMap("ETag", ETAG));
+    }
+
+    @Override
+    public CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+      return CompletableFuture.completedFuture(get(url, queryParams, token, headers));
+    }
+
+    @Override
+    public TVDBResponse post(String url, JSONObject body) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static class MutableClock extends Clock {
+    private Instant now;
+
+    private MutableClock(Instant now) {
+      this.now = now;
+    }
+
+    private void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import com.mayhew3.mediamogul.replay.ReplayCorpus;
+import com.mayhew3.mediamogul.replay.ReplaySimulator;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class RecordingTVDBTransportTest {
+
+  private static final String SERIES_URL = "https://api.thetvdb.com/series/265374";
+  private static final String EPISODES_URL = "https://api.thetvdb.com/series/265374/episodes";
+  private static final String ETAG = "\"v1\"";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path corpusDirectory;
+  private ReplayCorpus corpus;
+  private FixtureTransport delegate;
+  private RecordingTVDBTransport transport;
+
+  @Before
+  public void setUp() throws IOException {
+    corpusDirectory = temporaryFolder.newFolder("corpus").toPath();
+    corpus = new ReplayCorpus(corpusDirectory);
+    delegate = new FixtureTransport();
+    transport = new RecordingTVDBTransport(delegate, corpus);
+  }
+
+  @Test
+  public void testRecordedResponsesReplay() throws Exception {
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+    transport.getAsync(EPISODES_URL, Collections.singletonMap("page", 1), "token").get();
+
+    assertThat(Files.exists(corpusDirectory.resolve("265374_summary.json"))).isTrue();
+    assertThat(Files.exists(corpusDirectory.resolve("265374_episodes.json"))).isTrue();
+
+    List<ReplayCorpus.RecordedCall> calls = corpus.readCalls();
+    assertThat(calls).hasSize(2);
+    assertThat(calls.get(0).getEndpoint()).isEqualTo("series");
+    assertThat(calls.get(0).isSucceeded()).isTrue();
+    assertThat(calls.get(1).getEndpoint()).isEqualTo("episodes");
+
+    ReplaySimulator simulator = new ReplaySimulator(calls, 0.0, null, null, 17L);
+    TVDBJWTProvider replayer = new ReplayTVDBProvider(corpus, simulator);
+    TVDBJWTProvider fixtures = new TVDBLocalJSONProvider("src/test/resources/TVDBTest/");
+
+    assertThat(replayer.getSeriesRecord(265374).getSeriesName()).isEqualTo(fixtures.getSeriesRecord(265374).getSeriesName());
+    assertThat(replayer.getEpisodePageAsync(265374, 1).get().getEpisodes()).hasSize(fixtures.getEpisodePage(265374, 1).getEpisodes().size());
+  }
+
+  @Test
+  public void testNotModifiedKeepsRecordedBody() throws IOException {
+    transport.get(SERIES_URL, Collections.emptyMap(), "token");
+    transport.get(SERIES_URL, Collections.emptyMap(), "token", Collections.singletonMap("If-None-Match", ETAG));
+
+    assertThat(delegate.lastHeaders.get("If-None-Match")).isEqualTo(ETAG);
+    assertThat(Files.readAllBytes(corpusDirectory.resolve("265374_summary.json")))
+        .isEqualTo(delegate.bodyFor(SERIES_URL).getBytes(StandardCharsets.UTF_8));
+
+    List<ReplayCorpus.RecordedCall> calls = corpus.readCalls();
+    assertThat(calls).hasSize(2);
+    assertThat(calls.get(1).isSucceeded()).isTrue();
+  }
+
+  @Test
+  public void testValidatorsDroppedUntilBodyIsRecorded() throws IOException {
+    TVDBResponse response = transport.get(SERIES_URL, Collections.emptyMap(), "token", Collections.singletonMap("If-None-Match", ETAG));
+
+    assertThat(delegate.lastHeaders.containsKey("If-None-Match")).isFalse();
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(Files.exists(corpusDirectory.resolve("265374_summary.json"))).isTrue();
+  }
+
+  @Test
+  public void testFailedCallIsRecorded() throws IOException {
+    transport.get("https://api.thetvdb.com/series/1", Collections.emptyMap(), "token");
+
+    List<ReplayCorpus.RecordedCall> calls = corpus.readCalls();
+    assertThat(calls).hasSize(1);
+    assertThat(calls.get(0).isSucceeded()).isFalse();
+    assertThat(Files.exists(corpusDirectory.resolve("1_summary.json"))).isFalse();
+  }
+
+  @Test
+  public void testUnreplayedEndpointsAreNotRecorded() throws IOException {
+    transport.get(EPISODES_URL + "/query", Collections.singletonMap("airedSeason", 1), "token");
+
+    assertThat(corpus.readCalls()).isEmpty();
+  }
+
+  private static class FixtureTransport implements TVDBTransport {
+    private Map<String, String> lastHeaders = Collections.emptyMap();
+
+    private String bodyFor(String url) throws IOException {
+      String path = url.endsWith("/episodes") ? "265374_episodes.json" : "265374_summary.json";
+      return new String(Files.readAllBytes(Paths.get("src/test/resources/TVDBTest/", path)), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public TVDBResponse get(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) throws IOException {
+      lastHeaders = headers;
+      if (url.equals("https://api.thetvdb.com/series/1")) {
+        return new TVDBResponse(404, "Not Found", "{\"Error\": \"ID: 1 not found\"}");
+      }
+      if (ETAG.equals(headers.get("If-None-Match"))) {
+        return new TVDBResponse(304, "Not Modified", "");
+      }
+      return new TVDBResponse(200, "OK", bodyFor(url), Collections.singletonMap("ETag", ETAG));
+    }
+
+    @Override
+    public CompletableFuture<TVDBResponse> getAsync(String url, Map<String, Object> queryParams, @Nullable String token, Map<String, String> headers) {
+      try {
+        return CompletableFuture.completedFuture(get(url, queryParams, token, headers));
+      } catch (IOException e) {
+        CompletableFuture<TVDBResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+    }
+
+    @Override
+    public TVDBResponse post(String url, JSONObject body) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.mayhew3.mediamogul.tv.provider;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class TVDBJsonDecoderTest {
+
+  private static final String RESOURCE_PATH = "src/test/resources/TVDBTest/";
+
+  @Test
+  public void testDecodeEpisodePage() throws IOException {
+    TVDBEpisodePage page;
+    try (Reader reader = Files.newBufferedReader(Paths.get(RESOURCE_PATH + "265374_episodes.json"), StandardCharsets.UTF_8)) {
+      page = TVDBJsonDecoder.decodeEpisodePage(reader);
+    }
+
+    assertThat(page.getLastPage()).isEqualTo(1);
+    assertThat(page.getEpisodes()).hasSize(3);
+
+    TVDBEpisodeRecord episode = page.getEpisodes().get(0);
+    assertThat(episode.getId()).isEqualTo(5578415);
+    assertThat(episode.getAiredSeason()).isEqualTo(4);
+    assertThat(episode.getAiredEpisodeNumber()).isEqualTo(1);
+    assertThat(episode.getAiredSeasonID()).isEqualTo(660327);
+    assertThat(episode.getEpisodeName()).isEqualTo("The World's Most Interesting Woman in the World");
+    assertThat(episode.getAbsoluteNumber()).isEqualTo(31);
+    assertThat(episode.getSiteRating()).isEqualTo(4.0);
+    assertThat(episode.getThumbWidth()).isEqualTo("400");
+    assertThat(episode.getAirsAfterSeason()).isNull();
+  }
+
+  @Test
+  public void testDecodeSeries() throws IOException {
+    TVDBSeriesRecord series;
+    try (Reader reader = Files.newBufferedReader(Paths.get(RESOURCE_PATH + "265374_summary.json"), StandardCharsets.UTF_8)) {
+      series = TVDBJsonDecoder.decodeSeries(reader);
+    }
+
+    assertThat(series.getId()).isEqualTo(265374);
+    assertThat(series.getSeriesName()).isEqualTo("Inside Amy Schumer");
+    assertThat(series.getSiteRating()).isEqualTo(7.5);
+    assertThat(series.getLastUpdated()).isEqualTo(1470989260);
+    assertThat(series.getRuntime()).isEqualTo("25");
+    assertThat(series.getGenres()).containsExactly("Comedy");
+  }
+
+  @Test
+  public void testBlankStringsAndNumericStrings() throws IOException {
+    TVDBEpisodeRecord episode = TVDBJsonDecoder.decodeEpisode(new StringReader(
+        "{\"id\": \"5578415\", \"productionCode\": \"\", \"siteRating\": \"8.5\", \"airedSeason\": 3.0, \"director\": null}"));
+
+    assertThat(episode.getId()).isEqualTo(5578415);
+    assertThat(episode.getProductionCode()).isNull();
+    assertThat(episode.getSiteRating()).isEqualTo(8.5);
+    assertThat(episode.getAiredSeason()).isEqualTo(3);
+    assertThat(episode.getDirector()).isNull();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testObjectWhereValueExpectedFails() throws IOException {
+    TVDBJsonDecoder.decodeEpisode(new StringReader("{\"id\": 5578415, \"episodeName\": {\"en\": \"Brave\"}}"));
+  }
+}